@@ -0,0 +1,264 @@
+package com.intershop.filetemplate;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Erzeugt einen synthetischen Baum von Vorlagen und die passende "properties" Datei für Durchsatzmessungen.
+ * Jedes Verzeichnis bis zur Tiefe depth hat fanOut Unterverzeichnisse und filesPerDir Dateien, davon der Anteil templateRatio
+ * *.filetemplate Dateien (Name mit dem Listen-Placeholder Item, d.h. listCardinality Ausgaben pro Vorlage), der Rest wird 1:1 kopiert.
+ * Eine Vorlage ist etwa fileSize Bytes groß, hat im Mittel placeholderDensity Placeholder pro Zeile und in der Mitte sectionDepth
+ * verschachtelte BEGIN/END Sektionen über Bereiche mit rangeCardinality Werten (Section1 außen).
+ *
+ * Aufruf: TemplateTreeGenerator target-dir [--depth N] [--fan-out N] [--files N] [--template-ratio R] [--file-size BYTES]
+ *         [--density D] [--section-depth N] [--list N] [--range N] [--seed N]
+ * Erzeugt target-dir/templates und target-dir/placeholders.properties.
+ */
+public class TemplateTreeGenerator
+{
+    int depth = 3;
+    int fanOut = 4;
+    int filesPerDir = 8;
+    double templateRatio = 0.5;
+    int fileSize = 4096;
+    double placeholderDensity = 1.0;
+    int sectionDepth = 1;
+    int listCardinality = 2;    // like Partner in placeholders-sample.properties
+    int rangeCardinality = 100; // like Channel in placeholders-sample.properties
+    long seed = 42;
+
+    /**
+     * Übernimmt die Optionen (--name value) aus options
+     * @param options der parameter muss angegeben werden
+     */
+    void configure(Map<String /* option */, String /* option value */> options)
+    {
+        depth = Integer.parseInt(options.getOrDefault("--depth", String.valueOf(depth)));
+        fanOut = Integer.parseInt(options.getOrDefault("--fan-out", String.valueOf(fanOut)));
+        filesPerDir = Integer.parseInt(options.getOrDefault("--files", String.valueOf(filesPerDir)));
+        templateRatio = Double.parseDouble(options.getOrDefault("--template-ratio", String.valueOf(templateRatio)));
+        fileSize = Integer.parseInt(options.getOrDefault("--file-size", String.valueOf(fileSize)));
+        placeholderDensity = Double.parseDouble(options.getOrDefault("--density", String.valueOf(placeholderDensity)));
+        sectionDepth = Integer.parseInt(options.getOrDefault("--section-depth", String.valueOf(sectionDepth)));
+        listCardinality = Integer.parseInt(options.getOrDefault("--list", String.valueOf(listCardinality)));
+        rangeCardinality = Integer.parseInt(options.getOrDefault("--range", String.valueOf(rangeCardinality)));
+        seed = Long.parseLong(options.getOrDefault("--seed", String.valueOf(seed)));
+    }
+
+    /**
+     * @return Anzahl der Verzeichnisse des Baums (ohne das Wurzelverzeichnis)
+     */
+    long getDirectoryCount()
+    {
+        long directories = 0;
+        long levelDirectories = 1;
+        for (int level = 0; level < depth; level++)
+        {
+            levelDirectories *= fanOut;
+            directories += levelDirectories;
+        }
+        return directories;
+    }
+
+    /**
+     * @return Anzahl der Vorlagen im Baum
+     */
+    long getTemplateCount()
+    {
+        return (getDirectoryCount() + 1) * getTemplatesPerDir();
+    }
+
+    /**
+     * @return Anzahl der Dateien, die REPLACE mit --out erzeugt: Ausgaben der Vorlagen und Kopien aller übrigen Dateien
+     */
+    long getOutputFileCount()
+    {
+        return getTemplateCount() * listCardinality + (getDirectoryCount() + 1) * (filesPerDir - getTemplatesPerDir());
+    }
+
+    private int getTemplatesPerDir()
+    {
+        return (int) Math.round(filesPerDir * templateRatio);
+    }
+
+    /**
+     * Erzeugt den Baum und die "properties" Datei
+     * @param targetDir der parameter muss angegeben werden, darf noch nicht existieren
+     * @throws IOException der werfer muss angegeben werden
+     */
+    void generate(File targetDir) throws IOException
+    {
+        if (targetDir.exists())
+        {
+            throw new IOException("\"" + targetDir.getAbsolutePath() + "\" already exists");
+        }
+
+        File templatesDir = new File(targetDir, "templates");
+        if (!templatesDir.mkdirs())
+        {
+            throw new IOException("unable to create \"" + templatesDir.getAbsolutePath() + "\"");
+        }
+
+        try (Writer writer = new BufferedWriter(new FileWriter(new File(targetDir, "placeholders.properties"))))
+        {
+            writer.write("Placeholder1 = Organization\n");
+            writer.write("Placeholder1Value = PrimeTech\n");
+            writer.write("Placeholder2 = Item\n");
+            writer.write("Placeholder2Value = [");
+            for (int i = 0; i < listCardinality; i++)
+            {
+                writer.write((i == 0 ? "" : ", ") + "item" + i);
+            }
+            writer.write("]\n");
+            for (int section = 1; section <= sectionDepth; section++)
+            {
+                writer.write("Placeholder" + (section + 2) + " = Section" + section + "\n");
+                writer.write("Placeholder" + (section + 2) + "Value = [" + PlaceholderDefinition.padWithZeros(1, 4) + " - " + PlaceholderDefinition.padWithZeros(rangeCardinality, 4) + "]\n");
+            }
+        }
+
+        generateDir(templatesDir, 0, new Random(seed));
+    }
+
+    private void generateDir(File dir, int level, Random random) throws IOException
+    {
+        int templates = getTemplatesPerDir();
+        for (int i = 0; i < filesPerDir; i++)
+        {
+            if (i < templates)
+            {
+                writeTemplate(new File(dir, "file" + i + "_{{@Item@}}.txt" + FileTemplate.fileTemplateSuffix), random);
+            }
+            else
+            {
+                writeVerbatim(new File(dir, "verbatim" + i + ".txt"), random);
+            }
+        }
+
+        if (level < depth)
+        {
+            for (int i = 0; i < fanOut; i++)
+            {
+                File subDir = new File(dir, "dir" + i);
+                if (!subDir.mkdir())
+                {
+                    throw new IOException("unable to create \"" + subDir.getAbsolutePath() + "\"");
+                }
+                generateDir(subDir, level + 1, random);
+            }
+        }
+    }
+
+    private void writeTemplate(File file, Random random) throws IOException
+    {
+        // the sections are in the middle third of the file
+        int sectionStart = fileSize / 3;
+        int sectionEnd = 2 * fileSize / 3;
+
+        try (Writer writer = new BufferedWriter(new FileWriter(file)))
+        {
+            int written = 0;
+            int openSections = 0;
+            while (written < fileSize)
+            {
+                if (openSections == 0 && written >= sectionStart && written < sectionEnd)
+                {
+                    for (; openSections < sectionDepth; openSections++)
+                    {
+                        written += writeLine(writer, "{{@Section" + (openSections + 1) + "#BEGIN@}}");
+                    }
+                }
+                else if (openSections > 0 && written >= sectionEnd)
+                {
+                    for (; openSections > 0; openSections--)
+                    {
+                        written += writeLine(writer, "{{@Section" + openSections + "#END@}}");
+                    }
+                }
+
+                written += writeLine(writer, getContentLine(random, openSections));
+            }
+            for (; openSections > 0; openSections--)
+            {
+                writeLine(writer, "{{@Section" + openSections + "#END@}}");
+            }
+        }
+    }
+
+    private String getContentLine(Random random, int openSections)
+    {
+        StringBuilder line = new StringBuilder(96);
+        line.append("  <entry key=\"").append(Long.toHexString(random.nextLong())).append("\">");
+
+        // placeholderDensity placeholders per line on average
+        int placeholders = (int) placeholderDensity;
+        if (random.nextDouble() < placeholderDensity - placeholders)
+        {
+            placeholders++;
+        }
+        for (int i = 0; i < placeholders; i++)
+        {
+            switch (random.nextInt(openSections > 0 ? 4 : 3))
+            {
+                case 0:
+                    line.append("{{@Organization@}}");
+                    break;
+                case 1:
+                    line.append("{{@Item@}}");
+                    break;
+                case 2:
+                    line.append("{{@Item#base 001@}}");
+                    break;
+                default:
+                    line.append("{{@Section").append(1 + random.nextInt(openSections)).append("@}}");
+                    break;
+            }
+            line.append(' ');
+        }
+
+        line.append("lorem ipsum dolor sit amet</entry>");
+        return line.toString();
+    }
+
+    private void writeVerbatim(File file, Random random) throws IOException
+    {
+        try (Writer writer = new BufferedWriter(new FileWriter(file)))
+        {
+            for (int written = 0; written < fileSize; )
+            {
+                written += writeLine(writer, "  <entry key=\"" + Long.toHexString(random.nextLong()) + "\">lorem ipsum dolor sit amet</entry>");
+            }
+        }
+    }
+
+    private static int writeLine(Writer writer, String line) throws IOException
+    {
+        writer.write(line);
+        writer.write('\n');
+        return line.length() + 1;
+    }
+
+    /**
+     * @param args der parameter muss angegeben werden
+     * @throws IOException der werfer muss angegeben werden
+     */
+    public static void main(String[] args) throws IOException
+    {
+        Map<String /* option */, String /* option value */> options = ThroughputHarness.parseOptions(args, 1);
+        if (options == null)
+        {
+            System.err.println("usage: TemplateTreeGenerator target-dir [--depth N] [--fan-out N] [--files N] [--template-ratio R] [--file-size BYTES] [--density D] [--section-depth N] [--list N] [--range N] [--seed N]");
+            System.exit(1);
+        }
+
+        TemplateTreeGenerator generator = new TemplateTreeGenerator();
+        generator.configure(options);
+        generator.generate(new File(args[0]));
+        System.out.println(generator.getTemplateCount() + " templates in " + (generator.getDirectoryCount() + 1) + " directories, REPLACE generates " + generator.getOutputFileCount() + " files");
+    }
+}
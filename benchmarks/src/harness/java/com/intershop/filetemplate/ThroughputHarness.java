@@ -0,0 +1,214 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Durchsatzmessung von LIST und REPLACE über einen mit TemplateTreeGenerator erzeugten Baum, im tmpfs und auf der Platte.
+ * Jeder Lauf startet eine eigene JVM (WorkloadRun), damit peak RSS und GC-Zeit nur diesen Lauf enthalten.
+ * REPLACE schreibt mit --out in ein eigenes Verzeichnis, der Baum bleibt für alle Läufe gleich.
+ * Das Ergebnis (files/s, MB/s, peak RSS, GC-Zeit pro Lauf) wird als JSON ausgegeben.
+ *
+ * Aufruf: ThroughputHarness [--locations dir,dir] [--replace-args "args"] [--jvm-args "args"] [--result file]
+ *         [Optionen des TemplateTreeGenerator]
+ * Die Argumente in --replace-args und --jvm-args sind durch Leerzeichen oder Kommas getrennt, z.B. --replace-args --threads,8
+ * Ohne --locations wird in /dev/shm (tmpfs, falls vorhanden) und in java.io.tmpdir gemessen.
+ */
+public class ThroughputHarness
+{
+    static final List<String> OPTIONS = Arrays.asList("--locations", "--replace-args", "--jvm-args", "--result",
+        "--depth", "--fan-out", "--files", "--template-ratio", "--file-size", "--density", "--section-depth", "--list", "--range", "--seed");
+
+    /**
+     * Trennt die Optionen (--name value) von positionalArgs Argumenten am Anfang
+     * @param args der parameter muss angegeben werden
+     * @param positionalArgs Anzahl der Argumente vor den Optionen
+     * @return die Optionen, null bei unbekannten oder unvollständigen Optionen
+     */
+    static Map<String /* option */, String /* option value */> parseOptions(String[] args, int positionalArgs)
+    {
+        if (args.length < positionalArgs)
+        {
+            return null;
+        }
+
+        Map<String /* option */, String /* option value */> options = new HashMap<String /* option */, String /* option value */>();
+        for (int i = positionalArgs; i < args.length; i += 2)
+        {
+            if (!OPTIONS.contains(args[i]) || i + 1 >= args.length)
+            {
+                return null;
+            }
+            options.put(args[i], args[i + 1]);
+        }
+        return options;
+    }
+
+    /**
+     * @param args der parameter muss angegeben werden
+     * @throws Exception der werfer muss angegeben werden
+     */
+    public static void main(String[] args) throws Exception
+    {
+        Map<String /* option */, String /* option value */> options = parseOptions(args, 0);
+        if (options == null)
+        {
+            System.err.println("usage: ThroughputHarness [--locations dir,dir] [--replace-args \"args\"] [--jvm-args \"args\"] [--result file] [--depth N] [--fan-out N] [--files N] [--template-ratio R] [--file-size BYTES] [--density D] [--section-depth N] [--list N] [--range N] [--seed N]");
+            System.exit(1);
+        }
+
+        TemplateTreeGenerator generator = new TemplateTreeGenerator();
+        generator.configure(options);
+
+        List<File> locations = new ArrayList<File>();
+        if (options.containsKey("--locations"))
+        {
+            for (String location : options.get("--locations").split(","))
+            {
+                locations.add(new File(location.trim()));
+            }
+        }
+        else
+        {
+            if (new File("/dev/shm").isDirectory())
+            {
+                locations.add(new File("/dev/shm"));
+            }
+            locations.add(new File(System.getProperty("java.io.tmpdir")));
+        }
+
+        List<String> replaceArgs = split(options.get("--replace-args"));
+        List<String> jvmArgs = split(options.get("--jvm-args"));
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"tree\": {\"depth\": ").append(generator.depth).append(", \"fanOut\": ").append(generator.fanOut)
+            .append(", \"filesPerDir\": ").append(generator.filesPerDir).append(", \"templateRatio\": ").append(generator.templateRatio)
+            .append(", \"fileSize\": ").append(generator.fileSize).append(", \"placeholderDensity\": ").append(generator.placeholderDensity)
+            .append(", \"sectionDepth\": ").append(generator.sectionDepth).append(", \"listCardinality\": ").append(generator.listCardinality)
+            .append(", \"rangeCardinality\": ").append(generator.rangeCardinality).append(", \"seed\": ").append(generator.seed)
+            .append(", \"templates\": ").append(generator.getTemplateCount()).append(", \"expectedOutputFiles\": ").append(generator.getOutputFileCount()).append("},\n");
+        json.append("  \"replaceArgs\": \"").append(escape(String.join(" ", replaceArgs))).append("\",\n");
+        json.append("  \"jvmArgs\": \"").append(escape(String.join(" ", jvmArgs))).append("\",\n");
+        json.append("  \"runs\": [\n");
+
+        String separator = "";
+        for (File location : locations)
+        {
+            File workDir = new File(location, "filetemplate-throughput-" + ProcessHandle.current().pid());
+            String fileStoreType = Files.getFileStore(location.toPath()).type();
+            try
+            {
+                System.err.println("generating " + generator.getTemplateCount() + " templates in \"" + workDir + "\" (" + fileStoreType + ")");
+                generator.generate(workDir);
+                File templatesDir = new File(workDir, "templates");
+                File outputDir = new File(workDir, "out");
+                long[] templateTree = measureTree(templatesDir.toPath());
+
+                List<String> listArgs = Arrays.asList("LIST", templatesDir.getPath(), "--quiet");
+                json.append(separator).append(run("LIST", location, fileStoreType, jvmArgs, listArgs, templateTree[0], templateTree[1], workDir));
+                separator = ",\n";
+
+                List<String> fileTemplateArgs = new ArrayList<String>(Arrays.asList("REPLACE", templatesDir.getPath(), new File(workDir, "placeholders.properties").getPath(), "--out", outputDir.getPath(), "--quiet"));
+                fileTemplateArgs.addAll(replaceArgs);
+                json.append(separator).append(run("REPLACE", location, fileStoreType, jvmArgs, fileTemplateArgs, -1, -1, workDir));
+            }
+            finally
+            {
+                FileTemplate.deepDelete(workDir);
+            }
+        }
+
+        json.append("\n  ]\n");
+        json.append("}\n");
+
+        if (options.containsKey("--result"))
+        {
+            try (Writer writer = new OutputStreamWriter(Files.newOutputStream(new File(options.get("--result")).toPath()), StandardCharsets.UTF_8))
+            {
+                writer.write(json.toString());
+            }
+        }
+        System.out.print(json);
+    }
+
+    // files and bytes processed are those of the input tree (files == -1) or of the output directory "out" of workDir
+    private static String run(String action, File location, String fileStoreType, List<String> jvmArgs, List<String> fileTemplateArgs, long files, long bytes, File workDir) throws IOException, InterruptedException
+    {
+        File resultFile = new File(workDir, action + "-result.json");
+
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(WorkloadRun.class.getName());
+        command.add(resultFile.getPath());
+        command.addAll(fileTemplateArgs);
+
+        System.err.println(action + " in \"" + location + "\" ...");
+        Process process = new ProcessBuilder(command).redirectOutput(Redirect.DISCARD).redirectError(Redirect.INHERIT).start();
+        int exitCode = process.waitFor();
+        if (exitCode != 0 || !resultFile.isFile())
+        {
+            throw new IOException(action + " failed with exit code " + exitCode);
+        }
+
+        if (files < 0)
+        {
+            long[] outputTree = measureTree(new File(workDir, "out").toPath());
+            files = outputTree[0];
+            bytes = outputTree[1];
+        }
+
+        String result = new String(Files.readAllBytes(resultFile.toPath()), StandardCharsets.UTF_8).trim();
+        long wallNanos = Long.parseLong(result.replaceAll(".*\"wallNanos\": (\\d+).*", "$1"));
+        double seconds = wallNanos / 1e9;
+
+        return "    {\"action\": \"" + action + "\", \"location\": \"" + escape(location.getPath()) + "\", \"fileStore\": \"" + escape(fileStoreType) + "\""
+            + ", \"files\": " + files + ", \"bytes\": " + bytes
+            + ", \"filesPerSecond\": " + Math.round(files / seconds) + ", \"megabytesPerSecond\": " + Math.round(bytes / seconds / (1024 * 1024) * 100) / 100.0
+            + ", \"process\": " + result + "}";
+    }
+
+    // number of files and their total size
+    private static long[] measureTree(Path root) throws IOException
+    {
+        long[] tree = new long[2];
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+            {
+                tree[0]++;
+                tree[1] += attributes.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return tree;
+    }
+
+    private static List<String> split(String args)
+    {
+        return args == null || args.trim().isEmpty() ? new ArrayList<String>() : Arrays.asList(args.trim().split("[\\s,]+"));
+    }
+
+    private static String escape(String string)
+    {
+        return string.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
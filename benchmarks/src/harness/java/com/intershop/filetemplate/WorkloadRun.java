@@ -0,0 +1,67 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Ein Lauf von FileTemplate.main(...) in einer eigenen JVM, gestartet von ThroughputHarness.
+ * Schreibt danach Laufzeit, GC-Zeit und den höchsten Speicherverbrauch des Prozesses (peak RSS) als JSON in result-file.
+ *
+ * Aufruf: WorkloadRun result-file FileTemplate-arguments...
+ */
+public class WorkloadRun
+{
+    /**
+     * @param args der parameter muss angegeben werden
+     * @throws Exception der werfer muss angegeben werden
+     */
+    public static void main(String[] args) throws Exception
+    {
+        File resultFile = new File(args[0]);
+        String[] fileTemplateArgs = Arrays.copyOfRange(args, 1, args.length);
+
+        long startNanos = System.nanoTime();
+        FileTemplate.main(fileTemplateArgs);
+        long wallNanos = System.nanoTime() - startNanos;
+
+        long gcMillis = 0;
+        long gcCount = 0;
+        for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            gcMillis += Math.max(garbageCollector.getCollectionTime(), 0);
+            gcCount += Math.max(garbageCollector.getCollectionCount(), 0);
+        }
+
+        try (Writer writer = new FileWriter(resultFile))
+        {
+            writer.write("{\"wallNanos\": " + wallNanos + ", \"gcMillis\": " + gcMillis + ", \"gcCount\": " + gcCount + ", \"peakRssBytes\": " + getPeakRssBytes() + "}\n");
+        }
+    }
+
+    // VmHWM of /proc/self/status, -1 where there is no /proc (not Linux)
+    static long getPeakRssBytes()
+    {
+        try
+        {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status")))
+            {
+                if (line.startsWith("VmHWM:"))
+                {
+                    return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim()) * 1024;
+                }
+            }
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            // not available
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,78 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Kopieren kleiner und großer Dateien mit deepCopy (ohne Puffer dazwischen, siehe FileCopier.transfer)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeepCopyBenchmark
+{
+    @Param({ "1024", "67108864" })
+    public int fileSize;
+
+    File sourceFile;
+    File targetFile;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        Logger.level = Logger.ERROR;
+
+        sourceFile = File.createTempFile("deep-copy-benchmark", ".source");
+        targetFile = new File(sourceFile.getPath() + ".target");
+
+        byte[] buffer = new byte[64 * 1024];
+        new Random(42).nextBytes(buffer);
+        try (OutputStream outputStream = new FileOutputStream(sourceFile))
+        {
+            for (int written = 0; written < fileSize; written += buffer.length)
+            {
+                outputStream.write(buffer, 0, Math.min(buffer.length, fileSize - written));
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteTarget()
+    {
+        targetFile.delete();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        sourceFile.delete();
+        targetFile.delete();
+    }
+
+    @Benchmark
+    public void deepCopy()
+    {
+        FileTemplate.deepCopy(sourceFile, targetFile);
+    }
+}
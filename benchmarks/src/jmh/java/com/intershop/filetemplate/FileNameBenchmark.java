@@ -0,0 +1,79 @@
+package com.intershop.filetemplate;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Neue Namen eines *.filetemplate bei vielen definierten Placeholdern (früher getNextFileNameFromFileTemplateName,
+ * heute FileNameTemplate und sein Odometer): Zerlegen des Namens und Aufzählen aller Namen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileNameBenchmark
+{
+    // number of placeholders defined in the properties file, the name uses three of them
+    @Param({ "10", "1000" })
+    public int definedPlaceholders;
+
+    String fileName = "{{@Partner@}}_{{@Channel#base 01@}}-{{@Organization@}}.xml";
+    Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues;
+    FileNameTemplate.PlaceholderNames placeholderNames;
+    FileNameTemplate fileNameTemplate;
+    Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues = new HashMap<String /* placeholder */, String /* placeholder value */>();
+
+    @Setup
+    public void setUp()
+    {
+        Logger.level = Logger.ERROR;
+
+        // in reverse declaration order like readPlaceholdersFromProperties(...)
+        placeholdersWithValues = new LinkedHashMap<String /* placeholder */, PlaceholderDefinition>();
+        placeholdersWithValues.put("Channel", new PlaceholderDefinition("Channel", "[01 - 20]"));
+        placeholdersWithValues.put("Partner", new PlaceholderDefinition("Partner", "[Miller, Jones, Smith, Brown, Taylor]"));
+        for (int i = 0; i < definedPlaceholders - 3; i++)
+        {
+            placeholdersWithValues.put("Placeholder" + i, new PlaceholderDefinition("Placeholder" + i, "[1 - 10]"));
+        }
+        placeholdersWithValues.put("Organization", new PlaceholderDefinition("Organization", "PrimeTech"));
+
+        placeholderNames = new FileNameTemplate.PlaceholderNames(placeholdersWithValues);
+        fileNameTemplate = compile();
+    }
+
+    @Benchmark
+    public FileNameTemplate compile()
+    {
+        return FileNameTemplate.compile(fileName, placeholdersWithValues, placeholderNames);
+    }
+
+    @Benchmark
+    public void enumerateNames(Blackhole blackhole)
+    {
+        Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues = new HashMap<String /* placeholder */, String /* placeholder value */>();
+        FileNameTemplate.Odometer fileNames = fileNameTemplate.odometer(fixedPlaceholderValues, FileTemplate.fileTemplateSuffix);
+        String newFileName;
+        while ((newFileName = fileNames.next(currentPlaceholderValues /* out */)) != null)
+        {
+            blackhole.consume(newFileName);
+        }
+    }
+}
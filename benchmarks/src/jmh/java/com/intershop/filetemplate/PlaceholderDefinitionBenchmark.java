@@ -0,0 +1,99 @@
+package com.intershop.filetemplate;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Weiterzählen der Werte (getNextPlaceholderValue) und Nummern der Werte (getNumberOfPlaceholderValue) großer Listen und Bereiche.
+ * Die Zeiten gelten pro Wert.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaceholderDefinitionBenchmark
+{
+    static final int STEPS = 1000;
+
+    @Param({ "list", "range" })
+    public String kind;
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    PlaceholderDefinition placeholderDefinition;
+    String[] sampleValues;  // STEPS values spread over the whole definition
+
+    @Setup
+    public void setUp()
+    {
+        Logger.level = Logger.ERROR;
+
+        StringBuilder definition = new StringBuilder("[");
+        if (kind.equals("list"))
+        {
+            for (int i = 0; i < size; i++)
+            {
+                definition.append(i == 0 ? "" : ", ").append("value").append(i);
+            }
+        }
+        else
+        {
+            definition.append("000001 - ").append(size);
+        }
+        definition.append("]");
+        placeholderDefinition = new PlaceholderDefinition("Placeholder", definition.toString());
+
+        sampleValues = new String[STEPS];
+        for (int i = 0; i < STEPS; i++)
+        {
+            sampleValues[i] = placeholderDefinition.getValue((long) i * size / STEPS);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public void getNextPlaceholderValue(Blackhole blackhole)
+    {
+        for (String value : sampleValues)
+        {
+            blackhole.consume(placeholderDefinition.getNextPlaceholderValue(value));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public void getNumberOfPlaceholderValue(Blackhole blackhole)
+    {
+        for (String value : sampleValues)
+        {
+            blackhole.consume(placeholderDefinition.getNumberOfPlaceholderValue(value, "0001"));
+        }
+    }
+
+    // a copy of a list value is found by equals() instead of identity
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public void getNextPlaceholderValueOfCopy(Blackhole blackhole)
+    {
+        for (String value : sampleValues)
+        {
+            blackhole.consume(placeholderDefinition.getNextPlaceholderValue(new String(value)));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.intershop.filetemplate;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ersetzen der Placeholder einer Zeile (replaceAllOccurrencesInString) und Erkennen der BEGIN/END Zeilen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplaceBenchmark
+{
+    @Param({ "short-none", "short-one", "short-many", "long-none", "long-one", "long-many", "short-base", "long-base" })
+    public String line;
+
+    String text;
+    Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues;
+    Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues;
+
+    @Setup
+    public void setUp()
+    {
+        Logger.level = Logger.ERROR;
+
+        placeholdersWithValues = new LinkedHashMap<String /* placeholder */, PlaceholderDefinition>();
+        placeholdersWithValues.put("Organization", new PlaceholderDefinition("Organization", "PrimeTech"));
+        placeholdersWithValues.put("Partner", new PlaceholderDefinition("Partner", "[Miller, Jones, Smith]"));
+        placeholdersWithValues.put("Channel", new PlaceholderDefinition("Channel", "[0001 - 1000]"));
+
+        currentPlaceholderValues = new HashMap<String /* placeholder */, String /* placeholder value */>();
+        currentPlaceholderValues.put("Partner", "Jones");
+        currentPlaceholderValues.put("Channel", "0500");
+
+        String filler = line.startsWith("long") ? repeat("lorem ipsum dolor sit amet, {{ not a placeholder }} ", 40) : "lorem ipsum ";
+        switch (line.substring(line.indexOf('-') + 1))
+        {
+            case "none":
+                text = filler + filler;
+                break;
+            case "one":
+                text = filler + "{{@Organization@}}" + filler;
+                break;
+            case "many":
+                text = repeat(filler + "{{@Organization@}}/{{@Partner@}}/{{@Channel@}}", 8) + filler;
+                break;
+            default: // base
+                text = repeat(filler + "{{@Partner#base 001@}}-{{@Channel # base 1@}}", 8) + filler;
+                break;
+        }
+    }
+
+    @Benchmark
+    public String replaceAllOccurrencesInString()
+    {
+        return FileTemplate.replaceAllOccurrencesInString(text, placeholdersWithValues, currentPlaceholderValues);
+    }
+
+    @Benchmark
+    public String isBeginPlaceholderLine()
+    {
+        return FileTemplate.isBeginPlaceholderLine(text);
+    }
+
+    @Benchmark
+    public String isEndPlaceholderLine()
+    {
+        return FileTemplate.isEndPlaceholderLine(text);
+    }
+
+    static String repeat(String string, int count)
+    {
+        StringBuilder repeated = new StringBuilder(string.length() * count);
+        for (int i = 0; i < count; i++)
+        {
+            repeated.append(string);
+        }
+        return repeated.toString();
+    }
+}
@@ -0,0 +1,111 @@
+package com.intershop.filetemplate;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ausgabe einer Vorlage mit verschachtelten BEGIN/END Sektionen (früher processLinesWithPlaceholderBlock,
+ * heute CompiledTemplate.render), als Text und byteweise (--charset), sowie das Zerlegen der Vorlage
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SectionBenchmark
+{
+    // number of values of each of the three nested section placeholders
+    @Param({ "4", "16" })
+    public int values;
+
+    @Param({ "text", "bytes" })
+    public String mode;
+
+    File template;
+    CompiledTemplate compiledTemplate;
+    Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues;
+    Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        Logger.level = Logger.ERROR;
+
+        placeholdersWithValues = new LinkedHashMap<String /* placeholder */, PlaceholderDefinition>();
+        placeholdersWithValues.put("Organization", new PlaceholderDefinition("Organization", "PrimeTech"));
+        placeholdersWithValues.put("Outer", new PlaceholderDefinition("Outer", "[1 - " + values + "]"));
+        placeholdersWithValues.put("Middle", new PlaceholderDefinition("Middle", "[1 - " + values + "]"));
+        placeholdersWithValues.put("Inner", new PlaceholderDefinition("Inner", "[1 - " + values + "]"));
+        currentPlaceholderValues = new HashMap<String /* placeholder */, String /* placeholder value */>();
+
+        template = File.createTempFile("section-benchmark", ".filetemplate");
+        try (Writer writer = new BufferedWriter(new FileWriter(template)))
+        {
+            writer.write("<organization name=\"{{@Organization@}}\">\n");
+            writer.write("{{@Outer#BEGIN@}}\n");
+            writer.write("  <outer id=\"{{@Outer@}}\" number=\"{{@Outer#base 001@}}\">\n");
+            writer.write("{{@Middle#BEGIN@}}\n");
+            writer.write("    <middle id=\"{{@Outer@}}-{{@Middle@}}\">\n");
+            writer.write("{{@Inner#BEGIN@}}\n");
+            writer.write("      <inner id=\"{{@Outer@}}-{{@Middle@}}-{{@Inner@}}\" organization=\"{{@Organization@}}\"/>\n");
+            writer.write("{{@Inner#END@}}\n");
+            writer.write("    </middle>\n");
+            writer.write("{{@Middle#END@}}\n");
+            writer.write("  </outer>\n");
+            writer.write("{{@Outer#END@}}\n");
+            writer.write("</organization>\n");
+        }
+
+        compiledTemplate = compile();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        template.delete();
+    }
+
+    @Benchmark
+    public CompiledTemplate compile()
+    {
+        return CompiledTemplate.compile(template, mode.equals("bytes") ? StandardCharsets.UTF_8 : null);
+    }
+
+    @Benchmark
+    public void render() throws IOException
+    {
+        if (compiledTemplate.isMapped())
+        {
+            compiledTemplate.render(OutputStream.nullOutputStream(), placeholdersWithValues, currentPlaceholderValues);
+        }
+        else
+        {
+            BufferedWriter outputFile = new BufferedWriter(Writer.nullWriter());
+            compiledTemplate.render(outputFile, placeholdersWithValues, currentPlaceholderValues);
+            outputFile.flush();
+        }
+    }
+}
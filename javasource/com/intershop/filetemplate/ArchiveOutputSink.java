@@ -0,0 +1,203 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Schreibt die Ausgabe als Einträge in ein Archiv (REPLACE mit --archive), ohne dass Dateien auf der Platte angelegt werden.
+ * Die Pfade der Einträge sind relativ zu root, root selbst wird nicht als Eintrag geschrieben.
+ * Kopierte Dateien werden direkt aus der Quelldatei in das Archiv gestreamt.
+ * Erzeugte Dateien werden gesammelt (bis SpillOutputStream.THRESHOLD im Speicher, darüber in einer temporären Datei)
+ * und beim close() ihres Streams als ein Eintrag geschrieben, so dass parallel erzeugte Dateien sich im Archiv nicht vermischen;
+ * ZipOutputSink schreibt sie stattdessen direkt in den Eintrag, solange der Stream offen ist, halten die anderen Threads an (lock).
+ * Ein Archiv kann Einträge nicht ersetzen: die Kopien der *.filetemplate Einträge werden daher vorab geplant
+ * (siehe FileTemplate.isPlanningExpansions), bleibt dennoch ein Name doppelt, wird der erste Eintrag behalten.
+ */
+abstract class ArchiveOutputSink implements OutputSink
+{
+    File root;
+    String rootPath;
+
+    // guards the archive stream and entryNames, held across calls while a ZIP entry is written (see ZipOutputSink.openFile)
+    final ReentrantLock lock = new ReentrantLock();
+
+    // names of all entries written so far, guarded by lock
+    Set<String /* entry name */> entryNames = new HashSet<String /* entry name */>();
+
+    ArchiveOutputSink(File root)
+    {
+        this.root = root.getAbsoluteFile();
+        this.rootPath = this.root.getPath() + File.separatorChar;
+    }
+
+    /**
+     * Liefert die Implementierung passend zur Endung von archiveName: ".zip" für ZIP, sonst TAR
+     * @param archiveName der parameter muss angegeben werden, nur für die Auswahl des Formats
+     * @param archiveStream der parameter muss angegeben werden, in diesen Stream wird das Archiv geschrieben
+     * @param root der parameter muss angegeben werden
+     * @return die Implementierung
+     */
+    public static ArchiveOutputSink create(String archiveName, OutputStream archiveStream, File root)
+    {
+        if (archiveName.toLowerCase().endsWith(".zip"))
+        {
+            return new ZipOutputSink(archiveStream, root);
+        }
+        return new TarOutputSink(archiveStream, root);
+    }
+
+    public boolean exists(File output)
+    {
+        // nothing exists before it is written to the archive, duplicates are resolved when writing the entry
+        return false;
+    }
+
+    public boolean canReplace()
+    {
+        return false;
+    }
+
+    public boolean delete(File output)
+    {
+        return false;
+    }
+
+    public boolean makeDirectory(File newDir)
+    {
+        if (newDir.getAbsoluteFile().equals(root))
+        {
+            return true;
+        }
+
+        String entryName = getEntryName(newDir) + '/';
+        try
+        {
+            lock.lock();
+            try
+            {
+                if (entryNames.add(entryName))
+                {
+                    writeDirectoryEntry(entryName, System.currentTimeMillis());
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            return true;
+        }
+        catch (IOException exIO)
+        {
+            FileTemplate.log("err", "makeDirectory: archive entry \"" + entryName + "\": " + exIO.toString());
+            return false;
+        }
+    }
+
+    public OutputStream openFile(File newFile) throws IOException
+    {
+        String entryName = getEntryName(newFile);
+        return new SpillOutputStream()
+        {
+            private boolean isWritten = false;
+
+            @Override
+            public void close() throws IOException
+            {
+                super.close();
+                if (!isWritten)
+                {
+                    isWritten = true;
+                    try (InputStream content = openContent())
+                    {
+                        writeFile(entryName, size(), System.currentTimeMillis(), false, content);
+                    }
+                    finally
+                    {
+                        delete();
+                    }
+                }
+            }
+        };
+    }
+
+    public void copyFile(File sourceFile, File newFile)
+    {
+        String entryName = getEntryName(newFile);
+        try (InputStream in = new FileInputStream(sourceFile))
+        {
+            writeFile(entryName, sourceFile.length(), sourceFile.lastModified(), sourceFile.canExecute(), in);
+        }
+        catch (IOException exIO)
+        {
+            FileTemplate.log("err", "copyFile: \"" + sourceFile + "\" --> archive entry \"" + entryName + "\": " + exIO.toString());
+        }
+    }
+
+    public void close() throws IOException
+    {
+        lock.lock();
+        try
+        {
+            finish();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void writeFile(String entryName, long size, long lastModified, boolean isExecutable, InputStream content) throws IOException
+    {
+        lock.lock();
+        try
+        {
+            if (addEntryName(entryName))
+            {
+                writeFileEntry(entryName, size, lastModified, isExecutable, content);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Muss mit lock aufgerufen werden
+     * @return false wenn entryName bereits geschrieben wurde (wird geloggt), der erste Eintrag bleibt
+     */
+    boolean addEntryName(String entryName)
+    {
+        if (!entryNames.add(entryName))
+        {
+            FileTemplate.log("warn", "WARNING: archive entry \"" + entryName + "\" was already written, keeping the first one");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return der Name des Eintrags für output: Pfad relativ zu root mit '/' als Trenner
+     */
+    String getEntryName(File output)
+    {
+        String outputPath = output.getAbsolutePath();
+        if (outputPath.startsWith(rootPath))
+        {
+            outputPath = outputPath.substring(rootPath.length());
+        }
+        return outputPath.replace(File.separatorChar, '/');
+    }
+
+    abstract void writeDirectoryEntry(String entryName, long lastModified) throws IOException;
+
+    abstract void writeFileEntry(String entryName, long size, long lastModified, boolean isExecutable, InputStream content) throws IOException;
+
+    abstract void finish() throws IOException;
+}
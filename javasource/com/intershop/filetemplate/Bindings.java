@@ -0,0 +1,134 @@
+package com.intershop.filetemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Die Placeholder-Definitionen für FileTemplateEngine.replace(...), einmal eingelesen und für beliebig viele Läufe verwendbar (thread-safe).
+ * Die Werte der Listen und Bereiche und die zerlegten Namen der *.filetemplate bleiben zwischen den Läufen erhalten.
+ */
+public class Bindings
+{
+    // in reverse declaration order like FileTemplate.readPlaceholdersFromProperties(...): the first one changes fastest
+    final Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues;
+    final Map<String /* file name */, FileNameTemplate> fileNameTemplates = new ConcurrentHashMap<String /* file name */, FileNameTemplate>();
+    final FileNameTemplate.PlaceholderNames placeholderNames;
+
+    Bindings(Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues)
+    {
+        this.placeholdersWithValues = placeholdersWithValues;
+        this.placeholderNames = new FileNameTemplate.PlaceholderNames(placeholdersWithValues);
+    }
+
+    /**
+     * Liest die Definitionen im Format der "properties" Datei (Placeholder1 = NAME, Placeholder1Value = ...)
+     * @param properties der parameter muss angegeben werden
+     * @return die Definitionen
+     * @throws FileTemplateException wenn zu einem PlaceholderN kein PlaceholderNValue angegeben ist
+     */
+    public static Bindings fromProperties(Properties properties) throws FileTemplateException
+    {
+        List<String> errors = new ArrayList<String>();
+
+        // the messages of parsing the definitions are only of interest if they are errors
+        Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues = FileTemplate.callWithLogHandler((level, message) ->
+        {
+            if (level == LogHandler.ERROR)
+            {
+                errors.add(message);
+            }
+        }, () -> FileTemplate.readPlaceholdersFromProperties(properties));
+
+        if (!errors.isEmpty())
+        {
+            throw new FileTemplateException("invalid placeholder definitions: " + errors.get(0), errors, null);
+        }
+        return new Bindings(placeholdersWithValues);
+    }
+
+    /**
+     * Liest die Definitionen aus einer "properties" Datei
+     * @param propertiesFile der parameter muss angegeben werden
+     * @return die Definitionen
+     * @throws FileTemplateException wenn die Datei nicht gelesen werden kann oder fehlerhaft ist
+     */
+    public static Bindings load(Path propertiesFile) throws FileTemplateException
+    {
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(propertiesFile))
+        {
+            properties.load(inputStream);
+        }
+        catch (IOException e)
+        {
+            throw new FileTemplateException("unable to read properties-file \"" + propertiesFile + "\": " + e.toString(), Collections.<String>emptyList(), e);
+        }
+        FileTemplate.resolveDatasetFiles(properties, propertiesFile.toFile());
+        return fromProperties(properties);
+    }
+
+    /**
+     * @param definitions der parameter muss angegeben werden, Name und Wert (einzeln, [a, b] oder [001 - 100]) in der Reihenfolge
+     *                    der "properties" Datei: der erste ist der äußerste Placeholder
+     * @return die Definitionen
+     */
+    public static Bindings of(Map<String /* placeholder */, String /* definition */> definitions)
+    {
+        List<String> placeholders = new ArrayList<String>(definitions.keySet());
+        Collections.reverse(placeholders);
+
+        Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues = new LinkedHashMap<String /* placeholder */, PlaceholderDefinition>();
+        FileTemplate.runWithLogHandler((level, message) -> { }, () ->
+        {
+            for (String placeholder : placeholders)
+            {
+                placeholdersWithValues.put(placeholder, new PlaceholderDefinition(placeholder, definitions.get(placeholder)));
+            }
+        });
+        return new Bindings(placeholdersWithValues);
+    }
+
+    /**
+     * @return false wenn sich die Datei eines Datasets seit dem Einlesen geändert hat, die Definitionen müssen dann neu eingelesen werden
+     */
+    public boolean isUpToDate()
+    {
+        for (PlaceholderDefinition placeholderDefinition : placeholdersWithValues.values())
+        {
+            if (placeholderDefinition.isDatasetPlaceholderValue() && !placeholderDefinition.dataset.isUpToDate())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return die Namen der Placeholder in der Reihenfolge der Definition (der äußerste zuerst)
+     */
+    public List<String> getPlaceholders()
+    {
+        List<String> placeholders = new ArrayList<String>(placeholdersWithValues.keySet());
+        Collections.reverse(placeholders);
+        return placeholders;
+    }
+
+    /**
+     * @param placeholder der parameter muss angegeben werden
+     * @return der Wert wie in der "properties" Datei angegeben, null wenn placeholder nicht definiert ist
+     */
+    public String getDefinition(String placeholder)
+    {
+        PlaceholderDefinition placeholderDefinition = placeholdersWithValues.get(placeholder);
+        return placeholderDefinition == null ? null : placeholderDefinition.getDefinition();
+    }
+}
@@ -0,0 +1,47 @@
+package com.intershop.filetemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sicht auf einen Bereich eines ByteBuffers als CharSequence, jedes Byte ist ein Zeichen (wie ISO-8859-1).
+ * Damit kann PlaceholderScanner direkt in den Bytes einer Datei suchen, ohne sie zu dekodieren:
+ * die Zeichen der Placeholder-Syntax sind ASCII und kommen in UTF-8 und ISO-8859-x nur als diese Bytes vor.
+ * Die Offsets eines Treffers sind dann Byte-Offsets relativ zu offset.
+ */
+class ByteCharSequence implements CharSequence
+{
+    ByteBuffer buffer;  // only absolute gets are used, so the buffer can be shared between threads
+    int offset;
+    int length;
+
+    ByteCharSequence(ByteBuffer buffer, int offset, int length)
+    {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    public char charAt(int index)
+    {
+        return (char) (buffer.get(offset + index) & 0xFF);
+    }
+
+    public CharSequence subSequence(int start, int end)
+    {
+        return new ByteCharSequence(buffer, offset + start, end - start);
+    }
+
+    @Override
+    public String toString()
+    {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes, 0, length);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,204 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * REPLACE mit --skip-unchanged: vergleicht die erzeugten Bytes beim Schreiben mit der vorhandenen Datei.
+ * Solange sie übereinstimmen, wird nur gelesen; die Datei bleibt unverändert (auch ihre Änderungszeit), wenn sie gleich endet.
+ * Ab dem ersten Unterschied (oder wenn die Längen verschieden sind) wird unter einem versteckten Namen daneben geschrieben,
+ * der übereinstimmende Anfang aus der vorhandenen Datei kopiert, und die fertige Datei mit commit() an ihren Platz gebracht.
+ */
+class ComparingOutputStream extends OutputStream
+{
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private File existingFile;
+    private OutputSink outputSink;
+
+    private FileChannel existingChannel;
+    private ByteBuffer existingBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long equalCount = 0;  // bytes equal to the start of existingFile
+
+    // null as long as the content is equal
+    private File stagingFile = null;
+    private OutputStream outputStream = null;
+
+    private boolean isClosed = false;
+
+    /**
+     * @param existingFile der parameter muss angegeben werden, die vorhandene Datei, die ersetzt wird, wenn sich der Inhalt unterscheidet
+     * @param outputSink der parameter muss angegeben werden, ins Dateisystem, öffnet die neue Datei erst beim ersten Unterschied
+     * @throws IOException der werfer muss angegeben werden, wenn existingFile nicht gelesen werden kann
+     */
+    ComparingOutputStream(File existingFile, OutputSink outputSink) throws IOException
+    {
+        this.existingFile = existingFile;
+        this.outputSink = outputSink;
+        existingChannel = FileChannel.open(existingFile.toPath(), StandardOpenOption.READ);
+        existingBuffer.flip();
+    }
+
+    /**
+     * Ersetzt die vorhandene Datei durch die neue, wenn sich der Inhalt unterscheidet
+     * @return false wenn der Inhalt gleich ist und die vorhandene Datei bleibt
+     * @throws IOException der werfer muss angegeben werden, die neue Datei ist dann entfernt
+     */
+    boolean commit() throws IOException
+    {
+        close();
+        if (stagingFile == null)
+        {
+            return false;
+        }
+
+        try
+        {
+            Files.move(stagingFile.toPath(), existingFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException exIO)
+        {
+            Files.deleteIfExists(stagingFile.toPath());
+            throw exIO;
+        }
+        return true;
+    }
+
+    /**
+     * Verwirft die neue Datei, wenn die Erzeugung abgebrochen ist; die vorhandene Datei bleibt
+     */
+    void discard()
+    {
+        try
+        {
+            close();
+        }
+        catch (IOException e)
+        {
+            // removed anyway
+        }
+        if (stagingFile != null)
+        {
+            stagingFile.delete();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (outputStream != null)
+        {
+            outputStream.write(b, off, len);
+            return;
+        }
+
+        int end = off + len;
+        while (off < end)
+        {
+            if (!existingBuffer.hasRemaining())
+            {
+                existingBuffer.clear();
+                int readCount = existingChannel.read(existingBuffer);
+                existingBuffer.flip();
+                if (readCount <= 0)
+                {
+                    // the new content is longer
+                    startWriting();
+                    outputStream.write(b, off, end - off);
+                    return;
+                }
+            }
+
+            int count = Math.min(end - off, existingBuffer.remaining());
+            int position = existingBuffer.position();
+            int mismatch = Arrays.mismatch(b, off, off + count, existingBuffer.array(), position, position + count);
+            if (mismatch >= 0)
+            {
+                equalCount += mismatch;
+                startWriting();
+                outputStream.write(b, off + mismatch, end - off - mismatch);
+                return;
+            }
+            existingBuffer.position(position + count);
+            equalCount += count;
+            off += count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        if (outputStream != null)
+        {
+            outputStream.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (isClosed)
+        {
+            return;
+        }
+        isClosed = true;
+
+        try
+        {
+            if (outputStream == null && existingChannel.size() != equalCount)
+            {
+                // the new content is a shorter start of the existing one
+                startWriting();
+            }
+        }
+        finally
+        {
+            if (existingChannel != null)
+            {
+                existingChannel.close();
+                existingChannel = null;
+            }
+        }
+        if (outputStream != null)
+        {
+            outputStream.close();
+        }
+    }
+
+    // the content differs: opens the new file next to existingFile and copies the equal start into it
+    private void startWriting() throws IOException
+    {
+        stagingFile = OutputStager.newStagingFile(existingFile);
+        outputStream = outputSink.openFile(stagingFile);
+
+        ByteBuffer copyBuffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(equalCount, 1)));
+        for (long position = 0; position < equalCount; )
+        {
+            copyBuffer.clear();
+            copyBuffer.limit((int) Math.min(copyBuffer.capacity(), equalCount - position));
+            int readCount = existingChannel.read(copyBuffer, position);
+            if (readCount <= 0)
+            {
+                throw new IOException("\"" + existingFile.getAbsolutePath() + "\" changed while it was compared");
+            }
+            outputStream.write(copyBuffer.array(), 0, readCount);
+            position += readCount;
+        }
+
+        existingChannel.close();
+        existingChannel = null;
+    }
+}
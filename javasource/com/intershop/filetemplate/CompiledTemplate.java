@@ -0,0 +1,427 @@
+package com.intershop.filetemplate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Einmal eingelesene und zerlegte Dateivorlage (*.filetemplate).
+ * Besteht aus Literal-Abschnitten, Placeholder-Slots (ggf. mit #base) und BEGIN/END Sektionen
+ * und kann beliebig oft mit verschiedenen Placeholder-Werten ausgegeben werden.
+ */
+class CompiledTemplate
+{
+    // files of at least this size are checked for BEGIN/END sections first; without sections they are streamed instead of kept in memory
+    public static long streamingThreshold = 16L * 1024 * 1024;
+
+    File file;
+    long fileLength;        // when compiled, see isUpToDate()
+    long fileLastModified;
+    boolean valid = false;  // false if the BEGIN/END sections do not match or the file could not be read
+    Section rootSection = new Section(null);
+    Set<String /* placeholder */> sectionPlaceholders = new HashSet<String /* placeholder */>();
+    Set<String /* placeholder */> usedPlaceholders = new TreeSet<String /* placeholder */>();  // sorted, for a stable render key
+    Set<String /* placeholder */> basePlaceholders = new HashSet<String /* placeholder */>();   // used with #base, their number depends on the definition
+    String contentHash;
+    boolean isStreaming = false;  // true if rendered by StreamingTemplate, rootSection is empty then
+    Charset charset = null;       // not null if compiled and rendered byte by byte by MappedTemplate, rootSection contains MappedTemplate.Run's then
+    ByteBuffer content = null;    // the file content if charset is not null, mapped if large (MappedTemplate.MAP_THRESHOLD)
+
+    /**
+     * Eine Zeile der Vorlage: literals.length == slotPlaceholders.length + 1
+     */
+    static class Line
+    {
+        String[] literals;
+        String[] slotPlaceholders;
+        String[] slotBaseNumbers;  // null entry if slot is not of form {{@PLACEHOLDERNAME#base X@}}
+    }
+
+    /**
+     * Eine BEGIN/END Sektion, elements enthält Line's und (verschachtelte) Section's in Reihenfolge der Datei
+     */
+    static class Section
+    {
+        String placeholder;  // null for the root section
+        List<Object /* Line or Section */> elements = new ArrayList<Object>();
+
+        Section(String placeholder)
+        {
+            this.placeholder = placeholder;
+        }
+    }
+
+    private CompiledTemplate(DirElement template)
+    {
+        this.file = template.file;
+        this.fileLength = template.length();
+        this.fileLastModified = template.lastModified();
+    }
+
+    /**
+     * Liest file einmal ein und zerlegt es
+     * @param file der parameter muss angegeben werden
+     * @return die zerlegte Vorlage, nicht gültig (isValid() == false) wenn die BEGIN/END Sektionen nicht zueinander passen oder die Datei nicht gelesen werden kann
+     */
+    public static CompiledTemplate compile(File file)
+    {
+        return compile(file, null);
+    }
+
+    /**
+     * Liest file einmal ein und zerlegt es
+     * @param file der parameter muss angegeben werden
+     * @param charset der parameter muss nicht angegeben werden, wenn angegeben wird die Datei byteweise verarbeitet (MappedTemplate)
+     * @return die zerlegte Vorlage, nicht gültig (isValid() == false) wenn die BEGIN/END Sektionen nicht zueinander passen oder die Datei nicht gelesen werden kann
+     */
+    public static CompiledTemplate compile(File file, Charset charset)
+    {
+        return compile(DirElement.read(file), charset);
+    }
+
+    /**
+     * Wie compile(File, Charset), mit den bereits gelesenen Attributen der Datei
+     * @param template der parameter muss angegeben werden
+     * @param charset der parameter muss nicht angegeben werden
+     * @return die zerlegte Vorlage
+     */
+    static CompiledTemplate compile(DirElement template, Charset charset)
+    {
+        Metrics.PhaseEvent event = Metrics.PARSE.start();
+        CompiledTemplate compiledTemplate = compileFile(template, charset);
+        Metrics.PARSE.stop(event, template.file, 1, compiledTemplate.fileLength, 0);
+        return compiledTemplate;
+    }
+
+    private static CompiledTemplate compileFile(DirElement template, Charset charset)
+    {
+        CompiledTemplate compiledTemplate = new CompiledTemplate(template);
+        File file = template.file;
+
+        // a MappedByteBuffer is limited to 2 GB, larger files are processed as text
+        if (charset != null && compiledTemplate.fileLength <= Integer.MAX_VALUE)
+        {
+            compiledTemplate.charset = charset;
+            try
+            {
+                MappedTemplate.compile(compiledTemplate);
+            }
+            catch (IOException exIO)
+            {
+                FileTemplate.log("err", "replaceFileContent: \"" + file.getAbsolutePath() + "\": " + exIO.toString());
+            }
+            return compiledTemplate;
+        }
+
+        if (compiledTemplate.fileLength >= streamingThreshold)
+        {
+            try
+            {
+                if (StreamingTemplate.scan(file, compiledTemplate))
+                {
+                    compiledTemplate.isStreaming = true;
+                    compiledTemplate.valid = true;
+                    return compiledTemplate;
+                }
+            }
+            catch (IOException exIO)
+            {
+                FileTemplate.log("err", "replaceFileContent: \"" + file.getAbsolutePath() + "\": " + exIO.toString());
+                return compiledTemplate;
+            }
+
+            // the template has sections, compile it completely
+            compiledTemplate.usedPlaceholders.clear();
+            compiledTemplate.basePlaceholders.clear();
+        }
+
+        LinkedList<Section> openSections = new LinkedList<Section>();
+        openSections.push(compiledTemplate.rootSection);
+
+        BufferedReader inputFile = null;
+        MessageDigest contentDigest = GenerationManifest.newMessageDigest();
+
+        try
+        {
+            PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+
+            inputFile = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = inputFile.readLine()) != null)
+            {
+                contentDigest.update(line.getBytes(StandardCharsets.UTF_8));
+                contentDigest.update((byte) '\n');
+
+                String placeholder;
+                int sectionMarkerKind = placeholderScanner.findSectionMarker(line);
+                if (sectionMarkerKind == PlaceholderScanner.KIND_END)  // case: {{@PLACEHOLDERNAME# END @}}
+                {
+                    placeholder = FileTemplate.getSectionMarkerPlaceholder(line, placeholderScanner);
+
+                    Section currentSection = openSections.peek();
+                    if (currentSection.placeholder == null)
+                    {
+                        FileTemplate.log("err", "replaceFileContent: count of END of placeholder sections larger than count of BEGIN (at END of placeholder \"" + placeholder + "\")");
+                        return compiledTemplate;
+                    }
+                    else if (!placeholder.equals(currentSection.placeholder))
+                    {
+                        FileTemplate.log("err", "replaceFileContent: found END of placeholder \"" + placeholder + "\" where expecting END of placeholder \"" + currentSection.placeholder + "\"");
+                        return compiledTemplate;
+                    }
+
+                    openSections.pop();
+                }
+                else if (sectionMarkerKind == PlaceholderScanner.KIND_BEGIN)  // case: {{@PLACEHOLDERNAME# BEGIN @}}
+                {
+                    placeholder = FileTemplate.getSectionMarkerPlaceholder(line, placeholderScanner);
+                    Section newSection = new Section(placeholder);
+                    openSections.peek().elements.add(newSection);
+                    openSections.push(newSection);
+                    compiledTemplate.sectionPlaceholders.add(placeholder);
+                    compiledTemplate.usedPlaceholders.add(placeholder);
+                }
+                else
+                {
+                    Line compiledLine = compileLine(line, placeholderScanner);  // case: regular line
+                    for (int i = 0; i < compiledLine.slotPlaceholders.length; i++)
+                    {
+                        compiledTemplate.usedPlaceholders.add(compiledLine.slotPlaceholders[i]);
+                        if (compiledLine.slotBaseNumbers[i] != null)
+                        {
+                            compiledTemplate.basePlaceholders.add(compiledLine.slotPlaceholders[i]);
+                        }
+                    }
+                    openSections.peek().elements.add(compiledLine);
+                }
+            }
+        }
+        catch(IOException exIO)
+        {
+            FileTemplate.log("err", "replaceFileContent: \"" + file.getAbsolutePath() + "\": " + exIO.toString());
+            return compiledTemplate;
+        }
+        finally
+        {
+            if (inputFile != null)
+            {
+                try
+                {
+                    inputFile.close();
+                }
+                catch (IOException exIO)
+                {
+                    FileTemplate.log("err", "replaceFileContent: unable to close \"" + file.getAbsolutePath() + "\": " + exIO.toString());
+                }
+            }
+        }
+
+        if (openSections.peek().placeholder != null)
+        {
+            FileTemplate.log("err", "replaceFileContent: missing END for placeholder \"" + openSections.peek().placeholder + "\"");
+            return compiledTemplate;
+        }
+
+        compiledTemplate.contentHash = GenerationManifest.toHex(contentDigest.digest());
+        compiledTemplate.valid = true;
+        return compiledTemplate;
+    }
+
+    /**
+     * Zerlegt eine reguläre Zeile in Literale und Placeholder-Slots
+     * @param line der parameter muss angegeben werden
+     * @param placeholderScanner der parameter muss angegeben werden
+     * @return die zerlegte Zeile
+     */
+    static Line compileLine(String line, PlaceholderScanner placeholderScanner)
+    {
+        List<String> literals = new ArrayList<String>();
+        List<String> slotPlaceholders = new ArrayList<String>();
+        List<String> slotBaseNumbers = new ArrayList<String>();
+
+        int uncopiedSectionStartIndex = 0;
+        while (placeholderScanner.find(line, uncopiedSectionStartIndex, PlaceholderScanner.KIND_VALUE))
+        {
+            literals.add(line.substring(uncopiedSectionStartIndex, placeholderScanner.start));
+            slotPlaceholders.add(placeholderScanner.getPlaceholder(line));
+            slotBaseNumbers.add(placeholderScanner.getBaseNumber(line));
+            uncopiedSectionStartIndex = placeholderScanner.end;
+        }
+        literals.add(line.substring(uncopiedSectionStartIndex));
+
+        Line compiledLine = new Line();
+        compiledLine.literals = literals.toArray(new String[literals.size()]);
+        compiledLine.slotPlaceholders = slotPlaceholders.toArray(new String[slotPlaceholders.size()]);
+        compiledLine.slotBaseNumbers = slotBaseNumbers.toArray(new String[slotBaseNumbers.size()]);
+        return compiledLine;
+    }
+
+    /**
+     * Gibt die Vorlage mit den übergebenen Placeholder-Werten aus
+     * @param outputFile der parameter muss angegeben werden
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss angegeben werden
+     * @throws IOException der werfer muss angegeben werden
+     */
+    public void render(BufferedWriter outputFile, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues) throws IOException
+    {
+        if (isStreaming)
+        {
+            StreamingTemplate.render(file, outputFile, placeholdersWithValues, currentPlaceholderValues);
+            return;
+        }
+
+        renderSection(rootSection, outputFile, placeholdersWithValues, currentPlaceholderValues);
+    }
+
+    private static void renderSection(Section section, BufferedWriter outputFile, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues) throws IOException
+    {
+        for (Object element : section.elements)
+        {
+            if (element instanceof Line)
+            {
+                Line line = (Line) element;
+                int slotCount = line.slotPlaceholders.length;
+                for (int i = 0; i < slotCount; i++)
+                {
+                    outputFile.write(line.literals[i]);
+                    outputFile.write(String.valueOf(FileTemplate.getReplacementValue(line.slotPlaceholders[i], line.slotBaseNumbers[i], placeholdersWithValues, currentPlaceholderValues)));
+                }
+                outputFile.write(line.literals[slotCount]);
+                outputFile.newLine();
+            }
+            else
+            {
+                Section subSection = (Section) element;
+                PlaceholderDefinition placeholderValue = placeholdersWithValues.get(subSection.placeholder);
+
+                if (placeholderValue != null && placeholderValue.isDatasetPlaceholderValue())
+                {
+                    // only the values of the dataset rows matching the fixed values of its other placeholders
+                    Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValuesInBlock = new HashMap<String /* placeholder */, String /* placeholder value */>(currentPlaceholderValues);
+                    PlaceholderDataset.Cursor values = placeholderValue.datasetValues(currentPlaceholderValues);
+                    long sectionCount = 0;
+                    try
+                    {
+                        for (String[] value = values.next(); value != null; value = values.next(), sectionCount++)
+                        {
+                            fixedPlaceholderValuesInBlock.put(subSection.placeholder, value[0]);
+                            renderSection(subSection, outputFile, placeholdersWithValues, fixedPlaceholderValuesInBlock);
+                        }
+                    }
+                    finally
+                    {
+                        values.close();
+                    }
+                    if (Metrics.enabled)
+                    {
+                        Metrics.RENDER.sections.add(sectionCount);
+                    }
+                }
+                else if (placeholderValue != null)
+                {
+                    if (Metrics.enabled)
+                    {
+                        Metrics.RENDER.sections.add(placeholderValue.getValueCount());
+                    }
+                    Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValuesInBlock = new HashMap<String /* placeholder */, String /* placeholder value */>(currentPlaceholderValues);
+                    for (long valueIndex = 0; valueIndex < placeholderValue.getValueCount(); valueIndex++)
+                    {
+                        fixedPlaceholderValuesInBlock.put(subSection.placeholder, placeholderValue.getValue(valueIndex));
+                        renderSection(subSection, outputFile, placeholdersWithValues, fixedPlaceholderValuesInBlock);
+                    }
+                }
+                else
+                {
+                    FileTemplate.log("err", "processLinesWithPlaceholderBlock: no definition for used placeholder \"" + subSection.placeholder + "\"");
+                }
+            }
+        }
+    }
+
+    /**
+     * Schlüssel für das Ergebnis von render(...) mit diesen Placeholder-Werten: ändert sich, sobald sich die Vorlage
+     * oder ein Wert bzw. eine Definition ändert, die in der Vorlage verwendet wird.
+     * Definitionen gehen nur ein, wenn der Placeholder nicht fest belegt ist (Sektion, einwertig) oder mit #base verwendet wird.
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss angegeben werden
+     * @return der Schlüssel
+     */
+    public String getRenderKey(Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    {
+        StringBuilder keyBuilder = new StringBuilder(contentHash);
+        for (String placeholder : usedPlaceholders)
+        {
+            keyBuilder.append('\n').append(placeholder);
+            if (currentPlaceholderValues.containsKey(placeholder))
+            {
+                keyBuilder.append('=').append(currentPlaceholderValues.get(placeholder));
+            }
+            if (!currentPlaceholderValues.containsKey(placeholder) || basePlaceholders.contains(placeholder))
+            {
+                PlaceholderDefinition placeholderDefinition = placeholdersWithValues.get(placeholder);
+                keyBuilder.append(':').append(placeholderDefinition == null ? null : placeholderDefinition.getDefinition());
+            }
+        }
+        return GenerationManifest.hash(keyBuilder.toString());
+    }
+
+    /**
+     * Gibt die byteweise zerlegte Vorlage (isMapped() == true) mit den übergebenen Placeholder-Werten aus
+     * @param outputFile der parameter muss angegeben werden
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss angegeben werden
+     * @throws IOException der werfer muss angegeben werden
+     */
+    public void render(OutputStream outputFile, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues) throws IOException
+    {
+        MappedTemplate.render(this, outputFile, placeholdersWithValues, currentPlaceholderValues);
+    }
+
+    public boolean isMapped()
+    {
+        return charset != null;
+    }
+
+    /**
+     * @return true wenn sich die Datei (Größe und Änderungszeit) seit dem Einlesen nicht geändert hat
+     */
+    public boolean isUpToDate()
+    {
+        return isUpToDate(DirElement.read(file));
+    }
+
+    /**
+     * @param template der parameter muss angegeben werden, die aktuellen Attribute der Datei
+     * @return true wenn sich die Datei (Größe und Änderungszeit) seit dem Einlesen nicht geändert hat
+     */
+    boolean isUpToDate(DirElement template)
+    {
+        return template.length() == fileLength && template.lastModified() == fileLastModified;
+    }
+
+    public boolean isValid()
+    {
+        return valid;
+    }
+
+    public Set<String /* placeholder */> getSectionPlaceholders()
+    {
+        return sectionPlaceholders;
+    }
+}
@@ -0,0 +1,84 @@
+package com.intershop.filetemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Liest Zeilen wie LIST sie durchsucht: endet eine Zeile mit "\", wird die nächste Zeile (mit dem Zeilenende der Plattform)
+ * angehängt, so dass ein Placeholder auch über solche Zeilen reichen kann. Die Zeilen werden in einem StringBuilder
+ * zusammengesetzt, lange Folgen fortgesetzter Zeilen kosten also nur linear viel.
+ * Zu jeder gelesenen Zeile stehen die Nummern und Anfänge der enthaltenen Zeilen der Datei bereit (für LIST --usage).
+ */
+class ContinuedLineReader
+{
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private BufferedReader reader;
+    private StringBuilder lineBuilder = new StringBuilder(256);
+    private int nextLineNumber = 1;
+
+    // of the last line read: number of its first line in the file, and the index where each line of the file starts in it
+    int firstLineNumber;
+    int[] lineStarts = new int[8];
+    int lineCount;
+
+    ContinuedLineReader(BufferedReader reader)
+    {
+        this.reader = reader;
+    }
+
+    /**
+     * @return die nächste Zeile mit allen fortgesetzten Zeilen, null am Ende der Datei
+     * @throws IOException der werfer muss angegeben werden
+     */
+    String readLine() throws IOException
+    {
+        String line = reader.readLine();
+        if (line == null)
+        {
+            return null;
+        }
+
+        firstLineNumber = nextLineNumber++;
+        lineStarts[0] = 0;
+        lineCount = 1;
+        if (!line.endsWith("\\"))
+        {
+            return line;
+        }
+
+        lineBuilder.setLength(0);
+        lineBuilder.append(line);
+        String nextLine;
+        while (lineBuilder.charAt(lineBuilder.length() - 1) == '\\' && (nextLine = reader.readLine()) != null)
+        {
+            nextLineNumber++;
+            lineBuilder.append(LINE_SEPARATOR);
+            if (lineCount == lineStarts.length)
+            {
+                int[] newLineStarts = new int[lineStarts.length * 2];
+                System.arraycopy(lineStarts, 0, newLineStarts, 0, lineCount);
+                lineStarts = newLineStarts;
+            }
+            lineStarts[lineCount++] = lineBuilder.length();
+            lineBuilder.append(nextLine);
+        }
+        return lineBuilder.toString();
+    }
+
+    /**
+     * @param index der parameter muss angegeben werden, Index in der zuletzt gelesenen Zeile
+     * @return Index der Zeile der Datei in lineStarts, in der index liegt
+     */
+    int getLineIndex(int index)
+    {
+        int lineIndex = Arrays.binarySearch(lineStarts, 0, lineCount, index);
+        return lineIndex >= 0 ? lineIndex : -lineIndex - 2;
+    }
+
+    void close() throws IOException
+    {
+        reader.close();
+    }
+}
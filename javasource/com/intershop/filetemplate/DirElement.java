@@ -0,0 +1,71 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Eine Datei oder ein Verzeichnis mit den Attributen, die beim Lesen des Verzeichnisses einmal ermittelt wurden (ein stat pro Eintrag).
+ * Die Attribute werden durch die ganze Verarbeitung weitergereicht, statt mit exists(), isDirectory(), isFile(), length()
+ * und lastModified() jedes Mal neu abgefragt zu werden (auf einem NFS jeweils ein Round-Trip).
+ * Ohne Attribute (null) verhält sich ein DirElement wie ein File, das nicht existiert.
+ */
+class DirElement
+{
+    File file;
+    BasicFileAttributes attributes;
+
+    DirElement(File file, BasicFileAttributes attributes)
+    {
+        this.file = file;
+        this.attributes = attributes;
+    }
+
+    /**
+     * Liest die Attribute von file, symbolische Links werden wie bei File.isDirectory() verfolgt
+     * @param file der parameter muss angegeben werden
+     * @return file mit seinen Attributen, ohne Attribute wenn file nicht existiert oder nicht gelesen werden kann
+     */
+    static DirElement read(File file)
+    {
+        try
+        {
+            return new DirElement(file, Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+        }
+        catch (IOException e)
+        {
+            return new DirElement(file, null);
+        }
+    }
+
+    String getName()
+    {
+        return file.getName();
+    }
+
+    boolean exists()
+    {
+        return attributes != null;
+    }
+
+    boolean isDirectory()
+    {
+        return attributes != null && attributes.isDirectory();
+    }
+
+    boolean isFile()
+    {
+        return attributes != null && attributes.isRegularFile();
+    }
+
+    long length()
+    {
+        return attributes != null ? attributes.size() : 0;
+    }
+
+    long lastModified()
+    {
+        return attributes != null ? attributes.lastModifiedTime().toMillis() : 0;
+    }
+}
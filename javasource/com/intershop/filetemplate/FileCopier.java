@@ -0,0 +1,118 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Kopiert normale Dateien 1:1 in die Ausgabe (REPLACE mit --copy-mode).
+ * MODE_COPY überträgt den Inhalt mit FileChannel.transferTo (im Kernel, ohne Puffer in Java),
+ * MODE_HARDLINK legt statt einer Kopie einen Hardlink auf die Quelldatei an,
+ * MODE_REFLINK überträgt ebenfalls mit transferTo; wo das JDK dafür copy_file_range verwendet, legen btrfs und XFS
+ * dabei eine Copy-on-Write Kopie an, die ihre Daten mit der Quelldatei teilt (ohne eigenen Prozess je Datei).
+ * Bei Hardlinks teilen sich alle Kopien einer Datei dieselben Daten auf der Platte;
+ * ist das nicht möglich (anderes Dateisystem, nicht unterstützt), wird normal kopiert.
+ * Bei Hardlinks ändert eine Änderung an der Kopie auch die Quelldatei; eine vorhandene Zieldatei wird deshalb immer zuerst gelöscht
+ * und nie überschrieben (sie kann ein Hardlink auf eine Vorlage aus einem früheren Lauf sein).
+ */
+class FileCopier
+{
+    public static final int MODE_COPY     = 0;
+    public static final int MODE_HARDLINK = 1;
+    public static final int MODE_REFLINK  = 2;
+
+    final int mode;
+    AtomicBoolean isFallbackLogged = new AtomicBoolean(false);  // the fallback to MODE_COPY is logged only once
+
+    FileCopier(int mode)
+    {
+        this.mode = mode;
+    }
+
+    /**
+     * @param modeName copy, hardlink oder reflink
+     * @return der Modus, -1 wenn modeName unbekannt ist
+     */
+    public static int parseMode(String modeName)
+    {
+        if ("copy".equals(modeName))
+        {
+            return MODE_COPY;
+        }
+        else if ("hardlink".equals(modeName))
+        {
+            return MODE_HARDLINK;
+        }
+        else if ("reflink".equals(modeName))
+        {
+            return MODE_REFLINK;
+        }
+        return -1;
+    }
+
+    /**
+     * Kopiert sourceFile nach targetFile, eine vorhandene Datei targetFile wird ersetzt
+     * @param sourceFile der parameter muss angegeben werden
+     * @param targetFile der parameter muss angegeben werden
+     * @throws IOException der werfer muss angegeben werden
+     */
+    public void copy(File sourceFile, File targetFile) throws IOException
+    {
+        // targetFile may share its data with a source, writing into it would change the source as well
+        Files.deleteIfExists(targetFile.toPath());
+
+        if (mode == MODE_HARDLINK)
+        {
+            try
+            {
+                Files.createLink(targetFile.toPath(), sourceFile.toPath());
+                return;
+            }
+            catch (IOException | UnsupportedOperationException e)
+            {
+                logFallback("hardlink", sourceFile, e.toString());
+            }
+        }
+
+        transfer(sourceFile, targetFile);
+    }
+
+    /**
+     * Kopiert den Inhalt von sourceFile nach targetFile mit FileChannel.transferTo
+     * (auf Linux sendfile/copy_file_range, d.h. die Daten werden nicht in den Java Heap kopiert)
+     * @param sourceFile der parameter muss angegeben werden
+     * @param targetFile der parameter muss angegeben werden, wird angelegt; eine vorhandene Datei wird zuerst gelöscht, nicht gekürzt
+     * @throws IOException der werfer muss angegeben werden
+     */
+    public static void transfer(File sourceFile, File targetFile) throws IOException
+    {
+        // an existing targetFile may be a hardlink to a source (--copy-mode hardlink), truncating it would empty the source
+        Files.deleteIfExists(targetFile.toPath());
+        try (FileChannel in = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(targetFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW))
+        {
+            long size = in.size();
+            long position = 0;
+            while (position < size)
+            {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0)
+                {
+                    break;  // source was truncated meanwhile
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    private void logFallback(String modeName, File sourceFile, String reason)
+    {
+        if (isFallbackLogged.compareAndSet(false, true))
+        {
+            FileTemplate.log("warn", "WARNING: FileCopier: " + modeName + " not possible for \"" + sourceFile.getAbsolutePath() + "\" (" + reason + "), copying instead (logged only once)");
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.intershop.filetemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Vorab zerlegter Name eines *.filetemplate: abwechselnd feste Textstücke und Placeholder (Slots).
+ * Alle definierten Placeholder-Namen werden in einem Durchlauf über den Namen gesucht (Trie über alle Namen, ab jedem "{{@"),
+ * statt pro Placeholder und Aufruf einen regulären Ausdruck zu übersetzen.
+ * Die neuen Namen werden mit einem Kilometerzähler (Odometer) über die im Namen verwendeten Placeholder mit mehreren Werten aufgezählt.
+ */
+class FileNameTemplate
+{
+    /**
+     * Trie über alle definierten Placeholder-Namen, einmal pro Lauf aufgebaut
+     */
+    static class PlaceholderNames
+    {
+        Node root = new Node();
+
+        static class Node
+        {
+            Map<Character, Node> children = new HashMap<Character, Node>();
+            String placeholder;  // not null if a placeholder name ends here
+            int order;           // position of placeholder in placeholdersWithValues
+        }
+
+        /**
+         * @param placeholdersWithValues der parameter muss angegeben werden
+         */
+        PlaceholderNames(Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues)
+        {
+            int order = 0;
+            for (String placeholder : placeholdersWithValues.keySet())
+            {
+                Node node = root;
+                for (int i = 0; i < placeholder.length(); i++)
+                {
+                    node = node.children.computeIfAbsent(placeholder.charAt(i), c -> new Node());
+                }
+                node.placeholder = placeholder;
+                node.order = order++;
+            }
+        }
+    }
+
+    String fileName;
+    String[] literals;          // literals.length == slotPlaceholders.length + 1
+    int literalsLength;
+    int[] slotPlaceholders;     // index into placeholders
+    String[] slotBaseNumbers;   // null entry if slot is not of form {{@PLACEHOLDERNAME#base X@}}
+    String[] placeholders;      // the placeholders used in the name, in the order of placeholdersWithValues
+    PlaceholderDefinition[] placeholderDefinitions;
+
+    /**
+     * Zerlegt fileName in Textstücke und Placeholder
+     * @param fileName der parameter muss angegeben werden, der Name ohne fileTemplateSuffix
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param placeholderNames der parameter muss angegeben werden, die Namen aus placeholdersWithValues
+     * @return der zerlegte Name
+     */
+    static FileNameTemplate compile(String fileName, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, PlaceholderNames placeholderNames)
+    {
+        PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+
+        List<String> literals = new ArrayList<String>();
+        List<PlaceholderNames.Node> slotNodes = new ArrayList<PlaceholderNames.Node>();
+        List<String> slotBaseNumbers = new ArrayList<String>();
+
+        int uncopiedSectionStartIndex = 0;
+        int placeholderStart = fileName.indexOf("{{@");
+        while (placeholderStart >= 0)
+        {
+            // walk along the trie, every placeholder name ending on the way is a candidate,
+            // if several match the one defined first wins
+            PlaceholderNames.Node matchedNode = null;
+            int matchedEnd = -1;
+            String matchedBaseNumber = null;
+
+            PlaceholderNames.Node node = placeholderNames.root;
+            for (int position = placeholderStart + 3; position < fileName.length(); )
+            {
+                node = node.children.get(fileName.charAt(position++));
+                if (node == null)
+                {
+                    break;
+                }
+
+                if (node.placeholder != null && (matchedNode == null || node.order < matchedNode.order))
+                {
+                    int end = placeholderScanner.matchValueSuffix(fileName, position);
+                    if (end >= 0)
+                    {
+                        matchedNode = node;
+                        matchedEnd = end;
+                        matchedBaseNumber = placeholderScanner.baseNumberStart < 0 ? null : fileName.substring(placeholderScanner.baseNumberStart, placeholderScanner.baseNumberEnd);
+                    }
+                }
+            }
+
+            if (matchedNode != null)
+            {
+                literals.add(fileName.substring(uncopiedSectionStartIndex, placeholderStart));
+                slotNodes.add(matchedNode);
+                slotBaseNumbers.add(matchedBaseNumber);
+                uncopiedSectionStartIndex = matchedEnd;
+                placeholderStart = fileName.indexOf("{{@", matchedEnd);
+            }
+            else
+            {
+                placeholderStart = fileName.indexOf("{{@", placeholderStart + 1);
+            }
+        }
+        literals.add(fileName.substring(uncopiedSectionStartIndex));
+
+        // the used placeholders in the order of placeholdersWithValues (the first one changes fastest)
+        PlaceholderNames.Node[] usedNodes = new PlaceholderNames.Node[placeholdersWithValues.size()];
+        for (PlaceholderNames.Node slotNode : slotNodes)
+        {
+            usedNodes[slotNode.order] = slotNode;
+        }
+        int[] placeholderIndexes = new int[usedNodes.length];
+        List<String> placeholders = new ArrayList<String>();
+        for (int order = 0; order < usedNodes.length; order++)
+        {
+            if (usedNodes[order] != null)
+            {
+                placeholderIndexes[order] = placeholders.size();
+                placeholders.add(usedNodes[order].placeholder);
+            }
+        }
+
+        FileNameTemplate fileNameTemplate = new FileNameTemplate();
+        fileNameTemplate.fileName = fileName;
+        fileNameTemplate.literals = literals.toArray(new String[literals.size()]);
+        for (String literal : literals)
+        {
+            fileNameTemplate.literalsLength += literal.length();
+        }
+        fileNameTemplate.slotPlaceholders = new int[slotNodes.size()];
+        for (int i = 0; i < slotNodes.size(); i++)
+        {
+            fileNameTemplate.slotPlaceholders[i] = placeholderIndexes[slotNodes.get(i).order];
+        }
+        fileNameTemplate.slotBaseNumbers = slotBaseNumbers.toArray(new String[slotBaseNumbers.size()]);
+        fileNameTemplate.placeholders = placeholders.toArray(new String[placeholders.size()]);
+        fileNameTemplate.placeholderDefinitions = new PlaceholderDefinition[placeholders.size()];
+        for (int i = 0; i < placeholders.size(); i++)
+        {
+            fileNameTemplate.placeholderDefinitions[i] = placeholdersWithValues.get(placeholders.get(i));
+        }
+        return fileNameTemplate;
+    }
+
+    /**
+     * @param fixedPlaceholderValues der parameter muss angegeben werden, Werte aus umgebenden Verzeichnisnamen
+     * @param fileTemplateSuffix der parameter muss angegeben werden, nur für die Meldungen
+     * @return ein Odometer, der alle neuen Namen aufzählt
+     */
+    Odometer odometer(Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues, String fileTemplateSuffix)
+    {
+        return new Odometer(fixedPlaceholderValues, fileTemplateSuffix);
+    }
+
+    /**
+     * Zählt alle Kombinationen der Werte der im Namen verwendeten Placeholder auf.
+     * Jede Stelle ist ein Placeholder mit mehreren Werten (ohne festen Wert), die Basis einer Stelle ist die Anzahl seiner Werte;
+     * die erste Stelle (der erste Placeholder in placeholdersWithValues) ändert sich am schnellsten.
+     * Die verwendeten Placeholder eines Datasets ohne festen Wert bilden zusammen eine Stelle, die ihre Tupel aus den passenden Zeilen
+     * mit einem Cursor liest; läuft sie über, wird die Datei für die nächste Runde neu gelesen.
+     * Ein Schritt ändert nur die Stellen, die weiterzählen, und legt außer dem neuen Namen nichts an.
+     */
+    class Odometer
+    {
+        String[] values;       // current value per used placeholder
+        int[] digitPlaceholders;  // index into placeholders per digit, the first one for a dataset digit
+        long[] digits;
+        long[] radixes;
+        int[][] digitTuplePlaceholders;  // null, or the indexes into placeholders set by a dataset digit
+        PlaceholderDataset.Cursor[] cursors;
+        Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues;
+        boolean isFirstStep = true;
+        String fileTemplateSuffix;
+
+        Odometer(Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues, String fileTemplateSuffix)
+        {
+            this.fixedPlaceholderValues = fixedPlaceholderValues;
+            this.fileTemplateSuffix = fileTemplateSuffix;
+            values = new String[placeholders.length];
+            List<Integer> digitPlaceholderList = new ArrayList<Integer>();
+            Map<PlaceholderDataset, List<Integer>> datasetPlaceholders = new HashMap<PlaceholderDataset, List<Integer>>();
+            for (int i = 0; i < placeholders.length; i++)
+            {
+                values[i] = fixedPlaceholderValues.get(placeholders[i]);
+                if (values[i] == null)
+                {
+                    if (placeholderDefinitions[i].isDatasetPlaceholderValue())
+                    {
+                        // one digit for all used placeholders of the dataset, its values are read in the first step
+                        List<Integer> tuplePlaceholders = datasetPlaceholders.get(placeholderDefinitions[i].dataset);
+                        if (tuplePlaceholders == null)
+                        {
+                            tuplePlaceholders = new ArrayList<Integer>();
+                            datasetPlaceholders.put(placeholderDefinitions[i].dataset, tuplePlaceholders);
+                            digitPlaceholderList.add(i);
+                        }
+                        tuplePlaceholders.add(i);
+                        continue;
+                    }
+
+                    values[i] = placeholderDefinitions[i].getValue(0);
+                    if (!placeholderDefinitions[i].isSinglePlaceholderValue())
+                    {
+                        digitPlaceholderList.add(i);
+                    }
+                }
+            }
+
+            digitPlaceholders = new int[digitPlaceholderList.size()];
+            digits = new long[digitPlaceholders.length];
+            radixes = new long[digitPlaceholders.length];
+            digitTuplePlaceholders = new int[digitPlaceholders.length][];
+            cursors = new PlaceholderDataset.Cursor[digitPlaceholders.length];
+            for (int digit = 0; digit < digitPlaceholders.length; digit++)
+            {
+                digitPlaceholders[digit] = digitPlaceholderList.get(digit);
+                radixes[digit] = Math.max(placeholderDefinitions[digitPlaceholders[digit]].getValueCount(), 1);
+
+                List<Integer> tuplePlaceholders = datasetPlaceholders.get(placeholderDefinitions[digitPlaceholders[digit]].dataset);
+                if (tuplePlaceholders != null)
+                {
+                    digitTuplePlaceholders[digit] = new int[tuplePlaceholders.size()];
+                    for (int i = 0; i < tuplePlaceholders.size(); i++)
+                    {
+                        digitTuplePlaceholders[digit][i] = tuplePlaceholders.get(i);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Geht zur nächsten Kombination und gibt den neuen Namen aus
+         * @param currentPlaceholderValues der parameter muss angegeben werden (out), erhält die Werte der im Namen verwendeten Placeholder
+         * @return der neue Name, null wenn alle Kombinationen aufgezählt sind
+         */
+        String next(Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+        {
+            if (isFirstStep)
+            {
+                isFirstStep = false;
+                for (int digit = 0; digit < digits.length; digit++)
+                {
+                    if (digitTuplePlaceholders[digit] != null && !startTuples(digit))
+                    {
+                        closeCursors();
+                        return null;  // no row of the dataset matches, there is no combination at all
+                    }
+                }
+                for (int i = 0; i < placeholders.length; i++)
+                {
+                    currentPlaceholderValues.put(placeholders[i], values[i]);
+                }
+            }
+            else
+            {
+                int digit = 0;
+                while (digit < digits.length && !step(digit, currentPlaceholderValues))
+                {
+                    digit++;  // carry over to the next digit
+                }
+                if (digit == digits.length)
+                {
+                    closeCursors();
+                    return null;  // all digits wrapped around
+                }
+            }
+
+            StringBuilder newFileNameBuilder = new StringBuilder(literalsLength + 16 * slotPlaceholders.length);
+            for (int slot = 0; slot < slotPlaceholders.length; slot++)
+            {
+                newFileNameBuilder.append(literals[slot]);
+
+                int placeholder = slotPlaceholders[slot];
+                String baseNumber = slotBaseNumbers[slot];
+                newFileNameBuilder.append(baseNumber == null ? values[placeholder] : placeholderDefinitions[placeholder].getNumberOfPlaceholderValue(values[placeholder], baseNumber));
+            }
+            newFileNameBuilder.append(literals[slotPlaceholders.length]);
+
+            String newFileName = newFileNameBuilder.toString();
+            if (FileTemplate.isLogEnabled(Logger.DEBUG))
+            {
+                FileTemplate.log("debug", "getGetNextFileNameFromFileTemplateName: \"" + fileName + fileTemplateSuffix + "\" --> \"" + newFileName + "\"");
+            }
+            return newFileName;
+        }
+
+        // next value of digit, false if it wrapped around to its first value
+        private boolean step(int digit, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+        {
+            if (digitTuplePlaceholders[digit] != null)
+            {
+                String[] tuple = cursors[digit].next();
+                boolean isWrapped = tuple == null;
+                if (isWrapped && !startTuples(digit))
+                {
+                    return false;  // the dataset changed and has no matching row any more, the last values stay
+                }
+                if (!isWrapped)
+                {
+                    setTuple(digit, tuple);
+                }
+                for (int placeholder : digitTuplePlaceholders[digit])
+                {
+                    currentPlaceholderValues.put(placeholders[placeholder], values[placeholder]);
+                }
+                return !isWrapped;
+            }
+
+            boolean isWrapped = ++digits[digit] == radixes[digit];
+            if (isWrapped)
+            {
+                digits[digit] = 0;
+            }
+            setDigitValue(digit, currentPlaceholderValues);
+            return !isWrapped;
+        }
+
+        // reads the dataset of digit from the start and sets its first tuple, false if no row matches
+        private boolean startTuples(int digit)
+        {
+            int[] tuplePlaceholders = digitTuplePlaceholders[digit];
+            String[] tuplePlaceholderNames = new String[tuplePlaceholders.length];
+            for (int i = 0; i < tuplePlaceholders.length; i++)
+            {
+                tuplePlaceholderNames[i] = placeholders[tuplePlaceholders[i]];
+            }
+
+            cursors[digit] = placeholderDefinitions[digitPlaceholders[digit]].dataset.cursor(fixedPlaceholderValues, tuplePlaceholderNames);
+            String[] tuple = cursors[digit].next();
+            if (tuple == null)
+            {
+                return false;
+            }
+            setTuple(digit, tuple);
+            return true;
+        }
+
+        private void setTuple(int digit, String[] tuple)
+        {
+            int[] tuplePlaceholders = digitTuplePlaceholders[digit];
+            for (int i = 0; i < tuplePlaceholders.length; i++)
+            {
+                values[tuplePlaceholders[i]] = tuple[i];
+            }
+        }
+
+        private void closeCursors()
+        {
+            for (PlaceholderDataset.Cursor cursor : cursors)
+            {
+                if (cursor != null)
+                {
+                    cursor.close();
+                }
+            }
+        }
+
+        private void setDigitValue(int digit, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+        {
+            int placeholder = digitPlaceholders[digit];
+            values[placeholder] = placeholderDefinitions[placeholder].getValue(digits[digit]);
+            currentPlaceholderValues.put(placeholders[placeholder], values[placeholder]);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * Schreibt die Ausgabe direkt ins Dateisystem (Standard)
+ */
+class FileSystemOutputSink implements OutputSink
+{
+    FileCopier fileCopier;
+
+    FileSystemOutputSink()
+    {
+        this(new FileCopier(FileCopier.MODE_COPY));
+    }
+
+    FileSystemOutputSink(FileCopier fileCopier)
+    {
+        this.fileCopier = fileCopier;
+    }
+
+    public boolean exists(File output)
+    {
+        return output.exists();
+    }
+
+    public boolean canReplace()
+    {
+        return true;
+    }
+
+    public boolean delete(File output)
+    {
+        return FileTemplate.deepDelete(output);
+    }
+
+    public boolean makeDirectory(File newDir)
+    {
+        return newDir.isDirectory() || newDir.mkdirs();
+    }
+
+    public OutputStream openFile(File newFile) throws IOException
+    {
+        // an existing newFile may be a hardlink to a source (--copy-mode hardlink), it is replaced instead of truncated
+        Files.deleteIfExists(newFile.toPath());
+        return new FileOutputStream(newFile);
+    }
+
+    public void copyFile(File sourceFile, File newFile)
+    {
+        try
+        {
+            fileCopier.copy(sourceFile, newFile);
+        }
+        catch (IOException exIO)
+        {
+            FileTemplate.log("err", "copyFile: \"" + sourceFile + "\" --> \"" + newFile + "\": " + exIO.toString());
+        }
+    }
+
+    public void close()
+    {
+        // every file is complete when its stream is closed
+    }
+}
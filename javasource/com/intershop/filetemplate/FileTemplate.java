@@ -1,21 +1,36 @@
 package com.intershop.filetemplate;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.text.SimpleDateFormat;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -25,7 +40,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 /**
@@ -33,10 +52,19 @@ import java.util.regex.Pattern;
  */
 public class FileTemplate
 {
-    public static String fileTemplateSuffix = ".filetemplate";
+    public static String fileTemplateSuffix = ".filetemplate";  // default for new GenerationContexts, see FileTemplateEngine for other suffixes
+
+    // set by FileTemplateEngine for the threads of a run, null: messages go to Logger
+    static final ThreadLocal<LogHandler> logHandler = new ThreadLocal<LogHandler>();
+
+    // entries of a directory read (and measured as phase "traverse") at a time by forEachDirElement
+    static final int DIR_ELEMENTS_BATCH = 1024;
 
     //public static int action = -1;  // 0 = LIST, 1 = REPLACE
 
+    //
+    // The following regular expressions define the placeholder syntax. Matching is done by PlaceholderScanner,
+    // a single pass scanner without backtracking that yields exactly the same matches.
     //
     // A regular expression matching all {{@PLACEHOLDERNAME@}}
     // We use the reluctant quantifier *? to match shortest possible sequences, e.g. in a line "{{@PH1@}}{{@PH2@}}" match PH1 and PH2 instead of PH1@}}{{@PH2
@@ -48,11 +76,20 @@ public class FileTemplate
 
     public static void printUsage()
     {
-        log("std", "usage: FileTemplate action directory [properties-file]");
+        log("std", "usage: FileTemplate action directory [properties-file] [options]");
         log("std", "");
-        log("std", "        action           LIST or REPLACE");
+        log("std", "        action           LIST, REPLACE, PLAN, WATCH or SERVE");
         log("std", "                             LIST     Lists all placeholders.");
         log("std", "                             REPLACE  Executes a replacement, for each placeholder you need to supply a value in properties-file.");
+        log("std", "                             PLAN     Dry run of REPLACE, nothing is written: reports the number of files and directories and the bytes");
+        log("std", "                                      that would be generated (also per template), names generated more than once (collisions),");
+        log("std", "                                      undefined placeholders and templates with unbalanced BEGIN/END sections.");
+        log("std", "                             WATCH    REPLACE, then keeps running and generates again after each change of the templates, properties-file or dataset files.");
+        log("std", "                                      Like REPLACE with --manifest, only outputs of changed templates or of changed placeholders are written again.");
+        log("std", "                             SERVE    \"FileTemplate SERVE socket-file [--threads N]\": keeps running and executes LIST, REPLACE and PLAN");
+        log("std", "                                      requests sent by FileTemplateClient to the Unix domain socket socket-file, up to N (default 4) at a time.");
+        log("std", "                                      \"FileTemplateClient socket-file args\" prints the same messages and exits with the same status as");
+        log("std", "                                      \"FileTemplate args\"; \"FileTemplateClient socket-file STOP\" stops the server.");
         log("std", "");
         log("std", "        directory        The base directory.");
         log("std", "                         May contain files or directories named *.filetemplate");
@@ -61,7 +98,7 @@ public class FileTemplate
         log("std", "                         All files and directories containing placeholders in their name or content need to be named <real-file-name>.filetemplate, other file's names and content is not touched (but files are copied 1:1 when located in a filetemplate directory).");
         log("std", "");
         log("std", "        properties-file  A Java properties file.");
-        log("std", "                         Required in case action = REPLACE.");
+        log("std", "                         Required in case action = REPLACE or PLAN.");
         log("std", "                         Contains consecutively numbered placeholder name-value pairs.");
         log("std", "                         The numbering starts with 1, the outermost placeholder.");
         log("std", "                         The name  key is: \"Placeholder#\",");
@@ -79,6 +116,66 @@ public class FileTemplate
         log("std", "                                 A range of integral numbers, possibly preceeded with leading zeros.");
         log("std", "                                 Example: Value = [001 - 100]");
         log("std", "                                 (100 copies of the file/dir containing the placeholder will be created, using 001, 002, ..., 099 and 100 as placeholders.)");
+        log("std", "                             Dataset");
+        log("std", "                                 Several placeholders with values from the rows of a CSV file (*.tsv: tab separated), the first row names the columns.");
+        log("std", "                                 Example: Placeholder2 = Partner, Region, Channel");
+        log("std", "                                          Placeholder2Dataset = partners.csv (relative to the properties-file)");
+        log("std", "                                 (One copy per distinct combination of the used placeholders in the rows matching the values fixed outside;");
+        log("std", "                                 the file is read row by row each time, not held in memory.)");
+        log("std", "");
+        log("std", "        options");
+        log("std", "            --threads N  REPLACE: number of threads used to generate files and directories in parallel.");
+        log("std", "                         LIST with --usage: number of threads used to scan files and directories in parallel.");
+        log("std", "                         Default is 1, i.e. sequential processing.");
+        log("std", "            --out dir    REPLACE only: output directory.");
+        log("std", "                         All generated files and directories are written to this directory (together with copies of all other files),");
+        log("std", "                         the directory with the *.filetemplate files is not modified.");
+        log("std", "                         Default is to generate each file/directory next to its *.filetemplate.");
+        log("std", "            --manifest file");
+        log("std", "                         REPLACE only: incremental generation.");
+        log("std", "                         The file records every generated file with its template, a hash of the template content and the placeholder values used.");
+        log("std", "                         Only files whose template or used placeholder values changed since the last run are written again,");
+        log("std", "                         files that are no longer generated are removed. The file is created if it does not exist.");
+        log("std", "            --archive file");
+        log("std", "                         REPLACE only: writes all generated files and directories (together with copies of all other files)");
+        log("std", "                         as entries of a ZIP (file name ending with .zip) or TAR archive (any other name) instead of the file system,");
+        log("std", "                         the directory with the *.filetemplate files is not modified. \"-\" writes a TAR archive to stdout (messages go to stderr).");
+        log("std", "                         Not combinable with --out and --manifest.");
+        log("std", "            --copy-mode mode");
+        log("std", "                         REPLACE only: how files without placeholders are copied, one of");
+        log("std", "                             copy      Copies the content (default).");
+        log("std", "                             hardlink  Creates a hard link to the original file, all copies share the same data.");
+        log("std", "                                       Changing a copy changes the original file as well!");
+        log("std", "                             reflink   Like copy; where the kernel copy clones extents (btrfs, XFS) the copies share the same data until changed.");
+        log("std", "                         Falls back to copy where the file system does not support the mode.");
+        log("std", "            --staged     REPLACE and WATCH: each generated file and directory is written under a hidden name next to it");
+        log("std", "                         and moved into place when complete, so readers never see a half written output.");
+        log("std", "                         Replaced directories are moved aside and deleted in the background. Not combinable with --archive.");
+        log("std", "            --skip-unchanged");
+        log("std", "                         REPLACE and WATCH: compares each output with the existing file while it is generated and leaves the file");
+        log("std", "                         untouched (including its modification time) if the content is the same; a changed file is replaced in one step.");
+        log("std", "                         Existing generated directories are kept and updated instead of being removed first. Not combinable with --archive.");
+        log("std", "            --charset name");
+        log("std", "                         Charset of the *.filetemplate files, e.g. UTF-8 or ISO-8859-1 (UTF-8, US-ASCII or a single-byte charset).");
+        log("std", "                         REPLACE: files are processed byte by byte (large files memory mapped), only placeholder names are decoded and values are encoded");
+        log("std", "                         with this charset; all other bytes, including line endings, are copied unchanged.");
+        log("std", "                         Default is to read and write lines as text in the platform charset (line endings are rewritten, a missing last one is added).");
+        log("std", "            --log-level level");
+        log("std", "                         Messages to log: error, warn, info (default) or debug.");
+        log("std", "                         debug adds a message per generated name and per #base number of a list value.");
+        log("std", "            --quiet      Logs errors only (same as --log-level error).");
+        log("std", "            --metrics-out file");
+        log("std", "                         Writes counters and latencies per phase (traverse, parse, render, copy, delete) as JSON to file.");
+        log("std", "                         Each phase also emits the JFR event com.intershop.filetemplate.Phase while a flight recording runs.");
+        log("std", "            --usage file");
+        log("std", "                         LIST only: writes every occurrence of a placeholder with its location (file:line:column, \"(name)\" for the file/dir name)");
+        log("std", "                         as soon as a file is scanned, followed by a summary of occurrences and files per placeholder.");
+        log("std", "                         \"-\" writes to stdout (messages go to stderr).");
+        log("std", "            --usage-format format");
+        log("std", "                         LIST only: text (default) or json (one JSON object per line and file, the last line holds the summary).");
+        log("std", "            --max-files N, --max-bytes N, --max-depth N");
+        log("std", "                         PLAN only: limits for the generated output (number of files and directories, total bytes, directory levels).");
+        log("std", "                         PLAN stops as soon as a limit is exceeded and exits with status 1.");
     }
 
     /**
@@ -90,6 +187,34 @@ public class FileTemplate
      * @return Es wird zurückgegeben, ob es einen Placeholder gibt oder nicht
      */
     public static Set<String /* placeholder */> processFileOrDir(File fileOrDir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues /* in/out */, boolean isInCopy)
+    {
+        return processFileOrDir(fileOrDir, placeholdersWithValues, fixedPlaceholderValues, isInCopy, new GenerationContext());
+    }
+
+    /**
+     * Diese Methode sucht nach placeholdern
+     * @param fileOrDir der parameter muss angegeben werden
+     * @param placeholdersWithValues der parameter muss nicht angegeben werden
+     * @param fixedPlaceholderValues der parameter muss angegeben werden
+     * @param isInCopy der parameter muss nicht angegeben werden
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
+     * @return Es wird zurückgegeben, ob es einen Placeholder gibt oder nicht
+     */
+    public static Set<String /* placeholder */> processFileOrDir(File fileOrDir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues /* in/out */, boolean isInCopy, GenerationContext generationContext)
+    {
+        return processFileOrDir(DirElement.read(fileOrDir), placeholdersWithValues, fixedPlaceholderValues, isInCopy, generationContext);
+    }
+
+    /**
+     * Wie processFileOrDir(File, Map, Map, boolean, GenerationContext), mit den bereits gelesenen Attributen von fileOrDir
+     * @param fileOrDir der parameter muss angegeben werden
+     * @param placeholdersWithValues der parameter muss nicht angegeben werden
+     * @param fixedPlaceholderValues der parameter muss angegeben werden
+     * @param isInCopy der parameter muss nicht angegeben werden
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
+     * @return Es wird zurückgegeben, ob es einen Placeholder gibt oder nicht
+     */
+    static Set<String /* placeholder */> processFileOrDir(DirElement fileOrDir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues /* in/out */, boolean isInCopy, GenerationContext generationContext)
     {
         //
         // Pre-conditions
@@ -97,7 +222,7 @@ public class FileTemplate
 
         if (!fileOrDir.exists())
         {
-            log("err", "processFileOrDir: file or directory \"" + fileOrDir.getAbsolutePath() + "\" does not exist");
+            log("err", "processFileOrDir: file or directory \"" + fileOrDir.file.getAbsolutePath() + "\" does not exist");
             return null;
         }
 
@@ -108,6 +233,7 @@ public class FileTemplate
         Set<String /* placeholder */> foundPlaceholders = new HashSet<String /* placeholder */>();
 
         String fileName = fileOrDir.getName();
+        String fileTemplateSuffix = generationContext.fileTemplateSuffix;
         boolean fileNameEndsWithTemplateSuffix = fileName.endsWith(fileTemplateSuffix);
 
         if (fileOrDir.isDirectory() && (!fileNameEndsWithTemplateSuffix || placeholdersWithValues == null)) // a dir that is not a template or a dir in LIST mode
@@ -118,7 +244,11 @@ public class FileTemplate
                 foundPlaceholders = getPlaceholdersFromString(fileName);
             }
 
-            foundPlaceholders.addAll(processDirContent(fileOrDir, placeholdersWithValues, fixedPlaceholderValues /* in */, isInCopy));
+            Set<String /* placeholder */> dirPlaceholders = processDirContent(fileOrDir, placeholdersWithValues, fixedPlaceholderValues /* in */, isInCopy, generationContext);
+            if (dirPlaceholders != null)
+            {
+                foundPlaceholders.addAll(dirPlaceholders);
+            }
         }
         else if (fileNameEndsWithTemplateSuffix)
         {
@@ -130,42 +260,22 @@ public class FileTemplate
                 foundPlaceholders = getPlaceholdersFromString(fileName);
 
                 if (!fileOrDir.isDirectory()) {
-                    foundPlaceholders.addAll(getPlaceholdersFromFileContent(fileOrDir));
+                    Set<String /* placeholder */> filePlaceholders = getPlaceholdersFromFileContent(fileOrDir, generationContext.charset);
+                    if (filePlaceholders != null)
+                    {
+                        foundPlaceholders.addAll(filePlaceholders);
+                    }
                 }
             }
             else
             {
                 // action == REPLACE
 
-                // shallow copy fixedPlaceholderValues into currentPlaceholderValues
-                Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues = new HashMap<String /* placeholder */, String /* placeholder value */>(fixedPlaceholderValues);
-
-                boolean isFirstCall = true;
-                boolean isCopied = false;
-                String newFileName = null;
-                do
-                {
-                    newFileName = getNextFileNameFromFileTemplateName(fileName, placeholdersWithValues, fixedPlaceholderValues /* in */, currentPlaceholderValues /* in/out */, isFirstCall);
-                    isFirstCall = false;
-                    if (newFileName != null)
-                    {
-                        if (fileOrDir.isDirectory())
-                        {
-                            replaceDirWithCopy(fileOrDir, newFileName != null ? newFileName : fileName, placeholdersWithValues, currentPlaceholderValues);
-                        }
-                        else // fileOrDir is not a directory
-                        {
-                            replaceFileWithCopy(fileOrDir, newFileName != null ? newFileName : fileName, placeholdersWithValues, currentPlaceholderValues);
-                        }
-
-                        isCopied = true;
-                    }
-                }
-                while (newFileName != null);
+                boolean isCopied = expandTemplate(fileOrDir, fileName, fileOrDir.file.getParentFile(), placeholdersWithValues, fixedPlaceholderValues /* in */, generationContext);
 
                 if (isInCopy && isCopied)
                 {
-                    deepDelete(fileOrDir);
+                    deepDelete(fileOrDir.file);
                 }
             }
         }
@@ -173,6 +283,194 @@ public class FileTemplate
         return foundPlaceholders;
     }
 
+    /**
+     * Erzeugt in targetDir eine Kopie des *.filetemplate (Datei oder Verzeichnis) pro neuem Namen,
+     * d.h. pro Kombination der Werte der im Namen verwendeten Placeholder
+     * @param fileOrDir der parameter muss angegeben werden
+     * @param fileName der parameter muss angegeben werden, der Name ohne fileTemplateSuffix
+     * @param targetDir der parameter muss angegeben werden, das Verzeichnis in dem die Kopien angelegt werden
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param fixedPlaceholderValues der parameter muss angegeben werden
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
+     * @return true wenn mindestens eine Kopie angelegt wurde
+     */
+    public static boolean expandTemplate(File fileOrDir, String fileName, File targetDir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues /* in */, GenerationContext generationContext)
+    {
+        return expandTemplate(DirElement.read(fileOrDir), fileName, targetDir, placeholdersWithValues, fixedPlaceholderValues, generationContext);
+    }
+
+    /**
+     * Wie expandTemplate(File, String, File, Map, Map, GenerationContext), mit den bereits gelesenen Attributen von fileOrDir
+     */
+    static boolean expandTemplate(DirElement fileOrDir, String fileName, File targetDir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues /* in */, GenerationContext generationContext)
+    {
+        if (isPlanningExpansions(generationContext))
+        {
+            // parallel mode (or output that can not be replaced): plan all copies first, then create them as independent tasks
+            Map<String /* new name */, TemplateExpansion> plannedExpansions = new LinkedHashMap<String /* new name */, TemplateExpansion>();
+            for (TemplateExpansion templateExpansion : planTemplateExpansions(fileOrDir, fileName, placeholdersWithValues, fixedPlaceholderValues, generationContext))
+            {
+                addPlannedExpansion(plannedExpansions, templateExpansion, targetDir);
+            }
+
+            List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+            for (TemplateExpansion templateExpansion : plannedExpansions.values())
+            {
+                tasks.add(ForkJoinTask.adapt(() -> writeTemplateExpansion(templateExpansion, targetDir, placeholdersWithValues, generationContext)));
+            }
+            invokeTasks(tasks, generationContext.parallel);
+
+            return !plannedExpansions.isEmpty();
+        }
+
+        // shallow copy fixedPlaceholderValues into currentPlaceholderValues
+        Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues = new HashMap<String /* placeholder */, String /* placeholder value */>(fixedPlaceholderValues);
+
+        boolean isDirectory = fileOrDir.isDirectory();
+
+        boolean isCopied = false;
+        FileNameTemplate.Odometer fileNames = generationContext.getFileNameTemplate(fileName, placeholdersWithValues).odometer(fixedPlaceholderValues, generationContext.fileTemplateSuffix);
+        String newFileName;
+        while ((newFileName = fileNames.next(currentPlaceholderValues /* out */)) != null)
+        {
+            if (isDirectory)
+            {
+                replaceDirWithCopy(fileOrDir, targetDir, newFileName, placeholdersWithValues, currentPlaceholderValues, generationContext);
+            }
+            else // fileOrDir is not a directory
+            {
+                replaceFileWithCopy(fileOrDir, targetDir, newFileName, placeholdersWithValues, currentPlaceholderValues, generationContext);
+            }
+
+            isCopied = true;
+        }
+
+        return isCopied;
+    }
+
+    /**
+     * Ermittelt alle Kopien eines *.filetemplate (neuer Name und Placeholder-Werte), ohne etwas zu schreiben
+     * @param fileOrDir der parameter muss angegeben werden
+     * @param fileName der parameter muss angegeben werden, der Name ohne fileTemplateSuffix
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param fixedPlaceholderValues der parameter muss angegeben werden
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
+     * @return die Kopien in der Reihenfolge, in der sie sequentiell erzeugt würden
+     */
+    public static List<TemplateExpansion> planTemplateExpansions(File fileOrDir, String fileName, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues /* in */, GenerationContext generationContext)
+    {
+        return planTemplateExpansions(DirElement.read(fileOrDir), fileName, placeholdersWithValues, fixedPlaceholderValues, generationContext);
+    }
+
+    /**
+     * Wie planTemplateExpansions(File, String, Map, Map, GenerationContext), mit den bereits gelesenen Attributen von fileOrDir
+     */
+    static List<TemplateExpansion> planTemplateExpansions(DirElement fileOrDir, String fileName, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues /* in */, GenerationContext generationContext)
+    {
+        List<TemplateExpansion> templateExpansions = new ArrayList<TemplateExpansion>();
+
+        // shallow copy fixedPlaceholderValues into currentPlaceholderValues
+        Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues = new HashMap<String /* placeholder */, String /* placeholder value */>(fixedPlaceholderValues);
+
+        FileNameTemplate.Odometer fileNames = generationContext.getFileNameTemplate(fileName, placeholdersWithValues).odometer(fixedPlaceholderValues, generationContext.fileTemplateSuffix);
+        String newFileName;
+        while ((newFileName = fileNames.next(currentPlaceholderValues /* out */)) != null)
+        {
+            // every copy gets its own placeholder values, so copies can be created independently
+            templateExpansions.add(new TemplateExpansion(fileOrDir, newFileName, new HashMap<String /* placeholder */, String /* placeholder value */>(currentPlaceholderValues)));
+        }
+
+        return templateExpansions;
+    }
+
+    /**
+     * Fügt eine geplante Kopie hinzu. Gibt es bereits eine Kopie mit demselben Namen, wird sie ersetzt,
+     * wie bei der sequentiellen Verarbeitung, bei der die spätere Kopie die frühere löscht.
+     * @param plannedExpansions der parameter muss angegeben werden (in/out)
+     * @param templateExpansion der parameter muss angegeben werden
+     * @param targetDir der parameter muss angegeben werden
+     */
+    static void addPlannedExpansion(Map<String /* new name */, TemplateExpansion> plannedExpansions, TemplateExpansion templateExpansion, File targetDir)
+    {
+        TemplateExpansion previousTemplateExpansion = plannedExpansions.remove(templateExpansion.newName);
+        if (previousTemplateExpansion != null)
+        {
+            log("warn", "WARNING: expandTemplate: \"" + new File(targetDir, templateExpansion.newName).getAbsolutePath() + "\" is generated from \"" + previousTemplateExpansion.template.getName() + "\" and \"" + templateExpansion.template.getName() + "\", keeping the last one");
+        }
+        plannedExpansions.put(templateExpansion.newName, templateExpansion);
+    }
+
+    /**
+     * Erzeugt eine geplante Kopie eines *.filetemplate in targetDir
+     * @param templateExpansion der parameter muss angegeben werden
+     * @param targetDir der parameter muss angegeben werden
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
+     */
+    static void writeTemplateExpansion(TemplateExpansion templateExpansion, File targetDir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, GenerationContext generationContext)
+    {
+        if (templateExpansion.template.isDirectory())
+        {
+            replaceDirWithCopy(templateExpansion.template, targetDir, templateExpansion.newName, placeholdersWithValues, templateExpansion.placeholderValues, generationContext);
+        }
+        else
+        {
+            replaceFileWithCopy(templateExpansion.template, targetDir, templateExpansion.newName, placeholdersWithValues, templateExpansion.placeholderValues, generationContext);
+        }
+    }
+
+    /**
+     * Erzeugt alle Dateien und Verzeichnisse aus fileOrDir in outputDir (REPLACE mit --out).
+     * fileOrDir wird dabei nur gelesen: normale Dateien werden nach outputDir kopiert,
+     * *.filetemplate Dateien/Verzeichnisse werden mit ihren neuen Namen und Inhalten in outputDir angelegt.
+     * @param fileOrDir der parameter muss angegeben werden
+     * @param outputDir der parameter muss angegeben werden, wird angelegt falls nötig
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
+     */
+    public static void processFileOrDirToOutputDir(File fileOrDir, File outputDir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, GenerationContext generationContext)
+    {
+        DirElement baseElement = DirElement.read(fileOrDir);
+
+        //
+        // Pre-conditions
+        //
+
+        if (!baseElement.exists())
+        {
+            log("err", "processFileOrDirToOutputDir: file or directory \"" + fileOrDir.getAbsolutePath() + "\" does not exist");
+            return;
+        }
+
+        if (!generationContext.outputSink.makeDirectory(outputDir))
+        {
+            log("err", "processFileOrDirToOutputDir: output directory \"" + outputDir.getAbsolutePath() + "\" could not be created");
+            return;
+        }
+
+        //
+        // Main tasks
+        //
+
+        Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues = new HashMap<String /* placeholder */, String /* placeholder value */>();
+
+        String fileTemplateSuffix = generationContext.fileTemplateSuffix;
+        String fileName = fileOrDir.getName();
+        if (fileName.endsWith(fileTemplateSuffix))
+        {
+            fileName = fileName.substring(0, fileName.length() - fileTemplateSuffix.length());
+            expandTemplate(baseElement, fileName, outputDir, placeholdersWithValues, fixedPlaceholderValues, generationContext);
+        }
+        else if (baseElement.isDirectory())
+        {
+            renderDirContent(fileOrDir, outputDir, placeholdersWithValues, fixedPlaceholderValues, generationContext);
+        }
+        else
+        {
+            copyFile(baseElement, new File(outputDir, fileName), generationContext);
+        }
+    }
+
     /**
      * Prüft ob der placeholder verwendbar ist
      * @param dir der parameter muss angegeben werden
@@ -182,6 +480,28 @@ public class FileTemplate
      * @return Es wird zurückgegeben, ob es einen Placeholder gibt oder nicht
      */
     public static Set<String /* placeholder */> processDirContent(File dir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues /* in */, boolean isInCopy)
+    {
+        return processDirContent(dir, placeholdersWithValues, fixedPlaceholderValues, isInCopy, new GenerationContext());
+    }
+
+    /**
+     * Prüft ob der placeholder verwendbar ist
+     * @param dir der parameter muss angegeben werden
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param fixedPlaceholderValues der parameter muss angegeben werden
+     * @param isInCopy der parameter muss nicht angegeben werden
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
+     * @return Es wird zurückgegeben, ob es einen Placeholder gibt oder nicht
+     */
+    public static Set<String /* placeholder */> processDirContent(File dir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues /* in */, boolean isInCopy, GenerationContext generationContext)
+    {
+        return processDirContent(DirElement.read(dir), placeholdersWithValues, fixedPlaceholderValues, isInCopy, generationContext);
+    }
+
+    /**
+     * Wie processDirContent(File, Map, Map, boolean, GenerationContext), mit den bereits gelesenen Attributen von dir
+     */
+    static Set<String /* placeholder */> processDirContent(DirElement dir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues /* in */, boolean isInCopy, GenerationContext generationContext)
     {
         //
         // Pre-conditions
@@ -189,13 +509,13 @@ public class FileTemplate
 
         if (!dir.exists())
         {
-            log("err", "processDir: file \"" + dir.getAbsolutePath() + "\" does not exist");
+            log("err", "processDir: file \"" + dir.file.getAbsolutePath() + "\" does not exist");
             return null;
         }
 
         if (!dir.isDirectory())
         {
-            log("err", "processDir: file \"" + dir.getAbsolutePath() + "\" exists, but is not a directory (probably a file)");
+            log("err", "processDir: file \"" + dir.file.getAbsolutePath() + "\" exists, but is not a directory (probably a file)");
             return null;
         }
 
@@ -205,9 +525,47 @@ public class FileTemplate
 
         Set<String /* placeholder */> foundPlaceholders = new HashSet<String /* placeholder */>();
 
-        for (File dirElement : Arrays.asList(dir.listFiles()))
+        if (placeholdersWithValues != null && generationContext.parallel)
+        {
+            // action == REPLACE in parallel mode
+            processDirContentInParallel(dir.file, null, placeholdersWithValues, fixedPlaceholderValues, generationContext, isInCopy);
+            return foundPlaceholders;
+        }
+
+        if (placeholdersWithValues == null)
+        {
+            // action == LIST: dir is only read, so its entries are processed while it is read
+            boolean isRead = forEachDirElement(dir.file, dirElement ->
+            {
+                Set<String /* placeholder */> elementPlaceholders = processFileOrDir(dirElement, placeholdersWithValues, fixedPlaceholderValues /* in/out */, isInCopy, generationContext);
+                if (elementPlaceholders != null)
+                {
+                    foundPlaceholders.addAll(elementPlaceholders);
+                }
+            });
+            if (!isRead)
+            {
+                log("err", "processDir: directory \"" + dir.file.getAbsolutePath() + "\" could not be read");
+                return null;
+            }
+            return foundPlaceholders;
+        }
+
+        // action == REPLACE: the copies are created in dir itself, so all entries are read before the first one is processed
+        List<DirElement> dirElements = listDirElements(dir.file);
+        if (dirElements == null)
+        {
+            log("err", "processDir: directory \"" + dir.file.getAbsolutePath() + "\" could not be read");
+            return null;
+        }
+
+        for (DirElement dirElement : dirElements)
         {
-            foundPlaceholders.addAll(processFileOrDir(dirElement, placeholdersWithValues, fixedPlaceholderValues /* in/out */, isInCopy));
+            Set<String /* placeholder */> elementPlaceholders = processFileOrDir(dirElement, placeholdersWithValues, fixedPlaceholderValues /* in/out */, isInCopy, generationContext);
+            if (elementPlaceholders != null)
+            {
+                foundPlaceholders.addAll(elementPlaceholders);
+            }
         }
 
         return foundPlaceholders;
@@ -222,6 +580,29 @@ public class FileTemplate
      * @return Es wird zurückgegeben, ob es einen Placeholder gibt oder nicht
      */
     public static Set<String /* placeholder */> replaceDirWithCopy(File dir, String newDirName, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    {
+        return replaceDirWithCopy(dir, dir.getParentFile(), newDirName, placeholdersWithValues, currentPlaceholderValues, new GenerationContext());
+    }
+
+    /**
+     * Wie replaceDirWithCopy(File, String, Map, Map), legt die Kopie aber in targetDir an
+     * @param dir der parameter muss angegeben werden
+     * @param targetDir der parameter muss angegeben werden
+     * @param newDirName der parameter muss angegeben werden
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss angegeben werden
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
+     * @return Es wird zurückgegeben, ob es einen Placeholder gibt oder nicht
+     */
+    public static Set<String /* placeholder */> replaceDirWithCopy(File dir, File targetDir, String newDirName, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues, GenerationContext generationContext)
+    {
+        return replaceDirWithCopy(DirElement.read(dir), targetDir, newDirName, placeholdersWithValues, currentPlaceholderValues, generationContext);
+    }
+
+    /**
+     * Wie replaceDirWithCopy(File, File, String, Map, Map, GenerationContext), mit den bereits gelesenen Attributen von dir
+     */
+    static Set<String /* placeholder */> replaceDirWithCopy(DirElement dir, File targetDir, String newDirName, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues, GenerationContext generationContext)
     {
         //
         // Pre-conditions
@@ -229,13 +610,13 @@ public class FileTemplate
 
         if (!dir.exists())
         {
-            log("err", "replaceDirWithCopy: file \"" + dir.getAbsolutePath() + "\" does not exist");
+            log("err", "replaceDirWithCopy: file \"" + dir.file.getAbsolutePath() + "\" does not exist");
             return null;
         }
 
         if (!dir.isDirectory())
         {
-            log("err", "replaceDirWithCopy: file \"" + dir.getAbsolutePath() + "\" exists, but is not a directory (probably a file)");
+            log("err", "replaceDirWithCopy: file \"" + dir.file.getAbsolutePath() + "\" exists, but is not a directory (probably a file)");
             return null;
         }
 
@@ -245,28 +626,90 @@ public class FileTemplate
 
         Set<String /* placeholder */> foundPlaceholders = Collections.emptySet();
 
-        File parentDir = dir.getParentFile();
-        File newDir = new File(parentDir.getAbsolutePath() + File.separatorChar + newDirName);
-        if (newDir.exists())
+        File newDir = new File(targetDir.getAbsolutePath() + File.separatorChar + newDirName);
+        GenerationManifest manifest = generationContext.manifest;
+        OutputStager stager = generationContext.stager;
+        boolean isStaged = stager != null && stager.isStaged(targetDir);
+        if (generationContext.outputSink.exists(newDir))
+        {
+            if (manifest != null && newDir.isDirectory() && manifest.isGenerated(newDir))
+            {
+                // incremental mode: keep the directory generated by the last run, only changed content is rewritten
+            }
+            else if (generationContext.skipUnchanged && newDir.isDirectory())
+            {
+                // its files are compared with the new content, only changed ones are rewritten
+                isStaged = false;
+            }
+            else if (isStaged)
+            {
+                log("warn", "WARNING: replaceDirWithCopy: directory \"" + newDir.getAbsolutePath() + "\" already exists, replacing it");
+                if (manifest != null)
+                {
+                    // incremental mode generates in place, the old directory is deleted in the background
+                    stager.retireAside(newDir);
+                }
+            }
+            else
+            {
+                log("warn", "WARNING: replaceDirWithCopy: directory \"" + newDir.getAbsolutePath() + "\" already exists, removing it first");
+                generationContext.outputSink.delete(newDir);
+            }
+        }
+
+        if (isStaged && manifest == null)
         {
-            log("std", "WARNING: replaceDirWithCopy: directory \"" + newDir.getAbsolutePath() + "\" already exists, removing it first");
-            deepDelete(newDir);
+            // generated completely next to newDir, then moved in; an existing newDir is deleted in the background
+            File stagingDir = stager.beginDirectory(newDir);
+            try
+            {
+                foundPlaceholders = replaceDirContent(dir, stagingDir, placeholdersWithValues, currentPlaceholderValues, generationContext);
+            }
+            catch (RuntimeException e)
+            {
+                stager.discard(stagingDir);
+                throw e;
+            }
+            stager.commit(stagingDir, newDir);
+            return foundPlaceholders;
         }
 
-        foundPlaceholders = replaceDirContent(dir, newDir, placeholdersWithValues, currentPlaceholderValues);
+        foundPlaceholders = replaceDirContent(dir, newDir, placeholdersWithValues, currentPlaceholderValues, generationContext);
 
         return foundPlaceholders;
     }
 
     /**
-     * Kopiert Dir nach newDir und dann ersetzt er in newDir die Placeholder
+     * Kopiert Dir nach newDir und ersetzt dabei die Placeholder
      * @param dir der parameter muss nicht angegeben werden
      * @param newDir der parameter muss nicht angegeben werden
      * @param placeholdersWithValues der parameter muss angegeben werden
      * @param currentPlaceholderValues der parameter muss angegeben werden
-     * @return Entwieder gibt er nichts aus bzw. eine Fehlermeldung, wenn alles vorhanden ist greift er auf processDirContent zu
+     * @return Entwieder gibt er nichts aus bzw. eine Fehlermeldung, wenn alles vorhanden ist greift er auf renderDirContent zu
      */
     public static Set<String /* placeholder */> replaceDirContent(File dir, File newDir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    {
+        return replaceDirContent(dir, newDir, placeholdersWithValues, currentPlaceholderValues, new GenerationContext());
+    }
+
+    /**
+     * Kopiert Dir nach newDir und ersetzt dabei die Placeholder
+     * @param dir der parameter muss nicht angegeben werden
+     * @param newDir der parameter muss nicht angegeben werden
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss angegeben werden
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
+     * @return Entwieder gibt er nichts aus bzw. eine Fehlermeldung, wenn alles vorhanden ist greift er auf renderDirContent zu
+     */
+    public static Set<String /* placeholder */> replaceDirContent(File dir, File newDir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues, GenerationContext generationContext)
+    {
+        return replaceDirContent(DirElement.read(dir), newDir, placeholdersWithValues, currentPlaceholderValues, generationContext);
+    }
+
+    /**
+     * Wie replaceDirContent(File, File, Map, Map, GenerationContext), mit den bereits gelesenen Attributen von dir
+     */
+    static Set<String /* placeholder */> replaceDirContent(DirElement dir, File newDir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues, GenerationContext generationContext)
     {
         //
         // Pre-conditions
@@ -274,17 +717,19 @@ public class FileTemplate
 
         if (!dir.exists())
         {
-            log("err", "replaceDirContent: dir \"" + dir.getAbsolutePath() + "\" does not exist");
+            log("err", "replaceDirContent: dir \"" + dir.file.getAbsolutePath() + "\" does not exist");
             return null;
         }
 
         if (!dir.isDirectory())
         {
-            log("err", "replaceDirContent: dir \"" + dir.getAbsolutePath() + "\" exists, but is not a file (probably a file)");
+            log("err", "replaceDirContent: dir \"" + dir.file.getAbsolutePath() + "\" exists, but is not a file (probably a file)");
             return null;
         }
 
-        if (newDir.exists())
+        // an existing newDir is updated in place if generated by the last run (--manifest) or compared file by file (--skip-unchanged)
+        boolean isUpdatedInPlace = (generationContext.manifest != null && generationContext.manifest.isGenerated(newDir)) || (generationContext.skipUnchanged && newDir.isDirectory());
+        if (generationContext.outputSink.exists(newDir) && !isUpdatedInPlace)
         {
             log("err", "replaceDirContent: dir \"" + newDir.getAbsolutePath() + "\" already exists");
             return null;
@@ -294,602 +739,1601 @@ public class FileTemplate
         // Main tasks
         //
 
-        // Deep copy dir --> newDir,
-        // then process newDir using processDirContent(...) with isInCopy = true
+        // Render dir --> newDir in one walk over dir: only the final names and contents are written to newDir.
 
-        deepCopy(dir, newDir);
-        return processDirContent(newDir, placeholdersWithValues, currentPlaceholderValues, true);
+        makeDir(dir.file, newDir, currentPlaceholderValues, generationContext);
+        renderDirContent(dir.file, newDir, placeholdersWithValues, currentPlaceholderValues, generationContext);
+        return new HashSet<String /* placeholder */>();
     }
 
     /**
-     * Legt datei mit dem namen "New file newFileName" an
-     * Wenn "newFileName" schon exestiert wird es gelöscht  
-     * dann kopiert er Inhalt von "file" nach "newFileName" und ersetzt Placeholder
-     * @param file der parameter muss angegeben werden
-     * @param newFileName der parameter muss angegeben werden
+     * Schreibt den Inhalt von dir nach newDir (das bereits existiert):
+     * normale Dateien werden 1:1 kopiert, normale Verzeichnisse rekursiv verarbeitet
+     * und *.filetemplate Dateien/Verzeichnisse mit ihren neuen Namen und Inhalten angelegt.
+     * @param dir der parameter muss angegeben werden
+     * @param newDir der parameter muss angegeben werden
      * @param placeholdersWithValues der parameter muss angegeben werden
      * @param currentPlaceholderValues der parameter muss angegeben werden
-     * @return Es wird zurückgegeben, ob es einen Placeholder gibt oder nicht
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
      */
-    public static Set<String /* placeholder */> replaceFileWithCopy(File file, String newFileName, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    public static void renderDirContent(File dir, File newDir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues, GenerationContext generationContext)
     {
-        //
-        // Pre-conditions
-        //
+        if (isPlanningExpansions(generationContext))
+        {
+            processDirContentInParallel(dir, newDir, placeholdersWithValues, currentPlaceholderValues, generationContext, false);
+            return;
+        }
 
-        if (!file.exists())
+        String fileTemplateSuffix = generationContext.fileTemplateSuffix;
+        List<DirElement> templateDirElements = new ArrayList<DirElement>();
+
+        // Copy all regular entries first, so that an expanded template replaces a regular entry of the same name.
+        // dir is only read, so its entries are processed while it is read; only the templates are kept for later.
+        boolean isRead = forEachDirElement(dir, dirElement ->
         {
-            log("err", "replaceFileWithCopy: file \"" + file.getAbsolutePath() + "\" does not exist");
-            return null;
+            String dirElementName = dirElement.getName();
+            if (dirElementName.endsWith(fileTemplateSuffix))
+            {
+                templateDirElements.add(dirElement);
+            }
+            else if (dirElement.isDirectory())
+            {
+                File newDirElement = new File(newDir, dirElementName);
+                makeDir(dirElement.file, newDirElement, currentPlaceholderValues, generationContext);
+                renderDirContent(dirElement.file, newDirElement, placeholdersWithValues, currentPlaceholderValues, generationContext);
+            }
+            else
+            {
+                copyFile(dirElement, new File(newDir, dirElementName), generationContext);
+            }
+        });
+        if (!isRead)
+        {
+            log("err", "renderDirContent: directory \"" + dir.getAbsolutePath() + "\" could not be read");
+            return;
         }
 
-        if (!file.isFile())
+        for (DirElement templateDirElement : templateDirElements)
         {
-            log("err", "replaceFileWithCopy: file \"" + file.getAbsolutePath() + "\" exists, but is not a file (probably a directory)");
-            return null;
+            String templateName = templateDirElement.getName();
+            templateName = templateName.substring(0, templateName.length() - fileTemplateSuffix.length());
+            expandTemplate(templateDirElement, templateName, newDir, placeholdersWithValues, currentPlaceholderValues /* in */, generationContext);
         }
+    }
 
-        //
-        // Main tasks
-        //
-
-        Set<String /* placeholder */> foundPlaceholders = Collections.emptySet();
+    /**
+     * Die Kopien der *.filetemplate Einträge werden vorab geplant (siehe processDirContentInParallel),
+     * wenn parallel erzeugt wird oder die Ausgabe bereits geschriebene Einträge nicht ersetzen kann (Archiv):
+     * dann wird jeder Zielname nur einmal geschrieben.
+     */
+    static boolean isPlanningExpansions(GenerationContext generationContext)
+    {
+        return generationContext.parallel || !generationContext.outputSink.canReplace();
+    }
 
-        File parentDir = file.getParentFile();
-        File newFile = new File(parentDir.getAbsolutePath() + File.separatorChar + newFileName);
-        if (newFile.exists())
+    /**
+     * Führt die Tasks parallel im aktuellen ForkJoinPool aus, sonst nacheinander im aktuellen Thread
+     * @param tasks der parameter muss angegeben werden
+     * @param isParallel der parameter muss angegeben werden, true nur im ForkJoinPool des Laufs (siehe GenerationContext.parallel),
+     *                   nicht schon weil der Aufrufer in irgendeinem ForkJoinPool läuft
+     */
+    static void invokeTasks(List<ForkJoinTask<?>> tasks, boolean isParallel)
+    {
+        if (isParallel)
         {
-            log("std", "WARNING: replaceFileWithCopy: file \"" + newFile.getAbsolutePath() + "\" already exists, removing it first");
-            deepDelete(newFile);
+            LogHandler currentLogHandler = logHandler.get();
+            if (currentLogHandler != null)
+            {
+                // the messages of the tasks go to the same handler, whichever thread they run on
+                for (int i = 0; i < tasks.size(); i++)
+                {
+                    ForkJoinTask<?> task = tasks.get(i);
+                    tasks.set(i, ForkJoinTask.adapt(() -> runWithLogHandler(currentLogHandler, task::invoke)));
+                }
+            }
+            ForkJoinTask.invokeAll(tasks);
+        }
+        else
+        {
+            for (ForkJoinTask<?> task : tasks)
+            {
+                task.invoke();
+            }
         }
-
-        foundPlaceholders = replaceFileContent(file, newFile, placeholdersWithValues, currentPlaceholderValues);
-
-        return foundPlaceholders;
     }
 
     /**
-     * kopiert Inhalt von "file" nach "newFileName" und ersetzt Placeholder
-     * @param file der parameter muss angegeben werden
-     * @param newFile der parameter muss angegeben werden, das file darf aber nicht exestieren
-     * @param placeholdersWithValues der parameter muss angegeben werden
-     * @param currentPlaceholderValues der parameter muss nicht angegeben werden
-     * @return 
+     * Legt ein Verzeichnis der Ausgabe an (falls nötig) und vermerkt es im Manifest
+     * @param sourceDir der parameter muss angegeben werden, das Verzeichnis aus dem newDir erzeugt wird
+     * @param newDir der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss angegeben werden
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
      */
-    public static Set<String /* placeholder */> replaceFileContent(File file, File newFile, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    static void makeDir(File sourceDir, File newDir, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues, GenerationContext generationContext)
     {
-        //
-        // Pre-conditions
-        //
-
-        if (!file.exists())
-        {
-            log("err", "replaceFileContent: file \"" + file.getAbsolutePath() + "\" does not exist");
-            return null;
-        }
+        generationContext.outputSink.makeDirectory(newDir);
 
-        if (!file.isFile())
+        if (generationContext.manifest != null)
         {
-            log("err", "replaceFileContent: file \"" + file.getAbsolutePath() + "\" exists, but is not a file (probably a directory)");
-            return null;
+            generationContext.manifest.recordDirectory(newDir, sourceDir, currentPlaceholderValues);
         }
+    }
 
-        if (newFile.exists())
+    /**
+     * Kopiert eine normale Datei 1:1 in die Ausgabe. Im inkrementellen Modus wird die Kopie übersprungen,
+     * wenn sich die Quelldatei (Größe und Änderungszeit) seit dem letzten Lauf nicht geändert hat.
+     * @param sourceFile der parameter muss angegeben werden
+     * @param newFile der parameter muss angegeben werden
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
+     */
+    static void copyFile(DirElement sourceFile, File newFile, GenerationContext generationContext)
+    {
+        GenerationManifest manifest = generationContext.manifest;
+        if (manifest == null)
         {
-            log("err", "replaceFileContent: file \"" + newFile.getAbsolutePath() + "\" already exists");
-            return null;
+            writeCopy(sourceFile, newFile, generationContext);
+            return;
         }
 
-        //
-        // Main tasks
-        //
-
-        Set<String /* placeholder */> foundPlaceholders = new HashSet<String /* placeholder */>();
-        
-        BufferedReader inputFile = null;
+        String copyKey = GenerationManifest.getCopyKey(sourceFile);
+        boolean isWritten = !manifest.isUpToDate(newFile, copyKey) && writeCopy(sourceFile, newFile, generationContext);
+        manifest.recordFile(newFile, sourceFile.file, copyKey, Collections.<String /* placeholder */, String /* placeholder value */>emptyMap(), isWritten);
+    }
 
-        try
+    // returns false if newFile already has the content of sourceFile (--skip-unchanged)
+    private static boolean writeCopy(DirElement sourceFile, File newFile, GenerationContext generationContext)
+    {
+        Metrics.PhaseEvent event = Metrics.COPY.start();
+        if (generationContext.skipUnchanged && isSameContent(sourceFile, newFile))
         {
-            //
-            // Fill stack of LinesWithPlaceholderBlock's with all lines of file.
-            //
-            
-            LinesWithPlaceholderBlock startPlaceholderBlock = new LinesWithPlaceholderBlock(null);
-            LinesWithPlaceholderBlock currentPlaceholderBlock = startPlaceholderBlock;
-
-            inputFile = new BufferedReader(new FileReader(file));
-            String line;
-            while ((line = inputFile.readLine()) != null)
-            {
-                String placeholder;
-                if ((placeholder = isEndPlaceholderLine(line)) != null)  // case: {{@PLACEHOLDERNAME# END @}}
-                {
-                    currentPlaceholderBlock = currentPlaceholderBlock.parent;
-                    if (currentPlaceholderBlock == null)
-                    {
-                        log("err", "replaceFileContent: count of END of placeholder sections larger than count of BEGIN (at END of placeholder \"" + placeholder + "\")");
-                        return foundPlaceholders;
-                    }
-                    else if (currentPlaceholderBlock.placeholder == null)
-                    {
-                        log("err", "replaceFileContent: no BEGIN for END of placeholder \"" + placeholder + "\"");
-                        return foundPlaceholders;
-                    }
-                    else if (!placeholder.equals(currentPlaceholderBlock.placeholder))
-                    {
-                        log("err", "replaceFileContent: found END of placeholder \"" + placeholder + "\" where expecting END of placeholder \"" + currentPlaceholderBlock.placeholder + "\"");
-                        return foundPlaceholders;
-                    }
-                }
-                else
-                {
-                    if (currentPlaceholderBlock.placeholder != null)
-                    {
-                        // chain new LinesWithPlaceholderBlock at same level
-                        currentPlaceholderBlock = currentPlaceholderBlock.nextLinesWithPlaceholderBlock = new LinesWithPlaceholderBlock(currentPlaceholderBlock.parent);
-                    }
-
-                    if ((placeholder = isBeginPlaceholderLine(line)) != null)  // case: {{@PLACEHOLDERNAME# BEGIN @}}
-                    {
-                        currentPlaceholderBlock.placeholder = placeholder;
-                        currentPlaceholderBlock = new LinesWithPlaceholderBlock(currentPlaceholderBlock);
-                        currentPlaceholderBlock.parent.linesOfPlaceholderBlock = currentPlaceholderBlock;
-                        foundPlaceholders.add(placeholder);
-                    }
-                    else
-                    {
-                        currentPlaceholderBlock.linesBeforePlaceholder.add(line);  // case: regular line
-                    }
-                }
-            }
-            
-            inputFile.close();
-            inputFile = null;
-            
-            if (currentPlaceholderBlock.parent != null)
+            if (isLogEnabled(Logger.DEBUG))
             {
-                log("err", "replaceFileContent: missing END for placeholder \"" + currentPlaceholderBlock.parent.placeholder + "\"");
-                return foundPlaceholders;
+                log("debug", "copyFile: \"" + newFile.getAbsolutePath() + "\" is unchanged, not written");
             }
-            
-            //
-            // Process stack of LinesWithPlaceholderBlock's: Replace placeholders and write to output file.
-            //
-            
-            BufferedWriter outputFile = new BufferedWriter(new FileWriter(newFile));
-
-            processLinesWithPlaceholderBlock(startPlaceholderBlock, outputFile, placeholdersWithValues, currentPlaceholderValues);
-            
-            outputFile.close();
+            Metrics.COPY.stop(event, newFile, 1, 2 * sourceFile.length(), 0);
+            return false;
         }
-        catch(IOException exIO)
+
+        OutputStager stager = generationContext.stager;
+        if (stager != null && stager.isStaged(newFile.getParentFile()))
         {
-            log("err", "replaceFileContent: \"" + file.getAbsolutePath() + "\" --> \"" + newFile.getAbsolutePath() + "\": " + exIO.toString());
+            // an existing copy is replaced in one step
+            File stagingFile = OutputStager.newStagingFile(newFile);
+            generationContext.outputSink.copyFile(sourceFile.file, stagingFile);
+            stager.commit(stagingFile, newFile);
         }
-        finally
+        else
         {
-            if (inputFile != null)
-            {
-                try
-                {
-                    inputFile.close();
-                }
-                catch (IOException exIO)
-                {
-                    log("err", "replaceFileContent: unable to close \"" + file.getAbsolutePath() + "\": " + exIO.toString());
-                }
-            }
+            generationContext.outputSink.copyFile(sourceFile.file, newFile);
         }
-
-        return foundPlaceholders;
+        Metrics.COPY.stop(event, newFile, 1, sourceFile.length(), sourceFile.length());
+        return true;
     }
 
-    /**
-     * Ersetzt einen in einem PlaceholderBlock alle Placeholder
-     * @param currentPlaceholderBlock der parameter muss angegeben werden
-     * @param outputFile der parameter muss angegeben werden
-     * @param placeholdersWithValues der parameter muss angegeben werden
-     * @param currentPlaceholderValues der parameter muss angegeben werden
-     * @throws IOException der werfer muss angegeben werden
-     */ 
-    public static void processLinesWithPlaceholderBlock(LinesWithPlaceholderBlock currentPlaceholderBlock, BufferedWriter outputFile, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues) throws IOException
+    private static boolean isSameContent(DirElement sourceFile, File newFile)
     {
-        do
+        DirElement existingFile = DirElement.read(newFile);
+        if (!existingFile.isFile() || existingFile.length() != sourceFile.length())
         {
-            for (String line : currentPlaceholderBlock.linesBeforePlaceholder)
-            {
-                String replacedLine = replaceAllOccurrencesInString(line, placeholdersWithValues, currentPlaceholderValues);
-                outputFile.write(replacedLine);
-                outputFile.newLine();
-            }
-            
-            if (currentPlaceholderBlock.placeholder != null)
-            {
-                Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValuesInBlock = new HashMap<String /* placeholder */, String /* placeholder value */>(currentPlaceholderValues);
-                PlaceholderDefinition placeholderValue = placeholdersWithValues.get(currentPlaceholderBlock.placeholder);
+            return false;
+        }
 
-                if (placeholderValue != null)
-                {
-                    for (String currentPlaceholderValueInBlock = placeholderValue.getNextPlaceholderValue(null); currentPlaceholderValueInBlock != null; currentPlaceholderValueInBlock = placeholderValue.getNextPlaceholderValue(currentPlaceholderValueInBlock))
-                    {
-                        fixedPlaceholderValuesInBlock.put(currentPlaceholderBlock.placeholder, currentPlaceholderValueInBlock);
-                        processLinesWithPlaceholderBlock(currentPlaceholderBlock.linesOfPlaceholderBlock, outputFile, placeholdersWithValues, fixedPlaceholderValuesInBlock);
-                    }
-                }
-                else
-                {
-                    log("err", "processLinesWithPlaceholderBlock: no definition for used placeholder \"" + currentPlaceholderBlock.placeholder + "\"");
-                }
-            }
-            
-            currentPlaceholderBlock = currentPlaceholderBlock.nextLinesWithPlaceholderBlock;  // next LinesWithPlaceholderBlock at same level
-        }  
-        while (currentPlaceholderBlock != null);
-    }  
+        try
+        {
+            return Files.mismatch(sourceFile.file.toPath(), newFile.toPath()) < 0;
+        }
+        catch (IOException exIO)
+        {
+            return false;  // copied again, which reports the error if there is one
+        }
+    }
 
     /**
-     * Liest eine Datei ein und sucht in ihr nach Placeholdern
-     * @param file der parameter muss angegeben werden
-     * @return Es werden alle Placeholder zurückgegeben
+     * Liest alle Einträge eines Verzeichnisses mit ihren Attributen, gemessen als eine Phase "traverse".
+     * Für Verzeichnisse, die während der Verarbeitung ihrer Einträge verändert werden oder deren Einträge mehrfach durchlaufen werden,
+     * sonst forEachDirElement
+     * @param dir der parameter muss angegeben werden
+     * @return die Einträge, null wenn dir nicht gelesen werden kann
      */
-    public static Set<String /* placeholder */> getPlaceholdersFromFileContent(File file)
+    static List<DirElement> listDirElements(File dir)
     {
-        //
-        // Pre-conditions
-        //
-
-        if (!file.exists())
+        try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir.toPath()))
         {
-            log("err", "replaceFileContent: file \"" + file.getAbsolutePath() + "\" does not exist");
-            return null;
+            List<DirElement> dirElements = new ArrayList<DirElement>();
+            readDirElements(dir, dirStream.iterator(), Integer.MAX_VALUE, dirElements);
+            return dirElements;
         }
-
-        if (!file.isFile())
+        catch (IOException | DirectoryIteratorException e)
         {
-            log("err", "replaceFileContent: file \"" + file.getAbsolutePath() + "\" exists, but is not a file (probably a directory)");
             return null;
         }
+    }
 
-        //
-        // Main tasks
-        //
-
-        Set<String /* placeholder */> foundPlaceholders = new HashSet<String /* placeholder */>();
-
-        try
+    /**
+     * Liest die Einträge eines Verzeichnisses mit ihren Attributen und verarbeitet sie, während das Verzeichnis gelesen wird:
+     * je DIR_ELEMENTS_BATCH Einträge werden gelesen (eine Phase "traverse") und dann verarbeitet,
+     * so dass auch von sehr großen Verzeichnissen nie alle Einträge gleichzeitig im Speicher sind.
+     * Nur für Verzeichnisse, die dabei nicht verändert werden.
+     * @param dir der parameter muss angegeben werden
+     * @param action der parameter muss angegeben werden, wird für jeden Eintrag aufgerufen
+     * @return false wenn dir nicht (vollständig) gelesen werden kann
+     */
+    static boolean forEachDirElement(File dir, Consumer<DirElement> action)
+    {
+        try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir.toPath()))
         {
-            BufferedReader inputFile = new BufferedReader(new FileReader(file));
-            String line;
-            while ((line = inputFile.readLine()) != null)
+            Iterator<Path> dirIterator = dirStream.iterator();
+            List<DirElement> dirElements = new ArrayList<DirElement>();
+            do
             {
-                String nextLine;
-                while (line.endsWith("\\") && (nextLine = inputFile.readLine()) != null)
+                readDirElements(dir, dirIterator, DIR_ELEMENTS_BATCH, dirElements);
+                for (DirElement dirElement : dirElements)
                 {
-                    line = line + System.getProperty("line.separator") + nextLine;
+                    action.accept(dirElement);
                 }
-
-                foundPlaceholders.addAll(getPlaceholdersFromString(line));
+                dirElements.clear();
             }
-
-            inputFile.close();
+            while (dirIterator.hasNext());
+            return true;
         }
-        catch(IOException exIO)
+        catch (IOException | DirectoryIteratorException e)
         {
-            log("err", "getPlaceholdersFromFileContent: \"" + file.getAbsolutePath() + "\": " + exIO.toString());
+            return false;
         }
-
-        return foundPlaceholders;
     }
 
-    
-    /**
-     * Sucht in string nach Placeholdern
-     * @param string der parameter muss angegeben werden
-     * @return geht auf placeholder zurück
-     */
-    public static Set<String /* placeholder */> getPlaceholdersFromString(String string)
+    // reads up to maxCount entries with one stat each
+    private static void readDirElements(File dir, Iterator<Path> dirIterator, int maxCount, List<DirElement> dirElements /* out */)
     {
-        // grep all <@PLACEHOLDERNAME@> from fileName using regex "<@(.*?)@>"
-        Set<String /* placeholder */> placeholders = new HashSet<String /* placeholder */>();
-        Matcher placeholderPatternMatcher = compiledPlaceholderPatternRegex.matcher(string);
-        while (placeholderPatternMatcher.find())
+        Metrics.PhaseEvent event = Metrics.TRAVERSE.start();
+        while (dirElements.size() < maxCount && dirIterator.hasNext())
         {
-            String placeholder = placeholderPatternMatcher.group(1);
-            placeholders.add(placeholder);
+            dirElements.add(DirElement.read(new File(dir, dirIterator.next().getFileName().toString())));
         }
-
-        return placeholders;
+        Metrics.TRAVERSE.stop(event, dir, dirElements.size(), 0, 0);
     }
 
     /**
-     * 
-     * @param fileName der parameter muss angegeben werden
+     * Verarbeitet den Inhalt von dir parallel im ForkJoinPool des Laufs (REPLACE mit --threads), sonst nacheinander (Archiv).
+     * Die Kopien aller *.filetemplate Einträge werden zuerst in der Reihenfolge des Verzeichnisses geplant,
+     * so dass mehrfach erzeugte Zielnamen wie bei der sequentiellen Verarbeitung aufgelöst werden (die letzte Kopie gewinnt).
+     * Danach werden alle Einträge und Kopien als unabhängige Tasks verarbeitet.
+     * @param dir der parameter muss angegeben werden
+     * @param newDir der parameter muss nicht angegeben werden, bei null wird in dir selbst erzeugt (wie processDirContent), sonst werden normale Einträge nach newDir kopiert (wie renderDirContent)
      * @param placeholdersWithValues der parameter muss angegeben werden
-     * @param fixedPlaceholderValues der parameter muss angegeben werden
      * @param currentPlaceholderValues der parameter muss angegeben werden
-     * @param isFirstCall der parameter muss angegeben werden
-     * @return
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
+     * @param isInCopy der parameter muss nicht angegeben werden
      */
-    public static String getNextFileNameFromFileTemplateName(String fileName, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues /* in */, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues /* in/out */, boolean isFirstCall)
+    static void processDirContentInParallel(File dir, File newDir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues, GenerationContext generationContext, boolean isInCopy)
     {
-        boolean isNewPlaceholderSelected = false;
-
-        String cyclePlaceholder = null;
+        File targetDir = newDir != null ? newDir : dir;
+        List<DirElement> dirElements = listDirElements(dir);
+        if (dirElements == null)
+        {
+            log("err", "processDir: directory \"" + dir.getAbsolutePath() + "\" could not be read");
+            return;
+        }
 
-        String newFileName = fileName;
+        String fileTemplateSuffix = generationContext.fileTemplateSuffix;
 
-        Iterator<String> placeholderNames = placeholdersWithValues.keySet().iterator();
-        while (placeholderNames.hasNext())
+        Map<String /* new name */, TemplateExpansion> plannedExpansions = new LinkedHashMap<String /* new name */, TemplateExpansion>();
+        List<DirElement> templateDirElements = new ArrayList<DirElement>();
+        for (DirElement dirElement : dirElements)
         {
-            String placeholderName = placeholderNames.next();
-            PlaceholderDefinition placeholderValue = placeholdersWithValues.get(placeholderName);
-            String currentPlaceholderValue = null;
-
-            StringBuilder newFileNameBuilder = new StringBuilder(newFileName.length() + 30);
-            int uncopiedSectionStartIndex = 0;
-            Pattern compiledQualifiedPlaceholderPatternRegex = Pattern.compile("\\{\\{@" + "\\Q" + placeholderName + "\\E" + "(\\s*#\\s*base\\s*(\\d+))?" + "@\\}\\}"); // {{@placeholderName[#base 001]@}}
-            Matcher qualifiedPlaceholderPatternMatcher = compiledQualifiedPlaceholderPatternRegex.matcher(newFileName);
-            if (qualifiedPlaceholderPatternMatcher.find())
+            String templateName = dirElement.getName();
+            if (templateName.endsWith(fileTemplateSuffix))
             {
-                currentPlaceholderValue = fixedPlaceholderValues.get(placeholderName);
-
-                if (currentPlaceholderValue == null) {
-                    // We need to use the next of the supplied values for this placeholder.
-                    currentPlaceholderValue = currentPlaceholderValues.get(placeholderName);
-                    if (placeholderValue.isSinglePlaceholderValue()) {
-                        if (currentPlaceholderValue == null) {
-                            currentPlaceholderValue = placeholderValue.getNextPlaceholderValue(currentPlaceholderValue);
-                            isNewPlaceholderSelected = true;
-                        }
-                    }
-                    else // multi-value placeholder
-                    {
-                        if (cyclePlaceholder == null) {
-                            cyclePlaceholder = placeholderName;
-                        }
-
-                        if (cyclePlaceholder.equals(placeholderName)) {
-                            currentPlaceholderValue = placeholderValue.getNextPlaceholderValue(currentPlaceholderValue);
-                            if (currentPlaceholderValue == null)
-                            {
-                                // get first placeholder value
-                                currentPlaceholderValue = placeholderValue.getNextPlaceholderValue(currentPlaceholderValue);
-                                // another (next outer) placeholder may cycle now
-                                // or whole replacement loop may end
-                                cyclePlaceholder = null;
-                            }
-                            else
-                            {
-                                isNewPlaceholderSelected = true;
-                            }
-                        }
-                        else
-                        {
-                            if (currentPlaceholderValue == null) {
-                                currentPlaceholderValue = placeholderValue.getNextPlaceholderValue(currentPlaceholderValue);
-                                isNewPlaceholderSelected = true;
-                            }
-                        }
-                    }
-
-                    currentPlaceholderValues.put(placeholderName, currentPlaceholderValue);
+                templateName = templateName.substring(0, templateName.length() - fileTemplateSuffix.length());
+                for (TemplateExpansion templateExpansion : planTemplateExpansions(dirElement, templateName, placeholdersWithValues, currentPlaceholderValues, generationContext))
+                {
+                    addPlannedExpansion(plannedExpansions, templateExpansion, targetDir);
                 }
+                templateDirElements.add(dirElement);
+            }
+        }
 
-                do
-                {
-                    newFileNameBuilder.append(newFileName.substring(uncopiedSectionStartIndex, qualifiedPlaceholderPatternMatcher.start()));
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
 
-                    String baseNumber = qualifiedPlaceholderPatternMatcher.group(2);
-                    if (baseNumber != null)
-                    {
-                        //log("std", "getGetNextFileNameFromFileTemplateName: placeholder \"" + placeholderName + "\" to be replaced with number of value instead of value itself, base number: " + baseNumber);
-                        currentPlaceholderValue = placeholderValue.getNumberOfPlaceholderValue(currentPlaceholderValue, baseNumber);
-                    }
+        for (DirElement dirElement : dirElements)
+        {
+            String dirElementName = dirElement.getName();
+            if (dirElementName.endsWith(fileTemplateSuffix))
+            {
+                continue;
+            }
 
-                    newFileNameBuilder.append(currentPlaceholderValue);
+            if (plannedExpansions.containsKey(dirElementName))
+            {
+                // the expanded template replaces this entry anyway
+                log("warn", "WARNING: processDirContent: \"" + new File(targetDir, dirElementName).getAbsolutePath() + "\" is replaced by an expanded template");
+                continue;
+            }
 
-                    uncopiedSectionStartIndex = qualifiedPlaceholderPatternMatcher.end();
+            if (newDir == null)
+            {
+                if (dirElement.isDirectory())
+                {
+                    tasks.add(ForkJoinTask.adapt(() -> processDirContent(dirElement, placeholdersWithValues, currentPlaceholderValues, isInCopy, generationContext)));
                 }
-                while (qualifiedPlaceholderPatternMatcher.find());
             }
-
-            newFileNameBuilder.append(newFileName.substring(uncopiedSectionStartIndex));
-
-            newFileName = newFileNameBuilder.toString();
+            else if (dirElement.isDirectory())
+            {
+                tasks.add(ForkJoinTask.adapt(() ->
+                {
+                    File newDirElement = new File(newDir, dirElementName);
+                    makeDir(dirElement.file, newDirElement, currentPlaceholderValues, generationContext);
+                    renderDirContent(dirElement.file, newDirElement, placeholdersWithValues, currentPlaceholderValues, generationContext);
+                }));
+            }
+            else
+            {
+                tasks.add(ForkJoinTask.adapt(() -> copyFile(dirElement, new File(newDir, dirElementName), generationContext)));
+            }
         }
 
-        if (isNewPlaceholderSelected || isFirstCall)
+        for (TemplateExpansion templateExpansion : plannedExpansions.values())
         {
-            log("std", "getGetNextFileNameFromFileTemplateName: \"" + fileName + fileTemplateSuffix + "\" --> \"" + newFileName + "\"");
+            tasks.add(ForkJoinTask.adapt(() -> writeTemplateExpansion(templateExpansion, targetDir, placeholdersWithValues, generationContext)));
         }
 
-        return isNewPlaceholderSelected || isFirstCall ? newFileName : null; 
-    }
-    
-    /**
-     * @param line der parameter muss angegeben werden
-     * @return gibt placeholder an
-     */
-    public static String isBeginPlaceholderLine(String line)
-    {
-        String placeholder= null;
-        
-        Matcher placeholderSectionBeginPatternMatcher = compiledPlaceholderSectionBeginPatternRegex.matcher(line);
-        if (placeholderSectionBeginPatternMatcher.find())
+        invokeTasks(tasks, generationContext.parallel);
+
+        if (isInCopy)
         {
-            placeholder = placeholderSectionBeginPatternMatcher.group(1);
-            
-            int startIndex = placeholderSectionBeginPatternMatcher.start();
-            int endIndex = placeholderSectionBeginPatternMatcher.end();
-            if (line.substring(0, startIndex).trim().length() > 0
-                            || line.substring(endIndex).trim().length() > 0)
+            for (DirElement templateDirElement : templateDirElements)
             {
-                log("err", "isBeginPlaceholderLine: in the following line there is more than just the BEGIN of placeholder \"" + placeholder + "\", and everything than the placeholder BEGIN is ignored: " + line);
+                deepDelete(templateDirElement.file);
             }
         }
-        
-        return placeholder;
     }
 
     /**
-     * @param line der parameter muss angegeben werden
-     * @return gibt placeholder an
+     * Legt datei mit dem namen "New file newFileName" an
+     * Wenn "newFileName" schon exestiert wird es gelöscht  
+     * dann kopiert er Inhalt von "file" nach "newFileName" und ersetzt Placeholder
+     * @param file der parameter muss angegeben werden
+     * @param newFileName der parameter muss angegeben werden
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss angegeben werden
+     * @return Es wird zurückgegeben, ob es einen Placeholder gibt oder nicht
      */
-    public static String isEndPlaceholderLine(String line)
+    public static Set<String /* placeholder */> replaceFileWithCopy(File file, String newFileName, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
     {
-        String placeholder= null;
-        
-        Matcher placeholderSectionEndPatternMatcher = compiledPlaceholderSectionEndPatternRegex.matcher(line);
-        if (placeholderSectionEndPatternMatcher.find())
-        {
-            placeholder = placeholderSectionEndPatternMatcher.group(1);
-            
-            int startIndex = placeholderSectionEndPatternMatcher.start();
-            int endIndex = placeholderSectionEndPatternMatcher.end();
-            if (line.substring(0, startIndex).trim().length() > 0
-                            || line.substring(endIndex).trim().length() > 0)
-            {
-                log("err", "isBeginPlaceholderLine: in the following line there is more than just the END of placeholder \"" + placeholder + "\", and everything than the placeholder END is ignored: " + line);
-            }
-        }
-        
-        return placeholder;
+        return replaceFileWithCopy(file, file.getParentFile(), newFileName, placeholdersWithValues, currentPlaceholderValues, new GenerationContext());
     }
 
     /**
-     * Ersetzt Placeholder in "line"
-     * @param line der parameter muss angegeben werden
+     * Wie replaceFileWithCopy(File, String, Map, Map), legt die neue Datei aber in targetDir an
+     * und verwendet die bereits zerlegte Vorlage von "file" aus generationContext
+     * @param file der parameter muss angegeben werden
+     * @param targetDir der parameter muss angegeben werden
+     * @param newFileName der parameter muss angegeben werden
      * @param placeholdersWithValues der parameter muss angegeben werden
      * @param currentPlaceholderValues der parameter muss angegeben werden
-     * @return Kopiert line und ersetzt Placeholder 
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
+     * @return Es wird zurückgegeben, ob es einen Placeholder gibt oder nicht
      */
-    public static String /* replacedLine */ replaceAllOccurrencesInString(String line, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    public static Set<String /* placeholder */> replaceFileWithCopy(File file, File targetDir, String newFileName, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues, GenerationContext generationContext)
     {
-        StringBuilder replacedLineBuilder = new StringBuilder(line.length() + 30);
+        return replaceFileWithCopy(DirElement.read(file), targetDir, newFileName, placeholdersWithValues, currentPlaceholderValues, generationContext);
+    }
 
-        // grep all <@PLACEHOLDERNAME@> from fileName using regex "<@(.*?)@>"
-        int uncopiedSectionStartIndex = 0;
-        Matcher placeholderPatternMatcher = compiledPlaceholderPatternRegex.matcher(line);
-        while (placeholderPatternMatcher.find())
-        {
-            //String placeholder = placeholderPatternMatcher.group(1);
-            //placeholders.add(placeholder);
-            replacedLineBuilder.append(line.substring(uncopiedSectionStartIndex, placeholderPatternMatcher.start()));
+    /**
+     * Wie replaceFileWithCopy(File, File, String, Map, Map, GenerationContext), mit den bereits gelesenen Attributen von template
+     */
+    static Set<String /* placeholder */> replaceFileWithCopy(DirElement template, File targetDir, String newFileName, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues, GenerationContext generationContext)
+    {
+        File file = template.file;
 
-            String placeholder = placeholderPatternMatcher.group(1);
+        //
+        // Pre-conditions
+        //
 
-            String replacementValue = null;
-            if (currentPlaceholderValues.containsKey(placeholder))
-            {
-                replacementValue = currentPlaceholderValues.get(placeholder);
-            }
+        if (!template.exists())
+        {
+            log("err", "replaceFileWithCopy: file \"" + file.getAbsolutePath() + "\" does not exist");
+            return null;
+        }
+
+        if (!template.isFile())
+        {
+            log("err", "replaceFileWithCopy: file \"" + file.getAbsolutePath() + "\" exists, but is not a file (probably a directory)");
+            return null;
+        }
+
+        //
+        // Main tasks
+        //
+
+        Set<String /* placeholder */> foundPlaceholders = Collections.emptySet();
+
+        // Parse a file template only once, it is rendered once per new file name.
+        CompiledTemplate compiledTemplate = generationContext.getCompiledTemplate(template);
+
+        File newFile = new File(targetDir.getAbsolutePath() + File.separatorChar + newFileName);
+
+        GenerationManifest manifest = generationContext.manifest;
+        String renderKey = null;
+        if (manifest != null && compiledTemplate.isValid())
+        {
+            renderKey = compiledTemplate.getRenderKey(placeholdersWithValues, currentPlaceholderValues);
+            if (manifest.isUpToDate(newFile, renderKey))
+            {
+                // template content and all placeholder values it uses are unchanged since the last run
+                manifest.recordFile(newFile, file, renderKey, currentPlaceholderValues, false);
+                return foundPlaceholders;
+            }
+        }
+
+        if (generationContext.skipUnchanged && compiledTemplate.isValid() && newFile.isFile())
+        {
+            // compared with newFile while rendering, newFile is only replaced if the content differs
+            boolean isWritten = replaceFileContentIfChanged(compiledTemplate, newFile, placeholdersWithValues, currentPlaceholderValues, generationContext);
+            if (renderKey != null)
+            {
+                manifest.recordFile(newFile, file, renderKey, currentPlaceholderValues, isWritten);
+            }
+            return new HashSet<String /* placeholder */>(compiledTemplate.getSectionPlaceholders());
+        }
+
+        OutputStager stager = generationContext.stager;
+        boolean isStaged = stager != null && stager.isStaged(targetDir);
+        if (generationContext.outputSink.exists(newFile))
+        {
+            if (manifest == null || !manifest.isGenerated(newFile))
+            {
+                log("warn", "WARNING: replaceFileWithCopy: file \"" + newFile.getAbsolutePath() + "\" already exists, " + (isStaged ? "replacing it" : "removing it first"));
+            }
+            if (!isStaged)
+            {
+                generationContext.outputSink.delete(newFile);
+            }
+        }
+
+        if (isStaged)
+        {
+            // written completely next to newFile, then moved over it
+            File stagingFile = OutputStager.newStagingFile(newFile);
+            try
+            {
+                foundPlaceholders = replaceFileContent(compiledTemplate, stagingFile, placeholdersWithValues, currentPlaceholderValues, generationContext.outputSink);
+            }
+            catch (RuntimeException e)
+            {
+                stager.discard(stagingFile);
+                throw e;
+            }
+            stager.commit(stagingFile, newFile);
+        }
+        else
+        {
+            foundPlaceholders = replaceFileContent(compiledTemplate, newFile, placeholdersWithValues, currentPlaceholderValues, generationContext.outputSink);
+        }
+
+        if (generationContext.plan != null)
+        {
+            generationContext.plan.recordTemplateOutput(file, newFile);
+        }
+
+        if (renderKey != null)
+        {
+            manifest.recordFile(newFile, file, renderKey, currentPlaceholderValues, true);
+        }
+
+        return foundPlaceholders;
+    }
+
+    /**
+     * kopiert Inhalt von "file" nach "newFileName" und ersetzt Placeholder
+     * @param file der parameter muss angegeben werden
+     * @param newFile der parameter muss angegeben werden, das file darf aber nicht exestieren
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss nicht angegeben werden
+     * @return 
+     */
+    public static Set<String /* placeholder */> replaceFileContent(File file, File newFile, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    {
+        //
+        // Pre-conditions
+        //
+
+        if (!file.exists())
+        {
+            log("err", "replaceFileContent: file \"" + file.getAbsolutePath() + "\" does not exist");
+            return null;
+        }
+
+        if (!file.isFile())
+        {
+            log("err", "replaceFileContent: file \"" + file.getAbsolutePath() + "\" exists, but is not a file (probably a directory)");
+            return null;
+        }
+
+        //
+        // Main tasks
+        //
+
+        return replaceFileContent(CompiledTemplate.compile(file), newFile, placeholdersWithValues, currentPlaceholderValues);
+    }
+
+    /**
+     * Schreibt die bereits zerlegte Vorlage nach "newFile" und ersetzt Placeholder
+     * @param compiledTemplate der parameter muss angegeben werden
+     * @param newFile der parameter muss angegeben werden, das file darf aber nicht exestieren
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss nicht angegeben werden
+     * @return die Placeholder der BEGIN/END Sektionen
+     */
+    public static Set<String /* placeholder */> replaceFileContent(CompiledTemplate compiledTemplate, File newFile, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    {
+        return replaceFileContent(compiledTemplate, newFile, placeholdersWithValues, currentPlaceholderValues, new FileSystemOutputSink());
+    }
+
+    /**
+     * Schreibt die bereits zerlegte Vorlage nach "newFile" in outputSink und ersetzt Placeholder
+     * @param compiledTemplate der parameter muss angegeben werden
+     * @param newFile der parameter muss angegeben werden, das file darf aber nicht exestieren
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss nicht angegeben werden
+     * @param outputSink der parameter muss angegeben werden, Dateisystem oder Archiv
+     * @return die Placeholder der BEGIN/END Sektionen
+     */
+    public static Set<String /* placeholder */> replaceFileContent(CompiledTemplate compiledTemplate, File newFile, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues, OutputSink outputSink)
+    {
+        //
+        // Pre-conditions
+        //
+
+        if (outputSink.exists(newFile))
+        {
+            log("err", "replaceFileContent: file \"" + newFile.getAbsolutePath() + "\" already exists");
+            return null;
+        }
+
+        if (!compiledTemplate.isValid())
+        {
+            // errors were already logged when compiling the template
+            return new HashSet<String /* placeholder */>(compiledTemplate.getSectionPlaceholders());
+        }
+
+        //
+        // Main tasks
+        //
+
+        OutputStream outputSinkStream;
+        try
+        {
+            outputSinkStream = outputSink.openFile(newFile);
+        }
+        catch(IOException exIO)
+        {
+            log("err", "replaceFileContent: \"" + compiledTemplate.file.getAbsolutePath() + "\" --> \"" + newFile.getAbsolutePath() + "\": " + exIO.toString());
+            return new HashSet<String /* placeholder */>(compiledTemplate.getSectionPlaceholders());
+        }
+
+        return renderFileContent(compiledTemplate, newFile, outputSinkStream, placeholdersWithValues, currentPlaceholderValues);
+    }
+
+    /**
+     * REPLACE mit --skip-unchanged: vergleicht die erzeugten Bytes mit der vorhandenen Datei existingFile
+     * und ersetzt sie nur, wenn sich der Inhalt unterscheidet (siehe ComparingOutputStream)
+     * @param compiledTemplate der parameter muss angegeben werden, muss gültig sein
+     * @param existingFile der parameter muss angegeben werden, eine vorhandene Datei
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss nicht angegeben werden
+     * @param generationContext der parameter muss angegeben werden, Zustand des aktuellen Laufs
+     * @return true wenn existingFile ersetzt wurde, false wenn der Inhalt gleich ist
+     */
+    static boolean replaceFileContentIfChanged(CompiledTemplate compiledTemplate, File existingFile, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues, GenerationContext generationContext)
+    {
+        ComparingOutputStream comparingStream;
+        try
+        {
+            comparingStream = new ComparingOutputStream(existingFile, generationContext.outputSink);
+        }
+        catch (IOException exIO)
+        {
+            log("err", "replaceFileContent: unable to read \"" + existingFile.getAbsolutePath() + "\": " + exIO.toString());
+            return false;
+        }
+
+        try
+        {
+            renderFileContent(compiledTemplate, existingFile, comparingStream, placeholdersWithValues, currentPlaceholderValues);
+        }
+        catch (RuntimeException e)
+        {
+            comparingStream.discard();
+            throw e;
+        }
+
+        boolean isWritten;
+        try
+        {
+            isWritten = comparingStream.commit();
+        }
+        catch (IOException exIO)
+        {
+            log("err", "replaceFileContent: unable to replace \"" + existingFile.getAbsolutePath() + "\": " + exIO.toString());
+            return false;
+        }
+        if (!isWritten && isLogEnabled(Logger.DEBUG))
+        {
+            log("debug", "replaceFileContent: \"" + existingFile.getAbsolutePath() + "\" is unchanged, not written");
+        }
+        return isWritten;
+    }
+
+    /**
+     * Schreibt die gültige zerlegte Vorlage in den bereits geöffneten Stream und schließt ihn
+     * @param compiledTemplate der parameter muss angegeben werden, muss gültig sein
+     * @param newFile der parameter muss angegeben werden, für Meldungen und Metriken
+     * @param outputSinkStream der parameter muss angegeben werden
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss nicht angegeben werden
+     * @return die Placeholder der BEGIN/END Sektionen
+     */
+    static Set<String /* placeholder */> renderFileContent(CompiledTemplate compiledTemplate, File newFile, OutputStream outputSinkStream, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    {
+        Closeable outputFile = outputSinkStream;
+        Metrics.PhaseEvent event = Metrics.RENDER.start();
+        Metrics.CountingOutputStream countingStream = null;
+
+        try
+        {
+            if (Metrics.enabled)
+            {
+                countingStream = new Metrics.CountingOutputStream(outputSinkStream);
+                outputSinkStream = countingStream;
+            }
+
+            if (compiledTemplate.isMapped())
+            {
+                // byte by byte, text without placeholders is copied without decoding it
+                BufferedOutputStream outputStream = new BufferedOutputStream(outputSinkStream, 64 * 1024);
+                outputFile = outputStream;
+                compiledTemplate.render(outputStream, placeholdersWithValues, currentPlaceholderValues);
+            }
+            else
+            {
+                BufferedWriter outputWriter = new BufferedWriter(new OutputStreamWriter(outputSinkStream));
+                outputFile = outputWriter;
+                compiledTemplate.render(outputWriter, placeholdersWithValues, currentPlaceholderValues);
+            }
+        }
+        catch(IOException exIO)
+        {
+            log("err", "replaceFileContent: \"" + compiledTemplate.file.getAbsolutePath() + "\" --> \"" + newFile.getAbsolutePath() + "\": " + exIO.toString());
+        }
+        finally
+        {
+            if (outputFile != null)
+            {
+                try
+                {
+                    outputFile.close();
+                }
+                catch (IOException exIO)
+                {
+                    log("err", "replaceFileContent: unable to close \"" + newFile.getAbsolutePath() + "\": " + exIO.toString());
+                }
+            }
+        }
+
+        // a streamed template is read again for every output
+        long bytesRead = Metrics.enabled && compiledTemplate.isStreaming ? compiledTemplate.file.length() : 0;
+        Metrics.RENDER.stop(event, newFile, 1, bytesRead, countingStream == null ? 0 : countingStream.count);
+
+        return new HashSet<String /* placeholder */>(compiledTemplate.getSectionPlaceholders());
+    }
+
+    /**
+     * Liest eine Datei ein und sucht in ihr nach Placeholdern
+     * @param file der parameter muss angegeben werden
+     * @return Es werden alle Placeholder zurückgegeben
+     */
+    public static Set<String /* placeholder */> getPlaceholdersFromFileContent(File file)
+    {
+        return getPlaceholdersFromFileContent(file, null);
+    }
+
+    /**
+     * Liest eine Datei im angegebenen Charset ein und sucht in ihr nach Placeholdern
+     * @param file der parameter muss angegeben werden
+     * @param charset der parameter muss nicht angegeben werden, ohne Angabe wird der Standard-Charset der Plattform verwendet
+     * @return Es werden alle Placeholder zurückgegeben
+     */
+    public static Set<String /* placeholder */> getPlaceholdersFromFileContent(File file, Charset charset)
+    {
+        return getPlaceholdersFromFileContent(DirElement.read(file), charset);
+    }
+
+    /**
+     * Wie getPlaceholdersFromFileContent(File, Charset), mit den bereits gelesenen Attributen von template
+     */
+    static Set<String /* placeholder */> getPlaceholdersFromFileContent(DirElement template, Charset charset)
+    {
+        File file = template.file;
+
+        //
+        // Pre-conditions
+        //
+
+        if (!template.exists())
+        {
+            log("err", "replaceFileContent: file \"" + file.getAbsolutePath() + "\" does not exist");
+            return null;
+        }
+
+        if (!template.isFile())
+        {
+            log("err", "replaceFileContent: file \"" + file.getAbsolutePath() + "\" exists, but is not a file (probably a directory)");
+            return null;
+        }
+
+        //
+        // Main tasks
+        //
+
+        Set<String /* placeholder */> foundPlaceholders = new HashSet<String /* placeholder */>();
+
+        try
+        {
+            // lines ending with a backslash are continued with the next line
+            ContinuedLineReader inputFile = new ContinuedLineReader(new BufferedReader(charset == null ? new FileReader(file) : new InputStreamReader(new FileInputStream(file), charset)));
+            PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+            String line;
+            while ((line = inputFile.readLine()) != null)
+            {
+                for (int index = 0; placeholderScanner.find(line, index, PlaceholderScanner.KIND_VALUE); index = placeholderScanner.end)
+                {
+                    foundPlaceholders.add(placeholderScanner.getPlaceholder(line));
+                }
+            }
+
+            inputFile.close();
+        }
+        catch(IOException exIO)
+        {
+            log("err", "getPlaceholdersFromFileContent: \"" + file.getAbsolutePath() + "\": " + exIO.toString());
+        }
+
+        return foundPlaceholders;
+    }
+
+    
+    /**
+     * Sucht in string nach Placeholdern
+     * @param string der parameter muss angegeben werden
+     * @return geht auf placeholder zurück
+     */
+    public static Set<String /* placeholder */> getPlaceholdersFromString(String string)
+    {
+        // grep all {{@PLACEHOLDERNAME@}} from string
+        Set<String /* placeholder */> placeholders = new HashSet<String /* placeholder */>();
+        PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+        for (int index = 0; placeholderScanner.find(string, index, PlaceholderScanner.KIND_VALUE); index = placeholderScanner.end)
+        {
+            String placeholder = placeholderScanner.getPlaceholder(string);
+            placeholders.add(placeholder);
+        }
+
+        return placeholders;
+    }
+
+    /**
+     * @param line der parameter muss angegeben werden
+     * @return gibt placeholder an
+     */
+    public static String isBeginPlaceholderLine(String line)
+    {
+        PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+        if (placeholderScanner.find(line, 0, PlaceholderScanner.KIND_BEGIN))
+        {
+            return getSectionMarkerPlaceholder(line, placeholderScanner);
+        }
+
+        return null;
+    }
+
+    /**
+     * @param line der parameter muss angegeben werden
+     * @return gibt placeholder an
+     */
+    public static String isEndPlaceholderLine(String line)
+    {
+        PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+        if (placeholderScanner.find(line, 0, PlaceholderScanner.KIND_END))
+        {
+            return getSectionMarkerPlaceholder(line, placeholderScanner);
+        }
+
+        return null;
+    }
+
+    /**
+     * Liefert den Placeholder einer gefundenen BEGIN/END Markierung und warnt, wenn die Zeile noch mehr enthält
+     * @param line der parameter muss angegeben werden
+     * @param placeholderScanner der parameter muss angegeben werden, mit einem Treffer der Art KIND_BEGIN oder KIND_END
+     * @return gibt placeholder an
+     */
+    static String getSectionMarkerPlaceholder(String line, PlaceholderScanner placeholderScanner)
+    {
+        String placeholder = placeholderScanner.getPlaceholder(line);
+
+        if (!placeholderScanner.isAloneInString(line))
+        {
+            if (placeholderScanner.kind == PlaceholderScanner.KIND_BEGIN)
+            {
+                log("err", "isBeginPlaceholderLine: in the following line there is more than just the BEGIN of placeholder \"" + placeholder + "\", and everything than the placeholder BEGIN is ignored: " + line);
+            }
+            else
+            {
+                log("err", "isBeginPlaceholderLine: in the following line there is more than just the END of placeholder \"" + placeholder + "\", and everything than the placeholder END is ignored: " + line);
+            }
+        }
+
+        return placeholder;
+    }
+
+    /**
+     * Ersetzt Placeholder in "line"
+     * @param line der parameter muss angegeben werden
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss angegeben werden
+     * @return Kopiert line und ersetzt Placeholder 
+     */
+    public static String /* replacedLine */ replaceAllOccurrencesInString(String line, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    {
+        StringBuilder replacedLineBuilder = new StringBuilder(line.length() + 30);
+
+        // grep all {{@PLACEHOLDERNAME@}} from line
+        int uncopiedSectionStartIndex = 0;
+        PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+        while (placeholderScanner.find(line, uncopiedSectionStartIndex, PlaceholderScanner.KIND_VALUE))
+        {
+            replacedLineBuilder.append(line, uncopiedSectionStartIndex, placeholderScanner.start);
+
+            String placeholder = placeholderScanner.getPlaceholder(line);
+
+            String baseNumber = placeholderScanner.getBaseNumber(line);
+
+            replacedLineBuilder.append(getReplacementValue(placeholder, baseNumber, placeholdersWithValues, currentPlaceholderValues));
+
+            uncopiedSectionStartIndex = placeholderScanner.end;
+        }
+
+        replacedLineBuilder.append(line, uncopiedSectionStartIndex, line.length());
+
+        return replacedLineBuilder.toString();
+    }
+
+    /**
+     * Ermittelt den Wert, mit dem ein einzelnes Vorkommen eines Placeholders ersetzt wird
+     * @param placeholder der parameter muss angegeben werden
+     * @param baseNumber der parameter muss nicht angegeben werden, nur bei {{@PLACEHOLDERNAME#base X@}}
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss angegeben werden
+     * @return Wert oder Nummer des Wertes, null wenn der Placeholder keinen festen Wert hat
+     */
+    public static String getReplacementValue(String placeholder, String baseNumber, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    {
+        if (Metrics.enabled)
+        {
+            Metrics.RENDER.placeholders.increment();
+        }
+
+        String replacementValue = null;
+        if (currentPlaceholderValues.containsKey(placeholder))
+        {
+            replacementValue = currentPlaceholderValues.get(placeholder);
+        }
+        else
+        {
+            PlaceholderDefinition placeholderDefinition = placeholdersWithValues.get(placeholder);
+            if (placeholderDefinition != null)
+            {
+                if (placeholderDefinition.isSinglePlaceholderValue())
+                {
+                    replacementValue = placeholderDefinition.getNextPlaceholderValue(null);
+                }
+                else if (placeholderDefinition.isDatasetPlaceholderValue())
+                {
+                    // given by the fixed values of the other placeholders of the dataset, e.g. the region of a fixed partner
+                    replacementValue = placeholderDefinition.dataset.getUniqueValue(placeholder, currentPlaceholderValues);
+                }
+                else // multi-value placeholder
+                {
+                    log("err", "replaceAllOccurrencesInStrings: placeholder \"" + placeholder + "\" encountered outside BEGIN/END section without fixed value, ignoring it");
+                }
+            }
+            else
+            {
+                log("err", "replaceAllOccurrencesInStrings: placeholder \"" + placeholder + "\" is not defined in properties file, ignoring it");
+            }
+        }
+
+        if (baseNumber != null)
+        {
+            PlaceholderDefinition placeholderDefinition = placeholdersWithValues.get(placeholder);
+            replacementValue = placeholderDefinition.getNumberOfPlaceholderValue(replacementValue, baseNumber);
+            //log("std", "replaceAllOccurrencesInStrings: placeholder \"" + placeholder + "\" to be replaced with number of value instead of value itself, base number: " + baseNumber);
+        }
+
+        return replacementValue;
+    }
+
+    /**
+     * @param args der parameter muss angegeben werden
+     * @throws InterruptedException
+     */
+    public static void main(String args[]) throws InterruptedException
+    {
+        int exitCode = run(args, null);
+        Logger.flush();
+        if (exitCode != 0)
+        {
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * Führt einen Aufruf aus, von der Kommandozeile (main) oder als Anfrage an SERVE
+     * @param args der parameter muss angegeben werden, wie beim Aufruf von main
+     * @param request der parameter muss nicht angegeben werden, bei null von der Kommandozeile: die Meldungen gehen dann an Logger,
+     *                sonst an den Client und relative Pfade gelten im Verzeichnis des Clients
+     * @return der Exit-Code
+     */
+    static int run(String args[], FileTemplateServer.Request request)
+    {
+        List<String> positionalArgs = new ArrayList<String>();
+        Map<String /* option */, String /* option value */> options = parseOptions(args, positionalArgs);
+        if (options == null)
+        {
+            log("std", "");
+            printUsage();
+            return 0;
+        }
+        args = positionalArgs.toArray(new String[positionalArgs.size()]);
+
+        if (options.containsKey("--log-level"))
+        {
+            int logLevel = Logger.parseLevel(options.get("--log-level"));
+            if (logLevel < 0)
+            {
+                log("err", "--log-level requires error, warn, info or debug, got \"" + options.get("--log-level") + "\"");
+                return 0;
+            }
+            setLogLevel(logLevel, request);
+        }
+        if (options.containsKey("--quiet"))
+        {
+            setLogLevel(Logger.ERROR, request);
+        }
+
+        if (args.length > 0 && args[0].equals("SERVE") && request == null)
+        {
+            if (args.length < 2)
+            {
+                log("err", "SERVE requires a socket-file");
+                return 0;
+            }
+            int threads = FileTemplateServer.DEFAULT_THREADS;
+            if (options.containsKey("--threads"))
+            {
+                try
+                {
+                    threads = Integer.parseInt(options.get("--threads"));
+                }
+                catch (NumberFormatException e)
+                {
+                    threads = 0;
+                }
+
+                if (threads < 1)
+                {
+                    log("err", "--threads requires a positive number, got \"" + options.get("--threads") + "\"");
+                    return 0;
+                }
+            }
+            return new FileTemplateServer(new File(args[1]), threads).serve();
+        }
+
+        long runStartNanos = System.nanoTime();
+        File metricsFile = null;
+        if (options.containsKey("--metrics-out"))
+        {
+            if (request != null)
+            {
+                // the counters are shared by all requests of the server
+                log("err", "--metrics-out is not supported by SERVE");
+                return 0;
+            }
+            metricsFile = new File(options.get("--metrics-out"));
+            Metrics.enabled = true;
+        }
+
+        OutputStream stdoutStream = null;
+        if ("-".equals(options.get("--archive")) || "-".equals(options.get("--usage")))
+        {
+            if (request != null)
+            {
+                log("err", ("-".equals(options.get("--archive")) ? "--archive" : "--usage") + " - is not supported by SERVE");
+                return 0;
+            }
+
+            // the archive (or usage report) goes to stdout, so all messages go to stderr
+            stdoutStream = new FileOutputStream(FileDescriptor.out);
+            System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+        }
+
+        if (args.length < 2)
+        {
+            printUsage();
+            return 0;
+        }
+
+        int threads = 1;
+        if (options.containsKey("--threads"))
+        {
+            try
+            {
+                threads = Integer.parseInt(options.get("--threads"));
+            }
+            catch (NumberFormatException e)
+            {
+                threads = 0;
+            }
+
+            if (threads < 1)
+            {
+                log("err", "--threads requires a positive number, got \"" + options.get("--threads") + "\"");
+                return 0;
+            }
+        }
+
+        Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues = null;
+        Bindings bindings = null;
+
+        if (args[0].equals("LIST"))
+        {
+            // no op, placeholdersWithValues is set to null
+        }
+        else if (args[0].equals("REPLACE") || args[0].equals("PLAN") || args[0].equals("WATCH"))
+        {
+            if (args[0].equals("WATCH") && request != null)
+            {
+                log("err", "WATCH is not supported by SERVE");
+                return 0;
+            }
+
+            if (args.length < 3)
+            {
+                log("err", args[0] + " requires a properties-file");
+                return 0;
+            }
+
+            File propertiesFile = toFile(args[2], request);
+            Properties properties = new Properties();
+            try (FileInputStream inputStream = new FileInputStream(propertiesFile))
+            {
+                properties.load(inputStream);
+            }
+            catch(FileNotFoundException e)
+            {
+                log("err", "properties-file \"" + args[2] + "\" not found");
+                return 0;
+            }
+            catch(IOException e)
+            {
+                log("err", "unable to read properties-file \"" + args[2] + "\"");
+                return 0;
+            }
+            resolveDatasetFiles(properties, propertiesFile);
+
+            if (request != null)
+            {
+                bindings = request.server.getBindings(properties, request);
+                placeholdersWithValues = bindings.placeholdersWithValues;
+            }
             else
             {
-                PlaceholderDefinition placeholderDefinition = placeholdersWithValues.get(placeholder);
-                if (placeholderDefinition != null)
+                placeholdersWithValues = readPlaceholdersFromProperties(properties);
+            }
+        }
+        else
+        {
+            log("err", "action \"" + args[0] + "\" not supported");
+            log("std", "");
+            printUsage();
+            return 0;
+        }
+
+        File baseDir = toFile(args[1], request);
+        if (!baseDir.exists())
+        {
+            log("err", "directory \"" + args[1] + "\" does not exist");
+            return 0;
+        }
+
+        boolean isPlan = args[0].equals("PLAN");
+        boolean isWatch = args[0].equals("WATCH");
+        if (threads > 1 && isPlan)
+        {
+            log("warn", "WARNING: --threads is ignored for PLAN");
+            threads = 1;
+        }
+
+        long[] limits = new long[] { -1, -1, -1 };
+        String[] limitOptions = new String[] { "--max-files", "--max-bytes", "--max-depth" };
+        for (int i = 0; i < limitOptions.length; i++)
+        {
+            if (options.containsKey(limitOptions[i]))
+            {
+                if (!isPlan)
                 {
-                    if (placeholderDefinition.isSinglePlaceholderValue())
-                    {
-                        replacementValue = placeholderDefinition.getNextPlaceholderValue(null);
-                    }
-                    else // multi-value placeholder
-                    {
-                        log("err", "replaceAllOccurrencesInStrings: placeholder \"" + placeholder + "\" encountered outside BEGIN/END section without fixed value, ignoring it");
-                    }
+                    log("err", limitOptions[i] + " is only supported for PLAN");
+                    return 0;
                 }
-                else
+
+                try
+                {
+                    limits[i] = Long.parseLong(options.get(limitOptions[i]));
+                }
+                catch (NumberFormatException e)
+                {
+                    limits[i] = -1;
+                }
+
+                if (limits[i] < 0)
+                {
+                    log("err", limitOptions[i] + " requires a number >= 0, got \"" + options.get(limitOptions[i]) + "\"");
+                    return 0;
+                }
+            }
+        }
+
+        File outputDir = null;
+        if (options.containsKey("--out"))
+        {
+            if (placeholdersWithValues == null)
+            {
+                log("err", "--out is only supported for REPLACE");
+                return 0;
+            }
+
+            outputDir = toFile(options.get("--out"), request);
+            try
+            {
+                if (!isOutputDirSeparate(baseDir, outputDir))
+                {
+                    log("err", "output directory \"" + options.get("--out") + "\" must not be inside directory \"" + args[1] + "\" or contain it");
+                    return 0;
+                }
+            }
+            catch (IOException e)
+            {
+                log("err", "unable to resolve output directory \"" + options.get("--out") + "\": " + e.toString());
+                return 0;
+            }
+        }
+
+        int usageFormat = PlaceholderUsage.FORMAT_TEXT;
+        if (options.containsKey("--usage-format"))
+        {
+            usageFormat = PlaceholderUsage.parseFormat(options.get("--usage-format"));
+            if (usageFormat < 0)
+            {
+                log("err", "--usage-format requires text or json, got \"" + options.get("--usage-format") + "\"");
+                return 0;
+            }
+            if (!options.containsKey("--usage"))
+            {
+                log("err", "--usage-format requires --usage");
+                return 0;
+            }
+        }
+
+        Writer usageWriter = null;
+        if (options.containsKey("--usage"))
+        {
+            if (placeholdersWithValues != null)
+            {
+                log("err", "--usage is only supported for LIST");
+                return 0;
+            }
+
+            String usageName = options.get("--usage");
+            try
+            {
+                OutputStream usageStream = stdoutStream != null ? stdoutStream : new FileOutputStream(toFile(usageName, request));
+                usageWriter = new BufferedWriter(new OutputStreamWriter(usageStream, StandardCharsets.UTF_8), 64 * 1024);
+            }
+            catch (FileNotFoundException e)
+            {
+                log("err", "unable to create usage report \"" + usageName + "\": " + e.toString());
+                return 0;
+            }
+        }
+
+        GenerationContext generationContext = new GenerationContext();
+        if (request != null)
+        {
+            // parsed templates and names stay with the server for the next requests
+            generationContext.reusableTemplates = request.server.reusableTemplates;
+            if (bindings != null)
+            {
+                generationContext.fileNameTemplates = bindings.fileNameTemplates;
+                generationContext.placeholderNames = bindings.placeholderNames;
+            }
+        }
+
+        if (options.containsKey("--charset"))
+        {
+            try
+            {
+                generationContext.charset = Charset.forName(options.get("--charset"));
+            }
+            catch (IllegalArgumentException e)
+            {
+                log("err", "--charset: charset \"" + options.get("--charset") + "\" not supported");
+                return 0;
+            }
+
+            if (!isAsciiCompatible(generationContext.charset))
+            {
+                log("err", "--charset: charset \"" + options.get("--charset") + "\" is not supported, it must be UTF-8, US-ASCII or a single-byte charset encoding ASCII characters unchanged");
+                return 0;
+            }
+        }
+
+        if (options.containsKey("--copy-mode"))
+        {
+            int copyMode = FileCopier.parseMode(options.get("--copy-mode"));
+            if (copyMode < 0)
+            {
+                log("err", "--copy-mode requires copy, hardlink or reflink, got \"" + options.get("--copy-mode") + "\"");
+                return 0;
+            }
+            if (placeholdersWithValues == null || isPlan || options.containsKey("--archive"))
+            {
+                log("err", "--copy-mode is only supported for REPLACE without --archive");
+                return 0;
+            }
+
+            generationContext.outputSink = new FileSystemOutputSink(new FileCopier(copyMode));
+        }
+
+        if (options.containsKey("--staged"))
+        {
+            if (placeholdersWithValues == null || isPlan || options.containsKey("--archive"))
+            {
+                log("err", "--staged is only supported for REPLACE and WATCH without --archive");
+                return 0;
+            }
+
+            generationContext.stager = new OutputStager();
+        }
+
+        if (options.containsKey("--skip-unchanged"))
+        {
+            if (placeholdersWithValues == null || isPlan || options.containsKey("--archive"))
+            {
+                log("err", "--skip-unchanged is only supported for REPLACE and WATCH without --archive");
+                return 0;
+            }
+
+            generationContext.skipUnchanged = true;
+        }
+
+        if (options.containsKey("--archive"))
+        {
+            if (placeholdersWithValues == null || isPlan || isWatch || outputDir != null || options.containsKey("--manifest"))
+            {
+                log("err", "--archive is only supported for REPLACE without --out and --manifest");
+                return 0;
+            }
+
+            String archiveName = options.get("--archive");
+            OutputStream archiveStream;
+            if (stdoutStream != null)
+            {
+                archiveStream = stdoutStream;
+            }
+            else
+            {
+                try
+                {
+                    archiveStream = new FileOutputStream(toFile(archiveName, request));
+                }
+                catch (FileNotFoundException e)
                 {
-                    log("err", "replaceAllOccurrencesInStrings: placeholder \"" + placeholder + "\" is not defined in properties file, ignoring it");
+                    log("err", "unable to create archive \"" + archiveName + "\": " + e.toString());
+                    return 0;
                 }
             }
 
-            String baseNumber = placeholderPatternMatcher.group(7);
-            if (baseNumber != null)
+            // entries are named relative to this (never created) directory
+            outputDir = toFile(archiveName, request).getAbsoluteFile();
+            generationContext.outputSink = ArchiveOutputSink.create(archiveName, archiveStream, outputDir);
+        }
+
+        // the directory the files are generated in
+        File outputRoot = outputDir != null ? outputDir : (baseDir.isDirectory() && !baseDir.getName().endsWith(generationContext.fileTemplateSuffix) ? baseDir : baseDir.getAbsoluteFile().getParentFile());
+
+        if (options.containsKey("--manifest"))
+        {
+            if (placeholdersWithValues == null || isPlan)
+            {
+                log("err", "--manifest is only supported for REPLACE");
+                return 0;
+            }
+
+            // paths in the manifest are relative to the directory the files are generated in
+            generationContext.manifest = GenerationManifest.load(toFile(options.get("--manifest"), request), outputRoot);
+            if (generationContext.manifest == null)
+            {
+                return 0;
+            }
+        }
+
+        if (isWatch)
+        {
+            // without --manifest the outputs of the last run are only known in memory
+            if (generationContext.manifest == null)
+            {
+                generationContext.manifest = GenerationManifest.createInMemory(outputRoot);
+            }
+            return new TemplateWatcher(baseDir, outputDir, toFile(args[2], request), placeholdersWithValues, generationContext, threads).watch();
+        }
+
+        if (isPlan)
+        {
+            // generate into the (never created) output root, so the directory with the *.filetemplate files is only read
+            outputDir = outputRoot;
+            generationContext.plan = new GenerationPlan(outputRoot);
+            generationContext.plan.maxFiles = limits[0];
+            generationContext.plan.maxBytes = limits[1];
+            generationContext.plan.maxDepth = (int) Math.min(limits[2], Integer.MAX_VALUE);
+            generationContext.outputSink = generationContext.plan;
+        }
+
+        ForkJoinPool forkJoinPool = threads > 1 && (placeholdersWithValues != null || usageWriter != null) ? new ForkJoinPool(threads) : null;
+        Set<String /* placeholder */> foundPlaceholders;
+        try
+        {
+            if (usageWriter != null)
+            {
+                foundPlaceholders = new PlaceholderUsage(usageWriter, usageFormat).scan(baseDir, generationContext, forkJoinPool);
+            }
+            else
+            {
+                foundPlaceholders = generate(baseDir, outputDir, placeholdersWithValues, generationContext, forkJoinPool);
+            }
+        }
+        catch (GenerationPlan.LimitExceededException e)
+        {
+            log("err", "PLAN: limit exceeded, stopped: " + e.getMessage());
+            return 1;
+        }
+        finally
+        {
+            if (forkJoinPool != null)
+            {
+                forkJoinPool.shutdown();
+            }
+        }
+
+        if (generationContext.plan != null)
+        {
+            generationContext.plan.report(placeholdersWithValues, generationContext);
+        }
+        if (generationContext.manifest != null)
+        {
+            generationContext.manifest.removeStaleOutputs();
+            generationContext.manifest.save();
+        }
+        if (generationContext.stager != null)
+        {
+            generationContext.stager.awaitDeletions();
+        }
+
+        try
+        {
+            generationContext.outputSink.close();
+        }
+        catch (IOException e)
+        {
+            log("err", "unable to finish output: " + e.toString());
+        }
+        if (usageWriter != null && stdoutStream == null)
+        {
+            try
+            {
+                usageWriter.close();
+            }
+            catch (IOException e)
+            {
+                log("err", "unable to finish usage report \"" + options.get("--usage") + "\": " + e.toString());
+            }
+        }
+
+        if (placeholdersWithValues == null)
+        {
+            log("std", "Listing all placeholders found:");
+            for (String placeholder : foundPlaceholders)
+            {
+                log("std", placeholder);
+            }
+        }
+
+        if (metricsFile != null)
+        {
+            try
+            {
+                Metrics.writeJson(metricsFile, args[0], System.nanoTime() - runStartNanos);
+            }
+            catch (IOException e)
+            {
+                log("err", "unable to write metrics to \"" + metricsFile.getAbsolutePath() + "\": " + e.toString());
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * @param path der parameter muss angegeben werden
+     * @param request der parameter muss nicht angegeben werden, sonst gilt ein relativer path im Verzeichnis des Clients
+     */
+    private static File toFile(String path, FileTemplateServer.Request request)
+    {
+        File file = new File(path);
+        return request == null || file.isAbsolute() ? file : new File(request.workingDir, path);
+    }
+
+    private static void setLogLevel(int level, FileTemplateServer.Request request)
+    {
+        if (request != null)
+        {
+            request.level = level;
+        }
+        else
+        {
+            Logger.level = level;
+        }
+    }
+
+    /**
+     * Erzeugt aus baseDir (REPLACE, PLAN) oder sucht in baseDir nach Placeholdern (LIST)
+     * @param baseDir der parameter muss angegeben werden, *.filetemplate oder Verzeichnis
+     * @param outputDir der parameter muss nicht angegeben werden, bei null wird neben den *.filetemplate erzeugt
+     * @param placeholdersWithValues der parameter muss nicht angegeben werden, bei null LIST
+     * @param generationContext der parameter muss angegeben werden, Zustand des Laufs
+     * @param forkJoinPool der parameter muss nicht angegeben werden, bei null wird nacheinander im aktuellen Thread erzeugt
+     * @return die gefundenen Placeholder (LIST), sonst leer
+     */
+    static Set<String /* placeholder */> generate(File baseDir, File outputDir, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, GenerationContext generationContext, ForkJoinPool forkJoinPool)
+    {
+        LogHandler currentLogHandler = logHandler.get();
+        Set<String /* placeholder */> foundPlaceholders = new HashSet<String /* placeholder */>();
+        Runnable action = () ->
+        {
+            if (outputDir != null)
             {
-                PlaceholderDefinition placeholderDefinition = placeholdersWithValues.get(placeholder);
-                replacementValue = placeholderDefinition.getNumberOfPlaceholderValue(replacementValue, baseNumber);
-                //log("std", "replaceAllOccurrencesInStrings: placeholder \"" + placeholder + "\" to be replaced with number of value instead of value itself, base number: " + baseNumber);
+                processFileOrDirToOutputDir(baseDir, outputDir, placeholdersWithValues, generationContext);
+                return;
             }
 
-            replacedLineBuilder.append(replacementValue);
+            Set<String /* placeholder */> baseDirPlaceholders = processFileOrDir(baseDir, placeholdersWithValues, new HashMap<String /* placeholder */, String /* placeholder value */>(), false, generationContext);
+            if (baseDirPlaceholders != null)
+            {
+                foundPlaceholders.addAll(baseDirPlaceholders);
+            }
+        };
 
-            uncopiedSectionStartIndex = placeholderPatternMatcher.end();
+        // parallel only in the pool of this run, not because the caller itself runs in some ForkJoinPool
+        generationContext.parallel = forkJoinPool != null && placeholdersWithValues != null;
+        if (generationContext.parallel)
+        {
+            forkJoinPool.invoke(ForkJoinTask.adapt(() -> runWithLogHandler(currentLogHandler, action)));
         }
+        else
+        {
+            action.run();
+        }
+        return foundPlaceholders;
+    }
 
-        replacedLineBuilder.append(line.substring(uncopiedSectionStartIndex));
-
-        return replacedLineBuilder.toString();
+    /**
+     * Prüft, ob outputDir weder in baseDir liegt noch baseDir enthält (sonst würde die Ausgabe wieder gelesen oder überschrieben)
+     * @param baseDir der parameter muss angegeben werden
+     * @param outputDir der parameter muss angegeben werden
+     * @throws IOException der werfer muss angegeben werden
+     */
+    static boolean isOutputDirSeparate(File baseDir, File outputDir) throws IOException
+    {
+        String canonicalBaseDirPath = baseDir.getCanonicalPath() + File.separatorChar;
+        String canonicalOutputDirPath = outputDir.getCanonicalPath() + File.separatorChar;
+        return !canonicalOutputDirPath.startsWith(canonicalBaseDirPath) && !canonicalBaseDirPath.startsWith(canonicalOutputDirPath);
     }
 
     /**
-     * @param args der parameter muss angegeben werden
-     * @throws InterruptedException
+     * Prüft, ob charset alle ASCII-Zeichen als einzelne, gleiche Bytes kodiert und kein anderes Zeichen eines davon enthält
+     * (Voraussetzung für MappedTemplate): UTF-8, US-ASCII und Ein-Byte-Charsets wie ISO-8859-x oder windows-125x
      */
-    public static void main(String args[]) throws InterruptedException
+    static boolean isAsciiCompatible(Charset charset)
     {
-        if (args.length < 2)
+        // in multi-byte charsets like Shift_JIS, GBK or Big5 a trail byte can be '{', '@' or '}'
+        if (!charset.canEncode())
         {
-            printUsage();
-            return;
+            return false;
+        }
+        if (!charset.equals(StandardCharsets.UTF_8) && !charset.equals(StandardCharsets.US_ASCII) && charset.newEncoder().maxBytesPerChar() != 1.0f)
+        {
+            return false;
         }
 
-        Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues = null;
-
-        if (args[0].equals("LIST"))
+        StringBuilder ascii = new StringBuilder();
+        for (char c = 0; c < 128; c++)
         {
-            // no op, placeholdersWithValues is set to null
+            ascii.append(c);
         }
-        else if (args[0].equals("REPLACE"))
+        byte[] encoded = ascii.toString().getBytes(charset);
+        if (encoded.length != 128)
         {
-            if (args.length < 3)
+            return false;
+        }
+        for (int i = 0; i < 128; i++)
+        {
+            if (encoded[i] != i)
             {
-                log("err", "REPLACE requires a properties-file");
-                return;
+                return false;
             }
+        }
+        return true;
+    }
 
-            File propertiesFile = new File(args[2]);
-            Properties properties = new Properties();
-            try
+    /**
+     * Trennt die Optionen (--name value) von den übrigen Argumenten
+     * @param args der parameter muss angegeben werden
+     * @param positionalArgs der parameter muss angegeben werden, erhält alle Argumente, die keine Optionen sind (out)
+     * @return die Optionen mit ihren Werten, null bei einer unbekannten oder unvollständigen Option
+     */
+    public static Map<String /* option */, String /* option value */> parseOptions(String[] args, List<String> positionalArgs /* out */)
+    {
+        List<String> optionsWithValue = Arrays.asList("--threads", "--out", "--manifest", "--archive", "--copy-mode", "--charset", "--max-files", "--max-bytes", "--max-depth", "--log-level", "--metrics-out", "--usage", "--usage-format");
+        List<String> optionsWithoutValue = Arrays.asList("--quiet", "--staged", "--skip-unchanged");
+
+        Map<String /* option */, String /* option value */> options = new HashMap<String /* option */, String /* option value */>();
+        for (int i = 0; i < args.length; i++)
+        {
+            if (!args[i].startsWith("--"))
             {
-                properties.load(new FileInputStream(propertiesFile));
+                positionalArgs.add(args[i]);
             }
-            catch(FileNotFoundException e)
+            else if (optionsWithoutValue.contains(args[i]))
             {
-                log("err", "properties-file \"" + args[2] + "\" not found");
-                return;
+                options.put(args[i], "true");
             }
-            catch(IOException e)
+            else if (!optionsWithValue.contains(args[i]))
             {
-                log("err", "unable to read properties-file \"" + args[2] + "\"");
-                return;
+                log("err", "option \"" + args[i] + "\" not supported");
+                return null;
             }
-
-            placeholdersWithValues = readPlaceholdersFromProperties(properties);
-        }
-        else
-        {
-            log("err", "action \"" + args[0] + "\" not supported");
-            log("std", "");
-            printUsage();
-            return;
-        }
-
-        File baseDir = new File(args[1]);
-        if (!baseDir.exists())
-        {
-            log("err", "directory \"" + args[1] + "\" does not exist");
-            return;
-        }
-
-        Set<String /* placeholder */> foundPlaceholders = processFileOrDir(baseDir, placeholdersWithValues, new HashMap<String /* placeholder */, String /* placeholder value */>(), false);
-        if (placeholdersWithValues == null)
-        {
-            log("std", "Listing all placeholders found:");
-            for (String placeholder : foundPlaceholders)
+            else if (i + 1 >= args.length)
             {
-                log("std", placeholder);
+                log("err", "option \"" + args[i] + "\" requires a value");
+                return null;
+            }
+            else
+            {
+                options.put(args[i], args[++i]);
             }
         }
+
+        return options;
     }
 
     /**
@@ -900,40 +2344,51 @@ public class FileTemplate
      */
     public static void deepCopy(File sourceLocation , File targetLocation)
     {
-        if (sourceLocation.isDirectory())
+        Path sourcePath = sourceLocation.toPath();
+        Path targetPath = targetLocation.toPath();
+        try
         {
-            if (!targetLocation.exists())
+            // symbolic links are followed (like File.isDirectory()), the walk reads the attributes of each entry once
+            Files.walkFileTree(sourcePath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>()
             {
-                targetLocation.mkdir();
-            }
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes)
+                {
+                    // fails if the directory already exists, which is fine
+                    targetPath.resolve(sourcePath.relativize(dir)).toFile().mkdir();
+                    return FileVisitResult.CONTINUE;
+                }
 
-            String[] children = sourceLocation.list();
-            for (int i=0; i<children.length; i++)
-            {
-                deepCopy(new File(sourceLocation, children[i]), new File(targetLocation, children[i]));
-            }
-        }
-        else
-        {
-            try
-            {
-                InputStream in = new FileInputStream(sourceLocation);
-                OutputStream out = new FileOutputStream(targetLocation);
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                {
+                    File sourceFile = file.toFile();
+                    File targetFile = targetPath.resolve(sourcePath.relativize(file)).toFile();
+                    Metrics.PhaseEvent event = Metrics.COPY.start();
+                    try
+                    {
+                        // Copy the bits in the kernel, without a buffer in between
+                        FileCopier.transfer(sourceFile, targetFile);
+                    }
+                    catch(IOException exIO)
+                    {
+                        log("err", "deepCopy: \"" + sourceFile + "\" --> \"" + targetFile + "\": " + exIO.toString());
+                    }
+                    Metrics.COPY.stop(event, targetFile, 1, attributes.size(), attributes.size());
+                    return FileVisitResult.CONTINUE;
+                }
 
-                // Copy the bits from instream to outstream
-                byte[] buf = new byte[1024];
-                int len;
-                while ((len = in.read(buf)) > 0)
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exIO)
                 {
-                    out.write(buf, 0, len);
+                    log("err", "deepCopy: \"" + file + "\": " + exIO.toString());
+                    return FileVisitResult.CONTINUE;
                 }
-                in.close();
-                out.close();
-            }
-            catch(IOException exIO)
-            {
-                log("err", "deepCopy: \"" + sourceLocation + "\" --> \"" + targetLocation + "\": " + exIO.toString());
-            }
+            });
+        }
+        catch(IOException exIO)
+        {
+            log("err", "deepCopy: \"" + sourceLocation + "\" --> \"" + targetLocation + "\": " + exIO.toString());
         }
     }
 
@@ -945,14 +2400,32 @@ public class FileTemplate
      */
     public static boolean deepDelete(File location)
     {
-        boolean success = true;
+        Metrics.PhaseEvent event = Metrics.DELETE.start();
+        boolean success = deleteTree(location);
+        Metrics.DELETE.stop(event, location, 0, 0, 0);
+        return success;
+    }
+
+    private static boolean deleteTree(File location)
+    {
+        // files, symbolic links and empty directories are deleted right away, without reading their attributes first;
+        // a symbolic link is deleted itself, not the directory it points to
+        boolean success = location.delete();
 
-        if (location.isDirectory())
+        if (!success && Files.isDirectory(location.toPath(), LinkOption.NOFOLLOW_LINKS))
         {
-            String[] children = location.list();
-            for (int i=0; i<children.length; i++)
+            success = true;
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(location.toPath()))
             {
-                success = deepDelete(new File(location, children[i])) && success;
+                for (Path child : children)
+                {
+                    success = deleteTree(new File(location, child.getFileName().toString())) && success;
+                }
+            }
+            catch (IOException | DirectoryIteratorException e)
+            {
+                log("err", "deepDelete: directory \"" + location.getAbsolutePath() + "\" could not be read: " + e.toString());
+                success = false;
             }
 
             if (success && !location.delete())
@@ -961,20 +2434,42 @@ public class FileTemplate
                 success = false;
             }
         }
-        else
+        else if (!success)
         {
-            if (!location.delete())
-            {
-                log("err", "deepDelete: file \"" + location.getAbsolutePath() + "\" could not be deleted");
-                success = false;
-            }
+            log("err", "deepDelete: file \"" + location.getAbsolutePath() + "\" could not be deleted");
+        }
+
+        if (success && Metrics.enabled)
+        {
+            Metrics.DELETE.deletions.increment();
         }
 
         return success;
     }
 
     /**
-     * @param properties der parameter muss angegeben werden
+     * Macht die Dateien der Datasets (PlaceholderNDataset) absolut, relative Pfade gelten ab dem Verzeichnis der "properties" Datei
+     * @param properties der parameter muss angegeben werden (in/out)
+     * @param propertiesFile der parameter muss angegeben werden
+     */
+    static void resolveDatasetFiles(Properties properties, File propertiesFile)
+    {
+        File propertiesDir = propertiesFile.getAbsoluteFile().getParentFile();
+        for (String key : properties.stringPropertyNames())
+        {
+            if (key.matches("Placeholder[0-9]+Dataset"))
+            {
+                File datasetFile = new File(properties.getProperty(key).trim());
+                if (!datasetFile.isAbsolute())
+                {
+                    properties.setProperty(key, new File(propertiesDir, datasetFile.getPath()).getPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param properties der parameter muss angegeben werden, relative Dateien der Datasets gelten ab dem aktuellen Verzeichnis (siehe resolveDatasetFiles(...))
      * @return 
      */
     public static LinkedHashMap<String /* placeholder */, PlaceholderDefinition> readPlaceholdersFromProperties(Properties properties)
@@ -992,7 +2487,25 @@ public class FileTemplate
             {
                 String valueKey = nameKey + "Value";
                 String placeholderValue = properties.getProperty(valueKey);
-                if (placeholderValue != null)
+                String datasetFile = properties.getProperty(nameKey + "Dataset");
+                if (datasetFile != null)
+                {
+                    // PlaceholderN names several placeholders, their values are columns of the same rows
+                    PlaceholderDataset dataset = new PlaceholderDataset(new File(datasetFile.trim()), placeholderName.trim().split("\\s*,\\s*"));
+                    if (dataset.valid)
+                    {
+                        for (String datasetPlaceholderName : dataset.placeholders)
+                        {
+                            placeholdersWithValues.put(datasetPlaceholderName, new PlaceholderDefinition(datasetPlaceholderName, dataset));
+                            placeholderNames.add(datasetPlaceholderName);
+                        }
+                    }
+                    else
+                    {
+                        log("err", "no valid " + nameKey + "Dataset found for " + nameKey);
+                    }
+                }
+                else if (placeholderValue != null)
                 {
                     PlaceholderDefinition placeholderDefinition = new PlaceholderDefinition(placeholderName, placeholderValue);
                     placeholdersWithValues.put(placeholderName, placeholderDefinition);
@@ -1019,293 +2532,105 @@ public class FileTemplate
     }
 
     /**
-     * Gibt Meldungen aus
-     * @param logScope der parameter muss nicht angegeben werden
-     * @param msg der parameter muss nicht angegeben werden
+     * Führt action aus, alle Meldungen des aktuellen Threads gehen dabei an handler statt an Logger
+     * @param handler der parameter muss angegeben werden
+     * @param action der parameter muss angegeben werden
      */
-    public static void log(String logScope, String msg)
+    static void runWithLogHandler(LogHandler handler, Runnable action)
     {
-        String dateString = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date());
-
-        if ("err".equals(logScope))
-        {
-            System.err.println(dateString + ' ' + msg);
-        }
-        else if ("none".equals(logScope))
+        callWithLogHandler(handler, () ->
         {
-        }
-        else if ("std".equals(logScope))
-        {
-            System.out.println(dateString + ' ' + msg);
-        }
-        else
-        {
-            System.err.println(dateString + ' ' + "no valid log scope (" + logScope + ") for message: " + msg);
-        }
-    }
-}
-
-class LinesWithPlaceholderBlock
-{
-    public LinesWithPlaceholderBlock parent = null;
-    public LinesWithPlaceholderBlock(LinesWithPlaceholderBlock parent)
-    {
-        this.parent = parent;
+            action.run();
+            return null;
+        });
     }
 
-    public String placeholder = null;
-    public ArrayList<String> linesBeforePlaceholder = new ArrayList<String>();
-    public LinesWithPlaceholderBlock linesOfPlaceholderBlock = null;
-    public LinesWithPlaceholderBlock nextLinesWithPlaceholderBlock = null;  // next LinesWithPlaceholderBlock at same level
-}
-
-class PlaceholderDefinition
-{
-    String name;
-    boolean singlePlaceholderValue = false;
-    boolean rangePlaceholderValue = false;
-    boolean listPlaceholderValue = false;
-    String valueSingle;
-    String valueRangeBegin;
-    String valueRangeEnd;
-    int intValueRangeBegin;
-    int intValueRangeEnd;
-    boolean rangeInverted = false;  // true if intValueRangeBegin > intValueRangeEnd
-    List<String> valueList;
-
     /**
-     * Analysiert den wert des placeholders aus der "properties" datei
-     * 
-     * @param name der parameter muss angegeben werden
-     * @param value der parameter muss angegeben werden
+     * Wie runWithLogHandler(...), gibt das Ergebnis von action zurück
+     * @param handler der parameter muss angegeben werden
+     * @param action der parameter muss angegeben werden
+     * @return das Ergebnis von action
      */
-    public PlaceholderDefinition(String name, String value)
+    static <T> T callWithLogHandler(LogHandler handler, Supplier<T> action)
     {
-        this.name = name;
-
-        if (value.trim().startsWith("[") && value.trim().endsWith("]"))
+        LogHandler previousLogHandler = logHandler.get();
+        logHandler.set(handler);
+        try
         {
-            // if Placeholder1StartValue starts with [ and ends with ] then
-            // it is either a comma separated list of values, e.g. [abc, def, xyz]
-            // or a range with with two dash separated integral values, e.g. [00116 - 04000]
-            value = value.trim().substring(1, value.length() - 1); // strip leading and trailing [ and ]
-            Matcher matcher = Pattern.compile("^\\s*(\\d+)\\s*\\-\\s*(\\d+)\\s*$").matcher(value);
-            if (matcher.find())
-            {
-                rangePlaceholderValue = true;
-                valueRangeBegin = matcher.group(1);
-                valueRangeEnd = matcher.group(2);
-                intValueRangeBegin = Integer.parseInt(valueRangeBegin);
-                intValueRangeEnd = Integer.parseInt(valueRangeEnd);
-                if (intValueRangeBegin <= intValueRangeEnd)
-                {
-                    FileTemplate.log("std", "PlaceholderDefinition: placeholder " + name + ": range from  " + valueRangeBegin + " to " + valueRangeEnd);
-                }
-                else
-                {
-                    rangeInverted = true;
-                    FileTemplate.log("std", "PlaceholderDefinition: placeholder " + name + ": inverted range from " + valueRangeBegin + " to " + valueRangeEnd);
-                }
-            }
-            else if (value.matches(".*\\S+.*,.*\\S+.*"))
-            {
-                listPlaceholderValue = true;
-                valueList = Collections.synchronizedList(Arrays.asList(value.split("\\s*,\\s*")));
-                FileTemplate.log("std", "PlaceholderDefinition: placeholder " + name + ": list of " + valueList.size());
-            }
+            return action.get();
         }
-        else
+        finally
         {
-            singlePlaceholderValue = true;
-            valueSingle = value;
-            FileTemplate.log("std", "PlaceholderDefinition: placeholder " + name + ": single value: " + valueSingle);
+            logHandler.set(previousLogHandler);
         }
     }
 
-    public String getName()
-    {
-        return name;
-    }
-
     /**
-     * Gibt den nächsten Wert aus
-     * @param valuePlaceholder der parameter muss nicht angegeben werden
-     * @return null if no more placeholders
+     * Gibt Meldungen aus (asynchron, siehe Logger), während eines Laufs von FileTemplateEngine an dessen LogHandler
+     * @param logScope der parameter muss nicht angegeben werden: err, warn, std, debug oder none
+     * @param msg der parameter muss nicht angegeben werden
      */
-    public String getNextPlaceholderValue(String valuePlaceholder)
+    public static void log(String logScope, String msg)
     {
-        if (listPlaceholderValue)
+        if ("err".equals(logScope))
         {
-            if (valuePlaceholder == null)
-            {
-                return valueList.get(0);
-            }
-            else
-            {
-                Iterator<String> iterValueList = valueList.iterator();
-                while (iterValueList.hasNext() && !iterValueList.next().equals(valuePlaceholder));
-                if (iterValueList.hasNext())
-                {
-                    return iterValueList.next();
-                }
-                else
-                {
-                    return null; // end of sequence reached
-                }
-            }
+            log(Logger.ERROR, msg);
         }
-        else if (rangePlaceholderValue)
+        else if ("none".equals(logScope))
         {
-            if (valuePlaceholder == null)
-            {
-                return valueRangeBegin;
-            }
-            else
-            {
-                // Only if no placeholders iterator is available next placeholder is
-                // calculated.
-                int len = valuePlaceholder.length();
-
-                // Remove leading zeros.
-                // while (valuePlaceholder.startsWith("0")) valuePlaceholder =
-                // valuePlaceholder.substring(1);
-                // if (valuePlaceholder.length() == 0) valuePlaceholder = "0";
-
-                // Convert to int.
-                int intValue = Integer.parseInt(valuePlaceholder);
-
-                intValue = intValue + (rangeInverted ? -1 : 1);
-
-                if (intValue < intValueRangeBegin || intValue > intValueRangeEnd)
-                {
-                    return null; // end of sequence reached
-                }
-
-                // Add 1 and convert back.
-                valuePlaceholder = Integer.toString(intValue);
-
-                // Pad with zeros if necessary.
-                while(valuePlaceholder.length() < len)
-                {
-                    valuePlaceholder = "0" + valuePlaceholder;
-                }
-
-                return valuePlaceholder;
-            }
         }
-        else // singlePlaceholderValue
+        else if ("std".equals(logScope))
+        {
+            log(Logger.INFO, msg);
+        }
+        else if ("warn".equals(logScope))
+        {
+            log(Logger.WARN, msg);
+        }
+        else if ("debug".equals(logScope))
+        {
+            log(Logger.DEBUG, msg);
+        }
+        else
         {
-            return valuePlaceholder == null ? valueSingle : null;
+            log(Logger.ERROR, "no valid log scope (" + logScope + ") for message: " + msg);
         }
     }
 
     /**
-     * @param valuePlaceholder der parameter muss nicht angegeben werden
-     * @param baseNumber der parameter muss angegeben werden
-     * @return gibt die Anzahl der Placeholderwiederholungen an
+     * @param level ERROR, WARN, INFO oder DEBUG
+     * @return true wenn Meldungen dieser Stufe ausgegeben werden (an den LogHandler des Laufs oder über Logger)
      */
-    public String getNumberOfPlaceholderValue(String valuePlaceholder, String baseNumber)
+    static boolean isLogEnabled(int level)
     {
-        if (listPlaceholderValue)
-        {
-            if (valuePlaceholder == null)
-            {
-                FileTemplate.log("std", "getNumberOfPlaceholderValue(\"" + valuePlaceholder + "\", \"" + baseNumber + "\") called for list value " + name);
-                return baseNumber;
-            }
-            else
-            {
-                Iterator<String> iterValueList = valueList.iterator();
-                int numberOfPlaceholderValue = 0;
-                String iterValue = null;
-                while (iterValueList.hasNext() && !(iterValue = iterValueList.next()).equals(valuePlaceholder))
-                {
-                    numberOfPlaceholderValue++;
-                }
-
-                if (valuePlaceholder.equals(iterValue))
-                {
-                    int len = baseNumber.length();
-
-                    // Convert to int.
-                    int intValue = Integer.parseInt(baseNumber) + numberOfPlaceholderValue;
-
-                    String numberOfPlaceholderValueString = Integer.toString(intValue);
-
-                    // Pad with zeros if necessary.
-                    while(numberOfPlaceholderValueString.length() < len)
-                    {
-                        numberOfPlaceholderValueString = "0" + numberOfPlaceholderValueString;
-                    }
-
-                    FileTemplate.log("std", "getNumberOfPlaceholderValue(\"" + valuePlaceholder + "\", \"" + baseNumber + "\") = \"" + numberOfPlaceholderValueString + "\" for list value " + name);
+        LogHandler currentLogHandler = logHandler.get();
+        return currentLogHandler != null ? currentLogHandler.isEnabled(level) : Logger.isEnabled(level);
+    }
 
-                    return numberOfPlaceholderValueString;
-                }
-                else
-                {
-                    FileTemplate.log("err", "getNumberOfPlaceholderValue: value \"" + valuePlaceholder + "\" not found in values of placeholder " + name);
-                    return null;
-                }
-            }
-        }
-        else if (rangePlaceholderValue)
+    private static void log(int level, String msg)
+    {
+        LogHandler currentLogHandler = logHandler.get();
+        if (currentLogHandler != null)
         {
-            if (valuePlaceholder == null)
-            {
-                FileTemplate.log("std", "getNumberOfPlaceholderValue(\"" + valuePlaceholder + "\", \"" + baseNumber + "\") called for range value " + name);
-                return baseNumber;
-            }
-            else
-            {
-                // Only if no placeholders iterator is available next placeholder is
-                // calculated.
-                int len = baseNumber.length();
-
-                // Remove leading zeros.
-                // while (valuePlaceholder.startsWith("0")) valuePlaceholder =
-                // valuePlaceholder.substring(1);
-                // if (valuePlaceholder.length() == 0) valuePlaceholder = "0";
-
-                int baseNumberIntValue = Integer.parseInt(baseNumber);
-
-                // Convert to int.
-                int valuePlaceholderIntValue = Integer.parseInt(valuePlaceholder);
-
-                int intValue = rangeInverted ? intValueRangeBegin - valuePlaceholderIntValue : valuePlaceholderIntValue - intValueRangeBegin;
-
-                if (intValue < 0 || intValue > Math.abs(intValueRangeEnd - intValueRangeBegin))
-                {
-                    FileTemplate.log("err", "getNumberOfPlaceholderValue: value \"" + valuePlaceholder + "\" out of range for " + name);
-                    return null; // end of sequence reached
-                }
-
-                String valuePlaceholderCardinalNumber = Integer.toString(intValue + baseNumberIntValue);
-
-                // Pad with zeros if necessary.
-                while(valuePlaceholderCardinalNumber.length() < len)
-                {
-                    valuePlaceholderCardinalNumber = "0" + valuePlaceholderCardinalNumber;
-                }
-
-                //FileTemplate.log("std", "getNumberOfPlaceholderValue(\"" + valuePlaceholder + "\", \"" + baseNumber + "\") = \"" + valuePlaceholderCardinalNumber + "\" for range value " + name);
-
-                return valuePlaceholderCardinalNumber;
-            }
+            currentLogHandler.log(level, msg);
         }
-        else // singlePlaceholderValue
+        else
         {
-            //FileTemplate.log("std", "getNumberOfPlaceholderValue(\"" + valuePlaceholder + "\", \"" + baseNumber + "\") called for single value " + name);
-            return baseNumber;
+            Logger.log(level, msg);
         }
     }
+}
 
-    /**
-     * ermittelt pb einziger Wert
-     * @return 
-     */
-    public boolean isSinglePlaceholderValue()
+class TemplateExpansion
+{
+    public DirElement template;
+    public String newName;
+    public Map<String /* placeholder */, String /* placeholder value */> placeholderValues;
+
+    public TemplateExpansion(DirElement template, String newName, Map<String /* placeholder */, String /* placeholder value */> placeholderValues)
     {
-        return singlePlaceholderValue;
+        this.template = template;
+        this.newName = newName;
+        this.placeholderValues = placeholderValues;
     }
 }
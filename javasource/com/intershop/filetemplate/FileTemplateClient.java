@@ -0,0 +1,94 @@
+package com.intershop.filetemplate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Schickt einen Aufruf an einen laufenden Server (FileTemplate SERVE) und gibt dessen Meldungen und Exit-Code aus,
+ * z.B. "java com.intershop.filetemplate.FileTemplateClient /tmp/filetemplate.sock REPLACE dir placeholders.properties --out out".
+ * Lädt außer sich selbst keine Klasse von FileTemplate, startet also so schnell wie die JVM.
+ */
+public class FileTemplateClient
+{
+    /**
+     * @param args der parameter muss angegeben werden: socket-file, dann die Argumente wie für FileTemplate
+     */
+    public static void main(String args[])
+    {
+        if (args.length < 2)
+        {
+            System.err.println("usage: FileTemplateClient socket-file action [directory] [properties-file] [options]");
+            System.err.println("       sends the arguments to a server started with \"FileTemplate SERVE socket-file\", STOP stops it");
+            System.exit(2);
+            return;
+        }
+
+        System.exit(send(new File(args[0]), args));
+    }
+
+    /**
+     * @param socketFile der parameter muss angegeben werden
+     * @param args der parameter muss angegeben werden, ab dem zweiten Element die Argumente des Aufrufs
+     * @return der Exit-Code des Aufrufs, 2 wenn der Server nicht erreichbar ist
+     */
+    private static int send(File socketFile, String args[])
+    {
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX))
+        {
+            channel.connect(UnixDomainSocketAddress.of(socketFile.toPath()));
+
+            Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            writer.write(new File("").getAbsolutePath());
+            writer.write('\n');
+            for (int i = 1; i < args.length; i++)
+            {
+                writer.write(args[i]);
+                writer.write('\n');
+            }
+            writer.write('\n');
+            writer.flush();
+
+            PrintStream out = System.out;
+            PrintStream err = System.err;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            for (String line = reader.readLine(); line != null; line = reader.readLine())
+            {
+                if (line.startsWith("X "))
+                {
+                    out.flush();
+                    err.flush();
+                    return Integer.parseInt(line.substring(2));
+                }
+                else if (line.startsWith("E "))
+                {
+                    out.flush();
+                    err.println(line.substring(2));
+                }
+                else if (line.startsWith("O "))
+                {
+                    err.flush();
+                    out.println(line.substring(2));
+                }
+            }
+
+            err.println("FileTemplateClient: connection to server on \"" + socketFile.getPath() + "\" closed before the end of the request");
+            return 2;
+        }
+        catch (IOException e)
+        {
+            System.err.println("FileTemplateClient: unable to send request to server on \"" + socketFile.getPath() + "\": " + e.toString());
+            return 2;
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * FileTemplate als Objekt zum Einbetten, z.B. in einen Build-Service: LIST und REPLACE ohne neue JVM pro Aufruf.
+ * Eine Engine wird einmal mit FileTemplateEngine.builder() konfiguriert und ist danach thread-safe; Läufe können gleichzeitig
+ * stattfinden (auf verschiedenen Verzeichnissen). Zerlegte Vorlagen bleiben zwischen den Läufen erhalten und werden nur neu
+ * eingelesen, wenn sich die Datei geändert hat; die zerlegten Namen bleiben in den Bindings erhalten.
+ * Die Meldungen eines Laufs gehen an den LogHandler der Engine (ohne LogHandler an System.out/System.err),
+ * Fehler und Warnungen stehen zusätzlich im FileTemplateResult.
+ */
+public class FileTemplateEngine implements AutoCloseable
+{
+    /**
+     * Konfiguration einer FileTemplateEngine
+     */
+    public static class Builder
+    {
+        private String fileTemplateSuffix = FileTemplate.fileTemplateSuffix;
+        private Charset charset = null;
+        private int copyMode = FileCopier.MODE_COPY;
+        private Supplier<OutputSink> outputSinkFactory = null;
+        private LogHandler logHandler = null;
+        private ForkJoinPool forkJoinPool = null;
+        private int threads = 1;
+        private int maxCachedTemplates = 10000;
+        private boolean staged = false;
+        private boolean skipUnchanged = false;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * @param fileTemplateSuffix der parameter muss angegeben werden, Standard ".filetemplate"
+         */
+        public Builder fileTemplateSuffix(String fileTemplateSuffix)
+        {
+            if (fileTemplateSuffix == null || fileTemplateSuffix.isEmpty())
+            {
+                throw new IllegalArgumentException("the file template suffix must not be empty");
+            }
+            this.fileTemplateSuffix = fileTemplateSuffix;
+            return this;
+        }
+
+        /**
+         * @param charset der parameter muss nicht angegeben werden, wie --charset: Vorlagen werden byteweise verarbeitet
+         */
+        public Builder charset(Charset charset)
+        {
+            if (charset != null && !FileTemplate.isAsciiCompatible(charset))
+            {
+                throw new IllegalArgumentException("charset \"" + charset.name() + "\" is not supported, it must be UTF-8, US-ASCII or a single-byte charset encoding ASCII characters unchanged");
+            }
+            this.charset = charset;
+            return this;
+        }
+
+        /**
+         * @param copyMode der parameter muss angegeben werden, wie --copy-mode: copy, hardlink oder reflink
+         */
+        public Builder copyMode(String copyMode)
+        {
+            int mode = FileCopier.parseMode(copyMode);
+            if (mode < 0)
+            {
+                throw new IllegalArgumentException("copy mode must be copy, hardlink or reflink, got \"" + copyMode + "\"");
+            }
+            this.copyMode = mode;
+            return this;
+        }
+
+        /**
+         * @param outputSinkFactory der parameter muss nicht angegeben werden, liefert für jeden Lauf eine neue Ausgabe;
+         *                          ohne wird ins Dateisystem geschrieben (copyMode)
+         */
+        public Builder outputSink(Supplier<OutputSink> outputSinkFactory)
+        {
+            this.outputSinkFactory = outputSinkFactory;
+            return this;
+        }
+
+        /**
+         * @param logHandler der parameter muss nicht angegeben werden, ohne gehen die Meldungen an System.out/System.err
+         */
+        public Builder logHandler(LogHandler logHandler)
+        {
+            this.logHandler = logHandler;
+            return this;
+        }
+
+        /**
+         * @param forkJoinPool der parameter muss nicht angegeben werden, replace(...) erzeugt darin parallel;
+         *                     der Pool gehört dem Aufrufer und wird von close() nicht beendet
+         */
+        public Builder forkJoinPool(ForkJoinPool forkJoinPool)
+        {
+            this.forkJoinPool = forkJoinPool;
+            return this;
+        }
+
+        /**
+         * @param threads wie --threads: bei mehr als 1 erzeugt replace(...) parallel in einem eigenen Pool der Engine
+         */
+        public Builder threads(int threads)
+        {
+            if (threads < 1)
+            {
+                throw new IllegalArgumentException("threads must be positive, got " + threads);
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * @param maxCachedTemplates höchstens so viele zerlegte Vorlagen bleiben zwischen den Läufen erhalten (die zuletzt verwendeten)
+         */
+        public Builder maxCachedTemplates(int maxCachedTemplates)
+        {
+            this.maxCachedTemplates = maxCachedTemplates;
+            return this;
+        }
+
+        /**
+         * @param staged wie --staged: replace(...) bringt jede Ausgabe erst fertig an ihren Platz, nur ohne outputSink(...)
+         */
+        public Builder staged(boolean staged)
+        {
+            this.staged = staged;
+            return this;
+        }
+
+        /**
+         * @param skipUnchanged wie --skip-unchanged: replace(...) lässt vorhandene Dateien mit gleichem Inhalt unverändert, nur ohne outputSink(...)
+         */
+        public Builder skipUnchanged(boolean skipUnchanged)
+        {
+            this.skipUnchanged = skipUnchanged;
+            return this;
+        }
+
+        public FileTemplateEngine build()
+        {
+            if (staged && outputSinkFactory != null)
+            {
+                throw new IllegalArgumentException("staged output is only supported when writing to the file system");
+            }
+            if (skipUnchanged && outputSinkFactory != null)
+            {
+                throw new IllegalArgumentException("skipping unchanged output is only supported when writing to the file system");
+            }
+            return new FileTemplateEngine(this);
+        }
+    }
+
+    /**
+     * Sammelt Fehler und Warnungen eines Laufs und gibt alle Meldungen weiter
+     */
+    private class RunLog implements LogHandler
+    {
+        List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        List<String> warnings = Collections.synchronizedList(new ArrayList<String>());
+
+        public void log(int level, String message)
+        {
+            if (level == ERROR)
+            {
+                errors.add(message);
+            }
+            else if (level == WARN)
+            {
+                warnings.add(message);
+            }
+
+            if (logHandler != null)
+            {
+                logHandler.log(level, message);
+            }
+            else
+            {
+                Logger.log(level, message);
+            }
+        }
+
+        public boolean isEnabled(int level)
+        {
+            // errors and warnings are always collected for the result
+            return level <= WARN || (logHandler != null ? logHandler.isEnabled(level) : Logger.isEnabled(level));
+        }
+    }
+
+    /**
+     * Zählt die geschriebenen Dateien einer Ausgabe
+     */
+    private static class CountingOutputSink implements OutputSink
+    {
+        OutputSink outputSink;
+        LongAdder files = new LongAdder();
+
+        CountingOutputSink(OutputSink outputSink)
+        {
+            this.outputSink = outputSink;
+        }
+
+        public boolean exists(File output)
+        {
+            return outputSink.exists(output);
+        }
+
+        public boolean canReplace()
+        {
+            return outputSink.canReplace();
+        }
+
+        public boolean delete(File output)
+        {
+            return outputSink.delete(output);
+        }
+
+        public boolean makeDirectory(File newDir)
+        {
+            return outputSink.makeDirectory(newDir);
+        }
+
+        public OutputStream openFile(File newFile) throws IOException
+        {
+            OutputStream outputStream = outputSink.openFile(newFile);
+            files.increment();
+            return outputStream;
+        }
+
+        public void copyFile(File sourceFile, File newFile)
+        {
+            outputSink.copyFile(sourceFile, newFile);
+            files.increment();
+        }
+
+        public void close() throws IOException
+        {
+            outputSink.close();
+        }
+    }
+
+    private final String fileTemplateSuffix;
+    private final Charset charset;
+    private final int copyMode;
+    private final Supplier<OutputSink> outputSinkFactory;
+    private final LogHandler logHandler;
+    private final ForkJoinPool forkJoinPool;
+    private final boolean isOwnForkJoinPool;
+    private final boolean staged;
+    private final boolean skipUnchanged;
+
+    // templates parsed in earlier runs, the least recently used ones are dropped
+    private final Map<File, CompiledTemplate> reusableTemplates;
+
+    private FileTemplateEngine(Builder builder)
+    {
+        fileTemplateSuffix = builder.fileTemplateSuffix;
+        charset = builder.charset;
+        copyMode = builder.copyMode;
+        outputSinkFactory = builder.outputSinkFactory;
+        staged = builder.staged;
+        skipUnchanged = builder.skipUnchanged;
+        logHandler = builder.logHandler;
+        isOwnForkJoinPool = builder.forkJoinPool == null && builder.threads > 1;
+        forkJoinPool = isOwnForkJoinPool ? new ForkJoinPool(builder.threads) : builder.forkJoinPool;
+
+        reusableTemplates = GenerationContext.newTemplateCache(builder.maxCachedTemplates);
+    }
+
+    /**
+     * @return eine neue Konfiguration mit den Standardwerten von FileTemplate
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Sucht alle Placeholder in Namen und Inhalt der *.filetemplate unter templates (wie LIST)
+     * @param templates der parameter muss angegeben werden, *.filetemplate oder Verzeichnis
+     * @return das Ergebnis mit den gefundenen Placeholdern
+     * @throws FileTemplateException wenn templates nicht existiert oder der Lauf abbricht
+     */
+    public FileTemplateResult list(Path templates) throws FileTemplateException
+    {
+        return run(templates.toFile(), null, null);
+    }
+
+    /**
+     * Erzeugt die Kopien der *.filetemplate unter templates neben den Vorlagen (wie REPLACE)
+     * @param templates der parameter muss angegeben werden, *.filetemplate oder Verzeichnis
+     * @param bindings der parameter muss angegeben werden
+     * @return das Ergebnis
+     * @throws FileTemplateException wenn templates nicht existiert oder der Lauf abbricht
+     */
+    public FileTemplateResult replace(Path templates, Bindings bindings) throws FileTemplateException
+    {
+        return run(templates.toFile(), bindings, null);
+    }
+
+    /**
+     * Erzeugt die Kopien der *.filetemplate unter templates in outputDir, alle übrigen Dateien werden dorthin kopiert (wie REPLACE mit --out)
+     * @param templates der parameter muss angegeben werden, *.filetemplate oder Verzeichnis
+     * @param bindings der parameter muss angegeben werden
+     * @param outputDir der parameter muss angegeben werden, darf templates weder enthalten noch darin liegen
+     * @return das Ergebnis
+     * @throws FileTemplateException wenn templates nicht existiert, outputDir ungültig ist oder der Lauf abbricht
+     */
+    public FileTemplateResult replace(Path templates, Bindings bindings, Path outputDir) throws FileTemplateException
+    {
+        File baseDir = templates.toFile();
+        try
+        {
+            if (!FileTemplate.isOutputDirSeparate(baseDir, outputDir.toFile()))
+            {
+                throw new FileTemplateException("output directory \"" + outputDir + "\" must not be inside directory \"" + templates + "\" or contain it");
+            }
+        }
+        catch (IOException e)
+        {
+            throw new FileTemplateException("unable to resolve output directory \"" + outputDir + "\": " + e.toString(), Collections.<String>emptyList(), e);
+        }
+        return run(baseDir, bindings, outputDir.toFile());
+    }
+
+    /**
+     * Beendet den eigenen Pool (threads), ein mit forkJoinPool(...) übergebener Pool bleibt bestehen
+     */
+    @Override
+    public void close()
+    {
+        if (isOwnForkJoinPool)
+        {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    private FileTemplateResult run(File baseDir, Bindings bindings, File outputDir) throws FileTemplateException
+    {
+        //
+        // Pre-conditions
+        //
+
+        if (!baseDir.exists())
+        {
+            throw new FileTemplateException("file or directory \"" + baseDir.getPath() + "\" does not exist");
+        }
+
+        //
+        // Main tasks
+        //
+
+        long startNanos = System.nanoTime();
+
+        GenerationContext generationContext = new GenerationContext();
+        generationContext.fileTemplateSuffix = fileTemplateSuffix;
+        generationContext.charset = charset;
+        generationContext.reusableTemplates = reusableTemplates;
+        generationContext.skipUnchanged = skipUnchanged;
+        CountingOutputSink outputSink = new CountingOutputSink(outputSinkFactory != null ? outputSinkFactory.get() : new FileSystemOutputSink(new FileCopier(copyMode)));
+        generationContext.outputSink = outputSink;
+
+        Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues = null;
+        if (bindings != null)
+        {
+            placeholdersWithValues = bindings.placeholdersWithValues;
+            generationContext.fileNameTemplates = bindings.fileNameTemplates;
+            generationContext.placeholderNames = bindings.placeholderNames;
+            if (staged)
+            {
+                generationContext.stager = new OutputStager();
+            }
+        }
+
+        RunLog runLog = new RunLog();
+        Set<String /* placeholder */> foundPlaceholders;
+        try
+        {
+            Map<String /* placeholder */, PlaceholderDefinition> finalPlaceholdersWithValues = placeholdersWithValues;
+            foundPlaceholders = FileTemplate.callWithLogHandler(runLog, () ->
+            {
+                Set<String /* placeholder */> placeholders = FileTemplate.generate(baseDir, outputDir, finalPlaceholdersWithValues, generationContext, forkJoinPool);
+                if (generationContext.stager != null)
+                {
+                    generationContext.stager.awaitDeletions();
+                }
+                try
+                {
+                    generationContext.outputSink.close();
+                }
+                catch (IOException e)
+                {
+                    FileTemplate.log("err", "unable to finish output: " + e.toString());
+                }
+                return placeholders;
+            });
+        }
+        catch (RuntimeException e)
+        {
+            throw new FileTemplateException("run for \"" + baseDir.getPath() + "\" stopped: " + e.toString(), new ArrayList<String>(runLog.errors), e);
+        }
+
+        return new FileTemplateResult(new TreeSet<String /* placeholder */>(foundPlaceholders), outputSink.files.sum(),
+            new ArrayList<String>(runLog.errors), new ArrayList<String>(runLog.warnings), System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,42 @@
+package com.intershop.filetemplate;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ein Lauf von FileTemplateEngine konnte nicht ausgeführt werden, z.B. weil das Verzeichnis nicht existiert
+ * oder die Placeholder-Definitionen fehlerhaft sind. Fehler einzelner Dateien stehen dagegen in FileTemplateResult.getErrors().
+ */
+public class FileTemplateException extends Exception
+{
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> errors;
+
+    /**
+     * @param message der parameter muss angegeben werden
+     */
+    public FileTemplateException(String message)
+    {
+        this(message, Collections.<String>emptyList(), null);
+    }
+
+    /**
+     * @param message der parameter muss angegeben werden
+     * @param errors der parameter muss angegeben werden, die Fehlermeldungen bis zum Abbruch
+     * @param cause der parameter muss nicht angegeben werden
+     */
+    public FileTemplateException(String message, List<String> errors, Throwable cause)
+    {
+        super(message, cause);
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * @return die Fehlermeldungen bis zum Abbruch
+     */
+    public List<String> getErrors()
+    {
+        return errors;
+    }
+}
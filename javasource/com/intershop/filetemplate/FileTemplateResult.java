@@ -0,0 +1,66 @@
+package com.intershop.filetemplate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ergebnis eines Laufs von FileTemplateEngine: die gefundenen Placeholder (list), die Anzahl geschriebener Dateien (replace)
+ * sowie alle Fehler und Warnungen des Laufs. Fehler einzelner Dateien brechen den Lauf nicht ab.
+ */
+public class FileTemplateResult
+{
+    private final Set<String /* placeholder */> placeholders;
+    private final long filesWritten;
+    private final List<String> errors;
+    private final List<String> warnings;
+    private final long durationNanos;
+
+    FileTemplateResult(Set<String /* placeholder */> placeholders, long filesWritten, List<String> errors, List<String> warnings, long durationNanos)
+    {
+        this.placeholders = Collections.unmodifiableSet(placeholders);
+        this.filesWritten = filesWritten;
+        this.errors = Collections.unmodifiableList(errors);
+        this.warnings = Collections.unmodifiableList(warnings);
+        this.durationNanos = durationNanos;
+    }
+
+    /**
+     * @return die gefundenen Placeholder (sortiert), leer bei replace
+     */
+    public Set<String /* placeholder */> getPlaceholders()
+    {
+        return placeholders;
+    }
+
+    /**
+     * @return Anzahl der erzeugten und kopierten Dateien, 0 bei list
+     */
+    public long getFilesWritten()
+    {
+        return filesWritten;
+    }
+
+    public List<String> getErrors()
+    {
+        return errors;
+    }
+
+    public List<String> getWarnings()
+    {
+        return warnings;
+    }
+
+    public long getDurationNanos()
+    {
+        return durationNanos;
+    }
+
+    /**
+     * @return true wenn der Lauf ohne Fehler war
+     */
+    public boolean isSuccessful()
+    {
+        return errors.isEmpty();
+    }
+}
@@ -0,0 +1,332 @@
+package com.intershop.filetemplate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SERVE: nimmt LIST, REPLACE und PLAN Aufrufe über einen Unix Domain Socket an und führt sie in derselben JVM aus, bis zu threads
+ * gleichzeitig (weitere warten). Zerlegte Vorlagen und Placeholder-Definitionen bleiben zwischen den Aufrufen erhalten,
+ * so zahlt nur der erste Aufruf den Start der JVM und das Einlesen. FileTemplateClient schickt einen Aufruf und gibt dieselben
+ * Meldungen und denselben Exit-Code aus wie die Kommandozeile.
+ *
+ * Protokoll (UTF-8, Zeilen mit "\n"): der Client schickt das Arbeitsverzeichnis, dann jedes Argument in einer Zeile und eine leere Zeile.
+ * Der Server antwortet mit einer Zeile pro Meldung, "O " für System.out und "E " für System.err, und zum Schluss "X " und dem Exit-Code.
+ * Der Aufruf STOP beendet den Server, nachdem die laufenden Aufrufe fertig sind.
+ */
+class FileTemplateServer
+{
+    static final int DEFAULT_THREADS = 4;
+
+    private static final int MAX_CACHED_TEMPLATES = 10000;
+    private static final int MAX_CACHED_BINDINGS = 64;
+
+    /**
+     * Ein Aufruf eines Clients: Meldungen gehen mit der Stufe des Aufrufs (--log-level, --quiet) an den Client
+     */
+    static class Request implements LogHandler
+    {
+        FileTemplateServer server;
+        File workingDir;
+        volatile int level = Logger.INFO;
+
+        private Writer writer;
+        private boolean isDisconnected = false;
+
+        Request(FileTemplateServer server, File workingDir, Writer writer)
+        {
+            this.server = server;
+            this.workingDir = workingDir;
+            this.writer = writer;
+        }
+
+        public boolean isEnabled(int level)
+        {
+            return level <= this.level;
+        }
+
+        public void log(int level, String message)
+        {
+            if (isEnabled(level))
+            {
+                write(level == ERROR ? "E " : "O ", Logger.format(System.currentTimeMillis(), message));
+            }
+        }
+
+        /**
+         * Schickt den Exit-Code und damit das Ende der Antwort
+         */
+        void finish(int exitCode)
+        {
+            write("X ", String.valueOf(exitCode));
+            synchronized (this)
+            {
+                try
+                {
+                    writer.flush();
+                }
+                catch (IOException e)
+                {
+                    isDisconnected = true;
+                }
+            }
+        }
+
+        private synchronized void write(String prefix, String text)
+        {
+            if (isDisconnected)
+            {
+                return;
+            }
+
+            try
+            {
+                // a message with line breaks is sent as one line per line, like Logger writes it
+                for (String line : text.split("\r?\n", -1))
+                {
+                    writer.write(prefix);
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            }
+            catch (IOException e)
+            {
+                // the client is gone, the request runs to its end anyway
+                isDisconnected = true;
+            }
+        }
+    }
+
+    /**
+     * Placeholder-Definitionen einer "properties" Datei mit den Meldungen beim Einlesen, die bei jeder Verwendung wiederholt werden
+     */
+    private static class ParsedBindings
+    {
+        Bindings bindings;
+        List<Integer> messageLevels = new ArrayList<Integer>();
+        List<String> messages = new ArrayList<String>();
+    }
+
+    private final File socketFile;
+    private final int threads;
+    private volatile ServerSocketChannel serverChannel;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    // shared by all requests, see GenerationContext.reusableTemplates
+    final Map<File, CompiledTemplate> reusableTemplates = GenerationContext.newTemplateCache(MAX_CACHED_TEMPLATES);
+
+    // keyed by the content of the properties file, so an edited file is parsed again
+    private final Map<Properties, ParsedBindings> parsedBindings = Collections.synchronizedMap(new LinkedHashMap<Properties, ParsedBindings>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Properties, ParsedBindings> eldest)
+        {
+            return size() > MAX_CACHED_BINDINGS;
+        }
+    });
+
+    /**
+     * @param socketFile der parameter muss angegeben werden, wird angelegt und beim Ende wieder entfernt
+     * @param threads so viele Aufrufe laufen höchstens gleichzeitig
+     */
+    FileTemplateServer(File socketFile, int threads)
+    {
+        this.socketFile = socketFile;
+        this.threads = threads;
+    }
+
+    /**
+     * Nimmt Aufrufe an, bis ein Client STOP schickt
+     * @return der Exit-Code
+     */
+    int serve()
+    {
+        //
+        // Pre-conditions
+        //
+
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketFile.toPath());
+        if (socketFile.exists() && !isSocket(socketFile))
+        {
+            FileTemplate.log("err", "SERVE: \"" + socketFile.getPath() + "\" exists and is not a socket");
+            return 1;
+        }
+        if (socketFile.exists())
+        {
+            try
+            {
+                SocketChannel.open(address).close();
+                FileTemplate.log("err", "SERVE: another server is listening on \"" + socketFile.getPath() + "\"");
+                return 1;
+            }
+            catch (IOException e)
+            {
+                // left over from a server that did not stop, nobody is listening
+                socketFile.delete();
+            }
+        }
+
+        //
+        // Main tasks
+        //
+
+        ExecutorService requestPool = Executors.newFixedThreadPool(threads, runnable ->
+        {
+            Thread thread = new Thread(runnable, "FileTemplate-request-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX))
+        {
+            channel.bind(address);
+            serverChannel = channel;
+            FileTemplate.log("std", "SERVE: listening on \"" + socketFile.getPath() + "\" with " + threads + " threads");
+
+            while (true)
+            {
+                SocketChannel clientChannel;
+                try
+                {
+                    clientChannel = channel.accept();
+                }
+                catch (AsynchronousCloseException e)
+                {
+                    break;  // STOP
+                }
+                requestPool.execute(() -> handle(clientChannel));
+            }
+        }
+        catch (IOException e)
+        {
+            FileTemplate.log("err", "SERVE: unable to listen on \"" + socketFile.getPath() + "\": " + e.toString());
+            return 1;
+        }
+        finally
+        {
+            requestPool.shutdown();
+            try
+            {
+                requestPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            socketFile.delete();
+        }
+
+        FileTemplate.log("std", "SERVE: stopped");
+        return 0;
+    }
+
+    /**
+     * Liefert die Placeholder-Definitionen zu properties, nur beim ersten Mal (oder wenn sich die Datei eines Datasets geändert hat) werden sie eingelesen
+     * @param properties der parameter muss angegeben werden
+     * @param log der parameter muss angegeben werden, erhält die Meldungen des Einlesens (auch wenn die Definitionen schon eingelesen waren)
+     * @return die Definitionen
+     */
+    Bindings getBindings(Properties properties, LogHandler log)
+    {
+        ParsedBindings parsed = parsedBindings.get(properties);
+        if (parsed == null || !parsed.bindings.isUpToDate())
+        {
+            ParsedBindings newParsed = new ParsedBindings();
+            Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues = FileTemplate.callWithLogHandler((level, message) ->
+            {
+                newParsed.messageLevels.add(level);
+                newParsed.messages.add(message);
+            }, () -> FileTemplate.readPlaceholdersFromProperties(properties));
+            newParsed.bindings = new Bindings(placeholdersWithValues);
+            parsedBindings.put(properties, newParsed);
+            parsed = newParsed;
+        }
+
+        for (int i = 0; i < parsed.messages.size(); i++)
+        {
+            log.log(parsed.messageLevels.get(i), parsed.messages.get(i));
+        }
+        return parsed.bindings;
+    }
+
+    private void handle(SocketChannel clientChannel)
+    {
+        try (SocketChannel channel = clientChannel)
+        {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+
+            String workingDir = reader.readLine();
+            List<String> args = new ArrayList<String>();
+            for (String line = reader.readLine(); line != null && !line.isEmpty(); line = reader.readLine())
+            {
+                args.add(line);
+            }
+            if (workingDir == null)
+            {
+                return;
+            }
+
+            Request request = new Request(this, new File(workingDir), writer);
+            FileTemplate.log("debug", "SERVE: request " + args + " in \"" + workingDir + "\"");
+
+            int exitCode;
+            if (args.size() == 1 && args.get(0).equals("STOP"))
+            {
+                request.log(Logger.INFO, "SERVE: stopping");
+                exitCode = 0;
+                serverChannel.close();
+            }
+            else
+            {
+                try
+                {
+                    exitCode = FileTemplate.callWithLogHandler(request, () -> FileTemplate.run(args.toArray(new String[args.size()]), request));
+                }
+                catch (RuntimeException e)
+                {
+                    FileTemplate.log("err", "SERVE: request " + args + " failed: " + e.toString());
+                    request.log(Logger.ERROR, "request failed: " + e.toString());
+                    exitCode = 1;
+                }
+            }
+            request.finish(exitCode);
+        }
+        catch (IOException e)
+        {
+            FileTemplate.log("err", "SERVE: unable to read request: " + e.toString());
+        }
+    }
+
+    /**
+     * @return true wenn socketFile weder eine Datei noch ein Verzeichnis ist, die serve() nicht entfernen darf
+     */
+    private static boolean isSocket(File socketFile)
+    {
+        return socketFile.exists() && !Files.isRegularFile(socketFile.toPath()) && !Files.isDirectory(socketFile.toPath());
+    }
+}
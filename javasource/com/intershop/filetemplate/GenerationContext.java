@@ -0,0 +1,131 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Zustand eines REPLACE Laufs, der an alle erzeugenden Methoden weitergereicht wird.
+ * Alle Methoden sind thread-safe, ein Lauf mit --threads verwendet denselben GenerationContext in allen Tasks.
+ */
+class GenerationContext
+{
+    // templates already parsed in this run, each file template is parsed only once
+    Map<File, CompiledTemplate> compiledTemplates = new ConcurrentHashMap<File, CompiledTemplate>();
+
+    // templates parsed in earlier runs (FileTemplateEngine, SERVE), reused if the file is unchanged; null for a single run
+    Map<File, CompiledTemplate> reusableTemplates = null;
+
+    // names of template files and directories end with it
+    String fileTemplateSuffix = FileTemplate.fileTemplateSuffix;
+
+    // file names of templates already split in this run, see getFileNameTemplate(...)
+    Map<String /* file name */, FileNameTemplate> fileNameTemplates = new ConcurrentHashMap<String /* file name */, FileNameTemplate>();
+    volatile FileNameTemplate.PlaceholderNames placeholderNames = null;
+
+    // null if not generating incrementally (no --manifest)
+    GenerationManifest manifest = null;
+
+    // null: templates are read and written as text in the platform charset, else byte by byte (--charset)
+    Charset charset = null;
+
+    // null if not planning (PLAN), else also the outputSink
+    GenerationPlan plan = null;
+
+    // true while generate(...) runs in the ForkJoinPool of the run (--threads, FileTemplateEngine), then tasks are forked into it;
+    // a caller that itself runs in a ForkJoinPool (parallel stream, CompletableFuture) still generates sequentially
+    volatile boolean parallel = false;
+
+    // where generated files and directories are written to
+    OutputSink outputSink = new FileSystemOutputSink();
+
+    // null if outputs are written in place, else they are staged next to it and moved in when complete (--staged)
+    OutputStager stager = null;
+
+    // true: an existing output file is compared with the new content and only replaced if it differs (--skip-unchanged)
+    boolean skipUnchanged = false;
+
+    /**
+     * @param maxTemplates höchstens so viele zerlegte Vorlagen bleiben erhalten (die zuletzt verwendeten)
+     * @return ein thread-safe Speicher für reusableTemplates
+     */
+    static Map<File, CompiledTemplate> newTemplateCache(int maxTemplates)
+    {
+        return Collections.synchronizedMap(new LinkedHashMap<File, CompiledTemplate>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<File, CompiledTemplate> eldest)
+            {
+                return size() > maxTemplates;
+            }
+        });
+    }
+
+    /**
+     * Liefert die zerlegte Vorlage von file, sie wird nur beim ersten Mal eingelesen
+     * @param file der parameter muss angegeben werden
+     * @return die zerlegte Vorlage
+     */
+    public CompiledTemplate getCompiledTemplate(File file)
+    {
+        return getCompiledTemplate(DirElement.read(file));
+    }
+
+    /**
+     * Wie getCompiledTemplate(File), mit den bereits gelesenen Attributen der Vorlage
+     * @param template der parameter muss angegeben werden
+     * @return die zerlegte Vorlage
+     */
+    CompiledTemplate getCompiledTemplate(DirElement template)
+    {
+        // computeIfAbsent: with --threads two tasks of the same template wait for one compilation instead of compiling it twice
+        return compiledTemplates.computeIfAbsent(template.file, file ->
+        {
+            if (reusableTemplates == null)
+            {
+                return CompiledTemplate.compile(template, charset);
+            }
+
+            // checked once per run, a template changed during a run is used as first read;
+            // invalid templates are parsed again so that each run reports their errors
+            CompiledTemplate compiledTemplate = reusableTemplates.get(file);
+            if (compiledTemplate == null || !compiledTemplate.isUpToDate(template) || !Objects.equals(compiledTemplate.charset, charset))
+            {
+                compiledTemplate = CompiledTemplate.compile(template, charset);
+                if (compiledTemplate.valid)
+                {
+                    reusableTemplates.put(file, compiledTemplate);
+                }
+            }
+            return compiledTemplate;
+        });
+    }
+
+    /**
+     * Liefert den zerlegten Namen eines *.filetemplate, jeder Name wird nur beim ersten Mal zerlegt
+     * @param fileName der parameter muss angegeben werden, der Name ohne fileTemplateSuffix
+     * @param placeholdersWithValues der parameter muss angegeben werden, für den ganzen Lauf dieselben
+     * @return der zerlegte Name
+     */
+    public FileNameTemplate getFileNameTemplate(String fileName, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues)
+    {
+        // computeIfAbsent: each name is split only once, also with --threads
+        return fileNameTemplates.computeIfAbsent(fileName, name -> FileNameTemplate.compile(name, placeholdersWithValues, getPlaceholderNames(placeholdersWithValues)));
+    }
+
+    // the trie over all placeholder names, built once per run unless given by Bindings
+    private synchronized FileNameTemplate.PlaceholderNames getPlaceholderNames(Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues)
+    {
+        if (placeholderNames == null)
+        {
+            placeholderNames = new FileNameTemplate.PlaceholderNames(placeholdersWithValues);
+        }
+        return placeholderNames;
+    }
+}
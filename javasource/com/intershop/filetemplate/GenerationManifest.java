@@ -0,0 +1,350 @@
+package com.intershop.filetemplate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Manifest für die inkrementelle Erzeugung (REPLACE mit --manifest).
+ * Vermerkt für jede erzeugte Datei bzw. jedes erzeugte Verzeichnis die Quelle, einen Schlüssel über den Inhalt der Quelle
+ * und die verwendeten Placeholder-Werte, sowie die Placeholder-Werte mit denen sie erzeugt wurde.
+ * Beim nächsten Lauf wird eine Datei nur neu geschrieben, wenn sich ihr Schlüssel geändert hat;
+ * Dateien und Verzeichnisse, die nicht mehr erzeugt werden, werden am Ende entfernt.
+ * Die Pfade im Manifest sind relativ zum Verzeichnis, in dem erzeugt wird.
+ */
+class GenerationManifest
+{
+    private static final String HEADER = "# FileTemplate manifest 1";
+
+    static class Entry
+    {
+        boolean isDirectory;
+        String outputPath;
+        String key;          // render key of a file, empty for a directory
+        String sourcePath;
+        String placeholderValues;
+    }
+
+    File manifestFile;   // null if the manifest is kept in memory only (WATCH)
+    String outputRootPath;
+
+    Map<String /* output path */, Entry> previousEntries = new HashMap<String /* output path */, Entry>();
+    Map<String /* output path */, Entry> currentEntries = new ConcurrentHashMap<String /* output path */, Entry>();
+
+    AtomicInteger writtenCount = new AtomicInteger();
+    AtomicInteger upToDateCount = new AtomicInteger();
+
+    private GenerationManifest(File manifestFile, File outputRoot)
+    {
+        this.manifestFile = manifestFile;
+        this.outputRootPath = outputRoot.getAbsolutePath() + File.separatorChar;
+    }
+
+    /**
+     * Liest das Manifest des letzten Laufs ein
+     * @param manifestFile der parameter muss angegeben werden, darf nicht existieren (erster Lauf)
+     * @param outputRoot der parameter muss angegeben werden
+     * @return das Manifest, null wenn es nicht gelesen werden kann
+     */
+    public static GenerationManifest load(File manifestFile, File outputRoot)
+    {
+        GenerationManifest manifest = new GenerationManifest(manifestFile, outputRoot);
+
+        if (!manifestFile.exists())
+        {
+            FileTemplate.log("std", "GenerationManifest: \"" + manifestFile.getAbsolutePath() + "\" does not exist yet, generating everything");
+            return manifest;
+        }
+
+        try (BufferedReader inputFile = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), StandardCharsets.UTF_8)))
+        {
+            String line = inputFile.readLine();
+            if (!HEADER.equals(line))
+            {
+                FileTemplate.log("err", "GenerationManifest: \"" + manifestFile.getAbsolutePath() + "\" is not a manifest file");
+                return null;
+            }
+
+            while ((line = inputFile.readLine()) != null)
+            {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 5)
+                {
+                    FileTemplate.log("err", "GenerationManifest: ignoring invalid line in \"" + manifestFile.getAbsolutePath() + "\": " + line);
+                    continue;
+                }
+
+                Entry entry = new Entry();
+                entry.isDirectory = "D".equals(fields[0]);
+                entry.outputPath = unescape(fields[1]);
+                entry.key = fields[2];
+                entry.sourcePath = unescape(fields[3]);
+                entry.placeholderValues = fields[4];
+                manifest.previousEntries.put(entry.outputPath, entry);
+            }
+        }
+        catch (IOException exIO)
+        {
+            FileTemplate.log("err", "GenerationManifest: unable to read \"" + manifestFile.getAbsolutePath() + "\": " + exIO.toString());
+            return null;
+        }
+
+        return manifest;
+    }
+
+    /**
+     * @param outputRoot der parameter muss angegeben werden
+     * @return ein leeres Manifest, das nur im Speicher gehalten wird (save() schreibt nichts)
+     */
+    public static GenerationManifest createInMemory(File outputRoot)
+    {
+        return new GenerationManifest(null, outputRoot);
+    }
+
+    /**
+     * @return das Manifest für den nächsten Lauf (WATCH): die in diesem Lauf erzeugten Dateien sind dort die des letzten Laufs
+     */
+    public GenerationManifest next()
+    {
+        GenerationManifest nextManifest = new GenerationManifest(manifestFile, new File(outputRootPath));
+        nextManifest.previousEntries.putAll(currentEntries);
+        return nextManifest;
+    }
+
+    /**
+     * @return true wenn output beim letzten Lauf mit demselben Schlüssel erzeugt wurde und noch existiert
+     */
+    public boolean isUpToDate(File output, String key)
+    {
+        Entry previousEntry = previousEntries.get(getOutputPath(output));
+        return previousEntry != null && !previousEntry.isDirectory && previousEntry.key.equals(key) && output.isFile();
+    }
+
+    /**
+     * @return true wenn output beim letzten oder in diesem Lauf erzeugt wurde
+     */
+    public boolean isGenerated(File output)
+    {
+        String outputPath = getOutputPath(output);
+        return previousEntries.containsKey(outputPath) || currentEntries.containsKey(outputPath);
+    }
+
+    /**
+     * Vermerkt eine in diesem Lauf erzeugte (oder unverändert gebliebene) Datei
+     * @param output der parameter muss angegeben werden
+     * @param source der parameter muss angegeben werden
+     * @param key der parameter muss angegeben werden
+     * @param placeholderValues der parameter muss angegeben werden
+     * @param isWritten der parameter muss angegeben werden, false wenn die Datei unverändert geblieben ist
+     */
+    public void recordFile(File output, File source, String key, Map<String /* placeholder */, String /* placeholder value */> placeholderValues, boolean isWritten)
+    {
+        record(false, output, source, key, placeholderValues);
+        (isWritten ? writtenCount : upToDateCount).incrementAndGet();
+    }
+
+    /**
+     * Vermerkt ein in diesem Lauf erzeugtes Verzeichnis
+     */
+    public void recordDirectory(File output, File source, Map<String /* placeholder */, String /* placeholder value */> placeholderValues)
+    {
+        record(true, output, source, "", placeholderValues);
+    }
+
+    private void record(boolean isDirectory, File output, File source, String key, Map<String /* placeholder */, String /* placeholder value */> placeholderValues)
+    {
+        Entry entry = new Entry();
+        entry.isDirectory = isDirectory;
+        entry.outputPath = getOutputPath(output);
+        entry.key = key;
+        entry.sourcePath = source.getAbsolutePath();
+        entry.placeholderValues = escape(new TreeMap<String /* placeholder */, String /* placeholder value */>(placeholderValues).toString());
+        currentEntries.put(entry.outputPath, entry);
+    }
+
+    /**
+     * Entfernt alle Dateien und Verzeichnisse, die beim letzten Lauf erzeugt wurden, in diesem aber nicht mehr.
+     * Verzeichnisse werden nur entfernt, wenn sie danach leer sind.
+     */
+    public void removeStaleOutputs()
+    {
+        List<String> staleDirectoryPaths = new ArrayList<String>();
+        int removedCount = 0;
+
+        for (Entry previousEntry : previousEntries.values())
+        {
+            if (currentEntries.containsKey(previousEntry.outputPath))
+            {
+                continue;
+            }
+
+            if (previousEntry.isDirectory)
+            {
+                staleDirectoryPaths.add(previousEntry.outputPath);
+            }
+            else
+            {
+                File staleFile = getOutputFile(previousEntry.outputPath);
+                if (staleFile.isFile())
+                {
+                    if (staleFile.delete())
+                    {
+                        removedCount++;
+                    }
+                    else
+                    {
+                        FileTemplate.log("err", "removeStaleOutputs: file \"" + staleFile.getAbsolutePath() + "\" could not be deleted");
+                    }
+                }
+            }
+        }
+
+        // deepest directories first, so that parents are empty when they are deleted
+        Collections.sort(staleDirectoryPaths, Collections.reverseOrder());
+        for (String staleDirectoryPath : staleDirectoryPaths)
+        {
+            File staleDirectory = getOutputFile(staleDirectoryPath);
+            String[] children = staleDirectory.list();
+            if (children != null && children.length == 0 && staleDirectory.delete())
+            {
+                removedCount++;
+            }
+        }
+
+        FileTemplate.log("std", "GenerationManifest: " + writtenCount.get() + " files written, " + upToDateCount.get() + " files up to date, " + removedCount + " files/directories removed");
+    }
+
+    /**
+     * Schreibt das Manifest dieses Laufs
+     */
+    public void save()
+    {
+        if (manifestFile == null)
+        {
+            return;
+        }
+
+        try (BufferedWriter outputFile = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifestFile), StandardCharsets.UTF_8)))
+        {
+            outputFile.write(HEADER);
+            outputFile.write('\n');
+
+            for (Entry entry : new TreeMap<String /* output path */, Entry>(currentEntries).values())
+            {
+                outputFile.write(entry.isDirectory ? "D" : "F");
+                outputFile.write('\t');
+                outputFile.write(escape(entry.outputPath));
+                outputFile.write('\t');
+                outputFile.write(entry.key);
+                outputFile.write('\t');
+                outputFile.write(escape(entry.sourcePath));
+                outputFile.write('\t');
+                outputFile.write(entry.placeholderValues);
+                outputFile.write('\n');
+            }
+        }
+        catch (IOException exIO)
+        {
+            FileTemplate.log("err", "GenerationManifest: unable to write \"" + manifestFile.getAbsolutePath() + "\": " + exIO.toString());
+        }
+    }
+
+    private String getOutputPath(File output)
+    {
+        String outputPath = output.getAbsolutePath();
+        return outputPath.startsWith(outputRootPath) ? outputPath.substring(outputRootPath.length()) : outputPath;
+    }
+
+    private File getOutputFile(String outputPath)
+    {
+        File outputFile = new File(outputPath);
+        return outputFile.isAbsolute() ? outputFile : new File(outputRootPath + outputPath);
+    }
+
+    /**
+     * Schlüssel einer 1:1 kopierten Datei: Größe und Änderungszeit der Quelle, der Inhalt wird dafür nicht gelesen
+     */
+    public static String getCopyKey(File sourceFile)
+    {
+        return getCopyKey(DirElement.read(sourceFile));
+    }
+
+    /**
+     * Wie getCopyKey(File), mit den bereits gelesenen Attributen der Quelle
+     */
+    static String getCopyKey(DirElement source)
+    {
+        return "copy:" + source.length() + ":" + source.lastModified();
+    }
+
+    /**
+     * @return SHA-256 von string als Hex-String
+     */
+    public static String hash(String string)
+    {
+        return toHex(newMessageDigest().digest(string.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static MessageDigest newMessageDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static String toHex(byte[] bytes)
+    {
+        StringBuilder hexBuilder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+        {
+            hexBuilder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hexBuilder.toString();
+    }
+
+    // tabs, line breaks and backslashes would break the line format
+    private static String escape(String string)
+    {
+        return string.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String string)
+    {
+        StringBuilder unescapedBuilder = new StringBuilder(string.length());
+        for (int i = 0; i < string.length(); i++)
+        {
+            char c = string.charAt(i);
+            if (c == '\\' && i + 1 < string.length())
+            {
+                char next = string.charAt(++i);
+                unescapedBuilder.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            }
+            else
+            {
+                unescapedBuilder.append(c);
+            }
+        }
+        return unescapedBuilder.toString();
+    }
+}
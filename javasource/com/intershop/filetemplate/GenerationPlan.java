@@ -0,0 +1,274 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Ausgabe für PLAN: zählt, was REPLACE erzeugen würde, ohne etwas zu schreiben.
+ * Erzeugte Dateien werden nur gerendert, um ihre Größe in Bytes zu zählen, kopierte Dateien werden nicht gelesen.
+ * Ein Name, der bereits erzeugt wurde, wird wie bei REPLACE ersetzt und als Kollision gezählt.
+ * Überschreitet die Ausgabe eine der Grenzen (--max-files, --max-bytes, --max-depth), wird der Lauf mit LimitExceededException abgebrochen.
+ * Die Pfade sind relativ zu root, root selbst wird nicht gezählt.
+ */
+class GenerationPlan implements OutputSink
+{
+    /**
+     * Eine der Grenzen von PLAN wurde überschritten
+     */
+    static class LimitExceededException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        LimitExceededException(String message)
+        {
+            super(message);
+        }
+    }
+
+    static class TemplateStatistics
+    {
+        long files;
+        long bytes;
+    }
+
+    File root;
+    String rootPath;
+
+    // -1: no limit
+    long maxFiles = -1;  // files and directories
+    long maxBytes = -1;
+    int maxDepth = -1;
+
+    // all fields below are guarded by this
+    Map<String /* output path */, Long /* bytes */> files = new HashMap<String /* output path */, Long /* bytes */>();
+    Set<String /* output path */> directories = new TreeSet<String /* output path */>();
+    long bytes = 0;
+    int collisions = 0;
+    Map<String /* template path */, TemplateStatistics> templateStatistics = new TreeMap<String /* template path */, TemplateStatistics>();
+
+    GenerationPlan(File root)
+    {
+        this.root = root.getAbsoluteFile();
+        this.rootPath = this.root.getPath() + File.separatorChar;
+    }
+
+    public synchronized boolean exists(File output)
+    {
+        String outputPath = getOutputPath(output);
+        return files.containsKey(outputPath) || directories.contains(outputPath);
+    }
+
+    public boolean canReplace()
+    {
+        return true;
+    }
+
+    public synchronized boolean delete(File output)
+    {
+        // REPLACE would delete an output generated before, i.e. two bindings produce the same name
+        collisions++;
+
+        String outputPath = getOutputPath(output);
+        Long fileBytes = files.remove(outputPath);
+        if (fileBytes != null)
+        {
+            bytes -= fileBytes;
+        }
+        else
+        {
+            directories.remove(outputPath);
+            String subPathPrefix = outputPath + File.separatorChar;
+            directories.removeIf(directory -> directory.startsWith(subPathPrefix));
+            for (Iterator<Map.Entry<String /* output path */, Long /* bytes */>> fileIterator = files.entrySet().iterator(); fileIterator.hasNext(); )
+            {
+                Map.Entry<String /* output path */, Long /* bytes */> file = fileIterator.next();
+                if (file.getKey().startsWith(subPathPrefix))
+                {
+                    bytes -= file.getValue();
+                    fileIterator.remove();
+                }
+            }
+        }
+        return true;
+    }
+
+    public synchronized boolean makeDirectory(File newDir)
+    {
+        if (newDir.getAbsoluteFile().equals(root))
+        {
+            return true;
+        }
+
+        String outputPath = getOutputPath(newDir);
+        if (!directories.contains(outputPath))
+        {
+            checkLimits(outputPath, 0);
+            directories.add(outputPath);
+        }
+        return true;
+    }
+
+    public synchronized OutputStream openFile(File newFile)
+    {
+        String outputPath = getOutputPath(newFile);
+        checkLimits(outputPath, 0);
+        files.put(outputPath, 0L);
+
+        return new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                addBytes(outputPath, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+            {
+                addBytes(outputPath, len);
+            }
+        };
+    }
+
+    public synchronized void copyFile(File sourceFile, File newFile)
+    {
+        String outputPath = getOutputPath(newFile);
+        long fileBytes = sourceFile.length();
+        checkLimits(outputPath, fileBytes);
+        files.put(outputPath, fileBytes);
+        bytes += fileBytes;
+    }
+
+    public void close()
+    {
+        // nothing was written
+    }
+
+    /**
+     * Vermerkt newFile als Ausgabe der Vorlage template (für die Größe pro Vorlage)
+     * @param template der parameter muss angegeben werden
+     * @param newFile der parameter muss angegeben werden, bereits mit openFile(...) gezählt
+     */
+    public synchronized void recordTemplateOutput(File template, File newFile)
+    {
+        Long fileBytes = files.get(getOutputPath(newFile));
+        if (fileBytes == null)
+        {
+            return;  // not generated, e.g. unbalanced BEGIN/END
+        }
+
+        TemplateStatistics statistics = templateStatistics.computeIfAbsent(template.getPath(), templatePath -> new TemplateStatistics());
+        statistics.files++;
+        statistics.bytes += fileBytes;
+    }
+
+    /**
+     * Gibt das Ergebnis aus: Anzahl und Größe der Ausgabe, Größe pro Vorlage, Kollisionen,
+     * nicht definierte Placeholder und Vorlagen mit fehlerhaften BEGIN/END Sektionen
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param generationContext der parameter muss angegeben werden, der Lauf mit diesem GenerationPlan
+     * @return Anzahl der gefundenen Probleme
+     */
+    public synchronized int report(Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, GenerationContext generationContext)
+    {
+        for (Map.Entry<String /* template path */, TemplateStatistics> statistics : templateStatistics.entrySet())
+        {
+            FileTemplate.log("std", "PLAN: template \"" + statistics.getKey() + "\": " + statistics.getValue().files + " files, " + statistics.getValue().bytes + " bytes");
+        }
+
+        int undefinedPlaceholders = 0;
+        int invalidTemplates = 0;
+
+        Map<String /* template path */, CompiledTemplate> compiledTemplates = new TreeMap<String /* template path */, CompiledTemplate>();
+        for (CompiledTemplate compiledTemplate : generationContext.compiledTemplates.values())
+        {
+            compiledTemplates.put(compiledTemplate.file.getPath(), compiledTemplate);
+        }
+        for (CompiledTemplate compiledTemplate : compiledTemplates.values())
+        {
+            if (!compiledTemplate.isValid())
+            {
+                FileTemplate.log("err", "PLAN: unbalanced BEGIN/END in \"" + compiledTemplate.file.getPath() + "\", no file is generated from it");
+                invalidTemplates++;
+            }
+            for (String placeholder : compiledTemplate.usedPlaceholders)
+            {
+                if (!placeholdersWithValues.containsKey(placeholder))
+                {
+                    FileTemplate.log("err", "PLAN: placeholder \"" + placeholder + "\" used in \"" + compiledTemplate.file.getPath() + "\" is not defined in properties file");
+                    undefinedPlaceholders++;
+                }
+            }
+        }
+
+        PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+        for (FileNameTemplate fileNameTemplate : new TreeMap<String /* file name */, FileNameTemplate>(generationContext.fileNameTemplates).values())
+        {
+            // placeholders of the properties file are slots, anything left in the literals is not defined
+            for (String literal : fileNameTemplate.literals)
+            {
+                for (int from = 0; placeholderScanner.find(literal, from, PlaceholderScanner.KIND_VALUE); from = placeholderScanner.end)
+                {
+                    FileTemplate.log("err", "PLAN: placeholder \"" + placeholderScanner.getPlaceholder(literal) + "\" used in name \"" + fileNameTemplate.fileName + generationContext.fileTemplateSuffix + "\" is not defined in properties file");
+                    undefinedPlaceholders++;
+                }
+            }
+        }
+
+        FileTemplate.log("std", "PLAN: " + files.size() + " files, " + directories.size() + " directories, " + bytes + " bytes would be generated in \"" + root.getPath() + "\"");
+        FileTemplate.log("std", "PLAN: " + collisions + " collisions (files/directories generated more than once, the last one is kept), " + undefinedPlaceholders + " undefined placeholders, " + invalidTemplates + " templates with unbalanced BEGIN/END");
+
+        return collisions + undefinedPlaceholders + invalidTemplates;
+    }
+
+    private synchronized void addBytes(String outputPath, long count)
+    {
+        if (maxBytes >= 0 && bytes + count > maxBytes)
+        {
+            throw new LimitExceededException("more than " + maxBytes + " bytes (at \"" + outputPath + "\")");
+        }
+        bytes += count;
+        files.merge(outputPath, count, Long::sum);
+    }
+
+    private void checkLimits(String outputPath, long fileBytes)
+    {
+        if (maxFiles >= 0 && files.size() + directories.size() + 1 > maxFiles)
+        {
+            throw new LimitExceededException("more than " + maxFiles + " files and directories (at \"" + outputPath + "\")");
+        }
+        if (maxBytes >= 0 && bytes + fileBytes > maxBytes)
+        {
+            throw new LimitExceededException("more than " + maxBytes + " bytes (at \"" + outputPath + "\")");
+        }
+        if (maxDepth >= 0 && getDepth(outputPath) > maxDepth)
+        {
+            throw new LimitExceededException("deeper than " + maxDepth + " levels (at \"" + outputPath + "\")");
+        }
+    }
+
+    private static int getDepth(String outputPath)
+    {
+        int depth = 1;
+        for (int i = 0; i < outputPath.length(); i++)
+        {
+            if (outputPath.charAt(i) == File.separatorChar)
+            {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    private String getOutputPath(File output)
+    {
+        String path = output.getAbsolutePath();
+        return path.startsWith(rootPath) ? path.substring(rootPath.length()) : path;
+    }
+}
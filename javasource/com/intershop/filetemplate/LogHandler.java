@@ -0,0 +1,29 @@
+package com.intershop.filetemplate;
+
+/**
+ * Empfänger der Meldungen eines Laufs von FileTemplateEngine, statt sie über Logger nach System.out/System.err zu schreiben.
+ * Muss thread-safe sein: die Meldungen kommen von allen Threads des Laufs.
+ */
+public interface LogHandler
+{
+    int ERROR = 0;
+    int WARN  = 1;
+    int INFO  = 2;
+    int DEBUG = 3;
+
+    /**
+     * @param level ERROR, WARN, INFO oder DEBUG
+     * @param message der parameter muss angegeben werden
+     */
+    void log(int level, String message);
+
+    /**
+     * Meldungen, die hier false liefern, werden gar nicht erst erzeugt (z.B. eine DEBUG Meldung pro erzeugtem Namen)
+     * @param level ERROR, WARN, INFO oder DEBUG
+     * @return true wenn Meldungen dieser Stufe gebraucht werden, Standard: alle
+     */
+    default boolean isEnabled(int level)
+    {
+        return true;
+    }
+}
@@ -0,0 +1,242 @@
+package com.intershop.filetemplate;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchrones Logging mit Stufen (ERROR, WARN, INFO, DEBUG) für FileTemplate.log(...).
+ * Eine Meldung wird nur mit ihrer Zeit in einen Ringpuffer gestellt (ohne Lock), ein Hintergrund-Thread formatiert die Zeit
+ * und schreibt die Meldungen gesammelt nach System.out (ERROR nach System.err).
+ * Die Meldungen werden in der Reihenfolge geschrieben, in der sie in den Puffer gestellt wurden; die Meldungen eines Threads
+ * (und damit die einer Datei, die immer von einem Thread erzeugt wird) bleiben also in ihrer Reihenfolge.
+ * Ist der Puffer voll, wartet der Aufrufer, bis wieder Platz ist. Beim Ende der JVM wird der Puffer noch geschrieben.
+ * Meldungen unterhalb der eingestellten Stufe kosten nichts, wenn der Aufrufer vorher isEnabled(...) prüft.
+ */
+class Logger
+{
+    public static final int ERROR = LogHandler.ERROR;
+    public static final int WARN  = LogHandler.WARN;
+    public static final int INFO  = LogHandler.INFO;
+    public static final int DEBUG = LogHandler.DEBUG;
+
+    private static final int CAPACITY = 16 * 1024;  // power of 2
+    private static final int MASK = CAPACITY - 1;
+
+    private static final DateTimeFormatter SECOND_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.").withZone(ZoneId.systemDefault());
+
+    static volatile int level = INFO;
+
+    // ring buffer (bounded multi producer, single consumer): slot i is free for position p when sequences[i] == p,
+    // and holds the message of position p when sequences[i] == p + 1
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private static final String[] messages = new String[CAPACITY];
+    private static final long[] times = new long[CAPACITY];
+    private static final int[] levels = new int[CAPACITY];
+    private static final AtomicLong tail = new AtomicLong();   // next position to be claimed by a producer
+    private static volatile long head = 0;                    // next position to be written by the writer thread
+
+    private static volatile Thread writerThread;
+    private static volatile boolean isWriterWaiting = false;
+
+    static
+    {
+        for (int i = 0; i < CAPACITY; i++)
+        {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @param level ERROR, WARN, INFO oder DEBUG
+     * @return true wenn Meldungen dieser Stufe ausgegeben werden
+     */
+    public static boolean isEnabled(int level)
+    {
+        return level <= Logger.level;
+    }
+
+    /**
+     * @param levelName error, warn, info oder debug (Groß-/Kleinschreibung egal)
+     * @return die Stufe, -1 wenn levelName unbekannt ist
+     */
+    public static int parseLevel(String levelName)
+    {
+        switch (levelName.toLowerCase())
+        {
+            case "error": return ERROR;
+            case "warn":  return WARN;
+            case "info":  return INFO;
+            case "debug": return DEBUG;
+            default:      return -1;
+        }
+    }
+
+    /**
+     * Stellt eine Meldung in den Puffer, falls ihre Stufe ausgegeben wird
+     * @param level ERROR, WARN, INFO oder DEBUG
+     * @param msg der parameter muss angegeben werden
+     */
+    public static void log(int level, String msg)
+    {
+        if (!isEnabled(level))
+        {
+            return;
+        }
+
+        long time = System.currentTimeMillis();
+
+        long position = tail.get();
+        while (true)
+        {
+            long difference = sequences.get((int) position & MASK) - position;
+            if (difference == 0)
+            {
+                if (tail.compareAndSet(position, position + 1))
+                {
+                    break;
+                }
+                position = tail.get();
+            }
+            else if (difference < 0)
+            {
+                // buffer is full, wait for the writer thread
+                wakeUpWriterThread();
+                Thread.yield();
+                position = tail.get();
+            }
+            else
+            {
+                position = tail.get();
+            }
+        }
+
+        int slot = (int) position & MASK;
+        messages[slot] = msg;
+        times[slot] = time;
+        levels[slot] = level;
+        sequences.set(slot, position + 1);  // publishes the slot to the writer thread
+
+        if (writerThread == null)
+        {
+            startWriterThread();
+        }
+        wakeUpWriterThread();
+    }
+
+    /**
+     * Wartet, bis alle bisher gestellten Meldungen geschrieben sind
+     */
+    public static void flush()
+    {
+        long position = tail.get();
+        while (head < position && writerThread != null && writerThread.isAlive())
+        {
+            wakeUpWriterThread();
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    /**
+     * Formatiert eine Meldung wie der Hintergrund-Thread, für Meldungen, die nicht über Logger geschrieben werden (SERVE)
+     * @param time Zeit der Meldung in Millisekunden
+     * @param msg der parameter muss angegeben werden
+     * @return die Zeile ohne Zeilenende
+     */
+    static String format(long time, String msg)
+    {
+        return SECOND_FORMATTER.format(Instant.ofEpochMilli(time)) + String.format("%03d", Math.floorMod(time, 1000)) + " " + msg;
+    }
+
+    private static void wakeUpWriterThread()
+    {
+        if (isWriterWaiting)
+        {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    private static synchronized void startWriterThread()
+    {
+        if (writerThread != null)
+        {
+            return;
+        }
+
+        writerThread = new Thread(Logger::writeMessages, "FileTemplate-log");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Logger::flush, "FileTemplate-log-flush"));
+    }
+
+    private static void writeMessages()
+    {
+        StringBuilder lines = new StringBuilder(64 * 1024);
+        boolean isErrorBatch = false;
+        long cachedSecond = Long.MIN_VALUE;
+        String cachedSecondPrefix = null;
+
+        while (true)
+        {
+            long position = head;
+            int slot = (int) position & MASK;
+            if (sequences.get(slot) != position + 1)
+            {
+                // nothing more to write for now
+                writeLines(lines, isErrorBatch);
+                isWriterWaiting = true;
+                if (sequences.get(slot) != position + 1)
+                {
+                    LockSupport.parkNanos(10_000_000);
+                }
+                isWriterWaiting = false;
+                continue;
+            }
+
+            String msg = messages[slot];
+            long time = times[slot];
+            boolean isError = levels[slot] == ERROR;
+            messages[slot] = null;
+            sequences.set(slot, position + CAPACITY);  // frees the slot for the next round
+
+            if (isError != isErrorBatch || lines.length() >= 60 * 1024)
+            {
+                writeLines(lines, isErrorBatch);
+                isErrorBatch = isError;
+            }
+
+            // the date and time up to the second is formatted only once per second
+            long second = Math.floorDiv(time, 1000);
+            if (second != cachedSecond)
+            {
+                cachedSecond = second;
+                cachedSecondPrefix = SECOND_FORMATTER.format(Instant.ofEpochSecond(second));
+            }
+            int millis = Math.floorMod(time, 1000);
+            lines.append(cachedSecondPrefix).append((char) ('0' + millis / 100)).append((char) ('0' + millis / 10 % 10)).append((char) ('0' + millis % 10));
+            lines.append(' ').append(msg).append(System.lineSeparator());
+
+            // head is advanced after the line is written, so flush() returns only when it is out
+            if (sequences.get((int) (position + 1) & MASK) != position + 2)
+            {
+                writeLines(lines, isErrorBatch);
+            }
+            head = position + 1;
+        }
+    }
+
+    private static void writeLines(StringBuilder lines, boolean isError)
+    {
+        if (lines.length() > 0)
+        {
+            PrintStream stream = isError ? System.err : System.out;
+            stream.print(lines);
+            stream.flush();
+            lines.setLength(0);
+        }
+    }
+}
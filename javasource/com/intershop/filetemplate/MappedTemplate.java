@@ -0,0 +1,341 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Byte-basierte Variante von CompiledTemplate (REPLACE mit --charset): die Vorlage wird gelesen, ab MAP_THRESHOLD Bytes
+ * mit FileChannel.map eingeblendet, und direkt in den Bytes nach Placeholdern durchsucht (ByteCharSequence). Bereiche ohne Placeholder werden unverändert
+ * aus der Datei kopiert, ohne sie zu dekodieren, und die Zeilenenden bleiben Byte für Byte erhalten
+ * (auch "\r\n" und eine letzte Zeile ohne Zeilenende). Nur Placeholder-Namen werden mit dem Charset dekodiert
+ * und die eingesetzten Werte damit kodiert; der Charset muss die ASCII-Zeichen als einzelne Bytes kodieren (z.B. UTF-8, ISO-8859-x).
+ * Eine Einblendung bleibt bestehen, bis die Vorlage nicht mehr verwendet wird; höchstens MAX_MAPPINGS gleichzeitig,
+ * darüber werden auch große Vorlagen gelesen (jede Einblendung zählt gegen vm.max_map_count des Prozesses).
+ */
+class MappedTemplate
+{
+    static final int MAP_THRESHOLD = 1024 * 1024;
+    static final int MAX_MAPPINGS = 1024;
+
+    // mappings of templates not yet garbage collected, the Cleaner counts down when a mapping is released
+    static final AtomicInteger mappingCount = new AtomicInteger(0);
+    private static final Cleaner cleaner = Cleaner.create();
+
+    /**
+     * Aufeinanderfolgende Zeilen ohne BEGIN/END Markierung, mit Zeilenenden:
+     * literalStarts.length == literalEnds.length == slotPlaceholders.length + 1, die Literale sind Byte-Bereiche der Datei
+     */
+    static class Run
+    {
+        int[] literalStarts;
+        int[] literalEnds;
+        String[] slotPlaceholders;
+        String[] slotBaseNumbers;  // null entry if slot is not of form {{@PLACEHOLDERNAME#base X@}}
+    }
+
+    /**
+     * Sammelt einen Run während des Zerlegens
+     */
+    static class RunBuilder
+    {
+        List<Integer> literalStarts = new ArrayList<Integer>();
+        List<Integer> literalEnds = new ArrayList<Integer>();
+        List<String> slotPlaceholders = new ArrayList<String>();
+        List<String> slotBaseNumbers = new ArrayList<String>();
+        int literalStart;
+
+        RunBuilder(int literalStart)
+        {
+            this.literalStart = literalStart;
+        }
+
+        void addSlot(int slotStart, int slotEnd, String placeholder, String baseNumber)
+        {
+            literalStarts.add(literalStart);
+            literalEnds.add(slotStart);
+            slotPlaceholders.add(placeholder);
+            slotBaseNumbers.add(baseNumber);
+            literalStart = slotEnd;
+        }
+
+        Run build(int literalEnd)
+        {
+            literalStarts.add(literalStart);
+            literalEnds.add(literalEnd);
+
+            Run run = new Run();
+            run.literalStarts = toIntArray(literalStarts);
+            run.literalEnds = toIntArray(literalEnds);
+            run.slotPlaceholders = slotPlaceholders.toArray(new String[slotPlaceholders.size()]);
+            run.slotBaseNumbers = slotBaseNumbers.toArray(new String[slotBaseNumbers.size()]);
+            return run;
+        }
+
+        private static int[] toIntArray(List<Integer> list)
+        {
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++)
+            {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Liest die Datei von compiledTemplate ein (oder blendet sie ein) und zerlegt sie in Runs und BEGIN/END Sektionen
+     * @param compiledTemplate der parameter muss angegeben werden, erhält content, rootSection, die Placeholder und contentHash
+     * @throws IOException der werfer muss angegeben werden
+     */
+    static void compile(CompiledTemplate compiledTemplate) throws IOException
+    {
+        File file = compiledTemplate.file;
+        Charset charset = compiledTemplate.charset;
+
+        ByteBuffer content = read(file);
+        compiledTemplate.content = content;
+
+        MessageDigest contentDigest = GenerationManifest.newMessageDigest();
+        contentDigest.update(content.duplicate());
+        compiledTemplate.contentHash = GenerationManifest.toHex(contentDigest.digest());
+
+        LinkedList<CompiledTemplate.Section> openSections = new LinkedList<CompiledTemplate.Section>();
+        openSections.push(compiledTemplate.rootSection);
+
+        PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+        Map<String /* placeholder bytes */, String /* placeholder */> decodedPlaceholders = new HashMap<String /* placeholder bytes */, String /* placeholder */>();
+
+        int size = content.limit();
+        RunBuilder runBuilder = new RunBuilder(0);
+        int lineStart = 0;
+        while (lineStart < size)
+        {
+            // a line ends with "\n", "\r\n" or "\r" (like BufferedReader.readLine()), the terminator stays in the literal
+            int lineEnd = lineStart;
+            while (lineEnd < size && content.get(lineEnd) != '\n' && content.get(lineEnd) != '\r')
+            {
+                lineEnd++;
+            }
+            int nextLineStart = lineEnd;
+            if (nextLineStart < size && content.get(nextLineStart++) == '\r' && nextLineStart < size && content.get(nextLineStart) == '\n')
+            {
+                nextLineStart++;
+            }
+
+            ByteCharSequence line = new ByteCharSequence(content, lineStart, lineEnd - lineStart);
+            int sectionMarkerKind = placeholderScanner.findSectionMarker(line);
+            if (sectionMarkerKind != PlaceholderScanner.KIND_NONE)
+            {
+                // the marker line is not part of the output
+                openSections.peek().elements.add(runBuilder.build(lineStart));
+                runBuilder = new RunBuilder(nextLineStart);
+
+                String decodedLine = decode(content, lineStart, lineEnd, charset);
+                placeholderScanner.findSectionMarker(decodedLine);
+                String placeholder = FileTemplate.getSectionMarkerPlaceholder(decodedLine, placeholderScanner);
+
+                if (sectionMarkerKind == PlaceholderScanner.KIND_END)  // case: {{@PLACEHOLDERNAME# END @}}
+                {
+                    CompiledTemplate.Section currentSection = openSections.peek();
+                    if (currentSection.placeholder == null)
+                    {
+                        FileTemplate.log("err", "replaceFileContent: count of END of placeholder sections larger than count of BEGIN (at END of placeholder \"" + placeholder + "\")");
+                        return;
+                    }
+                    else if (!placeholder.equals(currentSection.placeholder))
+                    {
+                        FileTemplate.log("err", "replaceFileContent: found END of placeholder \"" + placeholder + "\" where expecting END of placeholder \"" + currentSection.placeholder + "\"");
+                        return;
+                    }
+
+                    openSections.pop();
+                }
+                else  // case: {{@PLACEHOLDERNAME# BEGIN @}}
+                {
+                    CompiledTemplate.Section newSection = new CompiledTemplate.Section(placeholder);
+                    openSections.peek().elements.add(newSection);
+                    openSections.push(newSection);
+                    compiledTemplate.sectionPlaceholders.add(placeholder);
+                    compiledTemplate.usedPlaceholders.add(placeholder);
+                }
+            }
+            else
+            {
+                for (int from = 0; placeholderScanner.find(line, from, PlaceholderScanner.KIND_VALUE); from = placeholderScanner.end)
+                {
+                    String placeholderBytes = line.subSequence(placeholderScanner.nameStart, placeholderScanner.nameEnd).toString();
+                    String placeholder = decodedPlaceholders.get(placeholderBytes);
+                    if (placeholder == null)
+                    {
+                        placeholder = decode(content, lineStart + placeholderScanner.nameStart, lineStart + placeholderScanner.nameEnd, charset);
+                        decodedPlaceholders.put(placeholderBytes, placeholder);
+                    }
+                    String baseNumber = placeholderScanner.getBaseNumber(line);
+
+                    runBuilder.addSlot(lineStart + placeholderScanner.start, lineStart + placeholderScanner.end, placeholder, baseNumber);
+                    compiledTemplate.usedPlaceholders.add(placeholder);
+                    if (baseNumber != null)
+                    {
+                        compiledTemplate.basePlaceholders.add(placeholder);
+                    }
+                }
+            }
+
+            lineStart = nextLineStart;
+        }
+        openSections.peek().elements.add(runBuilder.build(size));
+
+        if (openSections.peek().placeholder != null)
+        {
+            FileTemplate.log("err", "replaceFileContent: missing END for placeholder \"" + openSections.peek().placeholder + "\"");
+            return;
+        }
+
+        compiledTemplate.valid = true;
+    }
+
+    /**
+     * Gibt die Vorlage mit den übergebenen Placeholder-Werten aus
+     * @param compiledTemplate der parameter muss angegeben werden, mit MappedTemplate.compile(...) zerlegt
+     * @param outputFile der parameter muss angegeben werden
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss angegeben werden
+     * @throws IOException der werfer muss angegeben werden
+     */
+    static void render(CompiledTemplate compiledTemplate, OutputStream outputFile, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues) throws IOException
+    {
+        renderSection(compiledTemplate, compiledTemplate.rootSection, outputFile, new byte[64 * 1024], placeholdersWithValues, currentPlaceholderValues);
+    }
+
+    private static void renderSection(CompiledTemplate compiledTemplate, CompiledTemplate.Section section, OutputStream outputFile, byte[] copyBuffer, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues) throws IOException
+    {
+        for (Object element : section.elements)
+        {
+            if (element instanceof Run)
+            {
+                Run run = (Run) element;
+                int slotCount = run.slotPlaceholders.length;
+                for (int i = 0; i < slotCount; i++)
+                {
+                    write(compiledTemplate.content, run.literalStarts[i], run.literalEnds[i], outputFile, copyBuffer);
+                    outputFile.write(String.valueOf(FileTemplate.getReplacementValue(run.slotPlaceholders[i], run.slotBaseNumbers[i], placeholdersWithValues, currentPlaceholderValues)).getBytes(compiledTemplate.charset));
+                }
+                write(compiledTemplate.content, run.literalStarts[slotCount], run.literalEnds[slotCount], outputFile, copyBuffer);
+            }
+            else
+            {
+                CompiledTemplate.Section subSection = (CompiledTemplate.Section) element;
+                PlaceholderDefinition placeholderValue = placeholdersWithValues.get(subSection.placeholder);
+
+                if (placeholderValue != null && placeholderValue.isDatasetPlaceholderValue())
+                {
+                    // only the values of the dataset rows matching the fixed values of its other placeholders
+                    Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValuesInBlock = new HashMap<String /* placeholder */, String /* placeholder value */>(currentPlaceholderValues);
+                    PlaceholderDataset.Cursor values = placeholderValue.datasetValues(currentPlaceholderValues);
+                    long sectionCount = 0;
+                    try
+                    {
+                        for (String[] value = values.next(); value != null; value = values.next(), sectionCount++)
+                        {
+                            fixedPlaceholderValuesInBlock.put(subSection.placeholder, value[0]);
+                            renderSection(compiledTemplate, subSection, outputFile, copyBuffer, placeholdersWithValues, fixedPlaceholderValuesInBlock);
+                        }
+                    }
+                    finally
+                    {
+                        values.close();
+                    }
+                    if (Metrics.enabled)
+                    {
+                        Metrics.RENDER.sections.add(sectionCount);
+                    }
+                }
+                else if (placeholderValue != null)
+                {
+                    if (Metrics.enabled)
+                    {
+                        Metrics.RENDER.sections.add(placeholderValue.getValueCount());
+                    }
+                    Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValuesInBlock = new HashMap<String /* placeholder */, String /* placeholder value */>(currentPlaceholderValues);
+                    for (long valueIndex = 0; valueIndex < placeholderValue.getValueCount(); valueIndex++)
+                    {
+                        fixedPlaceholderValuesInBlock.put(subSection.placeholder, placeholderValue.getValue(valueIndex));
+                        renderSection(compiledTemplate, subSection, outputFile, copyBuffer, placeholdersWithValues, fixedPlaceholderValuesInBlock);
+                    }
+                }
+                else
+                {
+                    FileTemplate.log("err", "processLinesWithPlaceholderBlock: no definition for used placeholder \"" + subSection.placeholder + "\"");
+                }
+            }
+        }
+    }
+
+    // copies bytes [start, end) of content unchanged, with absolute gets only (content is shared between threads)
+    private static void write(ByteBuffer content, int start, int end, OutputStream outputFile, byte[] copyBuffer) throws IOException
+    {
+        while (start < end)
+        {
+            int length = Math.min(end - start, copyBuffer.length);
+            content.get(start, copyBuffer, 0, length);
+            outputFile.write(copyBuffer, 0, length);
+            start += length;
+        }
+    }
+
+    // small files are read into the heap, a mapping per template would exhaust vm.max_map_count for trees of many small templates
+    private static ByteBuffer read(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD && mappingCount.incrementAndGet() <= MAX_MAPPINGS)
+            {
+                try
+                {
+                    ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    cleaner.register(content, mappingCount::decrementAndGet);
+                    return content;
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    mappingCount.decrementAndGet();
+                    throw e;
+                }
+            }
+            else if (size >= MAP_THRESHOLD)
+            {
+                mappingCount.decrementAndGet();
+            }
+
+            ByteBuffer content = ByteBuffer.allocate((int) size);
+            while (content.hasRemaining() && channel.read(content) >= 0)
+            {
+                // reads until the end of the file, a file truncated meanwhile ends earlier
+            }
+            content.flip();
+            return content;
+        }
+    }
+
+    private static String decode(ByteBuffer content, int start, int end, Charset charset)
+    {
+        byte[] bytes = new byte[end - start];
+        content.get(start, bytes, 0, bytes.length);
+        return new String(bytes, charset == null ? StandardCharsets.ISO_8859_1 : charset);
+    }
+}
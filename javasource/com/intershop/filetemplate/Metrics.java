@@ -0,0 +1,274 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Zähler und Laufzeit-Histogramme je Phase eines Laufs (Verzeichnisse lesen, Vorlagen zerlegen, ausgeben, kopieren, löschen).
+ * Die Zähler werden nur mit --metrics-out gesammelt (enabled) und am Ende als JSON geschrieben.
+ * Unabhängig davon erzeugt jede Phase ein JFR Event (PhaseEvent), sobald eine Flight Recording läuft, z.B. mit
+ * "java -XX:StartFlightRecording=filename=run.jfr ...". Ohne beides kostet eine Messung nur ein leeres Event-Objekt.
+ */
+class Metrics
+{
+    // latencies are counted in buckets of powers of 2 nanoseconds: bucket i holds latencies < 2^i ns
+    static final int BUCKETS = 64;
+
+    /**
+     * JFR Event einer Phase, ein Event pro Verzeichnis, Vorlage, Ausgabe, Kopie oder Löschung
+     */
+    @Name("com.intershop.filetemplate.Phase")
+    @Label("FileTemplate Phase")
+    @Category("FileTemplate")
+    @Description("One step of a FileTemplate run: traverse a directory, parse a template, render, copy or delete an output")
+    static class PhaseEvent extends jdk.jfr.Event
+    {
+        @Label("Phase")
+        String phase;
+
+        @Label("Path")
+        String path;
+
+        @Label("Files")
+        long files;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        transient long startNanos;  // only set if metrics are enabled
+    }
+
+    /**
+     * Zähler und Laufzeiten einer Phase
+     */
+    static class Phase
+    {
+        String name;
+        LongAdder operations = new LongAdder();
+        LongAdder files = new LongAdder();
+        LongAdder bytesRead = new LongAdder();
+        LongAdder bytesWritten = new LongAdder();
+        LongAdder placeholders = new LongAdder();  // placeholders substituted (render)
+        LongAdder sections = new LongAdder();      // BEGIN/END section copies (render)
+        LongAdder deletions = new LongAdder();     // files and directories deleted (delete)
+        LongAdder totalNanos = new LongAdder();
+        AtomicLongArray latencyBuckets = new AtomicLongArray(BUCKETS);
+        volatile long maxNanos = 0;
+
+        Phase(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Beginnt eine Messung, sie wird mit stop(...) beendet
+         * @return das Event der Messung
+         */
+        PhaseEvent start()
+        {
+            PhaseEvent event = new PhaseEvent();
+            if (enabled)
+            {
+                event.startNanos = System.nanoTime();
+            }
+            event.begin();
+            return event;
+        }
+
+        /**
+         * Beendet eine Messung
+         * @param event der parameter muss angegeben werden, von start()
+         * @param path der parameter muss angegeben werden, Verzeichnis oder Datei der Messung
+         * @param files Anzahl der gelesenen oder geschriebenen Dateien
+         * @param bytesRead gelesene Bytes
+         * @param bytesWritten geschriebene Bytes
+         */
+        void stop(PhaseEvent event, File path, long files, long bytesRead, long bytesWritten)
+        {
+            if (enabled)
+            {
+                long nanos = System.nanoTime() - event.startNanos;
+                operations.increment();
+                this.files.add(files);
+                this.bytesRead.add(bytesRead);
+                this.bytesWritten.add(bytesWritten);
+                totalNanos.add(nanos);
+                latencyBuckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(Math.max(nanos, 1)));
+                if (nanos > maxNanos)
+                {
+                    updateMaxNanos(nanos);
+                }
+            }
+
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.phase = name;
+                event.path = path.getPath();
+                event.files = files;
+                event.bytesRead = bytesRead;
+                event.bytesWritten = bytesWritten;
+                event.commit();
+            }
+        }
+
+        private synchronized void updateMaxNanos(long nanos)
+        {
+            if (nanos > maxNanos)
+            {
+                maxNanos = nanos;
+            }
+        }
+
+        // upper bound of the bucket that contains the given fraction of all measurements
+        long getPercentileNanos(long count, double fraction)
+        {
+            long wanted = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++)
+            {
+                seen += latencyBuckets.get(bucket);
+                if (seen >= wanted && seen > 0)
+                {
+                    return Math.min(getBucketLimit(bucket), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        void appendJson(StringBuilder json)
+        {
+            long count = operations.sum();
+            json.append("    \"").append(name).append("\": {\n");
+            json.append("      \"operations\": ").append(count).append(",\n");
+            json.append("      \"files\": ").append(files.sum()).append(",\n");
+            json.append("      \"bytesRead\": ").append(bytesRead.sum()).append(",\n");
+            json.append("      \"bytesWritten\": ").append(bytesWritten.sum()).append(",\n");
+            json.append("      \"placeholdersSubstituted\": ").append(placeholders.sum()).append(",\n");
+            json.append("      \"sectionsExpanded\": ").append(sections.sum()).append(",\n");
+            json.append("      \"deletions\": ").append(deletions.sum()).append(",\n");
+            json.append("      \"latencyNanos\": {\n");
+            json.append("        \"total\": ").append(totalNanos.sum()).append(",\n");
+            json.append("        \"max\": ").append(maxNanos).append(",\n");
+            json.append("        \"p50\": ").append(getPercentileNanos(count, 0.50)).append(",\n");
+            json.append("        \"p90\": ").append(getPercentileNanos(count, 0.90)).append(",\n");
+            json.append("        \"p99\": ").append(getPercentileNanos(count, 0.99)).append(",\n");
+            json.append("        \"buckets\": [");
+            String separator = "";
+            for (int bucket = 0; bucket < BUCKETS; bucket++)
+            {
+                long bucketCount = latencyBuckets.get(bucket);
+                if (bucketCount > 0)
+                {
+                    json.append(separator).append("{\"lessThan\": ").append(getBucketLimit(bucket)).append(", \"count\": ").append(bucketCount).append("}");
+                    separator = ", ";
+                }
+            }
+            json.append("]\n");
+            json.append("      }\n");
+            json.append("    }");
+        }
+
+        private static long getBucketLimit(int bucket)
+        {
+            return bucket >= 63 ? Long.MAX_VALUE : 1L << bucket;
+        }
+    }
+
+    // set once before a run starts (--metrics-out)
+    static boolean enabled = false;
+
+    static final Phase TRAVERSE = new Phase("traverse");
+    static final Phase PARSE = new Phase("parse");
+    static final Phase RENDER = new Phase("render");
+    static final Phase COPY = new Phase("copy");
+    static final Phase DELETE = new Phase("delete");
+
+    static final Phase[] PHASES = { TRAVERSE, PARSE, RENDER, COPY, DELETE };
+
+    /**
+     * Zählt die geschriebenen Bytes einer Ausgabe, ohne sie zu puffern
+     */
+    static class CountingOutputStream extends OutputStream
+    {
+        OutputStream out;
+        long count = 0;
+
+        CountingOutputStream(OutputStream out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Schreibt alle Zähler als JSON nach file
+     * @param file der parameter muss angegeben werden
+     * @param action der parameter muss angegeben werden, REPLACE oder PLAN
+     * @param wallNanos Laufzeit des ganzen Laufs
+     * @throws IOException der werfer muss angegeben werden
+     */
+    static void writeJson(File file, String action, long wallNanos) throws IOException
+    {
+        StringBuilder json = new StringBuilder(4096);
+        json.append("{\n");
+        json.append("  \"action\": \"").append(action).append("\",\n");
+        json.append("  \"wallNanos\": ").append(wallNanos).append(",\n");
+        json.append("  \"phases\": {\n");
+        for (int i = 0; i < PHASES.length; i++)
+        {
+            PHASES[i].appendJson(json);
+            json.append(i + 1 < PHASES.length ? ",\n" : "\n");
+        }
+        json.append("  }\n");
+        json.append("}\n");
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))
+        {
+            writer.write(json.toString());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Ziel, in das REPLACE die erzeugten Dateien und Verzeichnisse schreibt.
+ * Die Ausgabe wird immer über File-Pfade adressiert; FileSystemOutputSink legt sie im Dateisystem an,
+ * ArchiveOutputSink schreibt sie als Einträge in ein ZIP oder TAR Archiv.
+ * Alle Implementierungen müssen thread-safe sein (REPLACE mit --threads).
+ * Eigene Implementierungen können FileTemplateEngine mitgegeben werden.
+ */
+public interface OutputSink
+{
+    /**
+     * @return true wenn output bereits existiert
+     */
+    boolean exists(File output);
+
+    /**
+     * @return false wenn eine einmal geschriebene Datei nicht mehr ersetzt werden kann (Archiv)
+     */
+    boolean canReplace();
+
+    /**
+     * Entfernt output (Datei oder Verzeichnis mit Inhalt)
+     * @return true wenn alles entfernt wurde
+     */
+    boolean delete(File output);
+
+    /**
+     * Legt das Verzeichnis newDir an, falls es noch nicht existiert
+     * @return true wenn das Verzeichnis danach existiert
+     */
+    boolean makeDirectory(File newDir);
+
+    /**
+     * Öffnet die Datei newFile zum Schreiben, die Datei ist erst nach close() des Streams vollständig geschrieben
+     * @param newFile der parameter muss angegeben werden
+     * @return der Stream, muss vom Aufrufer geschlossen werden
+     * @throws IOException der werfer muss angegeben werden
+     */
+    OutputStream openFile(File newFile) throws IOException;
+
+    /**
+     * Kopiert die Datei sourceFile 1:1 nach newFile, Fehler werden geloggt
+     */
+    void copyFile(File sourceFile, File newFile);
+
+    /**
+     * Schließt die Ausgabe ab, danach darf nichts mehr geschrieben werden
+     * @throws IOException der werfer muss angegeben werden
+     */
+    void close() throws IOException;
+}
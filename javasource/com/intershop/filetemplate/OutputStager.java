@@ -0,0 +1,225 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * REPLACE mit --staged: jede erzeugte Datei und jedes erzeugte Verzeichnis wird zuerst unter einem versteckten Namen daneben
+ * angelegt (".name.ft-staging-...") und erst fertig mit Files.move(ATOMIC_MOVE) an seinen Platz gebracht.
+ * Eine vorhandene Datei wird dabei atomar ersetzt; ein vorhandenes Verzeichnis wird zuerst umbenannt (".name.ft-retired-...")
+ * und dann im Hintergrund gelöscht, statt den Lauf mit einem rekursiven Löschen aufzuhalten.
+ * Wer die Ausgabe liest, sieht so immer entweder den alten oder den neuen Stand, nie einen halb gelöschten oder halb geschriebenen.
+ * Was innerhalb eines Verzeichnisses entsteht, das gerade angelegt wird, wird direkt geschrieben, es erscheint mit ihm.
+ */
+class OutputStager
+{
+    static final int DELETE_THREADS = 4;
+
+    static final String STAGING_INFIX = ".ft-staging-";
+    static final String RETIRED_INFIX = ".ft-retired-";
+
+    private static final AtomicLong nameCount = new AtomicLong();
+    private static final String namePrefix = ProcessHandle.current().pid() + "-";
+
+    // staging directories being generated, their content is written directly
+    private final Set<File> stagingDirs = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private ExecutorService deletePool = null;
+    private final AtomicLong retiredCount = new AtomicLong();
+
+    /**
+     * @return true wenn fileName ein Name ist, den OutputStager nur vorübergehend vergibt
+     */
+    static boolean isStagingName(String fileName)
+    {
+        return fileName.startsWith(".") && (fileName.contains(STAGING_INFIX) || fileName.contains(RETIRED_INFIX));
+    }
+
+    /**
+     * @param targetDir der parameter muss angegeben werden, das Verzeichnis, in dem eine Ausgabe angelegt wird
+     * @return true wenn die Ausgabe bereitgestellt werden muss, false wenn targetDir selbst gerade bereitgestellt wird
+     */
+    boolean isStaged(File targetDir)
+    {
+        for (File dir = targetDir.getAbsoluteFile(); dir != null; dir = dir.getParentFile())
+        {
+            if (stagingDirs.contains(dir))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param output der parameter muss angegeben werden
+     * @return der Name neben output, unter dem output angelegt wird
+     */
+    static File newStagingFile(File output)
+    {
+        return new File(output.getParentFile(), "." + output.getName() + STAGING_INFIX + namePrefix + nameCount.incrementAndGet());
+    }
+
+    /**
+     * Beginnt ein Verzeichnis: bis commit(...) wird alles darin direkt geschrieben
+     * @param output der parameter muss angegeben werden
+     * @return das Verzeichnis, in dem der Inhalt von output angelegt wird
+     */
+    File beginDirectory(File output)
+    {
+        File stagingDir = newStagingFile(output).getAbsoluteFile();
+        stagingDirs.add(stagingDir);
+        return stagingDir;
+    }
+
+    /**
+     * Bringt die fertige Ausgabe staged an den Platz von output, ein vorhandenes Verzeichnis output wird im Hintergrund gelöscht
+     * @param staged der parameter muss angegeben werden, von newStagingFile(...) oder beginDirectory(...)
+     * @param output der parameter muss angegeben werden
+     * @return false wenn staged nicht an den Platz gebracht werden konnte (staged ist dann entfernt)
+     */
+    boolean commit(File staged, File output)
+    {
+        stagingDirs.remove(staged);
+        if (!staged.exists())
+        {
+            // nothing was written (the error is already logged), like without --staged the old output is gone afterwards
+            if (output.exists())
+            {
+                retireAside(output);
+            }
+            return false;
+        }
+
+        File retired = null;
+        try
+        {
+            if (output.isDirectory())
+            {
+                // a directory can not be replaced in one step: move the old one aside first, it is deleted in the background
+                retired = newRetiredFile(output);
+                Files.move(output.toPath(), retired.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            // replaces an existing file in one step
+            Files.move(staged.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException exIO)
+        {
+            FileTemplate.log("err", "commit: \"" + staged.getAbsolutePath() + "\" --> \"" + output.getAbsolutePath() + "\": " + exIO.toString());
+            if (retired != null && retired.exists() && !output.exists())
+            {
+                // put the old directory back
+                retired.renameTo(output);
+                retired = null;
+            }
+            retire(staged);
+            return false;
+        }
+
+        if (retired != null)
+        {
+            retire(retired);
+        }
+        return true;
+    }
+
+    /**
+     * Verwirft eine Ausgabe, deren Erzeugung abgebrochen ist; der alte Stand bleibt an seinem Platz
+     * @param staged der parameter muss angegeben werden, von newStagingFile(...) oder beginDirectory(...)
+     */
+    void discard(File staged)
+    {
+        stagingDirs.remove(staged);
+        if (staged.exists())
+        {
+            // the run stops, it does not wait for background deletions
+            FileTemplate.deepDelete(staged);
+        }
+    }
+
+    /**
+     * Benennt output um und löscht es im Hintergrund, output ist danach sofort frei
+     * @param output der parameter muss angegeben werden, Datei oder Verzeichnis mit Inhalt
+     * @return false wenn output nicht umbenannt werden konnte
+     */
+    boolean retireAside(File output)
+    {
+        File retired = newRetiredFile(output);
+        try
+        {
+            Files.move(output.toPath(), retired.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException exIO)
+        {
+            FileTemplate.log("err", "retire: \"" + output.getAbsolutePath() + "\" could not be moved aside: " + exIO.toString());
+            return false;
+        }
+        retire(retired);
+        return true;
+    }
+
+    private static File newRetiredFile(File output)
+    {
+        return new File(output.getParentFile(), "." + output.getName() + RETIRED_INFIX + namePrefix + nameCount.incrementAndGet());
+    }
+
+    /**
+     * Löscht file (Datei oder Verzeichnis mit Inhalt) im Hintergrund
+     * @param file der parameter muss angegeben werden, wird von niemandem mehr gelesen
+     */
+    synchronized void retire(File file)
+    {
+        if (deletePool == null)
+        {
+            deletePool = Executors.newFixedThreadPool(DELETE_THREADS, runnable ->
+            {
+                Thread thread = new Thread(runnable, "FileTemplate-delete-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        retiredCount.incrementAndGet();
+        LogHandler currentLogHandler = FileTemplate.logHandler.get();
+        deletePool.execute(() -> FileTemplate.runWithLogHandler(currentLogHandler, () -> FileTemplate.deepDelete(file)));
+    }
+
+    /**
+     * Wartet, bis alles im Hintergrund gelöscht ist; danach kann der OutputStager weiter verwendet werden
+     */
+    void awaitDeletions()
+    {
+        ExecutorService finishingPool;
+        synchronized (this)
+        {
+            finishingPool = deletePool;
+            deletePool = null;
+        }
+        if (finishingPool == null)
+        {
+            return;
+        }
+
+        finishingPool.shutdown();
+        try
+        {
+            finishingPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        FileTemplate.log("debug", "staged: " + retiredCount.getAndSet(0) + " replaced outputs deleted in the background");
+    }
+}
@@ -0,0 +1,485 @@
+package com.intershop.filetemplate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Eine Gruppe von Placeholdern, deren Werte zeilenweise zusammengehören (Tupel), aus einer CSV oder TSV Datei:
+ *     Placeholder2 = Partner, Region, Channel
+ *     Placeholder2Dataset = partners.csv
+ * Die erste Zeile der Datei benennt die Spalten, jeder Placeholder der Gruppe ist eine Spalte, weitere Spalten werden ignoriert.
+ * Statt aller Kombinationen gibt es nur die Kombinationen, die als Zeile in der Datei stehen.
+ * Die Zeilen werden nie im Speicher gehalten: jedes Aufzählen (Cursor) liest die Datei Zeile für Zeile,
+ * nur die Zeilen, die zu den bereits festen Werten der Gruppe passen, und davon jedes Tupel nur einmal.
+ * Gehalten werden nur die verschiedenen Werte jeder Spalte mit ihrer Nummer für #base, beim Einlesen in einem Durchlauf ermittelt.
+ * Dateien mit der Endung .tsv sind durch Tabulatoren getrennt (ohne Anführungszeichen), alle anderen durch Kommas
+ * (Felder in "..." dürfen Kommas, Zeilenumbrüche und "" enthalten). Die Dateien sind in UTF-8.
+ */
+class PlaceholderDataset
+{
+    // Einzelwerte werden nur für bis zu so viele Anfragen zwischengespeichert
+    static final int MAX_CACHED_LOOKUPS = 1 << 16;
+
+    File file;
+    char delimiter;
+    String[] placeholders;      // the placeholders of the group, in the order of the properties file
+    int[] columns;              // column of each placeholder in the file
+    int columnCount;            // columns in the header
+    long rowCount;              // rows found when the dataset was read, without the header
+    boolean hasRepeatedRows;    // some rows have the same values in all columns of the group, see Cursor
+    long fileLength;
+    long fileLastModified;
+    boolean valid = false;
+
+    private Map<String /* placeholder */, Integer /* index into placeholders */> placeholderIndexes = new HashMap<String /* placeholder */, Integer /* index into placeholders */>();
+    private Map<String /* lookup */, String /* placeholder value */> uniqueValues = new ConcurrentHashMap<String /* lookup */, String /* placeholder value */>();
+
+    // per placeholder: position of each distinct value in the order of its first occurrence (#base), only read after the constructor
+    private List<Map<String /* placeholder value */, Long /* index */>> valueIndexes = new ArrayList<Map<String /* placeholder value */, Long /* index */>>();
+
+    /**
+     * Liest die Kopfzeile und prüft einmal alle Zeilen (ohne sie zu behalten), Fehler werden geloggt;
+     * im selben Durchlauf werden die Nummern der verschiedenen Werte jeder Spalte ermittelt und wiederholte Zeilen erkannt
+     * @param file der parameter muss angegeben werden
+     * @param placeholders der parameter muss angegeben werden, die Namen der Spalten
+     */
+    PlaceholderDataset(File file, String[] placeholders)
+    {
+        this.file = file;
+        this.placeholders = placeholders;
+        this.delimiter = file.getName().toLowerCase().endsWith(".tsv") ? '\t' : ',';
+        this.columns = new int[placeholders.length];
+        for (int i = 0; i < placeholders.length; i++)
+        {
+            placeholderIndexes.put(placeholders[i], i);
+            valueIndexes.add(new HashMap<String /* placeholder value */, Long /* index */>());
+        }
+
+        DirElement fileElement = DirElement.read(file);
+        if (!fileElement.isFile())
+        {
+            FileTemplate.log("err", "PlaceholderDataset: dataset \"" + file.getPath() + "\" not found");
+            return;
+        }
+        fileLength = fileElement.length();
+        fileLastModified = fileElement.lastModified();
+
+        try (BufferedReader reader = newReader())
+        {
+            String[] header = readRecord(reader);
+            if (header == null)
+            {
+                FileTemplate.log("err", "PlaceholderDataset: dataset \"" + file.getPath() + "\" is empty, the first line must name the columns");
+                return;
+            }
+            columnCount = header.length;
+            for (int i = 0; i < placeholders.length; i++)
+            {
+                columns[i] = -1;
+                for (int column = 0; column < header.length; column++)
+                {
+                    if (header[column].trim().equals(placeholders[i]))
+                    {
+                        columns[i] = column;
+                        break;
+                    }
+                }
+                if (columns[i] < 0)
+                {
+                    FileTemplate.log("err", "PlaceholderDataset: dataset \"" + file.getPath() + "\" has no column \"" + placeholders[i] + "\"");
+                    return;
+                }
+            }
+
+            long shortRowCount = 0;
+            long[] rowHashes = new long[1024];  // only 8 bytes per row instead of the rows, sorted afterwards to find repeated rows
+            for (String[] record = readRecord(reader); record != null; record = readRecord(reader))
+            {
+                if (record.length < columnCount)
+                {
+                    shortRowCount++;
+                }
+                else
+                {
+                    if (rowCount == rowHashes.length)
+                    {
+                        rowHashes = Arrays.copyOf(rowHashes, 2 * rowHashes.length);
+                    }
+                    rowHashes[(int) rowCount++] = getRowHash(record);
+                    for (int i = 0; i < placeholders.length; i++)
+                    {
+                        Map<String /* placeholder value */, Long /* index */> columnValueIndexes = valueIndexes.get(i);
+                        columnValueIndexes.putIfAbsent(record[columns[i]], (long) columnValueIndexes.size());
+                    }
+                }
+            }
+            if (shortRowCount > 0)
+            {
+                FileTemplate.log("warn", "WARNING: PlaceholderDataset: dataset \"" + file.getPath() + "\": " + shortRowCount + " rows with less than " + columnCount + " columns are ignored");
+            }
+
+            long repeatedRowCount = 0;
+            Arrays.sort(rowHashes, 0, (int) rowCount);
+            for (int row = 1; row < rowCount; row++)
+            {
+                if (rowHashes[row] == rowHashes[row - 1])
+                {
+                    repeatedRowCount++;
+                }
+            }
+            if (repeatedRowCount > 0)
+            {
+                // a cursor over all columns then remembers its tuples like any other, so that each one is generated once
+                hasRepeatedRows = true;
+                FileTemplate.log("warn", "WARNING: PlaceholderDataset: dataset \"" + file.getPath() + "\": " + repeatedRowCount + " rows repeat an earlier row in the columns " + String.join(", ", placeholders) + ", each is used only once");
+            }
+        }
+        catch (IOException exIO)
+        {
+            FileTemplate.log("err", "PlaceholderDataset: \"" + file.getPath() + "\": " + exIO.toString());
+            return;
+        }
+
+        valid = true;
+        FileTemplate.log("std", "PlaceholderDataset: placeholders " + String.join(", ", placeholders) + ": dataset of " + rowCount + " rows");
+    }
+
+    /**
+     * @return die Definition für Schlüssel und Meldungen: ändert sich mit dem Inhalt der Datei (Größe und Änderungszeit)
+     */
+    String getDefinition()
+    {
+        return "<dataset " + file.getPath() + " " + fileLength + " " + fileLastModified + ">";
+    }
+
+    /**
+     * @return true wenn sich die Datei (Größe und Änderungszeit) seit dem Einlesen nicht geändert hat
+     */
+    boolean isUpToDate()
+    {
+        DirElement fileElement = DirElement.read(file);
+        return fileElement.length() == fileLength && fileElement.lastModified() == fileLastModified;
+    }
+
+    /**
+     * Zählt die verschiedenen Tupel der Placeholder tuplePlaceholders auf, in der Reihenfolge ihres ersten Vorkommens,
+     * aus den Zeilen, in denen die übrigen Placeholder der Gruppe mit einem festen Wert in fixedPlaceholderValues diesen Wert haben
+     * @param fixedPlaceholderValues der parameter muss angegeben werden
+     * @param tuplePlaceholders der parameter muss angegeben werden, Placeholder dieser Gruppe
+     * @return der Cursor, liefert null wenn alle Tupel aufgezählt sind
+     */
+    Cursor cursor(Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues, String[] tuplePlaceholders)
+    {
+        return new Cursor(fixedPlaceholderValues, tuplePlaceholders);
+    }
+
+    /**
+     * Der Wert von placeholder, wenn er nicht fest ist: eindeutig, wenn alle passenden Zeilen denselben Wert haben
+     * (z.B. Region, wenn Partner fest ist und jeder Partner in einer Region liegt)
+     * @param placeholder der parameter muss angegeben werden, Placeholder dieser Gruppe
+     * @param currentPlaceholderValues der parameter muss angegeben werden
+     * @return der Wert, null wenn keine Zeile passt oder die passenden Zeilen verschiedene Werte haben (wird geloggt)
+     */
+    String getUniqueValue(String placeholder, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    {
+        String lookup = getLookup(placeholder, currentPlaceholderValues);
+        String uniqueValue = uniqueValues.get(lookup);
+        if (uniqueValue != null)
+        {
+            return uniqueValue;
+        }
+
+        Cursor values = cursor(currentPlaceholderValues, new String[] { placeholder });
+        String[] first = values.next();
+        String[] second = first == null ? null : values.next();
+        values.close();
+        if (first == null)
+        {
+            FileTemplate.log("err", "replaceAllOccurrencesInStrings: placeholder \"" + placeholder + "\": no row of dataset \"" + file.getPath() + "\" matches the values of the other placeholders, ignoring it");
+            return null;
+        }
+        if (second != null)
+        {
+            FileTemplate.log("err", "replaceAllOccurrencesInStrings: placeholder \"" + placeholder + "\" encountered outside BEGIN/END section without fixed value, ignoring it");
+            return null;
+        }
+
+        putBounded(uniqueValues, lookup, first[0]);
+        return first[0];
+    }
+
+    /**
+     * Position eines Wertes unter den verschiedenen Werten von placeholder (in der Reihenfolge ihres ersten Vorkommens), für #base
+     * @param placeholder der parameter muss angegeben werden, Placeholder dieser Gruppe
+     * @param placeholderValue der parameter muss angegeben werden
+     * @return die Position, -1 wenn placeholderValue nicht vorkommt
+     */
+    long getValueIndex(String placeholder, String placeholderValue)
+    {
+        Long valueIndex = valueIndexes.get(placeholderIndexes.get(placeholder)).get(placeholderValue);
+        return valueIndex == null ? -1 : valueIndex;
+    }
+
+    // placeholder and the fixed values of the group that select its rows
+    private String getLookup(String placeholder, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    {
+        StringBuilder lookupBuilder = new StringBuilder(placeholder);
+        for (String groupPlaceholder : placeholders)
+        {
+            String value = currentPlaceholderValues.get(groupPlaceholder);
+            lookupBuilder.append('\0').append(value == null ? "\1" : value);
+        }
+        return lookupBuilder.toString();
+    }
+
+    private static <V> void putBounded(Map<String /* lookup */, V> cache, String lookup, V value)
+    {
+        if (cache.size() >= MAX_CACHED_LOOKUPS)
+        {
+            cache.clear();
+        }
+        cache.put(lookup, value);
+    }
+
+    private BufferedReader newReader() throws IOException
+    {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Liest den nächsten Datensatz, leere Zeilen werden übersprungen
+     * @return die Felder, null am Ende der Datei
+     */
+    private String[] readRecord(BufferedReader reader) throws IOException
+    {
+        String line = reader.readLine();
+        while (line != null && line.isEmpty())
+        {
+            line = reader.readLine();
+        }
+        if (line == null)
+        {
+            return null;
+        }
+
+        if (delimiter == '\t')
+        {
+            return line.split("\t", -1);
+        }
+
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean isQuoted = false;
+        for (int i = 0; ; i++)
+        {
+            if (i == line.length())
+            {
+                if (!isQuoted)
+                {
+                    break;
+                }
+
+                // a quoted field continues on the next line
+                line = reader.readLine();
+                if (line == null)
+                {
+                    throw new IOException("unterminated quoted field at the end of the file");
+                }
+                field.append('\n');
+                i = -1;
+                continue;
+            }
+
+            char c = line.charAt(i);
+            if (isQuoted)
+            {
+                if (c != '"')
+                {
+                    field.append(c);
+                }
+                else if (i + 1 < line.length() && line.charAt(i + 1) == '"')
+                {
+                    field.append('"');
+                    i++;
+                }
+                else
+                {
+                    isQuoted = false;
+                }
+            }
+            else if (c == '"')
+            {
+                isQuoted = true;
+            }
+            else if (c == ',')
+            {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else
+            {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    // hash of the values of the group in record, equal rows have equal hashes (FNV-1a over all chars, columns separated by '\0')
+    private long getRowHash(String[] record)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < placeholders.length; i++)
+        {
+            String value = record[columns[i]];
+            for (int c = 0; c < value.length(); c++)
+            {
+                hash = (hash ^ value.charAt(c)) * 0x100000001b3L;
+            }
+            hash = hash * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Liest die Datei einmal Zeile für Zeile und liefert jedes passende Tupel einmal; die Datei wird am Ende (oder mit close()) geschlossen.
+     * Bestimmen Tupel und feste Werte zusammen alle Spalten der Gruppe und hat die Datei keine wiederholten Zeilen (hasRepeatedRows),
+     * ist jede passende Zeile ein eigenes Tupel: dann wird nichts gesammelt.
+     */
+    class Cursor
+    {
+        private BufferedReader reader = null;
+        private int[] filterColumns;
+        private String[] filterValues;
+        private int[] tupleColumns;
+        private Set<String> tuplesSeen = null;  // null if every matching row is its own tuple
+
+        Cursor(Map<String /* placeholder */, String /* placeholder value */> fixedPlaceholderValues, String[] tuplePlaceholders)
+        {
+            // the tuple placeholders take all their values, even if they already have one (like a BEGIN/END section of a list)
+            List<String> tuplePlaceholderList = Arrays.asList(tuplePlaceholders);
+            List<Integer> filterColumnList = new ArrayList<Integer>();
+            List<String> filterValueList = new ArrayList<String>();
+            for (int i = 0; i < placeholders.length; i++)
+            {
+                String fixedValue = fixedPlaceholderValues.get(placeholders[i]);
+                if (fixedValue != null && !tuplePlaceholderList.contains(placeholders[i]))
+                {
+                    filterColumnList.add(columns[i]);
+                    filterValueList.add(fixedValue);
+                }
+            }
+            filterColumns = new int[filterColumnList.size()];
+            for (int i = 0; i < filterColumns.length; i++)
+            {
+                filterColumns[i] = filterColumnList.get(i);
+            }
+            filterValues = filterValueList.toArray(new String[filterValueList.size()]);
+            if (filterColumns.length + tuplePlaceholders.length < placeholders.length || hasRepeatedRows)
+            {
+                // several rows can have the same tuple, each one is remembered to return it only once
+                tuplesSeen = new HashSet<String>();
+            }
+
+            tupleColumns = new int[tuplePlaceholders.length];
+            for (int i = 0; i < tuplePlaceholders.length; i++)
+            {
+                tupleColumns[i] = columns[placeholderIndexes.get(tuplePlaceholders[i])];
+            }
+
+            if (!valid)
+            {
+                return;  // errors were already logged when reading the dataset
+            }
+            try
+            {
+                reader = newReader();
+                readRecord(reader);  // the header
+            }
+            catch (IOException exIO)
+            {
+                FileTemplate.log("err", "PlaceholderDataset: \"" + file.getPath() + "\": " + exIO.toString());
+                close();
+            }
+        }
+
+        /**
+         * @return das nächste Tupel (Werte in der Reihenfolge von tuplePlaceholders), null wenn alle aufgezählt sind
+         */
+        String[] next()
+        {
+            if (reader == null)
+            {
+                return null;
+            }
+
+            try
+            {
+                String[] record;
+                while ((record = readRecord(reader)) != null)
+                {
+                    if (record.length < columnCount || !isMatching(record))
+                    {
+                        continue;
+                    }
+
+                    String[] tuple = new String[tupleColumns.length];
+                    for (int i = 0; i < tupleColumns.length; i++)
+                    {
+                        tuple[i] = record[tupleColumns[i]];
+                    }
+                    if (tuplesSeen == null || tuplesSeen.add(tuple.length == 1 ? tuple[0] : String.join("\0", tuple)))
+                    {
+                        return tuple;
+                    }
+                }
+            }
+            catch (IOException exIO)
+            {
+                FileTemplate.log("err", "PlaceholderDataset: \"" + file.getPath() + "\": " + exIO.toString());
+            }
+            close();
+            return null;
+        }
+
+        private boolean isMatching(String[] record)
+        {
+            for (int i = 0; i < filterColumns.length; i++)
+            {
+                if (!record[filterColumns[i]].equals(filterValues[i]))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void close()
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (IOException e)
+                {
+                    // only read
+                }
+                reader = null;
+            }
+        }
+    }
+}
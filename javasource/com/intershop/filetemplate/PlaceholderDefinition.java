@@ -0,0 +1,346 @@
+package com.intershop.filetemplate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Werte eines Placeholders aus der "properties" datei: ein einzelner Wert, eine Liste [abc, def, xyz], ein Bereich [00116 - 04000]
+ * oder eine Spalte eines Datasets (PlaceholderDataset, die Werte werden nur mit einem Cursor aufgezählt).
+ * Die Werte sind über ihren Index 0 .. getValueCount() - 1 erreichbar, ohne die Liste zu durchsuchen oder Bereichswerte neu zu parsen.
+ * Die zurückgegebenen Werte einer Liste sind eigene String-Instanzen je Position: getValueIndex(...) findet damit auch
+ * bei mehrfach vorkommenden Werten die richtige Position, solange der Wert selbst (nicht eine gleiche Kopie) übergeben wird.
+ */
+class PlaceholderDefinition
+{
+    // Bereichswerte und #base Nummern werden nur für bis zu so viele Werte in Tabellen zwischengespeichert
+    static final int MAX_CACHED_VALUES = 1 << 20;
+
+    String name;
+    String definition;  // the value as given in the properties file
+    boolean singlePlaceholderValue = false;
+    boolean rangePlaceholderValue = false;
+    boolean listPlaceholderValue = false;
+    boolean datasetPlaceholderValue = false;
+    String valueSingle;
+    String valueRangeBegin;
+    String valueRangeEnd;
+    long longValueRangeBegin;
+    long longValueRangeEnd;
+    boolean rangeInverted = false;  // true if longValueRangeBegin > longValueRangeEnd
+    String[] valueList;
+    PlaceholderDataset dataset;  // shared by all placeholders of the dataset
+    Map<String /* placeholder value */, Integer /* index */> valueListIndexes;  // the instances of valueList, also finds duplicates
+    Map<String /* placeholder value */, Integer /* index */> valueListFirstIndexes;  // equal values, first occurrence
+
+    long valueCount;
+    String[] rangeValues;  // filled lazily, null if valueCount > MAX_CACHED_VALUES
+    Map<String /* base number */, String[] /* number of value */> baseNumberTables = new ConcurrentHashMap<String /* base number */, String[] /* number of value */>();
+
+    /**
+     * Analysiert den wert des placeholders aus der "properties" datei
+     *
+     * @param name der parameter muss angegeben werden
+     * @param value der parameter muss angegeben werden
+     */
+    public PlaceholderDefinition(String name, String value)
+    {
+        this.name = name;
+        this.definition = value;
+
+        if (value.trim().startsWith("[") && value.trim().endsWith("]"))
+        {
+            // if Placeholder1StartValue starts with [ and ends with ] then
+            // it is either a comma separated list of values, e.g. [abc, def, xyz]
+            // or a range with with two dash separated integral values, e.g. [00116 - 04000]
+            value = value.trim().substring(1, value.length() - 1); // strip leading and trailing [ and ]
+            Matcher matcher = Pattern.compile("^\\s*(\\d+)\\s*\\-\\s*(\\d+)\\s*$").matcher(value);
+            if (matcher.find())
+            {
+                rangePlaceholderValue = true;
+                valueRangeBegin = matcher.group(1);
+                valueRangeEnd = matcher.group(2);
+                longValueRangeBegin = Long.parseLong(valueRangeBegin);
+                longValueRangeEnd = Long.parseLong(valueRangeEnd);
+                valueCount = Math.abs(longValueRangeEnd - longValueRangeBegin) + 1;
+                if (valueCount <= MAX_CACHED_VALUES)
+                {
+                    rangeValues = new String[(int) valueCount];
+                }
+                if (longValueRangeBegin <= longValueRangeEnd)
+                {
+                    FileTemplate.log("std", "PlaceholderDefinition: placeholder " + name + ": range from  " + valueRangeBegin + " to " + valueRangeEnd);
+                }
+                else
+                {
+                    rangeInverted = true;
+                    FileTemplate.log("std", "PlaceholderDefinition: placeholder " + name + ": inverted range from " + valueRangeBegin + " to " + valueRangeEnd);
+                }
+            }
+            else if (value.matches(".*\\S+.*,.*\\S+.*"))
+            {
+                listPlaceholderValue = true;
+                valueList = value.split("\\s*,\\s*");
+                valueCount = valueList.length;
+                valueListIndexes = new IdentityHashMap<String /* placeholder value */, Integer /* index */>(valueList.length);
+                valueListFirstIndexes = new HashMap<String /* placeholder value */, Integer /* index */>(valueList.length * 2);
+                for (int i = 0; i < valueList.length; i++)
+                {
+                    valueListIndexes.put(valueList[i], i);
+                    valueListFirstIndexes.putIfAbsent(valueList[i], i);
+                }
+                FileTemplate.log("std", "PlaceholderDefinition: placeholder " + name + ": list of " + valueList.length);
+            }
+        }
+        else
+        {
+            singlePlaceholderValue = true;
+            valueSingle = value;
+            valueCount = 1;
+            FileTemplate.log("std", "PlaceholderDefinition: placeholder " + name + ": single value: " + valueSingle);
+        }
+    }
+
+    /**
+     * Ein Placeholder, dessen Werte eine Spalte von dataset sind
+     * @param name der parameter muss angegeben werden, Placeholder von dataset
+     * @param dataset der parameter muss angegeben werden
+     */
+    PlaceholderDefinition(String name, PlaceholderDataset dataset)
+    {
+        this.name = name;
+        this.definition = dataset.getDefinition();
+        this.datasetPlaceholderValue = true;
+        this.dataset = dataset;
+        this.valueCount = 0;  // not known without reading the dataset, see PlaceholderDataset.cursor(...)
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getDefinition()
+    {
+        return definition;
+    }
+
+    /**
+     * @return Anzahl der Werte, 1 bei einem einzelnen Wert, 0 bei einem Dataset
+     */
+    public long getValueCount()
+    {
+        return valueCount;
+    }
+
+    /**
+     * Gibt den Wert an Position valueIndex aus
+     * @param valueIndex der parameter muss angegeben werden, 0 .. getValueCount() - 1
+     * @return null wenn valueIndex außerhalb der Werte liegt (immer bei einem Dataset)
+     */
+    public String getValue(long valueIndex)
+    {
+        if (valueIndex < 0 || valueIndex >= valueCount)
+        {
+            return null;
+        }
+
+        if (listPlaceholderValue)
+        {
+            return valueList[(int) valueIndex];
+        }
+        else if (rangePlaceholderValue)
+        {
+            if (rangeValues == null)
+            {
+                return getRangeValue(valueIndex);
+            }
+
+            // racy but harmless: a concurrently computed value is equal
+            String rangeValue = rangeValues[(int) valueIndex];
+            if (rangeValue == null)
+            {
+                rangeValue = getRangeValue(valueIndex);
+                rangeValues[(int) valueIndex] = rangeValue;
+            }
+            return rangeValue;
+        }
+        else // singlePlaceholderValue
+        {
+            return valueSingle;
+        }
+    }
+
+    /**
+     * Ermittelt die Position eines Wertes
+     * @param valuePlaceholder der parameter muss angegeben werden
+     * @return Position des Wertes, -1 wenn valuePlaceholder kein Wert dieses Placeholders ist
+     */
+    public long getValueIndex(String valuePlaceholder)
+    {
+        if (listPlaceholderValue)
+        {
+            Integer valueIndex = valueListIndexes.get(valuePlaceholder);
+            if (valueIndex == null)
+            {
+                valueIndex = valueListFirstIndexes.get(valuePlaceholder);
+            }
+            return valueIndex == null ? -1 : valueIndex;
+        }
+        else if (datasetPlaceholderValue)
+        {
+            return dataset.getValueIndex(name, valuePlaceholder);
+        }
+        else if (rangePlaceholderValue)
+        {
+            long valueIndex = rangeInverted ? longValueRangeBegin - Long.parseLong(valuePlaceholder) : Long.parseLong(valuePlaceholder) - longValueRangeBegin;
+            return valueIndex < 0 || valueIndex >= valueCount ? -1 : valueIndex;
+        }
+        else // singlePlaceholderValue
+        {
+            return singlePlaceholderValue && valueSingle.equals(valuePlaceholder) ? 0 : -1;
+        }
+    }
+
+    /**
+     * Gibt den nächsten Wert aus
+     * @param valuePlaceholder der parameter muss nicht angegeben werden
+     * @return null if no more placeholders
+     */
+    public String getNextPlaceholderValue(String valuePlaceholder)
+    {
+        if (valuePlaceholder == null)
+        {
+            return getValue(0);
+        }
+
+        long valueIndex = getValueIndex(valuePlaceholder);
+        return valueIndex < 0 ? null : getValue(valueIndex + 1);
+    }
+
+    /**
+     * @param valuePlaceholder der parameter muss nicht angegeben werden
+     * @param baseNumber der parameter muss angegeben werden
+     * @return gibt die Anzahl der Placeholderwiederholungen an
+     */
+    public String getNumberOfPlaceholderValue(String valuePlaceholder, String baseNumber)
+    {
+        if (listPlaceholderValue || rangePlaceholderValue || datasetPlaceholderValue)
+        {
+            if (valuePlaceholder == null)
+            {
+                if (FileTemplate.isLogEnabled(Logger.DEBUG))
+                {
+                    FileTemplate.log("debug", "getNumberOfPlaceholderValue(\"" + valuePlaceholder + "\", \"" + baseNumber + "\") called for " + (listPlaceholderValue ? "list" : datasetPlaceholderValue ? "dataset" : "range") + " value " + name);
+                }
+                return baseNumber;
+            }
+
+            long valueIndex = getValueIndex(valuePlaceholder);
+            if (valueIndex < 0)
+            {
+                if (listPlaceholderValue || datasetPlaceholderValue)
+                {
+                    FileTemplate.log("err", "getNumberOfPlaceholderValue: value \"" + valuePlaceholder + "\" not found in values of placeholder " + name);
+                }
+                else
+                {
+                    FileTemplate.log("err", "getNumberOfPlaceholderValue: value \"" + valuePlaceholder + "\" out of range for " + name);
+                }
+                return null;
+            }
+
+            String numberOfPlaceholderValue = getNumberOfValue(valueIndex, baseNumber);
+
+            if (listPlaceholderValue && FileTemplate.isLogEnabled(Logger.DEBUG))
+            {
+                FileTemplate.log("debug", "getNumberOfPlaceholderValue(\"" + valuePlaceholder + "\", \"" + baseNumber + "\") = \"" + numberOfPlaceholderValue + "\" for list value " + name);
+            }
+
+            return numberOfPlaceholderValue;
+        }
+        else // singlePlaceholderValue
+        {
+            //FileTemplate.log("std", "getNumberOfPlaceholderValue(\"" + valuePlaceholder + "\", \"" + baseNumber + "\") called for single value " + name);
+            return baseNumber;
+        }
+    }
+
+    /**
+     * Gibt die Nummer des Wertes an Position valueIndex für {{@PLACEHOLDERNAME#base X@}} aus:
+     * baseNumber + valueIndex, mit führenden Nullen auf die Länge von baseNumber aufgefüllt
+     * @param valueIndex der parameter muss angegeben werden, 0 .. getValueCount() - 1
+     * @param baseNumber der parameter muss angegeben werden
+     * @return die Nummer des Wertes
+     */
+    public String getNumberOfValue(long valueIndex, String baseNumber)
+    {
+        if (valueCount > MAX_CACHED_VALUES || datasetPlaceholderValue)
+        {
+            return padWithZeros(Long.parseLong(baseNumber) + valueIndex, baseNumber.length());
+        }
+
+        String[] baseNumberTable = baseNumberTables.computeIfAbsent(baseNumber, key -> new String[(int) valueCount]);
+
+        // racy but harmless: a concurrently computed number is equal
+        String numberOfValue = baseNumberTable[(int) valueIndex];
+        if (numberOfValue == null)
+        {
+            numberOfValue = padWithZeros(Long.parseLong(baseNumber) + valueIndex, baseNumber.length());
+            baseNumberTable[(int) valueIndex] = numberOfValue;
+        }
+        return numberOfValue;
+    }
+
+    /**
+     * ermittelt pb einziger Wert
+     * @return
+     */
+    public boolean isSinglePlaceholderValue()
+    {
+        return singlePlaceholderValue;
+    }
+
+    /**
+     * @return true wenn die Werte eine Spalte eines Datasets sind
+     */
+    public boolean isDatasetPlaceholderValue()
+    {
+        return datasetPlaceholderValue;
+    }
+
+    /**
+     * Zählt die Werte auf, die der Placeholder in einer BEGIN/END Sektion annimmt.
+     * Bei einem Dataset sind das die Werte der Zeilen, die zu den festen Werten der übrigen Placeholder des Datasets passen.
+     * @param currentPlaceholderValues der parameter muss angegeben werden
+     * @return der Cursor über die Werte
+     */
+    PlaceholderDataset.Cursor datasetValues(Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues)
+    {
+        return dataset.cursor(currentPlaceholderValues, new String[] { name });
+    }
+
+    // the values of a range keep the length of valueRangeBegin, e.g. [0098 - 0100] gives 0098, 0099, 0100
+    private String getRangeValue(long valueIndex)
+    {
+        return padWithZeros(rangeInverted ? longValueRangeBegin - valueIndex : longValueRangeBegin + valueIndex, valueRangeBegin.length());
+    }
+
+    static String padWithZeros(long number, int length)
+    {
+        String digits = Long.toString(number);
+        if (digits.length() >= length)
+        {
+            return digits;
+        }
+
+        char[] padded = new char[length];
+        Arrays.fill(padded, 0, length - digits.length(), '0');
+        digits.getChars(0, digits.length(), padded, length - digits.length());
+        return new String(padded);
+    }
+}
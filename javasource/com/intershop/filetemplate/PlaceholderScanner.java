@@ -0,0 +1,402 @@
+package com.intershop.filetemplate;
+
+/**
+ * Sucht Placeholder in einem String in einem einzigen Durchlauf, ohne Backtracking und ohne Teilstrings anzulegen.
+ * Liefert exakt dieselben Treffer wie FileTemplate.compiledPlaceholderPatternRegex,
+ * FileTemplate.compiledPlaceholderSectionBeginPatternRegex und FileTemplate.compiledPlaceholderSectionEndPatternRegex.
+ * Das Ergebnis eines Treffers sind Offsets in den durchsuchten String (wie bei einem Matcher).
+ * Durchsucht werden kann jede CharSequence, z.B. auch die Bytes einer Datei (ByteCharSequence), da alle Zeichen der Placeholder-Syntax ASCII sind.
+ * Eine Instanz kann für beliebig viele Suchen wiederverwendet werden, ist aber nicht thread-safe.
+ */
+class PlaceholderScanner
+{
+    public static final int KIND_NONE  = -1;
+    public static final int KIND_VALUE = 0;  // {{@PLACEHOLDERNAME@}} or {{@PLACEHOLDERNAME#base X@}}
+    public static final int KIND_BEGIN = 1;  // {{@PLACEHOLDERNAME#BEGIN@}}
+    public static final int KIND_END   = 2;  // {{@PLACEHOLDERNAME#END@}}
+
+    private static final String PLACEHOLDER_START = "{{@";
+
+    // results of skipNameUnit(...) if the name can not go on
+    private static final int BLOCKED       = -1;
+    private static final int END_OF_STRING = -2;
+
+    // offsets of the last match
+    public int kind = KIND_NONE;
+    public int start;              // index of "{{@"
+    public int end;                // index after "@}}"
+    public int nameStart;
+    public int nameEnd;
+    public int baseNumberStart = -1;  // -1 if the match has no "#base X"
+    public int baseNumberEnd = -1;
+
+    // set by findDecided(...): index of the first "{{@" whose match depends on characters after the end of the string, -1 if none
+    public int undecidedStart = -1;
+    private boolean isTruncated;
+
+    /**
+     * Sucht ab "from" das nächste Vorkommen der angegebenen Art, wie Matcher.find()
+     * @param string der parameter muss angegeben werden
+     * @param from der parameter muss angegeben werden
+     * @param wantedKind KIND_VALUE, KIND_BEGIN oder KIND_END
+     * @return true wenn ein Placeholder gefunden wurde, die Offsets stehen dann in den Feldern
+     */
+    public boolean find(CharSequence string, int from, int wantedKind)
+    {
+        // A match can only start at "{{@", so use the fast indexOf to skip everything else.
+        for (int placeholderStart = indexOf(string, from); placeholderStart >= 0; placeholderStart = indexOf(string, placeholderStart + 1))
+        {
+            if (matchAt(string, placeholderStart, wantedKind))
+            {
+                return true;
+            }
+        }
+
+        kind = KIND_NONE;
+        return false;
+    }
+
+    /**
+     * Wie find(...), aber für einen String, der nur der Anfang einer Zeile ist (Streaming).
+     * Ein Treffer wird nur geliefert, wenn er auch durch weitere Zeichen am Ende des Strings nicht mehr anders ausfallen kann.
+     * Hängt ein Placeholder-Anfang von Zeichen nach dem Ende des Strings ab, wird die Suche dort beendet
+     * und dessen Index in undecidedStart gesetzt; alles davor ist endgültig entschieden.
+     * @param string der parameter muss angegeben werden
+     * @param from der parameter muss angegeben werden
+     * @param wantedKind KIND_VALUE, KIND_BEGIN oder KIND_END
+     * @return true wenn ein Placeholder gefunden wurde, die Offsets stehen dann in den Feldern
+     */
+    public boolean findDecided(CharSequence string, int from, int wantedKind)
+    {
+        undecidedStart = -1;
+        for (int placeholderStart = indexOf(string, from); placeholderStart >= 0; placeholderStart = indexOf(string, placeholderStart + 1))
+        {
+            if (matchAt(string, placeholderStart, wantedKind))
+            {
+                return true;
+            }
+            if (isTruncated)
+            {
+                undecidedStart = placeholderStart;
+                break;
+            }
+        }
+
+        kind = KIND_NONE;
+        return false;
+    }
+
+    /**
+     * Prüft, ob eine Zeile eine BEGIN oder END Markierung enthält. END hat dabei Vorrang vor BEGIN,
+     * wie bei FileTemplate.isEndPlaceholderLine(...) gefolgt von FileTemplate.isBeginPlaceholderLine(...).
+     * Jeder Placeholder-Anfang wird dabei nur einmal durchlaufen.
+     * @param string der parameter muss angegeben werden
+     * @return KIND_END, KIND_BEGIN oder KIND_NONE
+     */
+    public int findSectionMarker(CharSequence string)
+    {
+        int beginStart = -1;
+        int beginNameEnd = -1;
+        int beginEnd = -1;
+
+        int length = string.length();
+
+        for (int placeholderStart = indexOf(string, 0); placeholderStart >= 0; placeholderStart = indexOf(string, placeholderStart + 1))
+        {
+            int position = placeholderStart + PLACEHOLDER_START.length();
+            while (true)
+            {
+                int markerEnd = matchSectionSuffix(string, position, "END");
+                if (markerEnd >= 0)
+                {
+                    setMatch(KIND_END, placeholderStart, markerEnd, position, -1, -1);
+                    return KIND_END;
+                }
+
+                if (beginStart < 0 && (markerEnd = matchSectionSuffix(string, position, "BEGIN")) >= 0)
+                {
+                    beginStart = placeholderStart;
+                    beginNameEnd = position;
+                    beginEnd = markerEnd;
+                }
+
+                position = skipNameUnit(string, position, length);
+                if (position < 0)
+                {
+                    break;
+                }
+            }
+        }
+
+        if (beginStart >= 0)
+        {
+            setMatch(KIND_BEGIN, beginStart, beginEnd, beginNameEnd, -1, -1);
+            return KIND_BEGIN;
+        }
+
+        kind = KIND_NONE;
+        return KIND_NONE;
+    }
+
+    /**
+     * @return der Name des zuletzt gefundenen Placeholders
+     */
+    public String getPlaceholder(CharSequence string)
+    {
+        return string.subSequence(nameStart, nameEnd).toString();
+    }
+
+    /**
+     * @return die Basisnummer des zuletzt gefundenen Placeholders oder null, wenn er kein "#base X" hat
+     */
+    public String getBaseNumber(CharSequence string)
+    {
+        return baseNumberStart < 0 ? null : string.subSequence(baseNumberStart, baseNumberEnd).toString();
+    }
+
+    /**
+     * Prüft, ob vor und hinter dem zuletzt gefundenen Placeholder nur Whitespace steht (wie String.trim())
+     */
+    public boolean isAloneInString(CharSequence string)
+    {
+        for (int i = 0; i < start; i++)
+        {
+            if (string.charAt(i) > ' ')
+            {
+                return false;
+            }
+        }
+        for (int i = end, length = string.length(); i < length; i++)
+        {
+            if (string.charAt(i) > ' ')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matchAt(CharSequence string, int placeholderStart, int wantedKind)
+    {
+        int length = string.length();
+        int position = placeholderStart + PLACEHOLDER_START.length();
+        isTruncated = false;
+
+        // The regular expressions use a reluctant quantifier for the name, so the first position
+        // where the rest of the pattern matches wins.
+        while (true)
+        {
+            if (wantedKind == KIND_VALUE)
+            {
+                // optional group "\s*#\s*base\s*(\d+)" is greedy, so it is tried first
+                int baseNumberStartIndex = matchBaseNumberPrefix(string, position);
+                if (baseNumberStartIndex >= 0)
+                {
+                    int baseNumberEndIndex = baseNumberStartIndex;
+                    while (baseNumberEndIndex < length && isDigit(string.charAt(baseNumberEndIndex)))
+                    {
+                        baseNumberEndIndex++;
+                    }
+                    if (baseNumberEndIndex > baseNumberStartIndex && startsWith(string, "@}}", baseNumberEndIndex))
+                    {
+                        setMatch(KIND_VALUE, placeholderStart, baseNumberEndIndex + 3, position, baseNumberStartIndex, baseNumberEndIndex);
+                        return true;
+                    }
+                }
+
+                if (startsWith(string, "@}}", position))
+                {
+                    setMatch(KIND_VALUE, placeholderStart, position + 3, position, -1, -1);
+                    return true;
+                }
+            }
+            else
+            {
+                int markerEnd = matchSectionSuffix(string, position, wantedKind == KIND_BEGIN ? "BEGIN" : "END");
+                if (markerEnd >= 0)
+                {
+                    setMatch(wantedKind, placeholderStart, markerEnd, position, -1, -1);
+                    return true;
+                }
+            }
+
+            position = skipNameUnit(string, position, length);
+            if (position < 0)
+            {
+                isTruncated = position == END_OF_STRING;
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Überspringt ein Element des Placeholder-Namens: ([^\{])|(\{[^\{])|(\{\{[^@])
+     * Die Zerlegung ist eindeutig, daher ist kein Backtracking nötig.
+     * @return Position hinter dem Element, BLOCKED wenn der Name hier nicht weitergehen kann, END_OF_STRING wenn der String dafür zu kurz ist
+     */
+    private static int skipNameUnit(CharSequence string, int position, int length)
+    {
+        if (position >= length)
+        {
+            return END_OF_STRING;
+        }
+        if (string.charAt(position) != '{')
+        {
+            return position + 1;
+        }
+        if (position + 1 >= length)
+        {
+            return END_OF_STRING;
+        }
+        if (string.charAt(position + 1) != '{')
+        {
+            return position + 2;
+        }
+        if (position + 2 >= length)
+        {
+            return END_OF_STRING;
+        }
+        if (string.charAt(position + 2) == '@')
+        {
+            return BLOCKED;  // "{{@" can not be part of a name, a nested placeholder starts here
+        }
+        return position + 3;
+    }
+
+    /**
+     * Matcht das Ende eines {{@PLACEHOLDERNAME@}} oder {{@PLACEHOLDERNAME#base X@}} hinter dem Namen: "(\s*#\s*base\s*(\d+))?@}}" ab position.
+     * Setzt baseNumberStart und baseNumberEnd (-1 ohne "#base X"), die übrigen Felder bleiben unverändert.
+     * @param string der parameter muss angegeben werden
+     * @param position der parameter muss angegeben werden, Position hinter dem Namen
+     * @return Position hinter "@}}", -1 wenn nicht vorhanden
+     */
+    public int matchValueSuffix(CharSequence string, int position)
+    {
+        // optional group "\s*#\s*base\s*(\d+)" is greedy, so it is tried first
+        int baseNumberStartIndex = matchBaseNumberPrefix(string, position);
+        if (baseNumberStartIndex >= 0)
+        {
+            int baseNumberEndIndex = baseNumberStartIndex;
+            while (baseNumberEndIndex < string.length() && isDigit(string.charAt(baseNumberEndIndex)))
+            {
+                baseNumberEndIndex++;
+            }
+            if (baseNumberEndIndex > baseNumberStartIndex && startsWith(string, "@}}", baseNumberEndIndex))
+            {
+                baseNumberStart = baseNumberStartIndex;
+                baseNumberEnd = baseNumberEndIndex;
+                return baseNumberEndIndex + 3;
+            }
+        }
+
+        baseNumberStart = -1;
+        baseNumberEnd = -1;
+        return startsWith(string, "@}}", position) ? position + 3 : -1;
+    }
+
+    /**
+     * Matcht "\s*#\s*base\s*" ab position
+     * @return Position der ersten Ziffer, -1 wenn nicht vorhanden
+     */
+    private static int matchBaseNumberPrefix(CharSequence string, int position)
+    {
+        position = skipWhitespace(string, position);
+        if (position >= string.length() || string.charAt(position) != '#')
+        {
+            return -1;
+        }
+        position = skipWhitespace(string, position + 1);
+        if (!startsWith(string, "base", position))
+        {
+            return -1;
+        }
+        return skipWhitespace(string, position + 4);
+    }
+
+    /**
+     * Matcht "\s*#\s*MARKER\s*@}}" ab position
+     * @return Position hinter "@}}", -1 wenn nicht vorhanden
+     */
+    private static int matchSectionSuffix(CharSequence string, int position, String marker)
+    {
+        position = skipWhitespace(string, position);
+        if (position >= string.length() || string.charAt(position) != '#')
+        {
+            return -1;
+        }
+        position = skipWhitespace(string, position + 1);
+        if (!startsWith(string, marker, position))
+        {
+            return -1;
+        }
+        position = skipWhitespace(string, position + marker.length());
+        return startsWith(string, "@}}", position) ? position + 3 : -1;
+    }
+
+    private static int skipWhitespace(CharSequence string, int position)
+    {
+        int length = string.length();
+        while (position < length && isWhitespace(string.charAt(position)))
+        {
+            position++;
+        }
+        return position;
+    }
+
+    // String.indexOf is an intrinsic, other CharSequences (e.g. a byte view, see ByteCharSequence) are searched char by char
+    private static int indexOf(CharSequence string, int from)
+    {
+        if (string instanceof String)
+        {
+            return ((String) string).indexOf(PLACEHOLDER_START, from);
+        }
+
+        for (int i = Math.max(from, 0), last = string.length() - PLACEHOLDER_START.length(); i <= last; i++)
+        {
+            if (string.charAt(i) == '{' && string.charAt(i + 1) == '{' && string.charAt(i + 2) == '@')
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence string, String prefix, int position)
+    {
+        if (position < 0 || position + prefix.length() > string.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++)
+        {
+            if (string.charAt(position + i) != prefix.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // same as regex \s without UNICODE_CHARACTER_CLASS: [ \t\n\x0B\f\r]
+    private static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    // same as regex \d without UNICODE_CHARACTER_CLASS: [0-9]
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    private void setMatch(int kind, int start, int end, int nameEnd, int baseNumberStart, int baseNumberEnd)
+    {
+        this.kind = kind;
+        this.start = start;
+        this.end = end;
+        this.nameStart = start + PLACEHOLDER_START.length();
+        this.nameEnd = nameEnd;
+        this.baseNumberStart = baseNumberStart;
+        this.baseNumberEnd = baseNumberEnd;
+    }
+}
@@ -0,0 +1,351 @@
+package com.intershop.filetemplate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LIST mit --usage: durchsucht dieselben Namen und Dateien wie LIST, aber parallel (--threads) und mit Fundstellen.
+ * Jede Datei wird für sich durchsucht; sobald sie fertig ist, werden ihre Fundstellen (Datei, Zeile, Spalte) geschrieben
+ * und in die Zähler je Placeholder übernommen. Am Ende folgt eine Zusammenfassung: Anzahl der Vorkommen und der Dateien je Placeholder.
+ * Als Text eine Zeile pro Fundstelle ("datei:zeile:spalte: placeholder"), als JSON eine Zeile (JSON Lines) pro Datei.
+ */
+class PlaceholderUsage
+{
+    public static final int FORMAT_TEXT = 0;
+    public static final int FORMAT_JSON = 1;
+
+    /**
+     * Vorkommen eines Placeholders in allen Dateien
+     */
+    static class Usage
+    {
+        LongAdder occurrences = new LongAdder();
+        LongAdder files = new LongAdder();
+    }
+
+    /**
+     * Eine Fundstelle, line == 0 für ein Vorkommen im Namen
+     */
+    static class Occurrence
+    {
+        String placeholder;
+        int line;
+        int column;
+
+        Occurrence(String placeholder, int line, int column)
+        {
+            this.placeholder = placeholder;
+            this.line = line;
+            this.column = column;
+        }
+    }
+
+    private Writer writer;
+    private int format;
+    private Map<String /* placeholder */, Usage> usages = new ConcurrentHashMap<String /* placeholder */, Usage>();
+    private LongAdder fileCount = new LongAdder();
+    private boolean isWriteFailed = false;
+    private boolean isParallel = false;  // true while scan(...) runs in its forkJoinPool
+
+    /**
+     * @param writer der parameter muss angegeben werden, erhält die Fundstellen und die Zusammenfassung
+     * @param format FORMAT_TEXT oder FORMAT_JSON
+     */
+    PlaceholderUsage(Writer writer, int format)
+    {
+        this.writer = writer;
+        this.format = format;
+    }
+
+    /**
+     * @param formatName text oder json
+     * @return das Format, -1 wenn formatName unbekannt ist
+     */
+    static int parseFormat(String formatName)
+    {
+        if ("text".equals(formatName))
+        {
+            return FORMAT_TEXT;
+        }
+        else if ("json".equals(formatName))
+        {
+            return FORMAT_JSON;
+        }
+        return -1;
+    }
+
+    /**
+     * Durchsucht baseDir und schreibt am Ende die Zusammenfassung
+     * @param baseDir der parameter muss angegeben werden, *.filetemplate oder Verzeichnis
+     * @param generationContext der parameter muss angegeben werden, für fileTemplateSuffix und charset
+     * @param forkJoinPool der parameter muss nicht angegeben werden, bei null wird nacheinander durchsucht
+     * @return die gefundenen Placeholder
+     */
+    Set<String /* placeholder */> scan(File baseDir, GenerationContext generationContext, ForkJoinPool forkJoinPool)
+    {
+        isParallel = forkJoinPool != null;
+        if (isParallel)
+        {
+            LogHandler currentLogHandler = FileTemplate.logHandler.get();
+            DirElement baseElement = DirElement.read(baseDir);
+            forkJoinPool.invoke(ForkJoinTask.adapt(() -> FileTemplate.runWithLogHandler(currentLogHandler, () -> scanFileOrDir(baseElement, generationContext))));
+        }
+        else
+        {
+            scanFileOrDir(DirElement.read(baseDir), generationContext);
+        }
+
+        writeSummary();
+        return usages.keySet();
+    }
+
+    private void scanFileOrDir(DirElement fileOrDir, GenerationContext generationContext)
+    {
+        String fileName = fileOrDir.getName();
+        String fileTemplateSuffix = generationContext.fileTemplateSuffix;
+        boolean fileNameEndsWithTemplateSuffix = fileName.endsWith(fileTemplateSuffix);
+        if (fileNameEndsWithTemplateSuffix)
+        {
+            fileName = fileName.substring(0, fileName.length() - fileTemplateSuffix.length());
+        }
+
+        if (fileOrDir.isDirectory())
+        {
+            record(fileOrDir.file, scanName(fileName, new ArrayList<Occurrence>()));
+
+            boolean isRead;
+            if (isParallel)
+            {
+                List<DirElement> dirElements = FileTemplate.listDirElements(fileOrDir.file);
+                isRead = dirElements != null;
+                if (isRead)
+                {
+                    List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+                    for (DirElement dirElement : dirElements)
+                    {
+                        tasks.add(ForkJoinTask.adapt(() -> scanFileOrDir(dirElement, generationContext)));
+                    }
+                    FileTemplate.invokeTasks(tasks, true);
+                }
+            }
+            else
+            {
+                isRead = FileTemplate.forEachDirElement(fileOrDir.file, dirElement -> scanFileOrDir(dirElement, generationContext));
+            }
+            if (!isRead)
+            {
+                FileTemplate.log("err", "processDir: directory \"" + fileOrDir.file.getAbsolutePath() + "\" could not be read");
+            }
+        }
+        else if (fileNameEndsWithTemplateSuffix)
+        {
+            List<Occurrence> occurrences = scanName(fileName, new ArrayList<Occurrence>());
+            scanContent(fileOrDir.file, generationContext, occurrences);
+            record(fileOrDir.file, occurrences);
+        }
+    }
+
+    private static List<Occurrence> scanName(String fileName, List<Occurrence> occurrences)
+    {
+        PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+        for (int index = 0; placeholderScanner.find(fileName, index, PlaceholderScanner.KIND_VALUE); index = placeholderScanner.end)
+        {
+            occurrences.add(new Occurrence(placeholderScanner.getPlaceholder(fileName), 0, placeholderScanner.start + 1));
+        }
+        return occurrences;
+    }
+
+    private static void scanContent(File file, GenerationContext generationContext, List<Occurrence> occurrences)
+    {
+        try
+        {
+            ContinuedLineReader inputFile = new ContinuedLineReader(new BufferedReader(generationContext.charset == null ? new FileReader(file) : new InputStreamReader(new FileInputStream(file), generationContext.charset)));
+            try
+            {
+                PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+                String line;
+                while ((line = inputFile.readLine()) != null)
+                {
+                    for (int index = 0; placeholderScanner.find(line, index, PlaceholderScanner.KIND_VALUE); index = placeholderScanner.end)
+                    {
+                        // a continued line consists of several lines of the file, the location is the one of "{{@"
+                        int lineIndex = inputFile.getLineIndex(placeholderScanner.start);
+                        occurrences.add(new Occurrence(placeholderScanner.getPlaceholder(line), inputFile.firstLineNumber + lineIndex, placeholderScanner.start - inputFile.lineStarts[lineIndex] + 1));
+                    }
+                }
+            }
+            finally
+            {
+                inputFile.close();
+            }
+        }
+        catch (IOException exIO)
+        {
+            FileTemplate.log("err", "getPlaceholdersFromFileContent: \"" + file.getAbsolutePath() + "\": " + exIO.toString());
+        }
+    }
+
+    // counts the occurrences of a finished file and writes them
+    private void record(File file, List<Occurrence> occurrences)
+    {
+        if (occurrences.isEmpty())
+        {
+            return;
+        }
+
+        fileCount.increment();
+        Map<String /* placeholder */, Usage> fileUsages = new TreeMap<String /* placeholder */, Usage>();
+        for (Occurrence occurrence : occurrences)
+        {
+            Usage usage = usages.computeIfAbsent(occurrence.placeholder, placeholder -> new Usage());
+            usage.occurrences.increment();
+            if (fileUsages.put(occurrence.placeholder, usage) == null)
+            {
+                usage.files.increment();
+            }
+        }
+
+        StringBuilder lines = new StringBuilder(64 * occurrences.size());
+        String path = file.getPath();
+        if (format == FORMAT_JSON)
+        {
+            lines.append("{\"file\": ").append(toJsonString(path)).append(", \"occurrences\": [");
+            String separator = "";
+            for (Occurrence occurrence : occurrences)
+            {
+                lines.append(separator).append("{\"placeholder\": ").append(toJsonString(occurrence.placeholder));
+                if (occurrence.line == 0)
+                {
+                    lines.append(", \"inName\": true");
+                }
+                else
+                {
+                    lines.append(", \"line\": ").append(occurrence.line);
+                }
+                lines.append(", \"column\": ").append(occurrence.column).append("}");
+                separator = ", ";
+            }
+            lines.append("]}\n");
+        }
+        else
+        {
+            for (Occurrence occurrence : occurrences)
+            {
+                if (occurrence.line == 0)
+                {
+                    lines.append(path).append(" (name):").append(occurrence.column);
+                }
+                else
+                {
+                    lines.append(path).append(':').append(occurrence.line).append(':').append(occurrence.column);
+                }
+                lines.append(": ").append(occurrence.placeholder).append('\n');
+            }
+        }
+        write(lines.toString());
+    }
+
+    private void writeSummary()
+    {
+        Map<String /* placeholder */, Usage> sortedUsages = new TreeMap<String /* placeholder */, Usage>(usages);
+
+        StringBuilder lines = new StringBuilder(128 * (sortedUsages.size() + 1));
+        if (format == FORMAT_JSON)
+        {
+            lines.append("{\"summary\": {\"files\": ").append(fileCount.sum()).append(", \"placeholders\": [");
+            String separator = "";
+            for (Map.Entry<String /* placeholder */, Usage> usage : sortedUsages.entrySet())
+            {
+                lines.append(separator).append("{\"placeholder\": ").append(toJsonString(usage.getKey()));
+                lines.append(", \"occurrences\": ").append(usage.getValue().occurrences.sum());
+                lines.append(", \"files\": ").append(usage.getValue().files.sum()).append("}");
+                separator = ", ";
+            }
+            lines.append("]}}\n");
+        }
+        else
+        {
+            lines.append("Summary: ").append(sortedUsages.size()).append(" placeholders in ").append(fileCount.sum()).append(" files\n");
+            for (Map.Entry<String /* placeholder */, Usage> usage : sortedUsages.entrySet())
+            {
+                lines.append(usage.getKey()).append(": ").append(usage.getValue().occurrences.sum()).append(" occurrences in ").append(usage.getValue().files.sum()).append(" files\n");
+            }
+        }
+        write(lines.toString());
+
+        synchronized (this)
+        {
+            try
+            {
+                writer.flush();
+            }
+            catch (IOException e)
+            {
+                reportWriteFailure(e);
+            }
+        }
+    }
+
+    private synchronized void write(String lines)
+    {
+        if (isWriteFailed)
+        {
+            return;
+        }
+
+        try
+        {
+            writer.write(lines);
+        }
+        catch (IOException e)
+        {
+            reportWriteFailure(e);
+        }
+    }
+
+    private void reportWriteFailure(IOException e)
+    {
+        if (!isWriteFailed)
+        {
+            isWriteFailed = true;
+            FileTemplate.log("err", "--usage: unable to write: " + e.toString());
+        }
+    }
+
+    private static String toJsonString(String string)
+    {
+        StringBuilder jsonBuilder = new StringBuilder(string.length() + 2);
+        jsonBuilder.append('"');
+        for (int i = 0; i < string.length(); i++)
+        {
+            char c = string.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                jsonBuilder.append('\\').append(c);
+            }
+            else if (c < 0x20)
+            {
+                jsonBuilder.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                jsonBuilder.append(c);
+            }
+        }
+        return jsonBuilder.append('"').toString();
+    }
+}
@@ -0,0 +1,113 @@
+package com.intershop.filetemplate;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Sammelt den Inhalt eines Archiv-Eintrags, dessen Größe vor dem Inhalt geschrieben werden muss (TAR):
+ * bis THRESHOLD Bytes im Speicher, darüber in einer temporären Datei, so dass auch sehr große erzeugte Dateien den Heap nicht füllen.
+ * Nach close() liefert openContent() den Inhalt, delete() entfernt die temporäre Datei.
+ */
+class SpillOutputStream extends OutputStream
+{
+    static final int THRESHOLD = 1024 * 1024;
+
+    private byte[] buffer = new byte[8 * 1024];
+    private int count = 0;
+    private long size = 0;
+
+    // null as long as the content fits into buffer
+    private File spillFile = null;
+    private OutputStream spillStream = null;
+
+    private boolean isClosed = false;
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (spillStream == null && count + len > THRESHOLD)
+        {
+            startSpilling();
+        }
+
+        if (spillStream != null)
+        {
+            spillStream.write(b, off, len);
+        }
+        else
+        {
+            if (count + len > buffer.length)
+            {
+                buffer = Arrays.copyOf(buffer, Math.min(THRESHOLD, Math.max(2 * buffer.length, count + len)));
+            }
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+        size += len;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!isClosed)
+        {
+            isClosed = true;
+            if (spillStream != null)
+            {
+                spillStream.close();
+            }
+        }
+    }
+
+    /**
+     * @return die Anzahl der geschriebenen Bytes
+     */
+    long size()
+    {
+        return size;
+    }
+
+    /**
+     * @return der geschriebene Inhalt, erst nach close() vollständig; muss vom Aufrufer geschlossen werden
+     * @throws IOException der werfer muss angegeben werden, wenn die temporäre Datei nicht gelesen werden kann
+     */
+    InputStream openContent() throws IOException
+    {
+        return spillFile != null ? new FileInputStream(spillFile) : new ByteArrayInputStream(buffer, 0, count);
+    }
+
+    /**
+     * Gibt den Speicher frei und entfernt die temporäre Datei
+     */
+    void delete()
+    {
+        buffer = null;
+        if (spillFile != null)
+        {
+            spillFile.delete();
+        }
+    }
+
+    // the content gets too large for the heap: moves it into a temporary file and continues there
+    private void startSpilling() throws IOException
+    {
+        spillFile = File.createTempFile("filetemplate-", ".entry");
+        spillStream = new BufferedOutputStream(new FileOutputStream(spillFile), 64 * 1024);
+        spillStream.write(buffer, 0, count);
+        buffer = null;
+        count = 0;
+    }
+}
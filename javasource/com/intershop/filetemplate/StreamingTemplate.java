@@ -0,0 +1,221 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+
+/**
+ * Verarbeitung großer Dateivorlagen ohne BEGIN/END Sektionen mit konstantem Speicherbedarf:
+ * die Datei wird in Blöcken fester Größe gelesen, ersetzt und geschrieben, statt sie vorher komplett zu zerlegen.
+ * Ein Placeholder, der über eine Blockgrenze geht, wird zurückgehalten, bis er entschieden ist (PlaceholderScanner.findDecided).
+ * Das Ergebnis ist identisch zur zeilenweisen Verarbeitung (Zeilenenden werden wie bei BufferedReader.readLine() und newLine() geschrieben).
+ */
+class StreamingTemplate
+{
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    // A line part that is still undecided after this many chars is treated as complete,
+    // i.e. a placeholder must not be longer than this to be recognized in streaming mode.
+    static final int MAX_PENDING = 1024 * 1024;
+
+    /**
+     * Empfängt den Inhalt einer Zeile stückweise
+     */
+    interface LineHandler
+    {
+        /**
+         * @param text der noch nicht verarbeitete Anfang der aktuellen Zeile (ohne Zeilenende)
+         * @param isFinal true wenn keine weiteren Zeichen mehr an text angehängt werden (Zeilenende oder MAX_PENDING erreicht)
+         * @return Anzahl der vom Anfang von text verarbeiteten Zeichen, der Rest wird mit den nächsten Zeichen erneut übergeben; bei isFinal muss alles verarbeitet werden
+         */
+        int handle(String text, boolean isFinal) throws IOException;
+
+        void endOfLine() throws IOException;
+    }
+
+    /**
+     * Durchläuft file einmal: prüft, ob es BEGIN/END Sektionen enthält, und sammelt sonst Hash und Placeholder für compiledTemplate
+     * @param file der parameter muss angegeben werden
+     * @param compiledTemplate der parameter muss angegeben werden, erhält contentHash, usedPlaceholders und basePlaceholders
+     * @return true wenn file keine BEGIN/END Sektionen enthält und gestreamt werden kann
+     * @throws IOException der werfer muss angegeben werden
+     */
+    public static boolean scan(File file, CompiledTemplate compiledTemplate) throws IOException
+    {
+        MessageDigest contentDigest = GenerationManifest.newMessageDigest();
+        PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+        boolean[] hasSections = new boolean[1];
+
+        process(file, new LineHandler()
+        {
+            public int handle(String text, boolean isFinal)
+            {
+                int handled = text.length();
+                for (int wantedKind : new int[] { PlaceholderScanner.KIND_VALUE, PlaceholderScanner.KIND_BEGIN, PlaceholderScanner.KIND_END })
+                {
+                    for (int from = 0; find(text, from, isFinal, wantedKind, placeholderScanner); from = placeholderScanner.end)
+                    {
+                        if (wantedKind != PlaceholderScanner.KIND_VALUE)
+                        {
+                            hasSections[0] = true;
+                        }
+                        else
+                        {
+                            String placeholder = placeholderScanner.getPlaceholder(text);
+                            compiledTemplate.usedPlaceholders.add(placeholder);
+                            if (placeholderScanner.baseNumberStart >= 0)
+                            {
+                                compiledTemplate.basePlaceholders.add(placeholder);
+                            }
+                        }
+                    }
+
+                    if (!isFinal)
+                    {
+                        handled = Math.min(handled, getDecidedEnd(text, placeholderScanner));
+                    }
+                }
+
+                contentDigest.update(text.substring(0, handled).getBytes(StandardCharsets.UTF_8));
+                return handled;
+            }
+
+            public void endOfLine()
+            {
+                contentDigest.update((byte) '\n');
+            }
+        }, hasSections);
+
+        compiledTemplate.contentHash = GenerationManifest.toHex(contentDigest.digest());
+        return !hasSections[0];
+    }
+
+    /**
+     * Gibt file mit den übergebenen Placeholder-Werten aus, ohne die Datei komplett im Speicher zu halten
+     * @param file der parameter muss angegeben werden, darf keine BEGIN/END Sektionen enthalten
+     * @param outputFile der parameter muss angegeben werden
+     * @param placeholdersWithValues der parameter muss angegeben werden
+     * @param currentPlaceholderValues der parameter muss angegeben werden
+     * @throws IOException der werfer muss angegeben werden
+     */
+    public static void render(File file, Writer outputFile, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues) throws IOException
+    {
+        PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+        String lineSeparator = System.lineSeparator();
+
+        process(file, new LineHandler()
+        {
+            public int handle(String text, boolean isFinal) throws IOException
+            {
+                int from = 0;
+                while (find(text, from, isFinal, PlaceholderScanner.KIND_VALUE, placeholderScanner))
+                {
+                    outputFile.write(text, from, placeholderScanner.start - from);
+                    outputFile.write(String.valueOf(FileTemplate.getReplacementValue(placeholderScanner.getPlaceholder(text), placeholderScanner.getBaseNumber(text), placeholdersWithValues, currentPlaceholderValues)));
+                    from = placeholderScanner.end;
+                }
+
+                int handled = isFinal ? text.length() : Math.max(from, getDecidedEnd(text, placeholderScanner));
+                outputFile.write(text, from, handled - from);
+                return handled;
+            }
+
+            public void endOfLine() throws IOException
+            {
+                outputFile.write(lineSeparator);
+            }
+        }, null);
+    }
+
+    private static boolean find(String text, int from, boolean isFinal, int wantedKind, PlaceholderScanner placeholderScanner)
+    {
+        return isFinal ? placeholderScanner.find(text, from, wantedKind) : placeholderScanner.findDecided(text, from, wantedKind);
+    }
+
+    /**
+     * Ermittelt nach einer erfolglosen findDecided(...) Suche, bis wohin text endgültig entschieden ist:
+     * bis zum ersten unentschiedenen Placeholder-Anfang bzw. vor ein oder zwei '{' am Ende, die der Anfang von "{{@" sein können
+     */
+    private static int getDecidedEnd(String text, PlaceholderScanner placeholderScanner)
+    {
+        if (placeholderScanner.undecidedStart >= 0)
+        {
+            return placeholderScanner.undecidedStart;
+        }
+
+        int decidedEnd = text.length();
+        while (decidedEnd > 0 && text.length() - decidedEnd < 2 && text.charAt(decidedEnd - 1) == '{')
+        {
+            decidedEnd--;
+        }
+        return decidedEnd;
+    }
+
+    /**
+     * Liest file in Blöcken von CHUNK_SIZE Zeichen und übergibt die Zeilen stückweise an lineHandler.
+     * Zeilenenden sind wie bei BufferedReader.readLine() "\n", "\r" oder "\r\n"; eine letzte Zeile ohne Zeilenende endet mit dem Dateiende.
+     * @param stopFlag der parameter muss nicht angegeben werden, die Verarbeitung endet sobald stopFlag[0] true ist
+     */
+    private static void process(File file, LineHandler lineHandler, boolean[] stopFlag) throws IOException
+    {
+        try (Reader inputFile = new InputStreamReader(new FileInputStream(file)))
+        {
+            char[] chunk = new char[CHUNK_SIZE];
+            StringBuilder pending = new StringBuilder();
+            boolean isLineOpen = false;        // chars of the current line were read
+            boolean isAfterCarriageReturn = false;
+
+            for (int length; (length = inputFile.read(chunk)) >= 0 && (stopFlag == null || !stopFlag[0]); )
+            {
+                int segmentStart = 0;
+                for (int i = 0; i < length; i++)
+                {
+                    char c = chunk[i];
+                    if (c != '\n' && c != '\r')
+                    {
+                        isAfterCarriageReturn = false;
+                        continue;
+                    }
+
+                    if (c == '\n' && isAfterCarriageReturn && i == segmentStart && !isLineOpen)
+                    {
+                        // second half of "\r\n"
+                        isAfterCarriageReturn = false;
+                        segmentStart = i + 1;
+                        continue;
+                    }
+
+                    pending.append(chunk, segmentStart, i - segmentStart);
+                    lineHandler.handle(pending.toString(), true);
+                    lineHandler.endOfLine();
+                    pending.setLength(0);
+                    isLineOpen = false;
+                    isAfterCarriageReturn = c == '\r';
+                    segmentStart = i + 1;
+                }
+
+                if (segmentStart < length)
+                {
+                    pending.append(chunk, segmentStart, length - segmentStart);
+                    isLineOpen = true;
+
+                    boolean isFinal = pending.length() >= MAX_PENDING;
+                    int handled = lineHandler.handle(pending.toString(), isFinal);
+                    pending.delete(0, handled);
+                }
+            }
+
+            if (isLineOpen && (stopFlag == null || !stopFlag[0]))
+            {
+                lineHandler.handle(pending.toString(), true);
+                lineHandler.endOfLine();
+            }
+        }
+    }
+}
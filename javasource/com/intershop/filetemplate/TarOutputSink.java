@@ -0,0 +1,181 @@
+package com.intershop.filetemplate;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Schreibt die Ausgabe als TAR Archiv (POSIX ustar, für lange Namen und sehr große Dateien mit pax Erweiterungen).
+ * Der Stream kann auch System.out sein (REPLACE mit --archive -).
+ */
+class TarOutputSink extends ArchiveOutputSink
+{
+    private static final int BLOCK_SIZE = 512;
+    private static final long MAX_USTAR_SIZE = 077777777777L;  // 11 octal digits
+
+    OutputStream tarStream;
+    byte[] copyBuffer = new byte[64 * 1024];
+    byte[] header = new byte[BLOCK_SIZE];
+
+    TarOutputSink(OutputStream archiveStream, File root)
+    {
+        super(root);
+        this.tarStream = new BufferedOutputStream(archiveStream, 64 * 1024);
+    }
+
+    void writeDirectoryEntry(String entryName, long lastModified) throws IOException
+    {
+        writeHeader(entryName, 0, lastModified, 0755, '5');
+    }
+
+    void writeFileEntry(String entryName, long size, long lastModified, boolean isExecutable, InputStream content) throws IOException
+    {
+        writeHeader(entryName, size, lastModified, isExecutable ? 0755 : 0644, '0');
+
+        // the size is already in the header, so write exactly size bytes even if the source changed meanwhile
+        long remaining = size;
+        for (int len; remaining > 0 && (len = content.read(copyBuffer, 0, (int) Math.min(copyBuffer.length, remaining))) > 0; )
+        {
+            tarStream.write(copyBuffer, 0, len);
+            remaining -= len;
+        }
+        if (remaining > 0)
+        {
+            FileTemplate.log("err", "writeFileEntry: archive entry \"" + entryName + "\" is shorter than expected, padding it with " + remaining + " zero bytes");
+            writeZeros(remaining);
+        }
+        writePadding(size);
+    }
+
+    void finish() throws IOException
+    {
+        // end of archive: two empty blocks
+        writeZeros(2 * BLOCK_SIZE);
+        tarStream.close();
+    }
+
+    private void writeHeader(String entryName, long size, long lastModified, int mode, char typeFlag) throws IOException
+    {
+        byte[] nameBytes = entryName.getBytes(StandardCharsets.UTF_8);
+        int prefixLength = getPrefixLength(nameBytes);
+
+        StringBuilder paxRecords = new StringBuilder();
+        if (prefixLength < 0)
+        {
+            addPaxRecord(paxRecords, "path", entryName);
+        }
+        if (size > MAX_USTAR_SIZE)
+        {
+            addPaxRecord(paxRecords, "size", String.valueOf(size));
+        }
+        if (paxRecords.length() > 0)
+        {
+            byte[] paxBytes = paxRecords.toString().getBytes(StandardCharsets.UTF_8);
+            writeUstarHeader(("PaxHeaders/" + entryName).getBytes(StandardCharsets.UTF_8), paxBytes.length, lastModified, 0644, 'x');
+            tarStream.write(paxBytes);
+            writePadding(paxBytes.length);
+        }
+
+        writeUstarHeader(nameBytes, size > MAX_USTAR_SIZE ? 0 : size, lastModified, mode, typeFlag);
+    }
+
+    private void writeUstarHeader(byte[] nameBytes, long size, long lastModified, int mode, char typeFlag) throws IOException
+    {
+        Arrays.fill(header, (byte) 0);
+
+        // a name longer than 100 bytes is split into prefix and name at a '/'; if that is impossible it is truncated (a pax header holds the full name)
+        int prefixLength = getPrefixLength(nameBytes);
+        if (prefixLength > 0)
+        {
+            System.arraycopy(nameBytes, 0, header, 345, prefixLength);
+            System.arraycopy(nameBytes, prefixLength + 1, header, 0, nameBytes.length - prefixLength - 1);
+        }
+        else
+        {
+            System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+        }
+
+        putOctal(mode, 100, 8);
+        putOctal(0, 108, 8);      // uid
+        putOctal(0, 116, 8);      // gid
+        putOctal(size, 124, 12);
+        putOctal(lastModified / 1000, 136, 12);
+        Arrays.fill(header, 148, 156, (byte) ' ');  // checksum is computed with blanks in its own field
+        header[156] = (byte) typeFlag;
+        System.arraycopy("ustar\00000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+        long checksum = 0;
+        for (byte b : header)
+        {
+            checksum += b & 0xFF;
+        }
+        putOctal(checksum, 148, 7);
+
+        tarStream.write(header);
+    }
+
+    /**
+     * @return Länge des ustar Präfix (0 wenn der Name ohne Präfix passt), -1 wenn der Name nicht in ustar passt
+     */
+    private static int getPrefixLength(byte[] nameBytes)
+    {
+        if (nameBytes.length <= 100)
+        {
+            return 0;
+        }
+        for (int i = Math.min(nameBytes.length - 1, 155); i > 0; i--)
+        {
+            if (nameBytes[i] == '/' && nameBytes.length - i - 1 <= 100 && nameBytes.length - i - 1 > 0)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // pax record: "<length> <key>=<value>\n", where <length> counts the whole record including its own digits
+    private static void addPaxRecord(StringBuilder paxRecords, String key, String value)
+    {
+        int recordLength = key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int totalLength = recordLength + String.valueOf(recordLength).length();
+        if (String.valueOf(totalLength).length() > String.valueOf(recordLength).length())
+        {
+            totalLength++;
+        }
+        paxRecords.append(totalLength).append(' ').append(key).append('=').append(value).append('\n');
+    }
+
+    // zero padded octal number terminated by NUL
+    private void putOctal(long value, int offset, int length)
+    {
+        String octal = Long.toOctalString(value);
+        int digits = length - 1;
+        for (int i = 0; i < digits; i++)
+        {
+            int octalIndex = octal.length() - digits + i;
+            header[offset + i] = (byte) (octalIndex < 0 ? '0' : octal.charAt(octalIndex));
+        }
+        header[offset + digits] = 0;
+    }
+
+    private void writePadding(long size) throws IOException
+    {
+        int lastBlockSize = (int) (size % BLOCK_SIZE);
+        if (lastBlockSize != 0)
+        {
+            writeZeros(BLOCK_SIZE - lastBlockSize);
+        }
+    }
+
+    private void writeZeros(long count) throws IOException
+    {
+        for (long i = 0; i < count; i++)
+        {
+            tarStream.write(0);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.intershop.filetemplate;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WATCH: erzeugt wie REPLACE und erzeugt danach bei jeder Änderung unter dem Verzeichnis mit den *.filetemplate, an der
+ * "properties" Datei oder an der Datei eines PlaceholderNDataset neu, bis der Prozess beendet wird. Die Änderungen werden
+ * mit einem WatchService beobachtet (alle Verzeichnisse außer den erzeugten, dazu die Verzeichnisse der "properties" Datei
+ * und der Datasets); Ereignisse, die kurz nacheinander kommen, werden zu einem Lauf zusammengefasst.
+ * Jeder Lauf ist inkrementell wie REPLACE mit --manifest (ohne --manifest mit einem Manifest im Speicher): neu geschrieben wird
+ * nur, was aus einer geänderten Vorlage entsteht oder einen geänderten Placeholder im Namen oder Inhalt verwendet.
+ * Unveränderte Vorlagen werden nicht neu eingelesen.
+ */
+class TemplateWatcher
+{
+    // events closer than this are handled in one run
+    static final long DEBOUNCE_MILLIS = 50;
+
+    private static final int MAX_CACHED_TEMPLATES = 100000;
+
+    private File baseDir;
+    private File outputDir;
+    private File propertiesFile;
+    private int threads;
+
+    private Path basePath;
+    private Path propertiesPath;
+    private Set<Path> datasetPaths = new HashSet<Path>();  // the files of the PlaceholderNDataset definitions, changed like the properties
+
+    private GenerationContext generationContext;
+    private Bindings bindings;
+    private final Map<File, CompiledTemplate> reusableTemplates = GenerationContext.newTemplateCache(MAX_CACHED_TEMPLATES);
+
+    private WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+
+    /**
+     * @param baseDir der parameter muss angegeben werden, *.filetemplate oder Verzeichnis
+     * @param outputDir der parameter muss nicht angegeben werden, wie bei REPLACE mit --out
+     * @param propertiesFile der parameter muss angegeben werden
+     * @param placeholdersWithValues der parameter muss angegeben werden, aus propertiesFile gelesen
+     * @param generationContext der parameter muss angegeben werden, für den ersten Lauf, mit manifest; die weiteren Läufe übernehmen
+     *                          charset und outputSink
+     * @param threads wie --threads
+     */
+    TemplateWatcher(File baseDir, File outputDir, File propertiesFile, Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues, GenerationContext generationContext, int threads)
+    {
+        this.baseDir = baseDir;
+        this.outputDir = outputDir;
+        this.propertiesFile = propertiesFile;
+        this.threads = threads;
+        this.basePath = baseDir.toPath().toAbsolutePath().normalize();
+        this.propertiesPath = propertiesFile.toPath().toAbsolutePath().normalize();
+        this.bindings = new Bindings(placeholdersWithValues);
+        this.generationContext = generationContext;
+    }
+
+    /**
+     * Erzeugt und wartet danach auf Änderungen, kehrt nur bei einem Fehler des WatchService zurück
+     * @return der Exit-Code
+     */
+    int watch()
+    {
+        ForkJoinPool forkJoinPool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try
+        {
+            watchService = FileSystems.getDefault().newWatchService();
+
+            generate(forkJoinPool);
+
+            // registered after the first run, so that directories generated next to the templates are known and left out
+            registerTree(baseDir.isDirectory() ? basePath : basePath.getParent());
+            if (!watchedDirs.containsValue(propertiesPath.getParent()))
+            {
+                register(propertiesPath.getParent());
+            }
+            registerDatasets();
+            FileTemplate.log("std", "WATCH: watching \"" + baseDir.getPath() + "\" and \"" + propertiesFile.getPath() + "\" for changes");
+
+            while (true)
+            {
+                // wait for the first change, then until no change came for DEBOUNCE_MILLIS
+                int changeCount = 0;
+                boolean isPropertiesChanged = false;
+                WatchKey watchKey = watchService.take();
+                while (watchKey != null)
+                {
+                    Path dir = watchedDirs.get(watchKey);
+                    for (WatchEvent<?> event : watchKey.pollEvents())
+                    {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                        {
+                            // events were lost, everything may have changed
+                            changeCount++;
+                            isPropertiesChanged = true;
+                            continue;
+                        }
+
+                        Path changedPath = dir.resolve((Path) event.context());
+                        if (changedPath.equals(propertiesPath) || datasetPaths.contains(changedPath))
+                        {
+                            changeCount++;
+                            isPropertiesChanged = true;
+                        }
+                        else if (isSource(changedPath))
+                        {
+                            changeCount++;
+                            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changedPath))
+                            {
+                                registerTree(changedPath);
+                            }
+                        }
+                    }
+                    if (!watchKey.reset())
+                    {
+                        watchedDirs.remove(watchKey);
+                    }
+
+                    watchKey = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+
+                if (changeCount == 0)
+                {
+                    continue;  // only generated files changed
+                }
+
+                FileTemplate.log("std", "WATCH: " + changeCount + " change(s), generating");
+                if ((isPropertiesChanged || !bindings.isUpToDate()) && !reloadProperties())
+                {
+                    continue;
+                }
+                registerDatasets();
+
+                GenerationContext nextGenerationContext = new GenerationContext();
+                nextGenerationContext.charset = generationContext.charset;
+                nextGenerationContext.outputSink = generationContext.outputSink;
+                nextGenerationContext.stager = generationContext.stager;
+                nextGenerationContext.skipUnchanged = generationContext.skipUnchanged;
+                nextGenerationContext.fileTemplateSuffix = generationContext.fileTemplateSuffix;
+                nextGenerationContext.manifest = generationContext.manifest.next();
+                generationContext = nextGenerationContext;
+                generate(forkJoinPool);
+            }
+        }
+        catch (IOException e)
+        {
+            FileTemplate.log("err", "WATCH: unable to watch \"" + baseDir.getPath() + "\": " + e.toString());
+            return 1;
+        }
+        catch (InterruptedException | ClosedWatchServiceException e)
+        {
+            return 0;
+        }
+        finally
+        {
+            if (forkJoinPool != null)
+            {
+                forkJoinPool.shutdown();
+            }
+        }
+    }
+
+    private void generate(ForkJoinPool forkJoinPool)
+    {
+        long startNanos = System.nanoTime();
+
+        generationContext.reusableTemplates = reusableTemplates;
+        generationContext.fileNameTemplates = bindings.fileNameTemplates;
+        generationContext.placeholderNames = bindings.placeholderNames;
+        FileTemplate.generate(baseDir, outputDir, bindings.placeholdersWithValues, generationContext, forkJoinPool);
+
+        generationContext.manifest.removeStaleOutputs();
+        generationContext.manifest.save();
+
+        FileTemplate.log("std", "WATCH: generated in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms");
+    }
+
+    /**
+     * Liest die geänderte "properties" Datei; bleibt sie unlesbar, werden die bisherigen Definitionen weiter verwendet
+     * @return false wenn die Datei nicht gelesen werden kann
+     */
+    private boolean reloadProperties()
+    {
+        Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(propertiesFile))
+        {
+            properties.load(inputStream);
+        }
+        catch (IOException e)
+        {
+            // e.g. deleted and not yet written again by an editor, the next event brings it back
+            FileTemplate.log("err", "WATCH: unable to read properties-file \"" + propertiesFile.getPath() + "\", waiting for the next change: " + e.toString());
+            return false;
+        }
+        FileTemplate.resolveDatasetFiles(properties, propertiesFile);
+
+        // outputs using a placeholder whose definition changed get a new render key, all others stay as they are
+        bindings = new Bindings(FileTemplate.readPlaceholdersFromProperties(properties));
+        return true;
+    }
+
+    // watches the directories of the dataset files, the properties may name new ones after a change
+    private void registerDatasets() throws IOException
+    {
+        datasetPaths.clear();
+        for (PlaceholderDefinition placeholderDefinition : bindings.placeholdersWithValues.values())
+        {
+            if (placeholderDefinition.isDatasetPlaceholderValue())
+            {
+                Path datasetPath = placeholderDefinition.dataset.file.toPath().toAbsolutePath().normalize();
+                datasetPaths.add(datasetPath);
+                if (Files.isDirectory(datasetPath.getParent()) && !watchedDirs.containsValue(datasetPath.getParent()))
+                {
+                    register(datasetPath.getParent());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true wenn path zu den Vorlagen gehört und nicht erzeugt wurde
+     */
+    private boolean isSource(Path path)
+    {
+        if (!path.startsWith(basePath))
+        {
+            return false;
+        }
+
+        if (OutputStager.isStagingName(path.getFileName().toString()))
+        {
+            return false;  // written and renamed by --staged
+        }
+
+        File manifestFile = generationContext.manifest.manifestFile;
+        if (manifestFile != null && path.equals(manifestFile.toPath().toAbsolutePath().normalize()))
+        {
+            return false;  // written by every run
+        }
+
+        // the manifest knows the outputs of the last run and of the run before (removed as stale by the last run)
+        return !generationContext.manifest.isGenerated(path.toFile());
+    }
+
+    private void registerTree(Path root) throws IOException
+    {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException
+            {
+                if (!dir.equals(root) && generationContext.manifest.isGenerated(dir.toFile()))
+                {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e)
+            {
+                FileTemplate.log("err", "WATCH: unable to watch \"" + file + "\": " + e.toString());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register(Path dir) throws IOException
+    {
+        WatchKey watchKey = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedDirs.put(watchKey, dir);
+    }
+}
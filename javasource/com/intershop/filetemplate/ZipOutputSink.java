@@ -0,0 +1,114 @@
+package com.intershop.filetemplate;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Schreibt die Ausgabe als ZIP Archiv.
+ * Ein ZIP Eintrag braucht seine Größe nicht vorab: erzeugte Dateien werden direkt in ihren Eintrag komprimiert, ohne sie zu sammeln.
+ */
+class ZipOutputSink extends ArchiveOutputSink
+{
+    ZipOutputStream zipStream;
+    byte[] copyBuffer = new byte[64 * 1024];
+
+    ZipOutputSink(OutputStream archiveStream, File root)
+    {
+        super(root);
+        this.zipStream = new ZipOutputStream(new BufferedOutputStream(archiveStream, 64 * 1024));
+    }
+
+    /**
+     * Öffnet den Eintrag für newFile und hält lock, bis der Stream geschlossen wird; andere Threads warten so lange
+     * @param newFile der parameter muss angegeben werden
+     * @return der Stream, muss vom selben Thread geschlossen werden
+     * @throws IOException der werfer muss angegeben werden
+     */
+    @Override
+    public OutputStream openFile(File newFile) throws IOException
+    {
+        String entryName = getEntryName(newFile);
+
+        lock.lock();
+        try
+        {
+            if (!addEntryName(entryName))
+            {
+                lock.unlock();
+                return OutputStream.nullOutputStream();
+            }
+            ZipEntry zipEntry = new ZipEntry(entryName);
+            zipEntry.setTime(System.currentTimeMillis());
+            zipStream.putNextEntry(zipEntry);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            lock.unlock();
+            throw e;
+        }
+
+        return new OutputStream()
+        {
+            private boolean isClosed = false;
+
+            @Override
+            public void write(int b) throws IOException
+            {
+                zipStream.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                zipStream.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                if (!isClosed)
+                {
+                    isClosed = true;
+                    try
+                    {
+                        zipStream.closeEntry();
+                    }
+                    finally
+                    {
+                        lock.unlock();
+                    }
+                }
+            }
+        };
+    }
+
+    void writeDirectoryEntry(String entryName, long lastModified) throws IOException
+    {
+        ZipEntry zipEntry = new ZipEntry(entryName);
+        zipEntry.setTime(lastModified);
+        zipStream.putNextEntry(zipEntry);
+        zipStream.closeEntry();
+    }
+
+    void writeFileEntry(String entryName, long size, long lastModified, boolean isExecutable, InputStream content) throws IOException
+    {
+        ZipEntry zipEntry = new ZipEntry(entryName);
+        zipEntry.setTime(lastModified);
+        zipStream.putNextEntry(zipEntry);
+        for (int len; (len = content.read(copyBuffer)) > 0; )
+        {
+            zipStream.write(copyBuffer, 0, len);
+        }
+        zipStream.closeEntry();
+    }
+
+    void finish() throws IOException
+    {
+        zipStream.close();
+    }
+}
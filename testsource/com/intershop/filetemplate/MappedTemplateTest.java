@@ -0,0 +1,88 @@
+package com.intershop.filetemplate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * MappedTemplate (--charset) darf nur große Vorlagen einblenden: ein Baum aus sehr vielen kleinen Vorlagen
+ * hat sonst so viele Einblendungen wie Vorlagen und erreicht vm.max_map_count.
+ * Mehrbyte-Charsets, deren Folgebytes wie '{', '@' oder '}' aussehen können, werden abgelehnt.
+ */
+class MappedTemplateTest
+{
+    static final int TEMPLATE_COUNT = 5000;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void manySmallTemplatesAreNotMapped() throws Exception
+    {
+        Path templates = tempDir.resolve("templates");
+        for (int i = 0; i < TEMPLATE_COUNT; i++)
+        {
+            Path dir = templates.resolve("d" + (i % 50));
+            Files.createDirectories(dir);
+            Files.writeString(dir.resolve("f" + i + ".txt.filetemplate"), "line " + i + " {{@PH1@}}\r\n", StandardCharsets.UTF_8);
+        }
+
+        int mappingCount = MappedTemplate.mappingCount.get();
+        Path out = tempDir.resolve("out");
+        try (FileTemplateEngine engine = FileTemplateEngine.builder().charset(StandardCharsets.UTF_8).logHandler((level, message) -> { }).build())
+        {
+            FileTemplateResult result = engine.replace(templates, Bindings.of(Map.of("PH1", "äöü")), out);
+            assertTrue(result.isSuccessful(), () -> result.getErrors().toString());
+            assertEquals(TEMPLATE_COUNT, result.getFilesWritten());
+        }
+        assertEquals(mappingCount, MappedTemplate.mappingCount.get());
+
+        for (int i = 0; i < TEMPLATE_COUNT; i += 499)
+        {
+            assertEquals("line " + i + " äöü\r\n", Files.readString(out.resolve("d" + (i % 50)).resolve("f" + i + ".txt"), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void largeTemplateIsMapped() throws Exception
+    {
+        String line = "x".repeat(99) + "\n";
+        String literal = line.repeat(MappedTemplate.MAP_THRESHOLD / line.length() + 1);
+        File template = tempDir.resolve("large.txt.filetemplate").toFile();
+        Files.writeString(template.toPath(), literal + "{{@PH1@}}", StandardCharsets.UTF_8);
+
+        CompiledTemplate compiledTemplate = FileTemplate.callWithLogHandler((level, message) -> { }, () -> CompiledTemplate.compile(template, StandardCharsets.UTF_8));
+        assertTrue(compiledTemplate.isValid());
+        assertTrue(compiledTemplate.content.isDirect());
+        assertEquals(template.length(), compiledTemplate.content.limit());
+    }
+
+    @Test
+    void multiByteCharsetsAreRejected()
+    {
+        for (String name : new String[] { "UTF-8", "US-ASCII", "ISO-8859-1", "ISO-8859-15", "windows-1252" })
+        {
+            assertTrue(FileTemplate.isAsciiCompatible(Charset.forName(name)), name);
+        }
+
+        // "\u500D" is 0x94 0x7B in Shift_JIS, the trail byte is '{'
+        assertEquals(0x7B, "\u500D".getBytes(Charset.forName("Shift_JIS"))[1]);
+        for (String name : new String[] { "Shift_JIS", "windows-31j", "GBK", "GB18030", "Big5", "EUC-JP", "UTF-16", "IBM037" })
+        {
+            assertFalse(FileTemplate.isAsciiCompatible(Charset.forName(name)), name);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> FileTemplateEngine.builder().charset(Charset.forName("Shift_JIS")));
+    }
+}
@@ -0,0 +1,135 @@
+package com.intershop.filetemplate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * PlaceholderScanner muss exakt dieselben Treffer liefern wie die regulären Ausdrücke, die er ersetzt hat.
+ * Die Ausdrücke sind hier unverändert kopiert, damit eine spätere Änderung an FileTemplate den Vergleich nicht mitändert.
+ */
+class PlaceholderScannerTest
+{
+    static final Pattern VALUE_PATTERN = Pattern.compile("\\{\\{@" + "((([^\\{])|(\\{[^\\{])|(\\{\\{[^@]))*?)(\\s*#\\s*base\\s*(\\d+))?" + "@\\}\\}");
+    static final Pattern BEGIN_PATTERN = Pattern.compile("\\{\\{@" + "((([^\\{])|(\\{[^\\{])|(\\{\\{[^@]))*?)\\s*#\\s*BEGIN\\s*" + "@\\}\\}");
+    static final Pattern END_PATTERN   = Pattern.compile("\\{\\{@" + "((([^\\{])|(\\{[^\\{])|(\\{\\{[^@]))*?)\\s*#\\s*END\\s*" + "@\\}\\}");
+
+    // pieces of the placeholder syntax, so that random strings hit its corner cases often
+    static final String[] TOKENS = { "{{@", "@}}", "{", "}", "@", "#", " ", "\t", "base", "BEGIN", "END", "a", "PH1", "0", "01", "x", "{{", "}}", "{@", "@}" };
+
+    @Test
+    void nestedPlaceholderMatchesInner()
+    {
+        assertSameMatches("{{@abc{{@PH1@}}xyz@}}");
+        assertEquals(List.of("6-15 PH1 null"), scannerValueMatches("{{@abc{{@PH1@}}xyz@}}"));
+    }
+
+    @Test
+    void endBeforeBeginMarkerWins()
+    {
+        assertSameMatches("{{@A#END@}} {{@B#BEGIN@}}");
+        assertSameMatches("{{@B#BEGIN@}} {{@A#END@}}");
+        assertEquals("END 14-25 A", scannerSectionMarker("{{@B#BEGIN@}} {{@A#END@}}"));
+    }
+
+    @Test
+    void fixedCases()
+    {
+        String[] lines =
+        {
+            "", "plain text", "{{@PH1@}}", " {{@PH1@}} and {{@PH2@}} ", "{{@PH1#base 001@}}", "{{@PH1 # base  12 @}}", "{{@PH1#base@}}",
+            "{{@PH1#basex1@}}", "{{@@}}", "{{@{{@}}", "{{{@A@}}", "{{@A@}}}", "{{@A", "A@}}", "{{@A#BEGIN@}}", "  {{@A # BEGIN @}}  ",
+            "{{@A# END @}}", "{{@A#BEGIN@}}{{@A#END@}}", "{{@A#BEGIN#END@}}", "{{@{{@A#END@}}", "{{@a{b@}}", "{{@a{{b@}}", "{{@a#base 1#END@}}",
+        };
+        for (String line : lines)
+        {
+            assertSameMatches(line);
+        }
+    }
+
+    @Test
+    void randomStrings()
+    {
+        Random random = new Random(4711);
+        for (int i = 0; i < 100000; i++)
+        {
+            StringBuilder line = new StringBuilder();
+            for (int tokens = random.nextInt(24); tokens > 0; tokens--)
+            {
+                line.append(TOKENS[random.nextInt(TOKENS.length)]);
+            }
+            assertSameMatches(line.toString());
+        }
+    }
+
+    static void assertSameMatches(String line)
+    {
+        assertEquals(regexValueMatches(line), scannerValueMatches(line), "value placeholders in \"" + line + "\"");
+        assertEquals(regexFirstMatch(BEGIN_PATTERN, line), scannerFirstMatch(line, PlaceholderScanner.KIND_BEGIN), "BEGIN in \"" + line + "\"");
+        assertEquals(regexFirstMatch(END_PATTERN, line), scannerFirstMatch(line, PlaceholderScanner.KIND_END), "END in \"" + line + "\"");
+        assertEquals(regexSectionMarker(line), scannerSectionMarker(line), "section marker in \"" + line + "\"");
+    }
+
+    static List<String> regexValueMatches(String line)
+    {
+        List<String> matches = new ArrayList<String>();
+        Matcher matcher = VALUE_PATTERN.matcher(line);
+        while (matcher.find())
+        {
+            matches.add(matcher.start() + "-" + matcher.end() + " " + matcher.group(1) + " " + matcher.group(7));
+        }
+        return matches;
+    }
+
+    static List<String> scannerValueMatches(String line)
+    {
+        List<String> matches = new ArrayList<String>();
+        PlaceholderScanner scanner = new PlaceholderScanner();
+        for (int from = 0; scanner.find(line, from, PlaceholderScanner.KIND_VALUE); from = scanner.end)
+        {
+            matches.add(scanner.start + "-" + scanner.end + " " + scanner.getPlaceholder(line) + " " + scanner.getBaseNumber(line));
+        }
+        return matches;
+    }
+
+    static String regexFirstMatch(Pattern pattern, String line)
+    {
+        Matcher matcher = pattern.matcher(line);
+        return matcher.find() ? matcher.start() + "-" + matcher.end() + " " + matcher.group(1) : null;
+    }
+
+    static String scannerFirstMatch(String line, int kind)
+    {
+        PlaceholderScanner scanner = new PlaceholderScanner();
+        return scanner.find(line, 0, kind) ? scanner.start + "-" + scanner.end + " " + scanner.getPlaceholder(line) : null;
+    }
+
+    // like CompiledTemplate: a line is an END line before it is a BEGIN line
+    static String regexSectionMarker(String line)
+    {
+        String end = regexFirstMatch(END_PATTERN, line);
+        if (end != null)
+        {
+            return "END " + end;
+        }
+        String begin = regexFirstMatch(BEGIN_PATTERN, line);
+        return begin != null ? "BEGIN " + begin : "NONE";
+    }
+
+    static String scannerSectionMarker(String line)
+    {
+        PlaceholderScanner scanner = new PlaceholderScanner();
+        int kind = scanner.findSectionMarker(line);
+        if (kind == PlaceholderScanner.KIND_NONE)
+        {
+            return "NONE";
+        }
+        return (kind == PlaceholderScanner.KIND_END ? "END " : "BEGIN ") + scanner.start + "-" + scanner.end + " " + scanner.getPlaceholder(line);
+    }
+}
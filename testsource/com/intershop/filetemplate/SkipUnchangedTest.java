@@ -0,0 +1,63 @@
+package com.intershop.filetemplate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Mit --skip-unchanged wird ein vorhandenes erzeugtes Verzeichnis behalten und darin aktualisiert:
+ * geänderte Dateien werden neu geschrieben, unveränderte bleiben samt Änderungszeit erhalten.
+ */
+class SkipUnchangedTest
+{
+    static final FileTime OLD_TIME = FileTime.fromMillis(1000000000000L);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void existingDirectoryExpansionIsUpdated() throws Exception
+    {
+        Path templates = tempDir.resolve("templates");
+        Path templateDir = templates.resolve("d_{{@A@}}.filetemplate");
+        Files.createDirectories(templateDir.resolve("sub"));
+        Files.writeString(templateDir.resolve("f_{{@A@}}.txt.filetemplate"), "{{@A@}} v1\n");
+        Files.writeString(templateDir.resolve("sub").resolve("same.txt.filetemplate"), "same {{@A@}}\n");
+        Files.writeString(templateDir.resolve("plain.txt"), "plain\n");
+
+        Path out = tempDir.resolve("out");
+        Bindings bindings = Bindings.of(Map.of("A", "[a, b]"));
+        replace(templates, bindings, out);
+        assertEquals("a v1\n", Files.readString(out.resolve("d_a").resolve("f_a.txt")));
+
+        Path same = out.resolve("d_a").resolve("sub").resolve("same.txt");
+        Path plain = out.resolve("d_a").resolve("plain.txt");
+        Files.setLastModifiedTime(same, OLD_TIME);
+        Files.setLastModifiedTime(plain, OLD_TIME);
+
+        Files.writeString(templateDir.resolve("f_{{@A@}}.txt.filetemplate"), "{{@A@}} v2\n");
+        replace(templates, bindings, out);
+
+        assertEquals("a v2\n", Files.readString(out.resolve("d_a").resolve("f_a.txt")));
+        assertEquals("b v2\n", Files.readString(out.resolve("d_b").resolve("f_b.txt")));
+        assertEquals("same a\n", Files.readString(same));
+        assertEquals(OLD_TIME, Files.getLastModifiedTime(same));
+        assertEquals(OLD_TIME, Files.getLastModifiedTime(plain));
+    }
+
+    static void replace(Path templates, Bindings bindings, Path out) throws FileTemplateException
+    {
+        try (FileTemplateEngine engine = FileTemplateEngine.builder().skipUnchanged(true).logHandler((level, message) -> { }).build())
+        {
+            FileTemplateResult result = engine.replace(templates, bindings, out);
+            assertTrue(result.isSuccessful(), () -> result.getErrors().toString());
+        }
+    }
+}
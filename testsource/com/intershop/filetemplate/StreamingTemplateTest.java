@@ -0,0 +1,115 @@
+package com.intershop.filetemplate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * StreamingTemplate liest in Blöcken von CHUNK_SIZE Zeichen und muss dasselbe ausgeben wie die zeilenweise Verarbeitung,
+ * auch wenn ein Placeholder, ein '{' oder ein "\r\n" über eine Blockgrenze geht.
+ */
+class StreamingTemplateTest
+{
+    static final String[] BOUNDARY_PIECES = { "{{@PH1@}}", "{{@Partner#base 1@}}", "{{@abc{{@PH1@}}xyz@}}", "{{@PH1 # base 01 @}}", "{", "{{", "{{@", "\r\n", "\r", "\n", "{{@PH1@}" };
+
+    // pieces of the placeholder syntax and line ends for random content
+    static final String[] TOKENS = { "{{@", "@}}", "{", "}", "@", "#", " ", "base", "1", "PH1", "Partner", "x", "\n", "\r", "\r\n", "{{@PH1@}}", "{{@Partner#base 01@}}" };
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void piecesAcrossTheChunkBoundary()
+    {
+        for (String piece : BOUNDARY_PIECES)
+        {
+            for (int offset = 0; offset <= piece.length() + 2; offset++)
+            {
+                // the piece starts offset chars before the end of the first chunk
+                StringBuilder content = new StringBuilder();
+                content.append("a line {{@PH1@}}\n");
+                content.append("y".repeat(StreamingTemplate.CHUNK_SIZE - content.length() - offset));
+                content.append(piece).append(" tail {{@Partner@}}\nlast line without line end {{@PH1@}}");
+                assertSameOutput(content.toString());
+            }
+        }
+    }
+
+    @Test
+    void randomContent()
+    {
+        Random random = new Random(4711);
+        for (int i = 0; i < 20; i++)
+        {
+            StringBuilder content = new StringBuilder();
+            while (content.length() < 3 * StreamingTemplate.CHUNK_SIZE)
+            {
+                content.append(TOKENS[random.nextInt(TOKENS.length)]);
+            }
+            assertSameOutput(content.toString());
+        }
+    }
+
+    void assertSameOutput(String content)
+    {
+        Map<String /* placeholder */, PlaceholderDefinition> placeholdersWithValues = new LinkedHashMap<String /* placeholder */, PlaceholderDefinition>();
+        Map<String /* placeholder */, String /* placeholder value */> currentPlaceholderValues = new HashMap<String /* placeholder */, String /* placeholder value */>();
+
+        // the messages of defining the placeholders are of no interest here
+        FileTemplate.runWithLogHandler((level, message) -> { }, () ->
+        {
+            placeholdersWithValues.put("PH1", new PlaceholderDefinition("PH1", "one"));
+            placeholdersWithValues.put("Partner", new PlaceholderDefinition("Partner", "[Miller, Jones]"));
+            currentPlaceholderValues.put("Partner", "Jones");
+
+            // every other name the random content happens to form gets a single value, only the chunking is compared here
+            PlaceholderScanner placeholderScanner = new PlaceholderScanner();
+            for (String line : content.split("\r\n|\r|\n"))
+            {
+                for (int from = 0; placeholderScanner.find(line, from, PlaceholderScanner.KIND_VALUE); from = placeholderScanner.end)
+                {
+                    String placeholder = placeholderScanner.getPlaceholder(line);
+                    placeholdersWithValues.putIfAbsent(placeholder, new PlaceholderDefinition(placeholder, "v"));
+                }
+            }
+
+            try
+            {
+                File template = new File(tempDir, "template.txt");
+                Files.writeString(template.toPath(), content);
+
+                StringWriter expected = new StringWriter();
+                try (BufferedReader reader = new BufferedReader(new FileReader(template)))
+                {
+                    for (String line = reader.readLine(); line != null; line = reader.readLine())
+                    {
+                        expected.write(FileTemplate.replaceAllOccurrencesInString(line, placeholdersWithValues, currentPlaceholderValues));
+                        expected.write(System.lineSeparator());
+                    }
+                }
+
+                StringWriter streamed = new StringWriter();
+                StreamingTemplate.render(template, streamed, placeholdersWithValues, currentPlaceholderValues);
+
+                assertEquals(expected.toString(), streamed.toString());
+            }
+            catch (IOException exIO)
+            {
+                throw new UncheckedIOException(exIO);
+            }
+        });
+    }
+}